@@ -0,0 +1,484 @@
+package net.i2p.i2ptunnel;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.I2PAppContext;
+import net.i2p.util.I2PAppThread;
+import net.i2p.util.Log;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Forwards between the local sockets and the I2PSockets of many
+ *  I2PTunnelRunners on a few threads, instead of two threads per connection.
+ *
+ *  Each loop has two threads, one selecting on the local SocketChannels
+ *  with a JDK Selector, and one selecting on the streaming SocketChannels
+ *  with a streaming Selector, as the two can't be mixed.
+ *  Whichever thread finds a connection ready copies what it can in both directions.
+ *
+ *  The copies go through direct buffers from a shared pool.
+ *  A connection only holds a buffer while there's data in it,
+ *  so an idle connection costs little more than its two keys.
+ *
+ *  As in the threaded runner, EOF from the local socket closes the
+ *  I2P output after the data is written, and EOF from I2P closes both sockets.
+ *
+ *  Shared by all tunnels, see TunnelControllerGroup.getEventLoop().
+ *  Enabled per-tunnel with I2PTunnelServer.PROP_USE_EVENT_LOOP.
+ *
+ *  @since 0.9.59
+ */
+class EventLoopForwarder {
+    private final Log _log;
+    private final Loop[] _loops;
+    private final AtomicInteger _next = new AtomicInteger();
+    private final ConcurrentLinkedQueue<ByteBuffer> _pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _pooled = new AtomicInteger();
+    private volatile boolean _running = true;
+
+    /** number of loops, two threads each */
+    public static final String PROP_LOOPS = "i2ptunnel.eventLoops";
+    static final int BUFFER_SIZE = 16*1024;
+    private static final int MAX_POOLED = 256;
+    /** read/write rounds per direction per wakeup, for fairness */
+    private static final int MAX_ROUNDS = 4;
+    /** how often to check for idle timeouts */
+    private static final long SWEEP_TIME = 10*1000;
+
+    /**
+     *  Starts the local threads.
+     *  The I2P threads are started on the first connection.
+     */
+    public EventLoopForwarder(I2PAppContext ctx) throws IOException {
+        _log = ctx.logManager().getLog(EventLoopForwarder.class);
+        int loops = ctx.getProperty(PROP_LOOPS, Math.min(4, SystemVersion.getCores()));
+        _loops = new Loop[Math.max(1, loops)];
+        try {
+            for (int i = 0; i < _loops.length; i++) {
+                _loops[i] = new Loop(i + 1);
+            }
+        } catch (IOException ioe) {
+            shutdown();
+            throw ioe;
+        }
+    }
+
+    /**
+     *  Take over the forwarding for a runner.
+     *  Both channels are put in non-blocking mode.
+     *  When done, closes nothing, but calls runner.forwardingDone().
+     *
+     *  @param local connected
+     *  @param i2p connected, from I2PSocket.getChannel()
+     *  @param timeout idle timeout in ms, or &lt;= 0 for none
+     *  @throws IOException if the I2P channel can't be selected, or if shut down
+     */
+    public void forward(I2PTunnelRunner runner, SocketChannel local, SocketChannel i2p, long timeout) throws IOException {
+        if (!_running)
+            throw new IOException("Event loop stopped");
+        Loop loop = _loops[(_next.getAndIncrement() & Integer.MAX_VALUE) % _loops.length];
+        loop.add(new Pipe(runner, loop, local, i2p, timeout));
+    }
+
+    /**
+     *  Stops the threads and closes the selectors.
+     *  Connections in progress are ended, and their runners close the sockets.
+     */
+    public void shutdown() {
+        _running = false;
+        for (int i = 0; i < _loops.length; i++) {
+            if (_loops[i] != null)
+                _loops[i].close();
+        }
+        _pool.clear();
+    }
+
+    /**
+     *  @return the number of connections being forwarded
+     */
+    public int getConnectionCount() {
+        int rv = 0;
+        for (int i = 0; i < _loops.length; i++) {
+            rv += _loops[i]._pipes.size();
+        }
+        return rv;
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer rv = _pool.poll();
+        if (rv == null)
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        _pooled.decrementAndGet();
+        return rv;
+    }
+
+    private void release(ByteBuffer buf) {
+        if (_pooled.incrementAndGet() <= MAX_POOLED) {
+            buf.clear();
+            _pool.offer(buf);
+        } else {
+            _pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     *  One local thread and one I2P thread
+     */
+    private class Loop {
+        private final int _id;
+        private final Selector _localSelector;
+        private final Thread _localThread;
+        private Selector _i2pSelector;
+        private Thread _i2pThread;
+        /** waiting for the local key to be registered */
+        private final ConcurrentLinkedQueue<Pipe> _newPipes = new ConcurrentLinkedQueue<Pipe>();
+        private final Set<Pipe> _pipes = Collections.newSetFromMap(new ConcurrentHashMap<Pipe, Boolean>());
+        private boolean _closed;
+
+        public Loop(int id) throws IOException {
+            _id = id;
+            _localSelector = Selector.open();
+            _localThread = new I2PAppThread(new LocalRunner(), "I2PTunnel EventLoop " + id + " local", true);
+            _localThread.start();
+        }
+
+        /**
+         *  The I2P key is registered here, the local key in the local thread,
+         *  as a JDK selector blocks registration while selecting.
+         *
+         *  @throws IOException if closed
+         */
+        public synchronized void add(Pipe pipe) throws IOException {
+            if (_closed)
+                throw new IOException("Event loop stopped");
+            Selector sel = getI2PSelector(pipe._i2p.provider());
+            pipe._local.configureBlocking(false);
+            pipe._i2p.configureBlocking(false);
+            synchronized (pipe) {
+                pipe._i2pKey = pipe._i2p.register(sel, 0, pipe);
+            }
+            _pipes.add(pipe);
+            _newPipes.offer(pipe);
+            _localSelector.wakeup();
+        }
+
+        /**
+         *  All the I2P channels have the same provider,
+         *  so open the selector and start the thread on the first one.
+         */
+        private synchronized Selector getI2PSelector(SelectorProvider provider) throws IOException {
+            if (_i2pSelector == null) {
+                _i2pSelector = provider.openSelector();
+                _i2pThread = new I2PAppThread(new I2PRunner(), "I2PTunnel EventLoop " + _id + " I2P", true);
+                _i2pThread.start();
+            } else if (_i2pSelector.provider() != provider) {
+                throw new IOException("Unsupported channel provider " + provider);
+            }
+            return _i2pSelector;
+        }
+
+        /**
+         *  Closes the selectors, and ends the connections in progress,
+         *  so the runners close the sockets.
+         */
+        public synchronized void close() {
+            _closed = true;
+            try {
+                _localSelector.close();
+            } catch (IOException ioe) {}
+            if (_i2pSelector != null) {
+                try {
+                    _i2pSelector.close();
+                } catch (IOException ioe) {}
+            }
+            // this includes those in _newPipes
+            for (Pipe pipe : _pipes) {
+                pipe.abort();
+            }
+            _pipes.clear();
+            _newPipes.clear();
+        }
+
+        /**
+         *  Wake the local thread if we aren't it, so it picks up
+         *  a change in interest, or deregisters a closed channel.
+         */
+        void wakeupLocal() {
+            if (Thread.currentThread() != _localThread)
+                _localSelector.wakeup();
+        }
+
+        private class LocalRunner implements Runnable {
+            public void run() {
+                long lastSweep = System.currentTimeMillis();
+                while (_running) {
+                    try {
+                        Pipe pipe;
+                        while ((pipe = _newPipes.poll()) != null) {
+                            pipe.registerLocal(_localSelector);
+                        }
+                        _localSelector.select(SWEEP_TIME);
+                        process(_localSelector);
+                        long now = System.currentTimeMillis();
+                        if (now - lastSweep >= SWEEP_TIME) {
+                            for (Pipe p : _pipes) {
+                                p.checkTimeout(now);
+                            }
+                            lastSweep = now;
+                        }
+                    } catch (ClosedSelectorException cse) {
+                        break;
+                    } catch (IOException ioe) {
+                        if (_running)
+                            _log.error("Error in event loop", ioe);
+                    }
+                }
+            }
+        }
+
+        private class I2PRunner implements Runnable {
+            public void run() {
+                while (_running) {
+                    try {
+                        _i2pSelector.select(SWEEP_TIME);
+                        process(_i2pSelector);
+                    } catch (ClosedSelectorException cse) {
+                        break;
+                    } catch (IOException ioe) {
+                        if (_running)
+                            _log.error("Error in event loop", ioe);
+                    }
+                }
+            }
+        }
+
+        private void process(Selector selector) {
+            for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                ((Pipe) key.attachment()).pump();
+            }
+        }
+    }
+
+    /**
+     *  The two directions for one runner
+     */
+    private class Pipe {
+        private final I2PTunnelRunner _runner;
+        private final Loop _loop;
+        private final SocketChannel _local, _i2p;
+        private final long _timeout;
+        private final Direction _toI2P, _fromI2P;
+        private SelectionKey _localKey, _i2pKey;
+        private boolean _i2pShut, _done;
+        private volatile long _lastActivity;
+
+        public Pipe(I2PTunnelRunner runner, Loop loop, SocketChannel local, SocketChannel i2p, long timeout) {
+            _runner = runner;
+            _loop = loop;
+            _local = local;
+            _i2p = i2p;
+            _timeout = timeout;
+            _toI2P = new Direction(local, i2p);
+            _fromI2P = new Direction(i2p, local);
+            _lastActivity = System.currentTimeMillis();
+        }
+
+        /** local thread only */
+        public synchronized void registerLocal(Selector selector) {
+            if (_done)
+                return;
+            try {
+                _localKey = _local.register(selector, 0, this);
+            } catch (IOException ioe) {
+                finish(ioe, null);
+                return;
+            }
+            pump();
+        }
+
+        /** local thread only */
+        public synchronized void checkTimeout(long now) {
+            if (_timeout > 0 && !_done && now - _lastActivity > _timeout)
+                finish(null, new SocketTimeoutException("Idle timeout"));
+        }
+
+        /**
+         *  End it, if not already done, for close().
+         *  Any thread.
+         */
+        public synchronized void abort() {
+            if (!_done)
+                finish(null, new IOException("Event loop stopped"));
+        }
+
+        /**
+         *  Copy what we can both ways, then update the interest ops.
+         *  Either thread.
+         */
+        public synchronized void pump() {
+            if (_done || _localKey == null)
+                return;
+            try {
+                int moved = _toI2P.pump(true) + _fromI2P.pump(false);
+                if (moved > 0)
+                    _lastActivity = System.currentTimeMillis();
+                IOException localFailure = _toI2P._readFailure;
+                if (localFailure == null)
+                    localFailure = _fromI2P._writeFailure;
+                IOException i2pFailure = _fromI2P._readFailure;
+                if (i2pFailure == null)
+                    i2pFailure = _toI2P._writeFailure;
+                if (localFailure == null && i2pFailure == null) {
+                    if (_toI2P.isDrained() && !_i2pShut) {
+                        _i2pShut = true;
+                        try {
+                            _i2p.shutdownOutput();
+                        } catch (IOException ioe) {
+                            i2pFailure = ioe;
+                        }
+                    }
+                    if (i2pFailure == null && !_fromI2P.isDrained()) {
+                        setInterest(_localKey, _toI2P.readOps() | _fromI2P.writeOps());
+                        setInterest(_i2pKey, _fromI2P.readOps() | _toI2P.writeOps());
+                        return;
+                    }
+                }
+                finish(localFailure, i2pFailure);
+            } catch (RuntimeException re) {
+                _log.error("Error in event loop", re);
+                finish(null, null);
+            }
+        }
+
+        private void setInterest(SelectionKey key, int ops) {
+            if (key.interestOps() == ops)
+                return;
+            key.interestOps(ops);
+            if (key == _localKey)
+                _loop.wakeupLocal();
+        }
+
+        /**
+         *  Cancel the keys and let the runner close the sockets.
+         *
+         *  @param localFailure may be null
+         *  @param i2pFailure may be null
+         */
+        private void finish(IOException localFailure, IOException i2pFailure) {
+            _done = true;
+            if (_localKey != null)
+                _localKey.cancel();
+            if (_i2pKey != null)
+                _i2pKey.cancel();
+            _toI2P.releaseBuffer();
+            _fromI2P.releaseBuffer();
+            _loop._pipes.remove(this);
+            _runner.forwardingDone(localFailure, i2pFailure);
+            _loop.wakeupLocal();
+        }
+
+        /**
+         *  One way
+         */
+        private class Direction {
+            private final SocketChannel _from, _to;
+            private ByteBuffer _buf;
+            private boolean _eof;
+            private IOException _readFailure, _writeFailure;
+
+            public Direction(SocketChannel from, SocketChannel to) {
+                _from = from;
+                _to = to;
+            }
+
+            /**
+             *  Read and write until one would block, or MAX_ROUNDS.
+             *  Sets _readFailure or _writeFailure on error.
+             *
+             *  @return bytes written
+             */
+            public int pump(boolean toI2P) {
+                int rv = 0;
+                for (int i = 0; i < MAX_ROUNDS; i++) {
+                    int read = 0;
+                    if (!_eof) {
+                        if (_buf == null)
+                            _buf = acquire();
+                        if (_buf.hasRemaining()) {
+                            try {
+                                read = _from.read(_buf);
+                            } catch (IOException ioe) {
+                                _readFailure = ioe;
+                                break;
+                            }
+                            if (read < 0) {
+                                _eof = true;
+                                read = 0;
+                            }
+                        }
+                    }
+                    if (_buf == null)
+                        break;
+                    int written = 0;
+                    if (_buf.position() > 0) {
+                        _buf.flip();
+                        try {
+                            written = _to.write(_buf);
+                        } catch (IOException ioe) {
+                            _writeFailure = ioe;
+                            break;
+                        } finally {
+                            _buf.compact();
+                        }
+                        if (written > 0) {
+                            rv += written;
+                            _runner.forwarded(toI2P, written);
+                        }
+                    }
+                    if (_buf.position() == 0)
+                        releaseBuffer();
+                    if (read == 0 || written == 0)
+                        break;
+                }
+                return rv;
+            }
+
+            /** while we can hold more */
+            public int readOps() {
+                return (_eof || (_buf != null && !_buf.hasRemaining())) ? 0 : SelectionKey.OP_READ;
+            }
+
+            /** while we have something to write */
+            public int writeOps() {
+                return (_buf != null && _buf.position() > 0) ? SelectionKey.OP_WRITE : 0;
+            }
+
+            /** EOF and everything written */
+            public boolean isDrained() {
+                return _eof && _buf == null;
+            }
+
+            public void releaseBuffer() {
+                if (_buf != null) {
+                    release(_buf);
+                    _buf = null;
+                }
+            }
+        }
+    }
+}
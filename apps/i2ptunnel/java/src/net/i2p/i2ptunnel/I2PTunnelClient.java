@@ -142,6 +142,7 @@ public class I2PTunnelClient extends I2PTunnelClientBase {
     
     protected void clientConnectionRun(Socket s) {
         I2PSocket i2ps = null;
+        boolean handedOff = false;
         try {
             I2PSocketAddress addr = pickDestination();
             if (addr == null)
@@ -154,9 +155,11 @@ public class I2PTunnelClient extends I2PTunnelClientBase {
             i2ps.setReadTimeout(readTimeout);
             I2PTunnelRunner t = new I2PTunnelRunner(s, i2ps, sockLock, null, null, mySockets,
                                 (I2PTunnelRunner.FailCallback) null);
+            t.setEventLoop(_eventLoop);
             // we are called from an unlimited thread pool, so run inline
             //t.start();
             t.run();
+            handedOff = t.isHandedOff();
         } catch (IOException ex) {
             if (_log.shouldLog(Log.INFO))
                 _log.info("Error connecting", ex);
@@ -165,11 +168,14 @@ public class I2PTunnelClient extends I2PTunnelClientBase {
                 _log.info("Error connecting", ex);
         } finally {
             // only because we are running it inline
-            closeSocket(s);
-            if (i2ps != null) {
-                try { i2ps.close(); } catch (IOException ioe) {}
-                synchronized (sockLock) {
-                    mySockets.remove(i2ps);
+            // if handed off, the event loop closes them when done
+            if (!handedOff) {
+                closeSocket(s);
+                if (i2ps != null) {
+                    try { i2ps.close(); } catch (IOException ioe) {}
+                    synchronized (sockLock) {
+                        mySockets.remove(i2ps);
+                    }
                 }
             }
         }
@@ -9,10 +9,12 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NoRouteToHostException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -82,6 +84,8 @@ public abstract class I2PTunnelClientBase extends I2PTunnelTask implements Runna
     private boolean chained;
 
     private volatile ThreadPoolExecutor _executor;
+    /** null unless PROP_USE_EVENT_LOOP is set @since 0.9.59 */
+    volatile EventLoopForwarder _eventLoop;
 
     /** this is ONLY for shared clients */
     private static I2PSocketManager socketManager;
@@ -94,6 +98,8 @@ public abstract class I2PTunnelClientBase extends I2PTunnelTask implements Runna
     private static SocketManagerState _socketManagerState = SocketManagerState.INIT;
 
     public static final String PROP_USE_SSL = I2PTunnelServer.PROP_USE_SSL;
+    /** @since 0.9.59 */
+    public static final String PROP_USE_EVENT_LOOP = I2PTunnelServer.PROP_USE_EVENT_LOOP;
 
     /**
      * This constructor is used to add a client to an existing socket manager.
@@ -766,7 +772,16 @@ public abstract class I2PTunnelClientBase extends I2PTunnelTask implements Runna
                 ss = fact.createServerSocket(localPort, 0, addr);
                 I2PSSLSocketFactory.setProtocolsAndCiphers((SSLServerSocket) ss);
             } else {
-                ss = new ServerSocket(localPort, 0, addr);
+                TunnelControllerGroup tcg = TunnelControllerGroup.getInstance();
+                if (tcg != null && Boolean.parseBoolean(opts.getProperty(PROP_USE_EVENT_LOOP)))
+                    _eventLoop = tcg.getEventLoop();
+                if (_eventLoop != null) {
+                    // so the accepted sockets have channels
+                    ss = ServerSocketChannel.open().socket();
+                    ss.bind(new InetSocketAddress(addr, localPort), 0);
+                } else {
+                    ss = new ServerSocket(localPort, 0, addr);
+                }
             }
 
             // If a free port was requested, find out what we got
@@ -306,8 +306,9 @@ public class I2PTunnelHTTPServer extends I2PTunnelServer {
                     return;
                 }
                 Socket s = getSocket(socket.getPeerDestination().calculateHash(), 443);
-                Runnable t = new I2PTunnelRunner(s, socket, slock, null, null,
-                                                 null, (I2PTunnelRunner.FailCallback) null);
+                I2PTunnelRunner t = new I2PTunnelRunner(s, socket, slock, null, null,
+                                                         null, (I2PTunnelRunner.FailCallback) null);
+                t.setEventLoop(_eventLoop);
                 _clientExecutor.execute(t);
                 return;
             }
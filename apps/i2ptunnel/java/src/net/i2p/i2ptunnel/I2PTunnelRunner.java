@@ -10,6 +10,8 @@ import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -29,6 +31,9 @@ import net.i2p.util.Log;
 /**
  *  A thread that starts two more threads, one to forward traffic in each direction.
  *
+ *  As of 0.9.59, if an event loop is set, and the sockets support it, it writes any initial data
+ *  and hands off the forwarding to the event loop instead, returning from run() without waiting.
+ *
  *  Warning - not maintained as a stable API for external use.
  */
 public class I2PTunnelRunner extends I2PAppThread implements I2PSocket.SocketErrorListener {
@@ -65,6 +70,8 @@ public class I2PTunnelRunner extends I2PAppThread implements I2PSocket.SocketErr
     private long totalSent;
     // does not include initialSocketData
     private long totalReceived;
+    private EventLoopForwarder _eventLoop;
+    private volatile boolean _handedOff;
 
     /**
      *  For use in new constructor
@@ -249,6 +256,43 @@ public class I2PTunnelRunner extends I2PAppThread implements I2PSocket.SocketErr
         _onSuccess = sc;
     }
 
+    /**
+     *  Forward on this event loop instead of two threads, if possible.
+     *  Must be called before run().
+     *
+     *  Not used for subclasses, as they may override the socket streams,
+     *  or if there are callbacks, as they need the blocking streams,
+     *  or if either socket has no SocketChannel, as for InternalSockets and SSL.
+     *
+     *  @param loop may be null
+     *  @since 0.9.59
+     */
+    void setEventLoop(EventLoopForwarder loop) {
+        _eventLoop = loop;
+    }
+
+    /**
+     *  If true, run() returned after handing off the sockets to the event loop,
+     *  which will close them when done. The caller must not close them.
+     *
+     *  @since 0.9.59
+     */
+    boolean isHandedOff() {
+        return _handedOff;
+    }
+
+    /**
+     *  @since 0.9.59
+     */
+    private boolean canUseEventLoop() throws IOException {
+        if (_eventLoop == null || getClass() != I2PTunnelRunner.class ||
+            onTimeout != null || _onFail != null || _onSuccess != null ||
+            s.getChannel() == null)
+            return false;
+        SelectableChannel ch = i2ps.getChannel();
+        return ch != null && ch instanceof SocketChannel;
+    }
+
     protected InputStream getSocketIn() throws IOException { return s.getInputStream(); }
     protected OutputStream getSocketOut() throws IOException { return s.getOutputStream(); }
     
@@ -303,6 +347,11 @@ public class I2PTunnelRunner extends I2PAppThread implements I2PSocket.SocketErr
                 _log.debug("Initial data " + (initialI2PData != null ? initialI2PData.length : 0) 
                            + " written to I2P, " + (initialSocketData != null ? initialSocketData.length : 0)
                            + " written to the socket, starting forwarders");
+            if (canUseEventLoop()) {
+                _eventLoop.forward(this, s.getChannel(), (SocketChannel) i2ps.getChannel(), i2ps.getReadTimeout());
+                _handedOff = true;
+                return;
+            }
             if (!(s instanceof InternalSocket))
                 in = new BufferedInputStream(in, 2*NETWORK_BUFFER_SIZE);
             toI2P = new StreamForwarder(in, i2pout, true, null);
@@ -388,34 +437,101 @@ public class I2PTunnelRunner extends I2PAppThread implements I2PSocket.SocketErr
             if (_log.shouldLog(Log.ERROR))
                 _log.error("Internal error", e);
         } finally {
-            removeRef();
-            if (i2pReset) {
-                if (_log.shouldWarn())
-                    _log.warn("Got I2P reset, resetting socket");
-                try { 
-                    s.setSoLinger(true, 0);
-                } catch (IOException ioe) {}
-                try { 
-                    s.close();
-                } catch (IOException ioe) {}
-                try { 
-                    i2ps.close();
-                } catch (IOException ioe) {}
-            } else if (sockReset) {
-                if (_log.shouldWarn())
-                    _log.warn("Got socket reset, resetting I2P socket");
-                try { 
-                    i2ps.reset();
-                } catch (IOException ioe) {}
-                try { 
-                    s.close();
-                } catch (IOException ioe) {}
-            } else {
-                // now one connection is dead - kill the other as well, after making sure we flush
-                try {
-                    close(out, in, i2pout, i2pin, s, i2ps, toI2P, fromI2P);
-                } catch (InterruptedException ie) {}
-            }
+            if (!_handedOff)
+                finish(i2pReset, sockReset, out, in, i2pout, i2pin, toI2P, fromI2P);
+        }
+    }
+
+    /**
+     *  Called by the event loop after it's done forwarding.
+     *  Closes both sockets, propagating a reset on one side to the other.
+     *
+     *  @param localFailure may be null
+     *  @param i2pFailure may be null
+     *  @since 0.9.59
+     */
+    void forwardingDone(Exception localFailure, Exception i2pFailure) {
+        if (_log.shouldLog(Log.DEBUG))
+            _log.debug("Event loop completed, sent: " + totalSent + " received: " + totalReceived);
+        boolean i2pReset = false;
+        boolean sockReset = false;
+        // the channel's read() throws it as the cause, write() throws it
+        Throwable c = i2pFailure instanceof I2PSocketException ? i2pFailure
+                      : i2pFailure != null ? i2pFailure.getCause() : null;
+        if (c != null && c instanceof I2PSocketException) {
+            I2PSocketException ise = (I2PSocketException) c;
+            i2pReset = ise.getStatus() == I2PSocketException.STATUS_CONNECTION_RESET;
+        }
+        if (!i2pReset && localFailure != null) {
+            // the channels throw an IOException, not a SocketException
+            String msg = localFailure.getMessage();
+            sockReset = msg != null && msg.contains("reset");
+        }
+        if (i2pFailure != null && !i2pReset && _log.shouldLog(Log.WARN))
+            _log.warn("fromI2P: IOE - error forwarding", i2pFailure);
+        else if (localFailure != null && !sockReset && _log.shouldLog(Log.DEBUG))
+            _log.debug("IOE - error forwarding", localFailure);
+        try {
+            finish(i2pReset, sockReset, null, null, null, null, null, null);
+        } catch (RuntimeException e) {
+            if (_log.shouldLog(Log.ERROR))
+                _log.error("Internal error", e);
+        }
+    }
+
+    /**
+     *  Update the totals, for the event loop
+     *
+     *  @since 0.9.59
+     */
+    void forwarded(boolean toI2P, int len) {
+        if (toI2P)
+            totalSent += len;
+        else
+            totalReceived += len;
+    }
+
+    /**
+     *  Remove from the list, and close both sockets
+     *
+     *  @param out may be null
+     *  @param in may be null
+     *  @param i2pout may be null
+     *  @param i2pin may be null
+     *  @param t1 may be null
+     *  @param t2 may be null
+     *  @since 0.9.59 moved from run()
+     */
+    private void finish(boolean i2pReset, boolean sockReset,
+                        OutputStream out, InputStream in, OutputStream i2pout, InputStream i2pin,
+                        Thread t1, Thread t2) {
+        removeRef();
+        if (i2pReset) {
+            if (_log.shouldWarn())
+                _log.warn("Got I2P reset, resetting socket");
+            try { 
+                s.setSoLinger(true, 0);
+            } catch (IOException ioe) {}
+            try { 
+                s.close();
+            } catch (IOException ioe) {}
+            try { 
+                i2ps.close();
+            } catch (IOException ioe) {}
+        } else if (sockReset) {
+            if (_log.shouldWarn())
+                _log.warn("Got socket reset, resetting I2P socket");
+            try { 
+                i2ps.reset();
+            } catch (IOException ioe) {}
+            try { 
+                s.close();
+            } catch (IOException ioe) {}
+        } else {
+            // now one connection is dead - kill the other as well, after making sure we flush
+            try {
+                close(out, in, i2pout, i2pin, s, i2ps, t1, t2);
+            } catch (InterruptedException ie) {}
         }
     }
     
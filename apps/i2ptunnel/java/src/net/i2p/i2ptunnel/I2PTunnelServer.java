@@ -17,6 +17,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +80,14 @@ public class I2PTunnelServer extends I2PTunnelTask implements Runnable {
     public static final String PROP_UNIQUE_LOCAL = "enableUniqueLocal";
     /** @since 0.9.30 */
     public static final String PROP_ALT_PKF = "altPrivKeyFile";
+    /**
+     *  Forward on the shared event loop instead of two threads per connection.
+     *  Used by the standard server, the HTTP server for port 443 only,
+     *  and the standard client. Others ignore it, as they filter the data.
+     *  Not for SSL. Default false.
+     *  @since 0.9.59
+     */
+    public static final String PROP_USE_EVENT_LOOP = "i2ptunnel.useEventLoop";
     /** apparently unused */
     protected static volatile long __serverId = 0;
     /** max number of threads  - this many slowlorisses will DOS this server, but too high could OOM the JVM */
@@ -93,6 +102,8 @@ public class I2PTunnelServer extends I2PTunnelTask implements Runnable {
     protected boolean bidir;
     private ThreadPoolExecutor _executor;
     protected volatile ThreadPoolExecutor _clientExecutor;
+    /** null unless PROP_USE_EVENT_LOOP is set @since 0.9.59 */
+    volatile EventLoopForwarder _eventLoop;
     private final Map<Integer, InetSocketAddress> _socketMap = new ConcurrentHashMap<Integer, InetSocketAddress>(4);
 
     /** unused? port should always be specified */
@@ -641,6 +652,8 @@ public class I2PTunnelServer extends I2PTunnelTask implements Runnable {
             // Never shut down.
             _clientExecutor = new TunnelControllerGroup.CustomThreadPoolExecutor();
         }
+        if (tcg != null && Boolean.parseBoolean(getTunnel().getClientOptions().getProperty(PROP_USE_EVENT_LOOP)))
+            _eventLoop = tcg.getEventLoop();
         I2PSocket i2ps = null;
         while (open) {
             try {
@@ -790,8 +803,9 @@ public class I2PTunnelServer extends I2PTunnelTask implements Runnable {
             socket.setReadTimeout(readTimeout);
             Socket s = getSocket(socket.getPeerDestination().calculateHash(), socket.getLocalPort());
             afterSocket = getTunnel().getContext().clock().now();
-            Thread t = new I2PTunnelRunner(s, socket, slock, null, null,
-                                           null, (I2PTunnelRunner.FailCallback) null);
+            I2PTunnelRunner t = new I2PTunnelRunner(s, socket, slock, null, null,
+                                                    null, (I2PTunnelRunner.FailCallback) null);
+            t.setEventLoop(_eventLoop);
             // run in the unlimited client pool
             //t.start();
             _clientExecutor.execute(t);
@@ -886,13 +900,37 @@ public class I2PTunnelServer extends I2PTunnelTask implements Runnable {
                     System.arraycopy(from.getData(), 0, addr, 1, 15);
                 }
                 InetAddress local = InetAddress.getByAddress(addr);
+                if (_eventLoop != null)
+                    return getChannelSocket(remoteHost, remotePort, local);
                 // Javadocs say local port of 0 allowed in Java 7.
                 // Not clear if supported in Java 6 or not.
                 return new Socket(remoteHost, remotePort, local, 0);
             } else {
+                if (_eventLoop != null)
+                    return getChannelSocket(remoteHost, remotePort, null);
                 return new Socket(remoteHost, remotePort);
             }
         }
     }
+
+    /**
+     *  A socket with a SocketChannel, for the event loop.
+     *  Blocking, as the runner writes any initial data first.
+     *
+     *  @param local may be null
+     *  @since 0.9.59
+     */
+    private static Socket getChannelSocket(InetAddress remoteHost, int remotePort, InetAddress local) throws IOException {
+        SocketChannel ch = SocketChannel.open();
+        try {
+            if (local != null)
+                ch.bind(new InetSocketAddress(local, 0));
+            ch.connect(new InetSocketAddress(remoteHost, remotePort));
+        } catch (IOException ioe) {
+            try { ch.close(); } catch (IOException e) {}
+            throw ioe;
+        }
+        return ch.socket();
+    }
 }
 
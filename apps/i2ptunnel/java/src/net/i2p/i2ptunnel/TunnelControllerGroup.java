@@ -80,6 +80,13 @@ public class TunnelControllerGroup implements ClientApp {
     private final Object _executorLock = new Object();
     /** how long to wait before dropping an idle thread */
     private static final long HANDLER_KEEPALIVE_MS = 2*60*1000;
+    /**
+     *  Shared by all tunnels with PROP_USE_EVENT_LOOP set,
+     *  as the loop threads are never idle for long.
+     *  @since 0.9.59
+     */
+    private EventLoopForwarder _eventLoop;
+    private boolean _eventLoopFailed;
 
 
     /**
@@ -336,6 +343,7 @@ public class TunnelControllerGroup implements ClientApp {
                 _instance = null;
         }
         killClientExecutor();
+        killEventLoop();
         changeState(STOPPED);
     }
 
@@ -1071,6 +1079,37 @@ public class TunnelControllerGroup implements ClientApp {
         I2PTunnelClientBase.killSharedClient();
     }
 
+    /**
+     *  @return null if it can't be started
+     *  @since 0.9.59
+     */
+    EventLoopForwarder getEventLoop() {
+        synchronized (_executorLock) {
+            if (_eventLoop == null && !_eventLoopFailed) {
+                try {
+                    _eventLoop = new EventLoopForwarder(_context);
+                } catch (IOException ioe) {
+                    _log.error("Unable to start the event loop, using threads", ioe);
+                    _eventLoopFailed = true;
+                }
+            }
+            return _eventLoop;
+        }
+    }
+
+    /**
+     *  @since 0.9.59
+     */
+    private void killEventLoop() {
+        synchronized (_executorLock) {
+            if (_eventLoop != null) {
+                _eventLoop.shutdown();
+                _eventLoop = null;
+            }
+            _eventLoopFailed = false;
+        }
+    }
+
     /**
      *  Not really needed for now but in case we want to add some hooks like afterExecute().
      *  Package private for fallback in case TCG.getInstance() is null, never instantiated
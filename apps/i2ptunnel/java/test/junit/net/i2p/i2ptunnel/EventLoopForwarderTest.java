@@ -0,0 +1,275 @@
+package net.i2p.i2ptunnel;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.client.streaming.I2PServerSocket;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.I2PSocketException;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.client.streaming.impl.EmulatedLink;
+import net.i2p.client.streaming.impl.I2PSocketManagerFull;
+import net.i2p.data.DataHelper;
+import net.i2p.data.Destination;
+import net.i2p.util.FileUtil;
+
+/**
+ *  EventLoopForwarder, between a loopback TCP connection and
+ *  a streaming connection over an EmulatedLink,
+ *  with a runner that counts the callbacks,
+ *  and closes or resets the sockets as I2PTunnelRunner does.
+ */
+public class EventLoopForwarderTest {
+    private static final long TIMEOUT = 10*1000;
+
+    private static File _dir;
+    private static I2PAppContext _context;
+    private EmulatedLink _link;
+    private I2PSocketManagerFull _client, _server;
+    private EventLoopForwarder _forwarder;
+    private ServerSocketChannel _listener;
+    /** the local client, blocking */
+    private SocketChannel _app;
+    /** the far end of the I2P side, blocking */
+    private I2PSocket _peerSocket;
+    private SocketChannel _peer;
+    /** the ones forwarded */
+    private SocketChannel _local, _i2p;
+    private I2PSocket _i2pSocket;
+    private TestRunner _runner;
+
+    /**
+     *  Counts the callbacks, and closes both sockets in I2PTunnelRunner
+     */
+    private class TestRunner extends I2PTunnelRunner {
+        final AtomicInteger done = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile Exception localFailure, i2pFailure;
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger received = new AtomicInteger();
+
+        public TestRunner() {
+            super(_local.socket(), _i2pSocket, new Object(), null, null, null, (I2PTunnelRunner.FailCallback) null);
+        }
+
+        @Override
+        void forwardingDone(Exception local, Exception i2p) {
+            localFailure = local;
+            i2pFailure = i2p;
+            super.forwardingDone(local, i2p);
+            done.incrementAndGet();
+            latch.countDown();
+        }
+
+        @Override
+        void forwarded(boolean toI2P, int len) {
+            if (toI2P)
+                sent.addAndGet(len);
+            else
+                received.addAndGet(len);
+        }
+
+        /** wait, then make sure it's not called again */
+        public void waitDone() throws Exception {
+            assertTrue("timeout", latch.await(TIMEOUT, TimeUnit.MILLISECONDS));
+            Thread.sleep(100);
+            assertEquals(1, done.get());
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        _dir = Files.createTempDirectory("eventlooptest").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", _dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", _dir.getAbsolutePath());
+        _context = new I2PAppContext(props);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        FileUtil.rmdir(_dir, false);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        _link = new EmulatedLink(16*1024, 5, 1024*1024, 0, 42);
+        _client = new I2PSocketManagerFull(_context, _link.getSessionA(), new Properties(), "test client",
+                                           IncomingConnectionFilter.ALLOW);
+        _server = new I2PSocketManagerFull(_context, _link.getSessionB(), new Properties(), "test server",
+                                           IncomingConnectionFilter.ALLOW);
+        _link.start();
+        // listen first, or the SYN is rejected
+        I2PServerSocket ss = _server.getServerSocket();
+        // connect in another thread, as accept() blocks here
+        final Destination dest = _server.getSession().getMyDestination();
+        final I2PSocket[] client = new I2PSocket[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    client[0] = _client.connect(dest);
+                } catch (Exception e) {}
+            }
+        };
+        t.start();
+        _peerSocket = ss.accept();
+        t.join(TIMEOUT);
+        _i2pSocket = client[0];
+        assertNotNull(_i2pSocket);
+        _i2p = (SocketChannel) _i2pSocket.getChannel();
+        _peer = (SocketChannel) _peerSocket.getChannel();
+
+        _listener = ServerSocketChannel.open();
+        _listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        _app = SocketChannel.open(_listener.getLocalAddress());
+        _local = _listener.accept();
+
+        _forwarder = new EventLoopForwarder(_context);
+        _runner = new TestRunner();
+        _forwarder.forward(_runner, _local, _i2p, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _forwarder.shutdown();
+        _listener.close();
+        _app.close();
+        _peer.close();
+        _client.destroySocketManager();
+        _server.destroySocketManager();
+        _link.stop();
+    }
+
+    private static void write(SocketChannel ch, String s) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(DataHelper.getUTF8(s));
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    /**
+     *  @param len bytes to read before EOF
+     *  @return what was read
+     */
+    private static String read(SocketChannel ch, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            assertTrue(ch.read(buf) > 0);
+        }
+        return DataHelper.getUTF8(buf.array());
+    }
+
+    private static void assertEOF(SocketChannel ch) throws IOException {
+        assertEquals(-1, ch.read(ByteBuffer.allocate(1)));
+    }
+
+    private static void assertReset(SocketChannel ch) {
+        try {
+            ch.read(ByteBuffer.allocate(1));
+            fail("no reset");
+        } catch (IOException expected) {}
+    }
+
+    /** EOF from I2P closes both */
+    @Test
+    public void testI2PClose() throws Exception {
+        write(_app, "request");
+        assertEquals("request", read(_peer, 7));
+        write(_peer, "response");
+        _peer.shutdownOutput();
+        assertEquals("response", read(_app, 8));
+        assertEOF(_app);
+        _runner.waitDone();
+        assertNull(_runner.localFailure);
+        assertNull(_runner.i2pFailure);
+        assertEquals(7, _runner.sent.get());
+        assertEquals(8, _runner.received.get());
+        assertEquals(0, _forwarder.getConnectionCount());
+    }
+
+    /** EOF from local only closes the I2P output, after the data */
+    @Test
+    public void testLocalHalfClose() throws Exception {
+        write(_app, "request");
+        _app.shutdownOutput();
+        assertEquals("request", read(_peer, 7));
+        assertEOF(_peer);
+        Thread.sleep(100);
+        assertEquals(0, _runner.done.get());
+        assertEquals(1, _forwarder.getConnectionCount());
+
+        // the other way still works
+        write(_peer, "response");
+        assertEquals("response", read(_app, 8));
+        _peer.shutdownOutput();
+        assertEOF(_app);
+        _runner.waitDone();
+        assertNull(_runner.localFailure);
+        assertNull(_runner.i2pFailure);
+    }
+
+    @Test
+    public void testLocalReset() throws Exception {
+        write(_app, "request");
+        assertEquals("request", read(_peer, 7));
+        _app.setOption(StandardSocketOptions.SO_LINGER, 0);
+        _app.close();
+        _runner.waitDone();
+        assertNotNull(_runner.localFailure);
+        assertNull(_runner.i2pFailure);
+        // passed on as a reset, not EOF
+        assertReset(_peer);
+    }
+
+    @Test
+    public void testI2PReset() throws Exception {
+        write(_peer, "response");
+        assertEquals("response", read(_app, 8));
+        _peerSocket.reset();
+        _runner.waitDone();
+        assertNull(_runner.localFailure);
+        assertNotNull(_runner.i2pFailure);
+        assertTrue(String.valueOf(_runner.i2pFailure), _runner.i2pFailure.getCause() instanceof I2PSocketException);
+        // passed on as a reset, not EOF
+        assertReset(_app);
+    }
+
+    /** shutdown ends the connections in progress */
+    @Test
+    public void testShutdown() throws Exception {
+        write(_app, "request");
+        assertEquals("request", read(_peer, 7));
+        assertEquals(1, _forwarder.getConnectionCount());
+        _forwarder.shutdown();
+        _runner.waitDone();
+        assertNotNull(_runner.i2pFailure);
+        assertEquals(0, _forwarder.getConnectionCount());
+        assertEOF(_app);
+        assertEOF(_peer);
+        // no more
+        try {
+            _forwarder.forward(new TestRunner(), _local, _i2p, 0);
+            fail();
+        } catch (IOException ioe) {}
+    }
+}
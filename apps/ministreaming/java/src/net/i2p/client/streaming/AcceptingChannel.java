@@ -2,25 +2,35 @@ package net.i2p.client.streaming;
 
 import net.i2p.I2PException;
 import java.net.ConnectException;
-import java.nio.channels.SelectableChannel;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.SelectorProvider;
 
 /**
  *  As this does not (yet) extend ServerSocketChannel it cannot be returned by StandardServerSocket.getChannel(),
- *  until we implement an I2P SocketAddress class.		
+ *  until we implement an I2P SocketAddress class.
  *
  *  Warning, this interface and implementation is preliminary and subject to change without notice.
  *
- *  Unimplemented, unlikely to ever be implemented.
+ *  As of 0.9.59, extends AbstractSelectableChannel, and is implemented in the streaming lib.
+ *  It may only be registered with a Selector from the same provider.
  *
  *  @since 0.8.11
  */
-public abstract class AcceptingChannel extends SelectableChannel {
+public abstract class AcceptingChannel extends AbstractSelectableChannel {
 
-    protected abstract I2PSocket accept() throws I2PException, ConnectException;
+    /**
+     *  In non-blocking mode, returns null if there is no connection pending.
+     *  Public as of 0.9.59, was protected.
+     */
+    public abstract I2PSocket accept() throws I2PException, ConnectException;
 
     protected final I2PSocketManager _socketManager;
 
-    protected AcceptingChannel(I2PSocketManager manager) {
+    /**
+     *  @param provider as of 0.9.59
+     */
+    protected AcceptingChannel(I2PSocketManager manager, SelectorProvider provider) {
+        super(provider);
         this._socketManager = manager;
     }
 }
@@ -37,13 +37,12 @@ public interface I2PServerSocket {
     public I2PSocket accept() throws I2PException, ConnectException, SocketTimeoutException;
 
     /**
-     *  Unimplemented, unlikely to ever be implemented.
+     *  A selectable channel for non-blocking accepts.
+     *  Null through 0.9.58, and from implementations that don't support it.
      *
-     *  @deprecated
-     *  @return null always
-     *  @since 0.8.11
+     *  @return null if unsupported
+     *  @since 0.8.11, implemented in the streaming lib as of 0.9.59
      */
-    @Deprecated
     public AcceptingChannel getChannel();
 
     /**
@@ -56,13 +56,13 @@ public interface I2PSocket extends Closeable {
     public OutputStream getOutputStream() throws IOException;
 
     /**
-     *  Unimplemented, unlikely to ever be implemented.
+     *  A selectable channel for non-blocking I/O on this socket.
+     *  It can only be registered with a selector from the same provider.
+     *  Null through 0.9.58, and from implementations that don't support it.
      *
-     *  @deprecated
-     *  @return null always
-     *  @since 0.8.9
+     *  @return null if unsupported
+     *  @since 0.8.9, implemented in the streaming lib as of 0.9.59
      */
-    @Deprecated
     public SelectableChannel getChannel() throws IOException;
 
     /** 
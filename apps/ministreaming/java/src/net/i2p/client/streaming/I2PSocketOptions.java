@@ -13,6 +13,12 @@ public interface I2PSocketOptions {
     public static final String PROP_READ_TIMEOUT = "i2p.streaming.readTimeout";
     /** How long to block on write/flush */
     public static final String PROP_WRITE_TIMEOUT = "i2p.streaming.writeTimeout";
+    /**
+     *  The send window algorithm, "reno" (default), "cubic", or "bbr".
+     *  Set per-tunnel in the tunnel's options.
+     *  @since 0.9.59
+     */
+    public static final String PROP_CONGESTION_CONTROL = "i2p.streaming.congestionControl";
     
     /**
      * How long we will wait for the ACK from a SYN, in milliseconds.
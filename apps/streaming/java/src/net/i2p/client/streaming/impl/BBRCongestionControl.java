@@ -0,0 +1,146 @@
+package net.i2p.client.streaming.impl;
+
+/**
+ *  A BBR-style model based window.
+ *
+ *  The window is set from a model of the path, the maximum delivery rate
+ *  over the last 10 rounds times the minimum RTT, and not from losses,
+ *  which over I2P are as likely to be tunnel or tag failures as congestion.
+ *
+ *  There is no pacing in the streaming lib, the router sends
+ *  each packet when it's handed over, so this only has the window:
+ *  STARTUP grows as slow start until the delivery rate stops increasing
+ *  by 25% per round, DRAIN shrinks to one BDP for a round,
+ *  and PROBE_BW cycles the window over 8 rounds through
+ *  1.25, 0.75, and 6 times 1 times 2 BDP, as the BBR cwnd_gain.
+ *  A round is one minimum RTT.
+ *
+ *  After a retransmission timeout the window is 1, and goes back to
+ *  the model on the next ack.
+ *
+ *  Ref: draft-cardwell-iccrg-bbr-congestion-control
+ *
+ *  @since 0.9.59
+ */
+class BBRCongestionControl implements CongestionControl {
+    private enum Mode { STARTUP, DRAIN, PROBE_BW }
+
+    private Mode _mode = Mode.STARTUP;
+    /** per-round max delivery rates, packets/ms */
+    private final float[] _bwSamples = new float[BW_ROUNDS];
+    private int _round;
+    private long _roundStart = -1;
+    private int _roundDelivered;
+    /** for the full pipe detection */
+    private float _fullBw;
+    private int _fullBwCount;
+    private int _cycleIndex;
+    private boolean _recovering;
+
+    private static final int BW_ROUNDS = 10;
+    private static final float STARTUP_GAIN = 2.89f;
+    private static final float CWND_GAIN = 2;
+    private static final float[] PROBE_GAINS = { 1.25f, 0.75f, 1, 1, 1, 1, 1, 1 };
+    private static final int MIN_WINDOW = 4;
+
+    public synchronized int getSlowStartThreshold() {
+        return _mode == Mode.STARTUP ? Connection.MAX_WINDOW_SIZE : 0;
+    }
+
+    public synchronized int acked(ConnectionOptions opts, int acked, long now) {
+        int window = opts.getWindowSize();
+        int minRtt = opts.getMinRTT();
+        if (minRtt == Integer.MAX_VALUE || minRtt <= 0) {
+            // no model yet
+            _recovering = false;
+            return window + acked;
+        }
+        if (_roundStart < 0)
+            _roundStart = now;
+        _roundDelivered += acked;
+        long elapsed = now - _roundStart;
+        if (elapsed >= minRtt) {
+            float bw = _roundDelivered / (float) elapsed;
+            _round++;
+            _bwSamples[_round % BW_ROUNDS] = bw;
+            _roundStart = now;
+            _roundDelivered = 0;
+            roundEnded();
+        }
+        float bdp = getBottleneckBandwidth() * minRtt;
+        int rv;
+        switch (_mode) {
+          case STARTUP:
+            rv = window + acked;
+            int max = (int) (STARTUP_GAIN * bdp);
+            if (_recovering || (bdp > 0 && rv > max))
+                rv = Math.max(max, MIN_WINDOW);
+            break;
+          case DRAIN:
+            rv = Math.max((int) bdp, MIN_WINDOW);
+            break;
+          default:
+            int target = Math.max((int) (PROBE_GAINS[_cycleIndex] * CWND_GAIN * bdp), MIN_WINDOW);
+            if (_recovering || window > target)
+                rv = target;
+            else
+                rv = Math.min(window + acked, target);
+            break;
+        }
+        _recovering = false;
+        return rv;
+    }
+
+    /**
+     *  Full pipe detection, and the mode transitions
+     */
+    private void roundEnded() {
+        switch (_mode) {
+          case STARTUP:
+            float bw = getBottleneckBandwidth();
+            if (bw >= 1.25f * _fullBw) {
+                _fullBw = bw;
+                _fullBwCount = 0;
+            } else if (++_fullBwCount >= 3) {
+                _mode = Mode.DRAIN;
+            }
+            break;
+          case DRAIN:
+            _mode = Mode.PROBE_BW;
+            _cycleIndex = 0;
+            break;
+          default:
+            _cycleIndex = (_cycleIndex + 1) % PROBE_GAINS.length;
+            break;
+        }
+    }
+
+    /**
+     *  Losses are not congestion signals here
+     */
+    public int fastRetransmit(ConnectionOptions opts, float bwe, long now) {
+        return opts.getWindowSize();
+    }
+
+    public synchronized int timeout(ConnectionOptions opts, float bwe, long now) {
+        _recovering = true;
+        return 1;
+    }
+
+    /**
+     *  @return the max of the recent per-round delivery rates, packets/ms
+     */
+    synchronized float getBottleneckBandwidth() {
+        float rv = 0;
+        for (int i = 0; i < BW_ROUNDS; i++) {
+            if (_bwSamples[i] > rv)
+                rv = _bwSamples[i];
+        }
+        return rv;
+    }
+
+    /** for testing */
+    synchronized String getMode() {
+        return _mode.toString();
+    }
+}
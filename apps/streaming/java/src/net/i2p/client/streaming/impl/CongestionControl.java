@@ -0,0 +1,58 @@
+package net.i2p.client.streaming.impl;
+
+/**
+ *  How the send window of a Connection changes on acks,
+ *  fast retransmit, and retransmission timeouts.
+ *
+ *  The window itself stays in ConnectionOptions, where the TCBShare
+ *  and the receive side may also set it; the controller gets the current
+ *  window and returns the new one, which the caller sets.
+ *  The RTT estimates also stay in ConnectionOptions, and the
+ *  bandwidth estimate in the Connection's BandwidthEstimator.
+ *  Windows are in packets and times in ms. The "now" arguments
+ *  are always from the caller, the controller never looks at a clock,
+ *  so it may be driven by a simulated one.
+ *
+ *  Implementations must be thread safe.
+ *
+ *  Select with i2p.streaming.congestionControl = reno (default), cubic, or bbr.
+ *
+ *  @since 0.9.59
+ */
+interface CongestionControl {
+
+    /**
+     *  For display only
+     *
+     *  @return the slow start threshold, in packets
+     */
+    int getSlowStartThreshold();
+
+    /**
+     *  Packets were acked for the first time, and the connection is not choked.
+     *
+     *  @param opts for the window, RTT, and growth factors
+     *  @param acked how many, greater than zero
+     *  @return the new window
+     */
+    int acked(ConnectionOptions opts, int acked, long now);
+
+    /**
+     *  A packet was fast retransmitted because it was NACKed.
+     *  Called at most once per window.
+     *
+     *  @param opts for the window and RTT
+     *  @param bwe the bandwidth estimate, packets/ms
+     *  @return the new window
+     */
+    int fastRetransmit(ConnectionOptions opts, float bwe, long now);
+
+    /**
+     *  The retransmission timer fired with the oldest packet sent only once.
+     *
+     *  @param opts for the window and RTT
+     *  @param bwe the bandwidth estimate, packets/ms
+     *  @return the new window
+     */
+    int timeout(ConnectionOptions opts, float bwe, long now);
+}
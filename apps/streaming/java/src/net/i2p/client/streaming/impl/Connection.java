@@ -54,7 +54,7 @@ class Connection {
     private final AtomicInteger _unackedPacketsReceived = new AtomicInteger();
     private long _congestionWindowEnd;
     private volatile long _highestAckedThrough;
-    private volatile int _ssthresh;
+    private final CongestionControl _congestionControl;
     private final boolean _isInbound;
     private boolean _updatedShareOpts;
     /** Packet ID (Long) to PacketLocal for sent but unacked packets */
@@ -63,7 +63,7 @@ class Connection {
     private final ConnectionPacketHandler _handler;
     private ConnectionOptions _options;
     private final ConnectionDataReceiver _receiver;
-    private I2PSocketFull _socket;
+    private volatile I2PSocketFull _socket;
     /** set to an error cause if the connection could not be established */
     private String _connectionError;
     private final AtomicLong _disconnectScheduledOn = new AtomicLong();
@@ -162,7 +162,7 @@ class Connection {
         _createdOn = _context.clock().now();
         _congestionWindowEnd = _options.getWindowSize()-1;
         _highestAckedThrough = -1;
-        _ssthresh = ConnectionPacketHandler.MAX_SLOW_START_WINDOW;
+        _congestionControl = createCongestionControl(ctx, _options.getCongestionControl());
         _lastCongestionTime = -1;
         _lastCongestionHighestUnacked = -1;
         _lastReceivedOn = -1;
@@ -179,11 +179,29 @@ class Connection {
             _log.info("New connection created with options: " + _options);
     }
 
+    /**
+     * @since 0.9.59
+     */
+    private static CongestionControl createCongestionControl(I2PAppContext ctx, String cc) {
+        if ("cubic".equalsIgnoreCase(cc))
+            return new CubicCongestionControl();
+        if ("bbr".equalsIgnoreCase(cc))
+            return new BBRCongestionControl();
+        return new RenoCongestionControl(ctx.random());
+    }
+
     /**
      * @since 0.9.46
      */
     int getSSThresh() {
-        return _ssthresh;
+        return _congestionControl.getSlowStartThreshold();
+    }
+
+    /**
+     * @since 0.9.59
+     */
+    CongestionControl getCongestionControl() {
+        return _congestionControl;
     }
     
     public long getNextOutboundPacketNum() { 
@@ -218,23 +236,11 @@ class Connection {
                 // no need to wait until the other side has ACKed us before sending the first few wsize
                 // packets through
 		// Incorrect assumption, the constructor defaults _connected to true --Sponge
-                if (!_connected.get()) {
-                    if (getResetReceived())
-                        throw new I2PSocketException(I2PSocketException.STATUS_CONNECTION_RESET);
-                    throw new IOException("Socket closed");
-                }
-                if (_outputStream.getClosed())
-                    throw new IOException("Output stream closed");
+                checkWritable();
                 started = true;
-                // Try to keep things moving even during NACKs and retransmissions...
-                // Limit unacked packets to the window
-                // Limit active resends to half the window
-                // Limit (highest-lowest) to twice the window (if far end doesn't like it, it can send a choke)
-                int unacked = _outboundPackets.size();
-                int wsz = _options.getWindowSize();
-                if (_isChoked || unacked >= wsz ||
-                    _activeResends.get() >= (wsz + 1) / 2 ||
-                    _lastSendId.get() - _highestAckedThrough >= Math.min(MAX_WINDOW_SIZE, 2 * wsz)) {
+                if (locked_isWindowFull()) {
+                    int unacked = _outboundPackets.size();
+                    int wsz = _options.getWindowSize();
                     if (timeoutMs > 0) {
                         if (timeLeft <= 0) {
                             if (_log.shouldLog(Log.INFO))
@@ -276,12 +282,58 @@ class Connection {
     }
 
     /**
-     *  Notify all threads waiting in packetSendChoke()
+     *  Notify all threads waiting in packetSendChoke(),
+     *  and any selector, as of 0.9.59
      */
     void windowAdjusted() {
         synchronized (_outboundPackets) {
             _outboundPackets.notifyAll();
         }
+        channelEvent();
+    }
+
+    /**
+     *  Nonblocking version of packetSendChoke(), for I2PSocketChannel.
+     *
+     *  @return true if packetSendChoke() would block now
+     *  @throws IOException if the connection or output stream is closed
+     *  @since 0.9.59
+     */
+    boolean isWindowFull() throws IOException {
+        synchronized (_outboundPackets) {
+            checkWritable();
+            return locked_isWindowFull();
+        }
+    }
+
+    /**
+     *  Caller must synch on _outboundPackets
+     *  @since 0.9.59 split out of packetSendChoke()
+     */
+    private void checkWritable() throws IOException {
+        if (!_connected.get()) {
+            if (getResetReceived())
+                throw new I2PSocketException(I2PSocketException.STATUS_CONNECTION_RESET);
+            throw new IOException("Socket closed");
+        }
+        if (_outputStream.getClosed())
+            throw new IOException("Output stream closed");
+    }
+
+    /**
+     *  Try to keep things moving even during NACKs and retransmissions...
+     *  Limit unacked packets to the window
+     *  Limit active resends to half the window
+     *  Limit (highest-lowest) to twice the window (if far end doesn't like it, it can send a choke)
+     *
+     *  Caller must synch on _outboundPackets
+     *  @since 0.9.59 split out of packetSendChoke()
+     */
+    private boolean locked_isWindowFull() {
+        int wsz = _options.getWindowSize();
+        return _isChoked || _outboundPackets.size() >= wsz ||
+               _activeResends.get() >= (wsz + 1) / 2 ||
+               _lastSendId.get() - _highestAckedThrough >= Math.min(MAX_WINDOW_SIZE, 2 * wsz);
     }
     
     void ackImmediately() {
@@ -526,9 +578,16 @@ class Connection {
                         for (int i = 0; i < nacks.length; i++) {
                             if (nacks[i] == id) {
                                 nacked = true;
+                                // SACK: everything above id through ackThrough that
+                                // is not also NACKed was received after it
+                                int sacked = (int) (ackThrough - id);
+                                for (int j = 0; j < nacks.length; j++) {
+                                    if (nacks[j] > id)
+                                        sacked--;
+                                }
                                 PacketLocal nackedPacket = e.getValue();
                                 // this will do a fast retransmit if appropriate
-                                nackedPacket.incrementNACKs();
+                                nackedPacket.incrementNACKs(sacked);
                                 break; // NACKed
                             }
                         }
@@ -659,7 +718,7 @@ class Connection {
                 // received after sent
                 disconnect(true);
             } else {
-                synchronized (_connectLock) { _connectLock.notifyAll(); }
+                notifyConnect();
             }
         }
     }
@@ -692,7 +751,7 @@ class Connection {
         _outputStream.streamErrorOccurred(ioe);
         _inputStream.streamErrorOccurred(ioe);
         _connectionError = "Connection reset";
-        synchronized (_connectLock) { _connectLock.notifyAll(); }
+        notifyConnect();
         // RFC 793 end of section 3.4: We are completely done.
         disconnectComplete();
     }
@@ -760,7 +819,7 @@ class Connection {
         if (!_connected.compareAndSet(true, false)) {
             return;
         }
-        synchronized (_connectLock) { _connectLock.notifyAll(); }
+        notifyConnect();
 
         if (_closeReceivedOn.get() <= 0) {
             // should have already been called from closeReceived() above
@@ -823,6 +882,7 @@ class Connection {
         if (s != null) {
             s.destroy2();
             _socket = null;
+            s.channelEvent();
         }
         _outputStream.destroy();
         _receiver.destroy();
@@ -973,7 +1033,7 @@ class Connection {
     public void setReceiveStreamId(long id) { 
         if (!_receiveStreamId.compareAndSet(0, id))
             throw new IllegalStateException("Receive stream ID already set [" + _receiveStreamId + ", " + id + "]");
-        synchronized (_connectLock) { _connectLock.notifyAll(); }
+        notifyConnect();
     }
     
     /** When did we last send anything to the peer?
@@ -1188,10 +1248,42 @@ class Connection {
         }
     }
     
+    /**
+     *  Wake up waitForConnect(), and any selector
+     *  @since 0.9.59
+     */
+    private void notifyConnect() {
+        synchronized (_connectLock) { _connectLock.notifyAll(); }
+        channelEvent();
+    }
+
+    /**
+     *  Tell any selector that the readiness of the channel may have changed.
+     *  Any thread.
+     *  @since 0.9.59
+     */
+    void channelEvent() {
+        I2PSocketFull s = _socket;
+        if (s != null)
+            s.channelEvent();
+    }
+
+    /**
+     *  Nonblocking version of waitForConnect(), for I2PSocketChannel.
+     *  The connect timeout is enforced by SchedulerConnecting.
+     *
+     *  @return true if connected or failed, false if still pending
+     *  @since 0.9.59
+     */
+    boolean isConnectDone() {
+        return !_connected.get() || _connectionError != null ||
+               (_receiveStreamId.get() > 0 && _sendStreamId.get() > 0);
+    }
+
     void packetReceived() {
         _lastReceivedOn = _context.clock().now();
         resetActivityTimer();
-        synchronized (_connectLock) { _connectLock.notifyAll(); }
+        notifyConnect();
     }
     
     /** 
@@ -1425,7 +1517,7 @@ class Connection {
         buf.append(" sent: ").append(1 + _lastSendId.get());
         buf.append(" rcvd: ").append(1 + _inputStream.getHighestBlockId() - missing);
         buf.append(" ackThru ").append(_highestAckedThrough);
-        buf.append(" ssThresh ").append(_ssthresh); 
+        buf.append(" ssThresh ").append(_congestionControl.getSlowStartThreshold()); 
         buf.append(" minRTT ").append(_options.getMinRTT()); 
         buf.append(" maxWin ").append(_options.getMaxWindowSize());
         buf.append(" MTU ").append(_options.getMaxMessageSize());
@@ -1501,9 +1593,8 @@ class Connection {
                 if (oldest.getNumSends() == 1) {
                     if (_log.shouldLog(Log.DEBUG))
                         _log.debug(Connection.this + " cutting ssthresh and window");
-                    _ssthresh = Math.max( (int)(_bwEstimator.getBandwidthEstimate() * _options.getMinRTT()), 2 );
-                    _ssthresh = Math.min(ConnectionPacketHandler.MAX_SLOW_START_WINDOW, _ssthresh);
-                    _options.setWindowSize(1);
+                    _options.setWindowSize(_congestionControl.timeout(_options, _bwEstimator.getBandwidthEstimate(),
+                                                                      _context.clock().now()));
                 } else if (_log.shouldLog(Log.DEBUG))
                     _log.debug(Connection.this + " not cutting ssthresh and window");
 
@@ -1705,10 +1796,8 @@ class Connection {
                         _options.doubleRTO();
 
                         if (_packet.getNumSends() == 1) {
-                            _ssthresh = Math.max( (int)(_bwEstimator.getBandwidthEstimate() * _options.getMinRTT()), 2 );
-                            _ssthresh = Math.min(ConnectionPacketHandler.MAX_SLOW_START_WINDOW, _ssthresh);
-                            int wsize = _options.getWindowSize();
-                            _options.setWindowSize(Math.min(_ssthresh, wsize));
+                            _options.setWindowSize(_congestionControl.fastRetransmit(_options, _bwEstimator.getBandwidthEstimate(),
+                                                                                     _context.clock().now()));
                         }
 
                         if (_log.shouldLog(Log.INFO))
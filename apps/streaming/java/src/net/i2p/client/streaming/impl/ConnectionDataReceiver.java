@@ -174,12 +174,8 @@ class ConnectionDataReceiver implements MessageOutputStream.DataReceiver {
         boolean isFirst = (_connection.getAckedPackets() <= 0) && (_connection.getUnackedPacketsSent() <= 0);
         
         PacketLocal packet = new PacketLocal(_context, _connection.getRemotePeer(), _connection);
-        //ByteArray data = packet.acquirePayload();
-        ByteArray data = new ByteArray(new byte[size]);
-        if (size > 0)
-            System.arraycopy(buf, off, data.getData(), 0, size);
-        data.setValid(size);
-        data.setOffset(0);
+        // pooled, released when acked or cancelled
+        ByteArray data = PayloadBuffer.copyOf(buf, off, size);
         packet.setPayload(data);
         if ( (ackOnly && !forceIncrement) && (!isFirst) )
             packet.setSequenceNum(0);
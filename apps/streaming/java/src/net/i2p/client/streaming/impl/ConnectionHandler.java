@@ -30,6 +30,7 @@ class ConnectionHandler {
     private final LinkedBlockingQueue<Packet> _synQueue;
     private final SimpleTimer2 _timer;
     private volatile boolean _active;
+    private volatile I2PServerSocketChannel _channel;
     private int _acceptTimeout;
     private boolean _restartPending;
     
@@ -81,6 +82,7 @@ class ConnectionHandler {
             _synQueue.clear();
             _synQueue.offer(new PoisonPacket());
         }
+        channelEvent();
     }
 
     public boolean getActive() { return _active; }
@@ -117,6 +119,7 @@ class ConnectionHandler {
         boolean success = _synQueue.offer(packet); // fail immediately if full
         if (success) {
             _timer.addEvent(new TimeoutSyn(packet), _acceptTimeout);
+            channelEvent();
         } else {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("Dropping new SYN request, as the queue is full");
@@ -148,18 +151,8 @@ class ConnectionHandler {
         while (true) {
             if ( (timeoutMs > 0) && (expiration < _context.clock().now()) )
                 throw new SocketTimeoutException("accept() timed out");
-            if (!_active) {
-                // fail all the ones we had queued up
-                while(true) {
-                    Packet packet = _synQueue.poll(); // fails immediately if empty
-                    if (packet == null || packet.getOptionalDelay() == PoisonPacket.POISON_MAX_DELAY_REQUEST)
-                        break;
-                    sendReset(packet);
-                }
-                if (_restartPending)
-                    throw new RouterRestartException();
-                throw new ConnectException("ServerSocket closed");
-            }
+            if (!_active)
+                failQueued();
             
             Packet syn = null;
             while ( _active && syn == null) {
@@ -195,47 +188,124 @@ class ConnectionHandler {
             }
 
             if (syn != null) {
-                if (syn.getOptionalDelay() == PoisonPacket.POISON_MAX_DELAY_REQUEST) {
-                    if (_restartPending)
-                        throw new RouterRestartException();
-                    throw new ConnectException("ServerSocket closed");
-                }
+                Connection con = receiveQueued(syn);
+                if (con != null)
+                    return con;
+            }
+            // keep looping...
+        }
+    }
+
+    /**
+     *  Nonblocking accept, for I2PServerSocketChannel.
+     *
+     *  @return a connected connection, or null if none is pending
+     *  @throws RouterRestartException (extends I2PException) if the router is apparently restarting
+     *  @throws ConnectException if the I2PServerSocket is closed
+     *  @since 0.9.59
+     */
+    public Connection acceptNow() throws RouterRestartException, ConnectException {
+        if (!_active)
+            failQueued();
+        Packet syn;
+        while ((syn = _synQueue.poll()) != null) {
+            Connection con = receiveQueued(syn);
+            if (con != null)
+                return con;
+        }
+        return null;
+    }
 
-                // deal with forged / invalid syn packets in _manager.receiveConnection()
+    /**
+     *  Reset all the ones we had queued up, and throw.
+     *  Split out of accept() in 0.9.59.
+     *
+     *  @since 0.9.59
+     */
+    private void failQueued() throws RouterRestartException, ConnectException {
+        while(true) {
+            Packet packet = _synQueue.poll(); // fails immediately if empty
+            if (packet == null || packet.getOptionalDelay() == PoisonPacket.POISON_MAX_DELAY_REQUEST)
+                break;
+            sendReset(packet);
+        }
+        if (_restartPending)
+            throw new RouterRestartException();
+        throw new ConnectException("ServerSocket closed");
+    }
 
-                // Handle both SYN and non-SYN packets in the queue
-                if (syn.isFlagSet(Packet.FLAG_SYNCHRONIZE)) {
-                    // We are single-threaded here, so this is
-                    // a good place to check for dup SYNs and drop them
-                    Destination from = syn.getOptionalFrom();
-                    if (from == null) {
-                        if (_log.shouldLog(Log.WARN))
-                            _log.warn("Dropping SYN packet with no FROM: " + syn);
-                        // drop it
-                        continue;
-                    }
-                    Connection oldcon = _manager.getConnectionByOutboundId(syn.getReceiveStreamId());
-                    if (oldcon != null) {
-                        // His ID not guaranteed to be unique to us, but probably is...
-                        // only drop it on a destination match too
-                        if (from.equals(oldcon.getRemotePeer())) {
-                            if (_log.shouldLog(Log.WARN))
-                                _log.warn("Dropping dup SYN: " + syn);
-                            continue;
-                        }
-                    }
-                    Connection con = _manager.receiveConnection(syn);
-                    if (con != null)
-                        return con;
-                } else {
-                    reReceivePacket(syn);
-                    // ... and keep looping
+    /**
+     *  Handle one packet from the SYN queue.
+     *  Split out of accept() in 0.9.59.
+     *
+     *  @return a connection, or null if the packet was dropped or was not a SYN
+     *  @since 0.9.59
+     */
+    private Connection receiveQueued(Packet syn) throws RouterRestartException, ConnectException {
+        if (syn.getOptionalDelay() == PoisonPacket.POISON_MAX_DELAY_REQUEST) {
+            if (_restartPending)
+                throw new RouterRestartException();
+            throw new ConnectException("ServerSocket closed");
+        }
+
+        // deal with forged / invalid syn packets in _manager.receiveConnection()
+
+        // Handle both SYN and non-SYN packets in the queue
+        if (syn.isFlagSet(Packet.FLAG_SYNCHRONIZE)) {
+            // We are single-threaded here, so this is
+            // a good place to check for dup SYNs and drop them
+            Destination from = syn.getOptionalFrom();
+            if (from == null) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("Dropping SYN packet with no FROM: " + syn);
+                // drop it
+                return null;
+            }
+            Connection oldcon = _manager.getConnectionByOutboundId(syn.getReceiveStreamId());
+            if (oldcon != null) {
+                // His ID not guaranteed to be unique to us, but probably is...
+                // only drop it on a destination match too
+                if (from.equals(oldcon.getRemotePeer())) {
+                    if (_log.shouldLog(Log.WARN))
+                        _log.warn("Dropping dup SYN: " + syn);
+                    return null;
                 }
             }
-            // keep looping...
+            return _manager.receiveConnection(syn);
+        } else {
+            reReceivePacket(syn);
+            return null;
         }
     }
 
+    /**
+     *  Is there anything for acceptNow(), or is it closed
+     *
+     *  @since 0.9.59
+     */
+    boolean isAcceptReady() {
+        return !_active || !_synQueue.isEmpty();
+    }
+
+    /**
+     *  @param channel may be null
+     *  @since 0.9.59
+     */
+    void setChannel(I2PServerSocketChannel channel) {
+        _channel = channel;
+    }
+
+    /**
+     *  Tell the channel's selectors
+     *
+     *  @since 0.9.59
+     */
+    private void channelEvent() {
+        I2PServerSocketChannel channel = _channel;
+        if (channel != null)
+            channel.channelEvent();
+    }
+
     /**
      *  We found a non-SYN packet that was queued in the syn queue,
      *  check to see if it has a home now, else drop it ...
@@ -540,6 +540,16 @@ class ConnectionManager {
      * @return new connection, or null if we have exceeded our limit
      */
     public Connection connect(Destination peer, ConnectionOptions opts, I2PSession session) {
+        return connect(peer, opts, session, true);
+    }
+
+    /**
+     *  @param blocking if false, don't wait for the connect, or for a stream if there are too many,
+     *                  for I2PSocketManagerFull.connectChannel()
+     *  @return new connection, or null if we have exceeded our limit
+     *  @since 0.9.59
+     */
+    public Connection connect(Destination peer, ConnectionOptions opts, I2PSession session, boolean blocking) {
         if (peer == null)
             throw new NullPointerException();
         Connection con = null;
@@ -562,7 +572,7 @@ class ConnectionManager {
                 if (locked_tooManyStreams()) {
                     int max = _defaultOptions.getMaxConns();
                     // allow a full buffer of pending/waiting streams
-                    if (_numWaiting.get() > max) {
+                    if (!blocking || _numWaiting.get() > max) {
                         _log.logAlways(Log.WARN, "Refusing connection since we have exceeded our max of "
                                       + max + " and there are " + _numWaiting
                                       + " waiting already");
@@ -589,7 +599,7 @@ class ConnectionManager {
         
         if (_log.shouldLog(Log.DEBUG))
             _log.debug("Connect() conDelay = " + opts.getConnectDelay());
-        if (opts.getConnectDelay() <= 0) {
+        if (blocking && opts.getConnectDelay() <= 0) {
             con.waitForConnect();
         }
         // safe decrement
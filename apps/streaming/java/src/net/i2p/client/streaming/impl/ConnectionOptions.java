@@ -55,6 +55,7 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
     private int _maxConns;
     private boolean _disableRejectLog;
     private String _limitAction;
+    private String _congestionControl;
     private int _tagsToSend;
     private int _tagThreshold;
     
@@ -153,6 +154,8 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
     private static final int DEFAULT_SLOW_START_GROWTH_RATE_FACTOR = 1;
     /** @since 0.9.34 */
     private static final String DEFAULT_LIMIT_ACTION = "reset";
+    /** @since 0.9.59 */
+    private static final String DEFAULT_CONGESTION_CONTROL = "reno";
     /** @since 0.9.34 */
     public static final int DEFAULT_TAGS_TO_SEND = 40;
     /** @since 0.9.34 */
@@ -392,6 +395,7 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
             setInboundBufferSize(opts.getInboundBufferSize());
             setCongestionAvoidanceGrowthRateFactor(opts.getCongestionAvoidanceGrowthRateFactor());
             setSlowStartGrowthRateFactor(opts.getSlowStartGrowthRateFactor());
+            setCongestionControl(opts.getCongestionControl());
             // handled in super()
             // not clear why added by jr 12/22/2005
             //setWriteTimeout(opts.getWriteTimeout());
@@ -434,6 +438,10 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
                                                       DEFAULT_CONGESTION_AVOIDANCE_GROWTH_RATE_FACTOR));
         setSlowStartGrowthRateFactor(getInt(opts, PROP_SLOW_START_GROWTH_RATE_FACTOR,
                                             DEFAULT_SLOW_START_GROWTH_RATE_FACTOR));
+        if (opts != null)
+            setCongestionControl(opts.getProperty(PROP_CONGESTION_CONTROL, DEFAULT_CONGESTION_CONTROL));
+        else
+            setCongestionControl(DEFAULT_CONGESTION_CONTROL);
         // overrides default in super()... why?
         //setConnectTimeout(getInt(opts, PROP_CONNECT_TIMEOUT, Connection.DISCONNECT_TIMEOUT));
         setAnswerPings(getBool(opts, PROP_ANSWER_PINGS, DEFAULT_ANSWER_PINGS));
@@ -498,6 +506,8 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
         if (opts.getProperty(PROP_SLOW_START_GROWTH_RATE_FACTOR) != null)
             setSlowStartGrowthRateFactor(getInt(opts, PROP_SLOW_START_GROWTH_RATE_FACTOR,
                                                 DEFAULT_SLOW_START_GROWTH_RATE_FACTOR));
+        if (opts.getProperty(PROP_CONGESTION_CONTROL) != null)
+            setCongestionControl(opts.getProperty(PROP_CONGESTION_CONTROL));
         if (opts.getProperty(PROP_CONNECT_TIMEOUT) != null)
             // overrides default in super()
             setConnectTimeout(getInt(opts, PROP_CONNECT_TIMEOUT, Connection.DEFAULT_CONNECT_TIMEOUT));
@@ -876,6 +886,21 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
      */
     public int getSlowStartGrowthRateFactor() { return _slowStartGrowthRateFactor; }
     public void setSlowStartGrowthRateFactor(int factor) { _slowStartGrowthRateFactor = factor; }
+
+    /**
+     * The send window algorithm for new connections.
+     * See CongestionControl.
+     *
+     * @return "reno" (default), "cubic", or "bbr"
+     * @since 0.9.59
+     */
+    public String getCongestionControl() { return _congestionControl; }
+
+    /**
+     * @param cc "reno", "cubic", or "bbr", case insensitive, unknown values are treated as "reno"
+     * @since 0.9.59
+     */
+    public void setCongestionControl(String cc) { _congestionControl = cc; }
     
     /** all of these are @since 0.7.14; no public setters */
     public int getMaxConnsPerMinute() { return _maxConnsPerMinute; }
@@ -982,6 +1007,7 @@ class ConnectionOptions extends I2PSocketOptionsImpl {
         buf.append(" resendDelay=").append(_resendDelay);
         buf.append(" ackDelay=").append(_sendAckDelay);
         buf.append(" cwin=").append(_windowSize);
+        buf.append(" cc=").append(_congestionControl);
         buf.append(" maxResends=").append(_maxResends);
         buf.append(" writeTimeout=").append(getWriteTimeout());
         buf.append(" readTimeout=").append(getReadTimeout());
@@ -321,6 +321,8 @@ class ConnectionPacketHandler {
             if (isNew)
                 con.updateShareOpts();
         }
+        // new data, acks, or a connect
+        con.channelEvent();
 
         //if (choke)
         //    con.fastRetransmit();
@@ -460,41 +462,9 @@ class ConnectionPacketHandler {
             //_context.statManager().addRateData("stream.trend", trend, newWindowSize);
             
             if ( (!congested) && (acked > 0) ) {
-                int ssthresh = con.getSSThresh();
-                if (newWindowSize < ssthresh) {
-                    // slow start - exponential growth
-                    // grow acked/N times (where N = the slow start factor)
-                    // always grow at least 1
-                    int factor = con.getOptions().getSlowStartGrowthRateFactor();
-                    if (factor <= 1) {
-                        // above a certain point, don't grow exponentially
-                        // as it often leads to a big packet loss (30-50) all at once that
-                        // takes quite a while (a minute or more) to recover from,
-                        // especially if crypto tags are lost
-                        newWindowSize = Math.min(ssthresh, newWindowSize + acked);
-                    } else if (acked < factor)
-                        newWindowSize++;
-                    else
-                        newWindowSize += acked / factor;
-                    if (_log.shouldLog(Log.DEBUG))
-                        _log.debug("slow start acks = " + acked + " for " + con);
-                // this is too fast since we mostly disabled the CongestionWindowEnd test above
-                //} else if (trend < 0) {
-                //    // rtt is shrinking, so lets increment the cwin
-                //    newWindowSize++;
-                //    if (_log.shouldLog(Log.DEBUG))
-                //        _log.debug("trend < 0 for " + con);
-                } else {
-                    // congestion avoidance
-                    // linear growth - increase window 1/N per RTT
-                    // we can't use newWindowSize += acked/(oldWindow*N) (where N = the cong. avoid. factor), since we're
-                    // integers, so lets use a random distribution instead
-                    int shouldIncrement = _context.random().nextInt(con.getOptions().getCongestionAvoidanceGrowthRateFactor()*newWindowSize);
-                    if (shouldIncrement < acked)
-                        newWindowSize++;
-                    if (_log.shouldLog(Log.DEBUG))
-                        _log.debug("cong. avoid acks = " + acked + " for " + con);
-                }
+                newWindowSize = con.getCongestionControl().acked(con.getOptions(), acked, _context.clock().now());
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("acks = " + acked + " ssthresh = " + con.getSSThresh() + " for " + con);
             } else {
                 if (_log.shouldLog(Log.DEBUG))
                     _log.debug("No change to window: " + con.getOptions().getWindowSize() +
@@ -0,0 +1,116 @@
+package net.i2p.client.streaming.impl;
+
+/**
+ *  CUBIC, RFC 8312, with the window in packets.
+ *
+ *  After a loss, the window grows along a cubic function of the time
+ *  since the loss, centered on the window at the loss, so it gets back
+ *  there quickly and then probes beyond it, independent of the RTT.
+ *  Reno's growth of one packet per RTT takes minutes to fill a
+ *  window of 100 over tunnels with RTTs of several seconds.
+ *
+ *  Slow start is not capped at MAX_SLOW_START_WINDOW,
+ *  and the threshold after a loss is the reduced window, not the
+ *  bandwidth estimate.
+ *
+ *  @since 0.9.59
+ */
+class CubicCongestionControl implements CongestionControl {
+    private int _ssthresh;
+    /** the window at the last loss, packets */
+    private float _wMax;
+    /** the window at the start of the epoch, if above _wMax */
+    private float _origin;
+    /** time to get back to _origin, seconds */
+    private float _k;
+    /** start of the epoch, or -1 */
+    private long _epochStart = -1;
+    /** Reno-equivalent window, RFC 8312 sec. 4.2 */
+    private float _wEst;
+    /** fractional window */
+    private float _cwnd;
+
+    /** RFC 8312 sec. 5 */
+    static final float C = 0.4f;
+    static final float BETA = 0.7f;
+    private static final float ALPHA = 3 * (1 - BETA) / (1 + BETA);
+
+    public CubicCongestionControl() {
+        _ssthresh = Connection.MAX_WINDOW_SIZE;
+    }
+
+    public synchronized int getSlowStartThreshold() {
+        return _ssthresh;
+    }
+
+    public synchronized int acked(ConnectionOptions opts, int acked, long now) {
+        int window = opts.getWindowSize();
+        if (window < _ssthresh) {
+            _cwnd = Math.min(window + acked, _ssthresh);
+            return (int) _cwnd;
+        }
+        if ((int) _cwnd != window)
+            _cwnd = window;
+        if (_epochStart < 0) {
+            _epochStart = now;
+            if (_cwnd < _wMax) {
+                _k = (float) Math.cbrt((_wMax - _cwnd) / C);
+                _origin = _wMax;
+            } else {
+                _k = 0;
+                _origin = _cwnd;
+            }
+            _wEst = _cwnd;
+        }
+        int rtt = rtt(opts);
+        // the target is where we want to be in one RTT
+        float t = (now + rtt - _epochStart) / 1000f - _k;
+        float target = _origin + C * t * t * t;
+        if (target > 1.5f * _cwnd)
+            target = 1.5f * _cwnd;
+        _wEst += ALPHA * acked / _cwnd;
+        if (target < _wEst)
+            target = _wEst;
+        if (target > _cwnd)
+            _cwnd += (target - _cwnd) * acked / _cwnd;
+        return (int) _cwnd;
+    }
+
+    public synchronized int fastRetransmit(ConnectionOptions opts, float bwe, long now) {
+        loss(opts.getWindowSize());
+        _cwnd = _ssthresh;
+        return _ssthresh;
+    }
+
+    public synchronized int timeout(ConnectionOptions opts, float bwe, long now) {
+        loss(opts.getWindowSize());
+        _cwnd = 1;
+        return 1;
+    }
+
+    /**
+     *  RFC 8312 sec. 4.5 and 4.6
+     */
+    private void loss(int window) {
+        _epochStart = -1;
+        // fast convergence
+        if (window < _wMax)
+            _wMax = window * (1 + BETA) / 2;
+        else
+            _wMax = window;
+        _ssthresh = Math.max((int) (window * BETA), 2);
+    }
+
+    /**
+     *  @return the smoothed RTT, or the minimum if none yet, or 0
+     */
+    private static int rtt(ConnectionOptions opts) {
+        int rtt = opts.getRTT();
+        if (rtt <= 0) {
+            rtt = opts.getMinRTT();
+            if (rtt == Integer.MAX_VALUE)
+                rtt = 0;
+        }
+        return rtt;
+    }
+}
@@ -0,0 +1,363 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.IllegalSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectableChannel;
+import java.nio.channels.spi.AbstractSelectionKey;
+import java.nio.channels.spi.AbstractSelector;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ *  A readiness selector for the streaming channels.
+ *
+ *  There's no file descriptor to poll, so readiness is event driven.
+ *  The connection calls channelEvent() on its channel when something
+ *  that may change the readiness happens: data or a CLOSE or RESET received,
+ *  the window opening on an ack, a connect completing or failing,
+ *  or a SYN queued for accept. That queues the channel's keys here,
+ *  and select() only checks the queued keys, so the cost of a select()
+ *  is proportional to the number of active streams, not registered streams.
+ *
+ *  To be level-triggered like the JDK selectors, the keys selected last time
+ *  are checked again on the next select(), so a channel that was not
+ *  read or written to completion is selected again.
+ *
+ *  One thread at a time should use a selector, as with the JDK selectors.
+ *
+ *  @since 0.9.59
+ */
+class I2PSelector extends AbstractSelector {
+    private final Set<SelectionKey> _keys = Collections.newSetFromMap(new ConcurrentHashMap<SelectionKey, Boolean>());
+    private final Set<SelectionKey> _publicKeys = Collections.unmodifiableSet(_keys);
+    private final Set<SelectionKey> _selected = new HashSet<SelectionKey>();
+    private final Set<SelectionKey> _publicSelected = new UngrowableSet(_selected);
+    /** keys with events since the last select */
+    private final ConcurrentLinkedQueue<Key> _pending = new ConcurrentLinkedQueue<Key>();
+    /** keys selected by the last select, once each, see Key._recheck */
+    private List<Key> _lastSelected = new ArrayList<Key>();
+    private List<Key> _recheck = new ArrayList<Key>();
+    private final Object _lock = new Object();
+    private volatile boolean _waiting;
+    private boolean _wakeup;
+
+    /**
+     *  What the channels implement
+     */
+    interface Selectable {
+        /**
+         *  @return the operations that would not block now, in any order
+         */
+        int readyOps();
+
+        void addKey(Key key);
+
+        void removeKey(Key key);
+    }
+
+    I2PSelector(I2PSelectorProvider provider) {
+        super(provider);
+    }
+
+    public Set<SelectionKey> keys() {
+        if (!isOpen())
+            throw new ClosedSelectorException();
+        return _publicKeys;
+    }
+
+    public Set<SelectionKey> selectedKeys() {
+        if (!isOpen())
+            throw new ClosedSelectorException();
+        return _publicSelected;
+    }
+
+    public int selectNow() throws IOException {
+        return doSelect(-1);
+    }
+
+    public int select() throws IOException {
+        return doSelect(0);
+    }
+
+    public int select(long timeout) throws IOException {
+        if (timeout < 0)
+            throw new IllegalArgumentException();
+        return doSelect(timeout);
+    }
+
+    /**
+     *  @param timeout -1 for none, 0 for forever
+     */
+    private synchronized int doSelect(long timeout) throws IOException {
+        if (!isOpen())
+            throw new ClosedSelectorException();
+        long expire = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        processCancelled();
+        int rv = 0;
+        try {
+            begin();
+            if (!_lastSelected.isEmpty()) {
+                // swap, as update() adds to _lastSelected
+                List<Key> last = _lastSelected;
+                _lastSelected = _recheck;
+                _recheck = last;
+                for (int i = 0; i < last.size(); i++) {
+                    Key key = last.get(i);
+                    key._recheck = false;
+                    rv += update(key);
+                }
+                last.clear();
+            }
+            while (true) {
+                Key key;
+                while ((key = _pending.poll()) != null) {
+                    key.dequeued();
+                    rv += update(key);
+                }
+                if (rv > 0 || timeout < 0 || !isOpen())
+                    break;
+                long wait = 0;
+                if (expire > 0) {
+                    wait = expire - System.currentTimeMillis();
+                    if (wait <= 0)
+                        break;
+                }
+                synchronized (_lock) {
+                    if (_wakeup) {
+                        _wakeup = false;
+                        break;
+                    }
+                    _waiting = true;
+                    try {
+                        if (_pending.isEmpty())
+                            _lock.wait(wait);
+                    } catch (InterruptedException ie) {
+                        // return with the interrupt status set, as the JDK selectors do
+                        Thread.currentThread().interrupt();
+                        break;
+                    } finally {
+                        _waiting = false;
+                    }
+                    if (_wakeup) {
+                        _wakeup = false;
+                        if (_pending.isEmpty())
+                            break;
+                    }
+                }
+            }
+        } finally {
+            end();
+        }
+        synchronized (_lock) {
+            _wakeup = false;
+        }
+        processCancelled();
+        return rv;
+    }
+
+    /**
+     *  Check one key and add it to the selected set if ready.
+     *
+     *  @return 1 if the ready set was updated, else 0
+     */
+    private int update(Key key) {
+        if (!key.isValid())
+            return 0;
+        int ready = ((Selectable) key.channel()).readyOps() & key.interestOps();
+        if (ready == 0)
+            return 0;
+        // checked again next time, while it stays ready
+        if (!key._recheck) {
+            key._recheck = true;
+            _lastSelected.add(key);
+        }
+        if (_selected.add(key)) {
+            key.setReadyOps(ready);
+            return 1;
+        }
+        int old = key.readyOps();
+        if ((old | ready) == old)
+            return 0;
+        key.setReadyOps(old | ready);
+        return 1;
+    }
+
+    /**
+     *  For testing
+     */
+    synchronized int getRecheckCount() {
+        return _lastSelected.size();
+    }
+
+    private void processCancelled() {
+        Set<SelectionKey> cancelled = cancelledKeys();
+        synchronized (cancelled) {
+            if (cancelled.isEmpty())
+                return;
+            for (SelectionKey k : cancelled) {
+                _keys.remove(k);
+                _selected.remove(k);
+                _lastSelected.remove(k);
+                ((Selectable) k.channel()).removeKey((Key) k);
+                deregister((AbstractSelectionKey) k);
+            }
+            cancelled.clear();
+        }
+    }
+
+    public Selector wakeup() {
+        synchronized (_lock) {
+            _wakeup = true;
+            _lock.notifyAll();
+        }
+        return this;
+    }
+
+    protected void implCloseSelector() throws IOException {
+        wakeup();
+        synchronized (this) {
+            for (SelectionKey k : _keys) {
+                k.cancel();
+            }
+            processCancelled();
+            _pending.clear();
+            _lastSelected.clear();
+        }
+    }
+
+    protected SelectionKey register(AbstractSelectableChannel ch, int ops, Object att) {
+        if (!(ch instanceof Selectable))
+            throw new IllegalSelectorException();
+        Key key = new Key(this, ch);
+        key.attach(att);
+        _keys.add(key);
+        ((Selectable) ch).addKey(key);
+        // this queues it, so it's checked on the next select
+        key.interestOps(ops);
+        return key;
+    }
+
+    /**
+     *  Something happened, check the key on the next select.
+     *  Any thread.
+     */
+    private void queue(Key key) {
+        if (!key.enqueue())
+            return;
+        _pending.offer(key);
+        if (_waiting) {
+            synchronized (_lock) {
+                _lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     *  A key for one channel on this selector.
+     *  Stays queued at most once at a time.
+     */
+    static class Key extends AbstractSelectionKey {
+        private final I2PSelector _selector;
+        private final SelectableChannel _channel;
+        private volatile int _interestOps;
+        private volatile int _readyOps;
+        private final AtomicBoolean _queued = new AtomicBoolean();
+        /** in _lastSelected, selector only */
+        private boolean _recheck;
+
+        private Key(I2PSelector selector, SelectableChannel channel) {
+            _selector = selector;
+            _channel = channel;
+        }
+
+        public SelectableChannel channel() { return _channel; }
+
+        public Selector selector() { return _selector; }
+
+        public int interestOps() {
+            if (!isValid())
+                throw new CancelledKeyException();
+            return _interestOps;
+        }
+
+        public SelectionKey interestOps(int ops) {
+            if (!isValid())
+                throw new CancelledKeyException();
+            if ((ops & ~_channel.validOps()) != 0)
+                throw new IllegalArgumentException();
+            _interestOps = ops;
+            channelEvent();
+            return this;
+        }
+
+        public int readyOps() {
+            if (!isValid())
+                throw new CancelledKeyException();
+            return _readyOps;
+        }
+
+        private void setReadyOps(int ops) {
+            _readyOps = ops;
+        }
+
+        /**
+         *  The readiness of the channel may have changed.
+         *  Any thread.
+         */
+        void channelEvent() {
+            if (isValid())
+                _selector.queue(this);
+        }
+
+        /** @return true if not already queued */
+        private boolean enqueue() {
+            return _queued.compareAndSet(false, true);
+        }
+
+        private void dequeued() {
+            _queued.set(false);
+        }
+    }
+
+    /**
+     *  The selected keys may be removed, but not added
+     */
+    private static class UngrowableSet extends AbstractSet<SelectionKey> {
+        private final Set<SelectionKey> _set;
+
+        public UngrowableSet(Set<SelectionKey> set) {
+            _set = set;
+        }
+
+        public int size() { return _set.size(); }
+
+        public Iterator<SelectionKey> iterator() { return _set.iterator(); }
+
+        @Override
+        public boolean contains(Object o) { return _set.contains(o); }
+
+        @Override
+        public boolean remove(Object o) { return _set.remove(o); }
+
+        @Override
+        public void clear() { _set.clear(); }
+
+        @Override
+        public boolean add(SelectionKey k) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package net.i2p.client.streaming.impl;
+
+import java.net.ProtocolFamily;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.AbstractSelector;
+import java.nio.channels.spi.SelectorProvider;
+
+/**
+ *  The provider of the streaming channels and selectors.
+ *  Only openSelector() is supported, the channels come from
+ *  I2PSocketManagerFull.connectChannel(), I2PSocket.getChannel(),
+ *  and I2PServerSocket.getChannel().
+ *
+ *  @since 0.9.59
+ */
+class I2PSelectorProvider extends SelectorProvider {
+
+    static final I2PSelectorProvider INSTANCE = new I2PSelectorProvider();
+
+    private I2PSelectorProvider() {}
+
+    public AbstractSelector openSelector() {
+        return new I2PSelector(this);
+    }
+
+    public DatagramChannel openDatagramChannel() {
+        throw new UnsupportedOperationException();
+    }
+
+    public DatagramChannel openDatagramChannel(ProtocolFamily family) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Pipe openPipe() {
+        throw new UnsupportedOperationException();
+    }
+
+    public ServerSocketChannel openServerSocketChannel() {
+        throw new UnsupportedOperationException();
+    }
+
+    public SocketChannel openSocketChannel() {
+        throw new UnsupportedOperationException();
+    }
+}
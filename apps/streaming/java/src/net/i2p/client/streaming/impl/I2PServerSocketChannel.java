@@ -0,0 +1,87 @@
+package net.i2p.client.streaming.impl;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.i2p.I2PException;
+import net.i2p.client.streaming.AcceptingChannel;
+import net.i2p.client.streaming.I2PSocket;
+
+/**
+ * The AcceptingChannel for a socket manager, so incoming connections
+ * may be accepted by an I2PSelector loop, with OP_ACCEPT.
+ *
+ * In non-blocking mode, accept() returns null if nothing is pending.
+ * In blocking mode, it's the same as I2PServerSocket.accept().
+ *
+ * Closing the channel does not close the server socket.
+ *
+ * @since 0.9.59
+ */
+class I2PServerSocketChannel extends AcceptingChannel implements I2PSelector.Selectable {
+    private final I2PSocketManagerFull _manager;
+    private final List<I2PSelector.Key> _keys = new CopyOnWriteArrayList<I2PSelector.Key>();
+
+    I2PServerSocketChannel(I2PSocketManagerFull manager) {
+        super(manager, I2PSelectorProvider.INSTANCE);
+        _manager = manager;
+    }
+
+    /**
+     *  A SYN was queued, or the server socket was closed.
+     *  Called by the ConnectionHandler, from any thread.
+     */
+    void channelEvent() {
+        for (I2PSelector.Key key : _keys) {
+            key.channelEvent();
+        }
+    }
+
+    /**
+     *  @return a connected socket, or null if none is pending in non-blocking mode,
+     *          or if the server socket timeout expires in blocking mode
+     *  @throws ConnectException if the server socket is closed
+     */
+    @Override
+    public I2PSocket accept() throws I2PException, ConnectException {
+        if (!isOpen())
+            throw new ConnectException("Channel closed");
+        if (isBlocking()) {
+            try {
+                return _manager.receiveSocket();
+            } catch (SocketTimeoutException ste) {
+                return null;
+            }
+        }
+        return _manager.receiveSocketNow();
+    }
+
+    public int validOps() {
+        return SelectionKey.OP_ACCEPT;
+    }
+
+    //// I2PSelector.Selectable methods
+
+    public int readyOps() {
+        return _manager.getConnectionManager().getConnectionHandler().isAcceptReady() ? SelectionKey.OP_ACCEPT : 0;
+    }
+
+    public void addKey(I2PSelector.Key key) {
+        _keys.add(key);
+    }
+
+    public void removeKey(I2PSelector.Key key) {
+        _keys.remove(key);
+    }
+
+    //// AbstractSelectableChannel abstract methods
+
+    protected void implCloseSelectableChannel() {
+        _manager.getConnectionManager().getConnectionHandler().setChannel(null);
+    }
+
+    protected void implConfigureBlocking(boolean block) {}
+}
@@ -15,6 +15,7 @@ import net.i2p.client.streaming.I2PSocketManager;
  */
 class I2PServerSocketFull implements I2PServerSocket {
     private final I2PSocketManagerFull _socketManager;
+    private I2PServerSocketChannel _channel;
     
     public I2PServerSocketFull(I2PSocketManagerFull mgr) {
         _socketManager = mgr;
@@ -40,15 +41,19 @@ class I2PServerSocketFull implements I2PServerSocket {
     }
 
     /**
-     *  Unimplemented, unlikely to ever be implemented.
+     *  For non-blocking accepts with a Selector from
+     *  I2PSocketManagerFull.openSelector().
+     *  Null through 0.9.58.
      *
-     *  @deprecated
-     *  @return null always
+     *  @return non-null as of 0.9.59
      *  @since 0.8.11
      */
-    @Deprecated
     public synchronized AcceptingChannel getChannel() {
-        return null;
+        if (_channel == null || !_channel.isOpen()) {
+            _channel = new I2PServerSocketChannel(_socketManager);
+            _socketManager.getConnectionManager().getConnectionHandler().setChannel(_channel);
+        }
+        return _channel;
     }
     
     public long getSoTimeout() {
@@ -0,0 +1,356 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.IOException;
+import java.net.NoRouteToHostException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.AlreadyConnectedException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.i2p.client.streaming.I2PSocketAddress;
+import net.i2p.client.streaming.I2PSocketException;
+
+/**
+ * A SocketChannel for a streaming connection, so one thread
+ * with an I2PSelector can service many streams.
+ *
+ * In non-blocking mode, read() returns what's been received in order,
+ * and write() buffers and sends as much as fits in the window,
+ * flushing when it takes everything.
+ * Neither waits on the stream locks.
+ * In blocking mode, these are the same as the socket's streams.
+ *
+ * Get one from I2PSocketManagerFull.connectChannel() to connect
+ * without blocking, or from I2PSocket.getChannel() for an existing socket.
+ * It may only be registered with a Selector from I2PSocketManagerFull.openSelector().
+ *
+ * connect() and bind() are unsupported, as is SocketChannel.open().
+ *
+ * @since 0.9.59
+ */
+class I2PSocketChannel extends SocketChannel implements I2PSelector.Selectable {
+    private final I2PSocketFull _socket;
+    /**
+     *  Kept after the socket drops it on disconnect,
+     *  for the data received before a reset, and the reset.
+     *  Null if the socket had none.
+     */
+    private final Connection _connection;
+    private final List<I2PSelector.Key> _keys = new CopyOnWriteArrayList<I2PSelector.Key>();
+    private volatile boolean _connectPending;
+    private Socket _stdSocket;
+
+    /** for blocking reads into direct buffers */
+    private static final int MAX_TEMP = 16*1024;
+
+    /**
+     *  @param connectPending true if the connection has not been established yet
+     */
+    I2PSocketChannel(I2PSocketFull socket, boolean connectPending) {
+        super(I2PSelectorProvider.INSTANCE);
+        _socket = socket;
+        _connection = socket.getConnection();
+        _connectPending = connectPending;
+    }
+
+    /**
+     *  The readiness may have changed.
+     *  Called by the connection, from any thread.
+     */
+    void channelEvent() {
+        for (I2PSelector.Key key : _keys) {
+            key.channelEvent();
+        }
+    }
+
+    //// I2PSelector.Selectable methods
+
+    public int readyOps() {
+        Connection con = _socket.getConnection();
+        if (con == null) {
+            // gone, make everything ready so the caller finds out
+            return _connectPending ? SelectionKey.OP_CONNECT : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        }
+        if (_connectPending)
+            return con.isConnectDone() ? SelectionKey.OP_CONNECT : 0;
+        int rv = 0;
+        if (con.getInputStream().isReadable())
+            rv |= SelectionKey.OP_READ;
+        try {
+            if (!con.isWindowFull())
+                rv |= SelectionKey.OP_WRITE;
+        } catch (IOException ioe) {
+            // write() will throw it
+            rv |= SelectionKey.OP_WRITE;
+        }
+        return rv;
+    }
+
+    public void addKey(I2PSelector.Key key) {
+        _keys.add(key);
+    }
+
+    public void removeKey(I2PSelector.Key key) {
+        _keys.remove(key);
+    }
+
+    //// SocketChannel abstract methods
+
+    public synchronized Socket socket() {
+        if (_stdSocket == null)
+            _stdSocket = new StandardSocket(_socket);
+        return _stdSocket;
+    }
+
+    /**
+     *  @throws UnsupportedOperationException if not connected
+     */
+    public boolean connect(SocketAddress remote) {
+        if (!_connectPending)
+            throw new AlreadyConnectedException();
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     *  In blocking mode, waits for the connect timeout.
+     *
+     *  @return true if connected, false if still pending
+     *  @throws NoRouteToHostException if the connection failed, and the channel is closed
+     */
+    public boolean finishConnect() throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        if (!_connectPending)
+            return true;
+        Connection con = _socket.getConnection();
+        if (con == null) {
+            close();
+            throw new NoRouteToHostException("Connection failed");
+        }
+        if (isBlocking())
+            con.waitForConnect();
+        else if (!con.isConnectDone())
+            return false;
+        String err = con.getConnectionError();
+        if (err == null && !con.getIsConnected())
+            err = "Connection failed";
+        if (err != null) {
+            con.disconnect(false);
+            close();
+            throw new NoRouteToHostException(err);
+        }
+        _connectPending = false;
+        return true;
+    }
+
+    public boolean isConnected() {
+        return !_connectPending && !_socket.isClosed();
+    }
+
+    public boolean isConnectionPending() {
+        return _connectPending && isOpen();
+    }
+
+    public SocketAddress getRemoteAddress() throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        return new I2PSocketAddress(_socket.getPeerDestination(), _socket.getPort());
+    }
+
+    public SocketAddress getLocalAddress() throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        return new I2PSocketAddress(_socket.getThisDestination(), _socket.getLocalPort());
+    }
+
+    public SocketChannel shutdownInput() throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        Connection con = _socket.getConnection();
+        if (con != null)
+            con.getInputStream().close();
+        return this;
+    }
+
+    /**
+     *  Sends a CLOSE after any buffered data. Nonblocking.
+     */
+    public SocketChannel shutdownOutput() throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        Connection con = _socket.getConnection();
+        if (con != null)
+            con.getOutputStream().closeNow();
+        return this;
+    }
+
+    /**
+     *  @throws UnsupportedOperationException always
+     */
+    public SocketChannel bind(SocketAddress local) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     *  @throws UnsupportedOperationException always
+     */
+    public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     *  @throws UnsupportedOperationException always
+     */
+    public <T> T getOption(SocketOption<T> name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public Set<SocketOption<?>> supportedOptions() {
+        return Collections.emptySet();
+    }
+
+    /**
+     *  If the connection is gone, returns what was received first,
+     *  and then -1 or throws the error, without blocking.
+     *
+     *  @return -1 at EOF or if the connection is gone without an error
+     *  @throws IOException with an I2PSocketException as the cause on reset
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        if (_connectPending)
+            throw new NotYetConnectedException();
+        Connection con = _socket.getConnection();
+        boolean gone = con == null;
+        if (gone) {
+            con = _connection;
+            if (con == null)
+                return -1;
+        }
+        MessageInputStream in = con.getInputStream();
+        if (gone || !isBlocking())
+            return in.read(dst);
+        if (!dst.hasRemaining())
+            return 0;
+        int pos = dst.position();
+        int read;
+        if (dst.hasArray()) {
+            read = in.read(dst.array(), dst.arrayOffset() + pos, dst.remaining());
+            if (read > 0)
+                dst.position(pos + read);
+        } else {
+            byte[] tmp = new byte[Math.min(dst.remaining(), MAX_TEMP)];
+            read = in.read(tmp);
+            if (read > 0)
+                dst.put(tmp, 0, read);
+        }
+        return read;
+    }
+
+    /**
+     *  In blocking mode, only the first buffer with space will block.
+     */
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+        long rv = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer dst = dsts[i];
+            if (!dst.hasRemaining())
+                continue;
+            if (rv > 0 && isBlocking())
+                break;
+            int read = read(dst);
+            if (read < 0)
+                return rv > 0 ? rv : -1;
+            rv += read;
+            if (dst.hasRemaining())
+                break;
+        }
+        return rv;
+    }
+
+    /**
+     *  In non-blocking mode, returns 0 when the window is full.
+     *  When all of src is taken, any partial packet is sent right away
+     *  if the window allows, as if flush() were called on the output stream,
+     *  so callers should write in large chunks.
+     *  Otherwise partial packets are sent by the passive flusher.
+     *
+     *  @throws I2PSocketException if the connection was reset
+     */
+    public int write(ByteBuffer src) throws IOException {
+        if (!isOpen())
+            throw new ClosedChannelException();
+        if (_connectPending)
+            throw new NotYetConnectedException();
+        Connection con = _socket.getConnection();
+        Connection c = con != null ? con : _connection;
+        if (c != null && c.getResetReceived())
+            throw new I2PSocketException(I2PSocketException.STATUS_CONNECTION_RESET);
+        if (con == null)
+            throw new IOException("Socket closed");
+        MessageOutputStream out = con.getOutputStream();
+        int len = src.remaining();
+        if (isBlocking()) {
+            if (src.hasArray()) {
+                int pos = src.position();
+                out.write(src.array(), src.arrayOffset() + pos, len);
+                src.position(pos + len);
+            } else {
+                byte[] tmp = new byte[len];
+                src.get(tmp);
+                out.write(tmp);
+            }
+            return len;
+        }
+        int rv = 0;
+        while (src.hasRemaining() && !con.isWindowFull()) {
+            rv += out.write(src);
+        }
+        // all taken, send the partial packet now rather than waiting for the flusher
+        if (rv > 0 && !src.hasRemaining() && !con.isWindowFull())
+            out.flushNow();
+        return rv;
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+        long rv = 0;
+        for (int i = offset; i < offset + length; i++) {
+            ByteBuffer src = srcs[i];
+            rv += write(src);
+            if (src.hasRemaining())
+                break;
+        }
+        return rv;
+    }
+
+    //// AbstractSelectableChannel abstract methods
+
+    /**
+     *  Nonblocking, see I2PSocket.close().
+     *  Sends the CLOSE now, as I2PSocket.close() only does if data is buffered.
+     */
+    protected void implCloseSelectableChannel() throws IOException {
+        Connection con = _socket.getConnection();
+        if (con != null && !_connectPending && con.getIsConnected())
+            con.getOutputStream().closeNow();
+        _socket.close();
+        channelEvent();
+    }
+
+    protected void implConfigureBlocking(boolean block) {}
+
+    @Override
+    public String toString() {
+        return "I2PSocketChannel " + _socket;
+    }
+}
@@ -23,6 +23,7 @@ class I2PSocketFull implements I2PSocket {
     private final Destination _remotePeer;
     private final Destination _localPeer;
     private final AtomicBoolean _closed = new AtomicBoolean();
+    private volatile I2PSocketChannel _channel;
     
     public I2PSocketFull(Connection con, I2PAppContext context) {
         log = context.logManager().getLog(I2PSocketFull.class);
@@ -116,15 +117,37 @@ class I2PSocketFull implements I2PSocket {
     }
 
     /**
-     *  Unimplemented, unlikely to ever be implemented.
+     *  A SocketChannel for use with a Selector from
+     *  I2PSocketManagerFull.openSelector().
+     *  Null through 0.9.58.
      *
-     *  @deprecated
-     *  @return null always
+     *  @return non-null as of 0.9.59, in blocking mode unless from connectChannel()
      *  @since 0.8.9
      */
-    @Deprecated
-    public synchronized SelectableChannel getChannel() {
-        return null;
+    public SelectableChannel getChannel() {
+        return getChannel(false);
+    }
+
+    /**
+     *  @param connectPending true if from I2PSocketManagerFull.connectChannel()
+     *  @since 0.9.59
+     */
+    synchronized I2PSocketChannel getChannel(boolean connectPending) {
+        if (_channel == null)
+            _channel = new I2PSocketChannel(this, connectPending);
+        return _channel;
+    }
+
+    /**
+     *  Tell the channel's selectors that the readiness may have changed.
+     *  Any thread.
+     *
+     *  @since 0.9.59
+     */
+    void channelEvent() {
+        I2PSocketChannel channel = _channel;
+        if (channel != null)
+            channel.channelEvent();
     }
     
     /**
@@ -7,6 +7,8 @@ import java.net.NoRouteToHostException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.util.HashSet;
 import java.util.List;
@@ -385,6 +387,24 @@ public class I2PSocketManagerFull implements I2PSocketManager {
         return sock;
     }
     
+    /**
+     * Nonblocking version of receiveSocket(), for I2PServerSocketChannel.
+     *
+     * @return connected I2PSocket, or null if none is pending
+     * @throws I2PException if session is closed
+     * @throws ConnectException if the server socket is closed
+     * @since 0.9.59
+     */
+    I2PSocket receiveSocketNow() throws I2PException, ConnectException {
+        verifySession();
+        Connection con = _connectionManager.getConnectionHandler().acceptNow();
+        if (con == null)
+            return null;
+        I2PSocketFull sock = new I2PSocketFull(con, _context);
+        con.setSocket(sock);
+        return sock;
+    }
+
     /**
      * Ping the specified peer, returning true if they replied to the ping within 
      * the timeout specified, false otherwise.  This call blocks.
@@ -597,6 +617,61 @@ public class I2PSocketManagerFull implements I2PSocketManager {
         return socket;
     }
 
+    /**
+     * Start a connection without blocking, for use with a Selector
+     * from openSelector(). The returned channel is in non-blocking mode,
+     * register it for OP_CONNECT and call finishConnect() when selected.
+     * Any connect delay in the options is honored, so data written before
+     * the delay expires is bundled in the SYN packet.
+     *
+     * This does not wait if there are too many streams, it fails.
+     *
+     * @param peer Destination to connect to
+     * @param options I2P socket options to be used for connecting, may be null
+     * @return a SocketChannel with the connection pending
+     * @throws TooManyStreamsException if there are too many streams
+     * @throws I2PException if there is some other I2P-related problem
+     * @since 0.9.59
+     */
+    public SocketChannel connectChannel(Destination peer, I2PSocketOptions options) throws I2PException {
+        if (peer == null)
+            throw new NullPointerException();
+        if (options == null)
+            options = _defaultOptions;
+        ConnectionOptions opts;
+        if (options instanceof ConnectionOptions)
+            opts = new ConnectionOptions((ConnectionOptions)options);
+        else
+            opts = new ConnectionOptions(options);
+        // no subsession selection, see connect()
+        I2PSession session = _session;
+        verifySession(session);
+        Connection con = _connectionManager.connect(peer, opts, session, false);
+        if (con == null)
+            throw new TooManyStreamsException("Too many streams, max " + _defaultOptions.getMaxConns());
+        I2PSocketFull socket = new I2PSocketFull(con, _context);
+        con.setSocket(socket);
+        I2PSocketChannel rv = socket.getChannel(true);
+        try {
+            rv.configureBlocking(false);
+        } catch (IOException ioe) {
+            // can't happen, the channel isn't registered
+            throw new I2PException("configure", ioe);
+        }
+        return rv;
+    }
+
+    /**
+     * A Selector for channels from connectChannel(),
+     * I2PSocket.getChannel(), and I2PServerSocket.getChannel().
+     * The JDK selectors can't select on these channels.
+     *
+     * @since 0.9.59
+     */
+    public Selector openSelector() {
+        return I2PSelectorProvider.INSTANCE.openSelector();
+    }
+
     /**
      * Update the global user DSA-only list.
      * This does not affect the hardcoded Ex_UNSUPPORTED_HASHES lists above,
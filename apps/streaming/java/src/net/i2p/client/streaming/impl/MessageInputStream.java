@@ -4,10 +4,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.SocketTimeoutException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
 import net.i2p.I2PAppContext;
 import net.i2p.data.ByteArray;
@@ -27,25 +26,26 @@ import net.i2p.util.Log;
 class MessageInputStream extends InputStream {
     private final Log _log;
     /** 
-     * List of ByteArray objects of data ready to be read,
-     * with the first ByteArray at index 0, and the next
+     * Queue of ByteArray objects of data ready to be read,
+     * with the first ByteArray at the head, and the next
      * actual byte to be read at _readyDataBlockIndex of 
      * that array.
      *
+     * An ArrayDeque as of 0.9.59, was an ArrayList.
      */
-    private final List<ByteArray> _readyDataBlocks;
-    /** current byte index into _readyDataBlocks.get(0) */
+    private final ArrayDeque<ByteArray> _readyDataBlocks;
+    /** current byte index into _readyDataBlocks.peekFirst() */
     private int _readyDataBlockIndex;
     /** highest message ID used in the readyDataBlocks */
     private long _highestReadyBlockId;
     /** highest overall message ID */
     private long _highestBlockId;
     /** 
-     * Message ID (Long) to ByteArray for blocks received
+     * Message ID to ByteArray for blocks received
      * out of order when there are lower IDs not yet 
      * received
      */
-    private final Map<Long, ByteArray> _notYetReadyBlocks;
+    private final BlockMap _notYetReadyBlocks;
     /** 
      * if we have received a flag saying there won't be later messages, EOF
      * after we have cleared what we have received.
@@ -71,11 +71,11 @@ class MessageInputStream extends InputStream {
 
     public MessageInputStream(I2PAppContext ctx, int maxMessageSize, int maxWindowSize, int maxBufferSize) {
         _log = ctx.logManager().getLog(MessageInputStream.class);
-        _readyDataBlocks = new ArrayList<ByteArray>(4);
+        _readyDataBlocks = new ArrayDeque<ByteArray>(4);
         _highestReadyBlockId = -1;
         _highestBlockId = -1;
         _readTimeout = I2PSocketOptionsImpl.DEFAULT_READ_TIMEOUT;
-        _notYetReadyBlocks = new HashMap<Long, ByteArray>(4);
+        _notYetReadyBlocks = new BlockMap();
         _dataLock = new Object();
         _maxMessageSize = maxMessageSize;
         _maxWindowSize = maxWindowSize;
@@ -133,7 +133,7 @@ class MessageInputStream extends InputStream {
             // We do this after the above dup check.
             if (_locallyClosed) {
                 // return true if a not-ready dup, false if not
-                return _notYetReadyBlocks.containsKey(Long.valueOf(messageId));
+                return _notYetReadyBlocks.containsKey(messageId);
             }
             if (messageId < MIN_READY_BUFFERS)
                 return true;
@@ -142,7 +142,7 @@ class MessageInputStream extends InputStream {
             if ((_readyDataBlocks.size() + _notYetReadyBlocks.size()) * _maxMessageSize < _maxBufferSize)
                 return true;
             // not ready dup check
-            if (_notYetReadyBlocks.containsKey(Long.valueOf(messageId)))
+            if (_notYetReadyBlocks.containsKey(messageId))
                 return true;
             // less efficient starting here
             // Here, for the purposes of calculating whether the input stream is full,
@@ -189,25 +189,28 @@ class MessageInputStream extends InputStream {
         }
     }
     private long[] locked_getNacks() {
-        List<Long> ids = null;
-        for (long i = _highestReadyBlockId + 1; i < _highestBlockId; i++) {
-            Long l = Long.valueOf(i);
-            if (_notYetReadyBlocks.containsKey(l)) {
-                // ACK
-            } else {
-                if (ids == null)
-                    ids = new ArrayList<Long>(4);
-                ids.add(l);
-            }
+        // the gaps between the sorted out-of-order IDs
+        int count = 0;
+        long next = _highestReadyBlockId + 1;
+        int sz = _notYetReadyBlocks.size();
+        for (int i = 0; i < sz; i++) {
+            long id = _notYetReadyBlocks.idAt(i);
+            count += id - next;
+            next = id + 1;
         }
-        if (ids != null) {
-            long rv[] = new long[ids.size()];
-            for (int i = 0; i < rv.length; i++)
-                rv[i] = ids.get(i).longValue();
-            return rv;
-        } else {
+        if (count <= 0)
             return null;
+        long rv[] = new long[count];
+        int j = 0;
+        next = _highestReadyBlockId + 1;
+        for (int i = 0; i < sz; i++) {
+            long id = _notYetReadyBlocks.idAt(i);
+            while (next < id) {
+                rv[j++] = next++;
+            }
+            next = id + 1;
         }
+        return rv;
     }
     
     /**
@@ -238,12 +241,10 @@ class MessageInputStream extends InputStream {
             int num = _notYetReadyBlocks.size();
             if (num <= 0) return null;
             blocks = new long[num];
-            int i = 0;
-            for (Long id : _notYetReadyBlocks.keySet()) {
-                blocks[i++] = id.longValue();
+            for (int i = 0; i < num; i++) {
+                blocks[i] = _notYetReadyBlocks.idAt(i);
             }
         }
-        Arrays.sort(blocks);
         return blocks;
     }
 ***/
@@ -288,19 +289,17 @@ class MessageInputStream extends InputStream {
                 StringBuilder buf = new StringBuilder(128);
                 buf.append("Close received, ready bytes: ");
                 long available = 0;
-                for (int i = 0; i < _readyDataBlocks.size(); i++) 
-                    available += _readyDataBlocks.get(i).getValid();
+                for (ByteArray ba : _readyDataBlocks) 
+                    available += ba.getValid();
                 available -= _readyDataBlockIndex;
                 buf.append(available);
                 buf.append(" blocks: ").append(_readyDataBlocks.size());
                 
                 buf.append(" not ready blocks: [");
                 long notAvailable = 0;
-                for (Map.Entry<Long, ByteArray> e : _notYetReadyBlocks.entrySet()) {
-                    Long id = e.getKey();
-                    ByteArray ba = e.getValue();
-                    buf.append(id).append(" ");
-                    notAvailable += ba.getValid();
+                for (int i = 0; i < _notYetReadyBlocks.size(); i++) {
+                    buf.append(_notYetReadyBlocks.idAt(i)).append(" ");
+                    notAvailable += _notYetReadyBlocks.blockAt(i).getValid();
                 }
                 
                 buf.append("] not ready bytes: ").append(notAvailable);
@@ -344,22 +343,22 @@ class MessageInputStream extends InputStream {
                 if (!_locallyClosed && payload.getValid() > 0) {
                     if (_log.shouldLog(Log.DEBUG))
                         _log.debug("accepting bytes as ready: " + payload.getValid());
-                    _readyDataBlocks.add(payload);
+                    _readyDataBlocks.addLast(payload);
                 }
                 _highestReadyBlockId = messageId;
-                long cur = _highestReadyBlockId + 1;
                 // now pull in any previously pending blocks
-                ByteArray ba;
-                while ((ba = _notYetReadyBlocks.remove(Long.valueOf(cur))) != null) {
+                int ready = _notYetReadyBlocks.consecutiveFrom(_highestReadyBlockId + 1);
+                for (int i = 0; i < ready; i++) {
+                    ByteArray ba = _notYetReadyBlocks.blockAt(i);
                     if (ba.getData() != null && ba.getValid() > 0) {
-                        _readyDataBlocks.add(ba);
+                        _readyDataBlocks.addLast(ba);
                     }
                     
                     if (_log.shouldLog(Log.DEBUG))
-                        _log.debug("making ready the block " + cur);
-                    cur++;
+                        _log.debug("making ready the block " + (_highestReadyBlockId + 1));
                     _highestReadyBlockId++;
                 }
+                _notYetReadyBlocks.removeFirst(ready);
                 _dataLock.notifyAll();
             } else {
                 // _notYetReadyBlocks size is limited in canAccept()
@@ -367,11 +366,11 @@ class MessageInputStream extends InputStream {
                     if (_log.shouldInfo())
                         _log.info("Message received on closed stream: " + messageId);
                     // dont need the payload, just the msgId in order
-                    _notYetReadyBlocks.put(Long.valueOf(messageId), DUMMY_BA);
+                    _notYetReadyBlocks.put(messageId, DUMMY_BA);
                 } else {
                     if (_log.shouldInfo())
                         _log.info("Message is out of order: " + messageId);
-                    _notYetReadyBlocks.put(Long.valueOf(messageId), payload);
+                    _notYetReadyBlocks.put(messageId, payload);
                 }
             }
         }
@@ -490,13 +489,13 @@ class MessageInputStream extends InputStream {
                     return i;
                 } else {
                     // either was already ready, or we wait()ed and it arrived
-                    ByteArray cur = _readyDataBlocks.get(0);
+                    ByteArray cur = _readyDataBlocks.peekFirst();
                     int toRead = Math.min(cur.getValid() - _readyDataBlockIndex, length - i);
                     System.arraycopy(cur.getData(), cur.getOffset() + _readyDataBlockIndex, target, offset + i, toRead);
                     _readyDataBlockIndex += toRead;
                     if (cur.getValid() <= _readyDataBlockIndex) {
                         _readyDataBlockIndex = 0;
-                        _readyDataBlocks.remove(0);
+                        _readyDataBlocks.removeFirst();
                     }
                     _readTotal += toRead;
                     if (shouldDebug) {
@@ -518,19 +517,67 @@ class MessageInputStream extends InputStream {
         return length;
     }
     
+    /**
+     *  Nonblocking read, for I2PSocketChannel.
+     *  Ignores the read timeout.
+     *  Data received before a stream error, such as a reset,
+     *  is returned before the error is thrown,
+     *  and data received before the close is returned before EOF.
+     *
+     *  @return bytes read, 0 if none are ready, or -1 at EOF
+     *  @throws IOException with the stream error as the cause, if any,
+     *          once there's nothing left to read
+     *  @since 0.9.59
+     */
+    int read(ByteBuffer target) throws IOException {
+        synchronized (_dataLock) {
+            if (_readyDataBlocks.isEmpty()) {
+                if (_notYetReadyBlocks.isEmpty() && _closeReceived)
+                    return -1;
+                throwAnyError();
+                if (_locallyClosed) throw new IOException("Input stream closed");
+                return 0;
+            }
+            int rv = 0;
+            while (target.hasRemaining() && !_readyDataBlocks.isEmpty()) {
+                ByteArray cur = _readyDataBlocks.peekFirst();
+                int toRead = Math.min(cur.getValid() - _readyDataBlockIndex, target.remaining());
+                target.put(cur.getData(), cur.getOffset() + _readyDataBlockIndex, toRead);
+                _readyDataBlockIndex += toRead;
+                if (cur.getValid() <= _readyDataBlockIndex) {
+                    _readyDataBlockIndex = 0;
+                    _readyDataBlocks.removeFirst();
+                }
+                rv += toRead;
+            }
+            _readTotal += rv;
+            return rv;
+        }
+    }
+
+    /**
+     *  Would a read not block, because there's data, EOF, or an error.
+     *
+     *  @since 0.9.59
+     */
+    boolean isReadable() {
+        synchronized (_dataLock) {
+            return !_readyDataBlocks.isEmpty() || _locallyClosed || _streamError != null ||
+                   (_closeReceived && _notYetReadyBlocks.isEmpty());
+        }
+    }
+
     @Override
     public int available() throws IOException {
         int numBytes = 0;
         synchronized (_dataLock) {
             if (_locallyClosed) throw new IOException("Input stream closed");
             throwAnyError();
-            for (int i = 0; i < _readyDataBlocks.size(); i++) {
-                ByteArray cur = _readyDataBlocks.get(i);
-                if (i == 0)
-                    numBytes += cur.getValid() - _readyDataBlockIndex;
-                else
-                    numBytes += cur.getValid();
+            for (ByteArray cur : _readyDataBlocks) {
+                numBytes += cur.getValid();
             }
+            if (numBytes > 0)
+                numBytes -= _readyDataBlockIndex;
         }
         if (_log.shouldLog(Log.DEBUG))
             _log.debug("available(): " + numBytes + ": " + hashCode());
@@ -549,16 +596,14 @@ class MessageInputStream extends InputStream {
         synchronized (_dataLock) {
             if (_locallyClosed) return 0;
             int numBytes = 0;
-            for (int i = 0; i < _readyDataBlocks.size(); i++) {
-                ByteArray cur = _readyDataBlocks.get(i);
-                if (i == 0)
-                    numBytes += cur.getValid() - _readyDataBlockIndex;
-                else
-                    numBytes += cur.getValid();
-            }
-            for (ByteArray cur : _notYetReadyBlocks.values()) {
+            for (ByteArray cur : _readyDataBlocks) {
                 numBytes += cur.getValid();
             }
+            if (numBytes > 0)
+                numBytes -= _readyDataBlockIndex;
+            for (int i = 0; i < _notYetReadyBlocks.size(); i++) {
+                numBytes += _notYetReadyBlocks.blockAt(i).getValid();
+            }
             return numBytes;
         }
     }
@@ -571,12 +616,11 @@ class MessageInputStream extends InputStream {
         synchronized (_dataLock) {
             if (_locallyClosed) return 0;
             int numBytes = 0;
-            for (int i = 0; i < _readyDataBlocks.size(); i++) {
-                ByteArray cur = _readyDataBlocks.get(i);
+            for (ByteArray cur : _readyDataBlocks) {
                 numBytes += cur.getValid();
-                if (i == 0)
-                    numBytes -= _readyDataBlockIndex;
             }
+            if (numBytes > 0)
+                numBytes -= _readyDataBlockIndex;
             return numBytes;
         }
     }
@@ -588,18 +632,16 @@ class MessageInputStream extends InputStream {
                 StringBuilder buf = new StringBuilder(128);
                 buf.append("close(), ready bytes: ");
                 long available = 0;
-                for (int i = 0; i < _readyDataBlocks.size(); i++) 
-                    available += _readyDataBlocks.get(i).getValid();
+                for (ByteArray ba : _readyDataBlocks) 
+                    available += ba.getValid();
                 available -= _readyDataBlockIndex;
                 buf.append(available);
                 buf.append(" blocks: ").append(_readyDataBlocks.size());
                 buf.append(" not ready blocks: [");
                 long notAvailable = 0;
-                for (Map.Entry<Long, ByteArray> e : _notYetReadyBlocks.entrySet()) {
-                    Long id = e.getKey();
-                    ByteArray ba = e.getValue();
-                    buf.append(id).append(" ");
-                    notAvailable += ba.getValid();
+                for (int i = 0; i < _notYetReadyBlocks.size(); i++) {
+                    buf.append(_notYetReadyBlocks.idAt(i)).append(" ");
+                    notAvailable += _notYetReadyBlocks.blockAt(i).getValid();
                 }
                 buf.append("] not ready bytes: ").append(notAvailable);
                 buf.append(" highest ready block: ").append(_highestReadyBlockId);
@@ -612,10 +654,7 @@ class MessageInputStream extends InputStream {
              
             // we don't need the data, but we do need to keep track of the messageIds
             // received, so we can ACK accordingly
-            for (ByteArray ba : _notYetReadyBlocks.values()) {
-                ba.setData(null);
-                //_cache.release(ba);
-            }
+            _notYetReadyBlocks.clearData();
             _locallyClosed = true;
             _dataLock.notifyAll();
         }
@@ -645,4 +684,87 @@ class MessageInputStream extends InputStream {
             throw ioe2;
         }
     }
+
+    /**
+     *  The out-of-order blocks, sorted by message ID,
+     *  in parallel arrays, so there's no boxing or entry objects.
+     *  Typically no more than a window's worth,
+     *  so inserts by binary search and shift are cheap.
+     *  Caller must lock _dataLock.
+     *
+     *  @since 0.9.59 replaces a HashMap
+     */
+    private static class BlockMap {
+        private long[] _ids = new long[4];
+        private ByteArray[] _blocks = new ByteArray[4];
+        private int _size;
+
+        public int size() { return _size; }
+
+        public boolean isEmpty() { return _size == 0; }
+
+        public long idAt(int i) { return _ids[i]; }
+
+        public ByteArray blockAt(int i) { return _blocks[i]; }
+
+        public boolean containsKey(long id) {
+            return Arrays.binarySearch(_ids, 0, _size, id) >= 0;
+        }
+
+        /**
+         *  Add or replace
+         */
+        public void put(long id, ByteArray block) {
+            int idx = Arrays.binarySearch(_ids, 0, _size, id);
+            if (idx >= 0) {
+                _blocks[idx] = block;
+                return;
+            }
+            idx = -(idx + 1);
+            if (_size == _ids.length) {
+                _ids = Arrays.copyOf(_ids, _size * 2);
+                _blocks = Arrays.copyOf(_blocks, _size * 2);
+            }
+            if (idx < _size) {
+                System.arraycopy(_ids, idx, _ids, idx + 1, _size - idx);
+                System.arraycopy(_blocks, idx, _blocks, idx + 1, _size - idx);
+            }
+            _ids[idx] = id;
+            _blocks[idx] = block;
+            _size++;
+        }
+
+        /**
+         *  @return how many of the first blocks have IDs id, id + 1, id + 2, ...
+         */
+        public int consecutiveFrom(long id) {
+            int i = 0;
+            while (i < _size && _ids[i] == id + i) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         *  Remove the first count blocks
+         */
+        public void removeFirst(int count) {
+            if (count <= 0)
+                return;
+            int remaining = _size - count;
+            System.arraycopy(_ids, count, _ids, 0, remaining);
+            System.arraycopy(_blocks, count, _blocks, 0, remaining);
+            Arrays.fill(_blocks, remaining, _size, null);
+            _size = remaining;
+        }
+
+        /**
+         *  Keep the IDs for acking, drop the data
+         */
+        public void clearData() {
+            for (int i = 0; i < _size; i++) {
+                _blocks[i] = DUMMY_BA;
+            }
+        }
+    }
 }
@@ -3,6 +3,7 @@ package net.i2p.client.streaming.impl;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -205,6 +206,54 @@ class MessageOutputStream extends OutputStream {
         //updateBps(len);
     }
     
+    /**
+     *  Nonblocking write, for I2PSocketChannel.
+     *  Buffers as much of src as fits, and if that fills the buffer,
+     *  sends it without waiting for it to be accepted into the window.
+     *  The caller must check the window first, see Connection.isWindowFull().
+     *
+     *  @return the number of bytes taken from src
+     *  @since 0.9.59
+     */
+    int write(ByteBuffer src) throws IOException {
+        if (_closed.get()) throw new IOException("Output stream closed");
+        int len;
+        synchronized (_dataLock) {
+            final int maxBuffer = (_valid == 0) ? locked_updateBufferSize() : _currentBufferSize;
+            if (_buf == null) throw new IOException("Output stream closed");
+            len = Math.min(src.remaining(), maxBuffer - _valid);
+            src.get(_buf, _valid, len);
+            _valid += len;
+            if (_valid >= maxBuffer) {
+                if (_log.shouldLog(Log.INFO))
+                    _log.info("write(ByteBuffer) direct valid = " + _valid);
+                // ignore the ws, the packet was sent and is in the window
+                _dataReceiver.writeData(_buf, 0, _valid);
+                _written += _valid;
+                _valid = 0;
+            } else {
+                _written += len;
+                _lastBuffered = _context.clock().now();
+                if (_passiveFlushDelay > 0)
+                    _flusher.enqueue();
+            }
+        }
+        throwAnyError();
+        return len;
+    }
+
+    /**
+     *  Nonblocking flush of any partial packet, for I2PSocketChannel.
+     *  The caller must check the window first, see Connection.isWindowFull().
+     *
+     *  @since 0.9.59
+     */
+    void flushNow() throws IOException {
+        if (_valid > 0)
+            flushAvailable(_dataReceiver, false);
+        throwAnyError();
+    }
+
 /****
     private void updateBps(int len) {
         long now = _context.clock().now();
@@ -461,6 +510,24 @@ class MessageOutputStream extends OutputStream {
         clearData(true);
     }
     
+    /**
+     *  Nonblocking close for I2PSocketChannel.shutdownOutput().
+     *  Unlike closeInternal(), this sends a CLOSE even if nothing is buffered,
+     *  with the buffered data if any.
+     *
+     *  @since 0.9.59
+     */
+    void closeNow() throws IOException {
+        if (!_closed.compareAndSet(false,true)) {
+            _log.logCloseLoop("close now");
+            return;
+        }
+        _flusher.cancel();
+        // setting _closed first makes this send a CLOSE
+        flushAvailable(_dataReceiver, false);
+        clearData(false);
+    }
+
     private void clearData(boolean shouldFlush) {
         ByteArray ba = null;
         if (_log.shouldLog(Log.INFO) && _valid > 0)
@@ -79,6 +79,9 @@ class Packet {
     private int _resendDelay;
     private int _flags;
     private ByteArray _payload;
+    /** only for a PayloadBuffer, which may be reused after release */
+    private int _pooledSize;
+    private boolean _payloadReleased;
     private boolean _sigVerified;
     // the next four are set only if the flags say so
     protected Signature _optionSignature;
@@ -299,20 +302,61 @@ class Packet {
         _payload = payload; 
         if ( (payload != null) && (payload.getValid() > MAX_PAYLOAD_SIZE) )
             throw new IllegalArgumentException("Too large payload: " + payload.getValid());
+        if (payload instanceof PayloadBuffer)
+            _pooledSize = payload.getValid();
     }
 
+    /**
+     *  Still valid after releasePayload()
+     */
     public int getPayloadSize() {
-        return (_payload == null ? 0 : _payload.getValid());
+        ByteArray payload = _payload;
+        if (payload instanceof PayloadBuffer)
+            return _pooledSize;
+        return (payload == null ? 0 : payload.getValid());
     }
 
-    /** does nothing right now */
-    public void releasePayload() {
-        //_payload = null;
+    /**
+     *  Drop our reference to a pooled payload, so it may be reused.
+     *  Does nothing for other payloads, or if already released.
+     *  The payload may not be read after this, unless
+     *  retainPayload() succeeded before it.
+     */
+    public synchronized void releasePayload() {
+        if (_payloadReleased)
+            return;
+        ByteArray payload = _payload;
+        if (payload instanceof PayloadBuffer) {
+            _payloadReleased = true;
+            ((PayloadBuffer) payload).release();
+        }
     }
 
-    public ByteArray acquirePayload() {
-        _payload = new ByteArray(new byte[Packet.MAX_PAYLOAD_SIZE]);
-        return _payload;
+    /**
+     *  Take a reference to a pooled payload, to read it outside of
+     *  the thread that may release it. Call unretainPayload() when done.
+     *
+     *  @return false if already released and the payload may not be read
+     *  @since 0.9.59
+     */
+    synchronized boolean retainPayload() {
+        if (_payloadReleased)
+            return false;
+        ByteArray payload = _payload;
+        if (payload instanceof PayloadBuffer)
+            ((PayloadBuffer) payload).retain();
+        return true;
+    }
+
+    /**
+     *  Drop the reference from a successful retainPayload()
+     *
+     *  @since 0.9.59
+     */
+    void unretainPayload() {
+        ByteArray payload = _payload;
+        if (payload instanceof PayloadBuffer)
+            ((PayloadBuffer) payload).release();
     }
 
     /** is a particular flag set on this packet?
@@ -881,8 +925,9 @@ class Packet {
         //else
         //    buf.append('\t');
         toFlagString(buf);
-        if ( (_payload != null) && (_payload.getValid() > 0) )
-            buf.append(" data: ").append(_payload.getValid());
+        int size = getPayloadSize();
+        if (size > 0)
+            buf.append(" data: ").append(size);
         return buf;
     }
     
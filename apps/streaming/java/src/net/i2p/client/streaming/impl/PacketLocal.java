@@ -183,12 +183,18 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
     public Connection getConnection() { return _connection; }
 
     /**
-     *  Will force a fast restransmit on the 3rd call (FAST_RETRANSMIT_THRESHOLD)
+     *  Will force a fast restransmit on the 3rd call (FAST_RETRANSMIT_THRESHOLD),
+     *  or on the first call if at least FAST_RETRANSMIT_THRESHOLD later packets
+     *  were selectively acked, as in RFC 6675,
      *  but only if it's the lowest unacked (see Connection.ResendPacketEvent)
+     *
+     *  @param sacked how many packets sent after this one were acked
+     *  @since 0.9.59 added sacked param
      */
-    public void incrementNACKs() { 
+    public void incrementNACKs(int sacked) { 
         final int cnt = _nackCount.incrementAndGet();
-        if (cnt >= Connection.FAST_RETRANSMIT_THRESHOLD && (!_retransmitted) &&
+        if ((cnt >= Connection.FAST_RETRANSMIT_THRESHOLD || sacked >= Connection.FAST_RETRANSMIT_THRESHOLD) &&
+            (!_retransmitted) &&
             (_numSends.get() == 1 || _lastSend < _context.clock().now() - 4*1000)) {  // Don't fast retx if we recently resent it
             _retransmitted = true;
             Connection.ResendPacketEvent evt = _connection.newResendPacketEvent(this);
@@ -341,8 +347,10 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
             if (accepted) {
                 _acceptedOn = _context.clock().now();
             } else {
+                // Don't release the payload, the packet is already
+                // in the window and may be retransmitted.
+                // It's released when acked or cancelled.
                 _acceptedOn = -1;
-                releasePayload();
             }
             if ( (_acceptedOn - before > 1000) && (_log.shouldLog(Log.DEBUG)) )  {
                 int queued = _connection.getUnackedPacketsSent();
@@ -361,29 +369,24 @@ class PacketLocal extends Packet implements MessageOutputStream.WriteStatus {
     /** block until the packet is acked from the far end */
     public void waitForCompletion(int maxWaitMs) throws IOException, InterruptedException {
         long expiration = _context.clock().now()+maxWaitMs;
-        try {
-            while (true) {
-                long timeRemaining = expiration - _context.clock().now();
-                if ( (timeRemaining <= 0) && (maxWaitMs > 0) ) break;
-                synchronized (this) {
-                    if (_ackOn > 0) break;
-                    if (!_connection.getIsConnected()) {
-                        if (_connection.getResetReceived())
-                            throw new I2PSocketException(I2PSocketException.STATUS_CONNECTION_RESET);
-                        throw new IOException("disconnected");
-                    }
-                    if (_cancelledOn > 0)
-                        throw new IOException("cancelled");
-                    if (timeRemaining > 60*1000)
-                        timeRemaining = 60*1000;
-                    else if (timeRemaining <= 0)
-                        timeRemaining = 10*1000;
-                    wait(timeRemaining);
+        while (true) {
+            long timeRemaining = expiration - _context.clock().now();
+            if ( (timeRemaining <= 0) && (maxWaitMs > 0) ) break;
+            synchronized (this) {
+                if (_ackOn > 0) break;
+                if (!_connection.getIsConnected()) {
+                    if (_connection.getResetReceived())
+                        throw new I2PSocketException(I2PSocketException.STATUS_CONNECTION_RESET);
+                    throw new IOException("disconnected");
                 }
+                if (_cancelledOn > 0)
+                    throw new IOException("cancelled");
+                if (timeRemaining > 60*1000)
+                    timeRemaining = 60*1000;
+                else if (timeRemaining <= 0)
+                    timeRemaining = 10*1000;
+                wait(timeRemaining);
             }
-        } finally {
-            if (!writeSuccessful())
-                releasePayload();
         }
     }
     
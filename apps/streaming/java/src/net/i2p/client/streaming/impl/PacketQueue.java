@@ -94,6 +94,13 @@ class PacketQueue implements SendMessageStatusListener, Closeable {
             con.getInputStream().updateAcks(packet);
         }
     
+        // an ack in another thread may release a pooled payload at any time
+        if (!packet.retainPayload()) {
+            if (_log.shouldLog(Log.DEBUG))
+                _log.debug("Not resending, released " + packet);
+            return false;
+        }
+
         ByteArray ba = _cache.acquire();
         byte buf[] = ba.getData();
 
@@ -112,7 +119,8 @@ class PacketQueue implements SendMessageStatusListener, Closeable {
             //    _log.warn("took " + writeTime + "ms to write the packet: " + packet);
 
             // last chance to short circuit...
-            if (packet.getAckTime() > 0) return false;
+            if (packet.getAckTime() > 0)
+                return false;
             
             // this should not block!
             begin = _context.clock().now();
@@ -223,29 +231,34 @@ class PacketQueue implements SendMessageStatusListener, Closeable {
                 if (packet.getNumSends() > 1)
                     con.incrementDupMessagesSent(1);
             }
+
+            if (sent) {
+                //packet.setKeyUsed(keyUsed);
+                //packet.setTagsSent(tagsSent);
+                packet.incrementSends();
+                // these read the payload, so before the finally
+                if (con != null && _log.shouldDebug()) {
+                    String suffix = "wsize " + con.getOptions().getWindowSize() + " rto " + con.getOptions().getRTO();
+                    con.getConnectionManager().getPacketHandler().displayPacket(packet, "SEND", suffix);
+                }
+                if (I2PSocketManagerFull.pcapWriter != null &&
+                    _context.getBooleanProperty(I2PSocketManagerFull.PROP_PCAP))
+                    packet.logTCPDump();
+            }
         } catch (I2PSessionException ise) {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("Unable to send the packet " + packet, ise);
+        } finally {
+            // balance the retain above, even on a RuntimeException
+            _cache.release(ba);
+            packet.unretainPayload();
         }
         
-        _cache.release(ba);
-        
         if (!sent) {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("Send failed for " + packet);
             if (con != null) // handle race on b0rk
                 con.disconnect(false);
-        } else {
-            //packet.setKeyUsed(keyUsed);
-            //packet.setTagsSent(tagsSent);
-            packet.incrementSends();
-            if (con != null && _log.shouldDebug()) {
-                String suffix = "wsize " + con.getOptions().getWindowSize() + " rto " + con.getOptions().getRTO();
-                con.getConnectionManager().getPacketHandler().displayPacket(packet, "SEND", suffix);
-            }
-            if (I2PSocketManagerFull.pcapWriter != null &&
-                _context.getBooleanProperty(I2PSocketManagerFull.PROP_PCAP))
-                packet.logTCPDump();
         }
         
         if ( (packet.getSequenceNum() == 0) && (!packet.isFlagSet(Packet.FLAG_SYNCHRONIZE)) ) {
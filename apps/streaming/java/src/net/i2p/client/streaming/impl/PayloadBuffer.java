@@ -0,0 +1,95 @@
+package net.i2p.client.streaming.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.data.ByteArray;
+import net.i2p.util.TryCache;
+
+/**
+ *  A reference counted payload for an outbound packet, from a pool.
+ *
+ *  The data written to the stream is copied once into one of these
+ *  in ConnectionDataReceiver, and it is held by the PacketLocal until
+ *  the packet is acked or cancelled. Then the owner's reference is released,
+ *  and when the last reference is released, the buffer goes back to the pool.
+ *
+ *  Anything that reads the data after the packet is built, in another thread
+ *  from the ack, must retain() it first and release() it when done.
+ *  See PacketQueue.enqueue().
+ *
+ *  Payloads larger than POOLED_SIZE are not pooled,
+ *  and are plain ByteArrays.
+ *
+ *  @since 0.9.59
+ */
+class PayloadBuffer extends ByteArray {
+    private static final long serialVersionUID = 1L;
+    private final AtomicInteger _refs = new AtomicInteger();
+
+    /**
+     *  The default max message size for ratchet connections.
+     *  Larger payloads are rare; they aren't pooled.
+     */
+    static final int POOLED_SIZE = ConnectionOptions.DEFAULT_MAX_MESSAGE_SIZE_RATCHET;
+    private static final int POOL_SIZE = 256;
+
+    private static final TryCache<PayloadBuffer> _pool = new TryCache<PayloadBuffer>(new Factory(), POOL_SIZE);
+
+    private static class Factory implements TryCache.ObjectFactory<PayloadBuffer> {
+        public PayloadBuffer newInstance() {
+            return new PayloadBuffer();
+        }
+    }
+
+    private PayloadBuffer() {
+        super(new byte[POOLED_SIZE]);
+    }
+
+    /**
+     *  A copy of the data, with one reference, held by the caller.
+     *
+     *  @param buf may be null if size is zero
+     *  @return a PayloadBuffer, or a ByteArray if size is zero or more than POOLED_SIZE
+     */
+    static ByteArray copyOf(byte[] buf, int off, int size) {
+        if (size <= 0 || size > POOLED_SIZE) {
+            ByteArray rv = new ByteArray(new byte[size]);
+            if (size > 0)
+                System.arraycopy(buf, off, rv.getData(), 0, size);
+            return rv;
+        }
+        PayloadBuffer rv = _pool.acquire();
+        System.arraycopy(buf, off, rv.getData(), 0, size);
+        rv.setOffset(0);
+        rv.setValid(size);
+        rv._refs.set(1);
+        return rv;
+    }
+
+    /**
+     *  Take another reference.
+     *  Only valid while the caller knows another reference is held.
+     */
+    void retain() {
+        _refs.incrementAndGet();
+    }
+
+    /**
+     *  Drop a reference, and return to the pool if it was the last one.
+     *  Do not use after calling.
+     */
+    void release() {
+        int refs = _refs.decrementAndGet();
+        if (refs == 0)
+            _pool.release(this);
+        else if (refs < 0)
+            throw new IllegalStateException("Payload released too many times");
+    }
+
+    /**
+     *  For tests
+     */
+    int refCount() {
+        return _refs.get();
+    }
+}
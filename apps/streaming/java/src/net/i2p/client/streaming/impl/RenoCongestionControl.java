@@ -0,0 +1,74 @@
+package net.i2p.client.streaming.impl;
+
+import java.util.Random;
+
+/**
+ *  The original streaming window algorithm, moved from
+ *  ConnectionPacketHandler.adjustWindow() and Connection.
+ *
+ *  Slow start below the threshold, with the slow start growth rate factor,
+ *  then a linear increase of 1/N per RTT, where N is the
+ *  congestion avoidance growth rate factor.
+ *  On loss, the threshold is set to the bandwidth estimate times the
+ *  minimum RTT, but never more than MAX_SLOW_START_WINDOW.
+ *
+ *  @since 0.9.59
+ */
+class RenoCongestionControl implements CongestionControl {
+    private final Random _rnd;
+    private volatile int _ssthresh;
+
+    public RenoCongestionControl(Random rnd) {
+        _rnd = rnd;
+        _ssthresh = ConnectionPacketHandler.MAX_SLOW_START_WINDOW;
+    }
+
+    public int getSlowStartThreshold() {
+        return _ssthresh;
+    }
+
+    public synchronized int acked(ConnectionOptions opts, int acked, long now) {
+        int newWindowSize = opts.getWindowSize();
+        int ssthresh = _ssthresh;
+        if (newWindowSize < ssthresh) {
+            // slow start - exponential growth
+            // grow acked/N times (where N = the slow start factor)
+            // always grow at least 1
+            int factor = opts.getSlowStartGrowthRateFactor();
+            if (factor <= 1) {
+                // above a certain point, don't grow exponentially
+                // as it often leads to a big packet loss (30-50) all at once that
+                // takes quite a while (a minute or more) to recover from,
+                // especially if crypto tags are lost
+                newWindowSize = Math.min(ssthresh, newWindowSize + acked);
+            } else if (acked < factor)
+                newWindowSize++;
+            else
+                newWindowSize += acked / factor;
+        } else {
+            // congestion avoidance
+            // linear growth - increase window 1/N per RTT
+            // we can't use newWindowSize += acked/(oldWindow*N) (where N = the cong. avoid. factor), since we're
+            // integers, so lets use a random distribution instead
+            int shouldIncrement = _rnd.nextInt(opts.getCongestionAvoidanceGrowthRateFactor()*newWindowSize);
+            if (shouldIncrement < acked)
+                newWindowSize++;
+        }
+        return newWindowSize;
+    }
+
+    public synchronized int fastRetransmit(ConnectionOptions opts, float bwe, long now) {
+        setThreshold(opts, bwe);
+        return Math.min(_ssthresh, opts.getWindowSize());
+    }
+
+    public synchronized int timeout(ConnectionOptions opts, float bwe, long now) {
+        setThreshold(opts, bwe);
+        return 1;
+    }
+
+    private void setThreshold(ConnectionOptions opts, float bwe) {
+        int ssthresh = Math.max((int) (bwe * opts.getMinRTT()), 2);
+        _ssthresh = Math.min(ConnectionPacketHandler.MAX_SLOW_START_WINDOW, ssthresh);
+    }
+}
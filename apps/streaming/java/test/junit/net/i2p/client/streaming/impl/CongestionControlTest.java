@@ -0,0 +1,87 @@
+package net.i2p.client.streaming.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *  The window arithmetic of the congestion controls,
+ *  driven with a simulated clock.
+ */
+public class CongestionControlTest {
+
+    private static ConnectionOptions options(int window, int rtt) {
+        ConnectionOptions opts = new ConnectionOptions();
+        opts.setWindowSize(window);
+        opts.updateRTT(rtt);
+        return opts;
+    }
+
+    @Test
+    public void testReno() {
+        RenoCongestionControl cc = new RenoCongestionControl(new Random(1));
+        ConnectionOptions opts = options(10, 1000);
+        assertEquals(ConnectionPacketHandler.MAX_SLOW_START_WINDOW, cc.getSlowStartThreshold());
+        // slow start
+        assertEquals(13, cc.acked(opts, 3, 0));
+        // SST to bwe * min RTT
+        opts.setWindowSize(20);
+        assertEquals(10, cc.fastRetransmit(opts, 0.01f, 0));
+        assertEquals(10, cc.getSlowStartThreshold());
+        assertEquals(1, cc.timeout(opts, 0.5f, 0));
+        assertEquals(ConnectionPacketHandler.MAX_SLOW_START_WINDOW, cc.getSlowStartThreshold());
+    }
+
+    @Test
+    public void testCubic() {
+        CubicCongestionControl cc = new CubicCongestionControl();
+        ConnectionOptions opts = options(100, 1000);
+        assertEquals(70, cc.fastRetransmit(opts, 0, 0));
+        assertEquals(70, cc.getSlowStartThreshold());
+        opts.setWindowSize(70);
+        // one window acked per RTT, 10 acks per RTT
+        long now = 0;
+        int atK = 0;
+        for (int i = 0; i < 80; i++) {
+            now += 100;
+            int w = opts.getWindowSize();
+            opts.setWindowSize(cc.acked(opts, Math.max(w / 10, 1), now));
+            if (now == 4000)
+                atK = opts.getWindowSize();
+        }
+        // back to the window at the loss after K = cbrt(100 * 0.3 / 0.4) = 4.2 seconds,
+        // where Reno would be at 74
+        assertTrue("window at K " + atK, atK >= 95 && atK <= 105);
+        // and beyond
+        assertTrue("window " + opts.getWindowSize(), opts.getWindowSize() > 110);
+        assertEquals(1, cc.timeout(opts, 0, now));
+        assertTrue(cc.getSlowStartThreshold() > 70);
+    }
+
+    @Test
+    public void testBBR() {
+        BBRCongestionControl cc = new BBRCongestionControl();
+        ConnectionOptions opts = options(4, 1000);
+        assertEquals("STARTUP", cc.getMode());
+        // a 50 packets/second bottleneck, so a BDP of 50
+        long now = 0;
+        for (int i = 0; i < 300; i++) {
+            now += 100;
+            opts.setWindowSize(cc.acked(opts, 5, now));
+        }
+        assertEquals("PROBE_BW", cc.getMode());
+        float bw = cc.getBottleneckBandwidth();
+        assertTrue("bw " + bw, bw > 0.045f && bw < 0.055f);
+        int w = opts.getWindowSize();
+        assertTrue("window " + w, w >= 70 && w <= 130);
+        // loss is not a signal
+        assertEquals(w, cc.fastRetransmit(opts, 0, now));
+        // timeout to 1, then back to the model
+        opts.setWindowSize(cc.timeout(opts, 0, now));
+        assertEquals(1, opts.getWindowSize());
+        opts.setWindowSize(cc.acked(opts, 1, now + 100));
+        assertTrue("window " + opts.getWindowSize(), opts.getWindowSize() >= 70);
+    }
+}
@@ -0,0 +1,240 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.I2PException;
+import net.i2p.client.I2PClientFactory;
+import net.i2p.client.I2PSession;
+import net.i2p.client.I2PSessionException;
+import net.i2p.client.I2PSessionMuxedListener;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Destination;
+import net.i2p.data.PrivateKey;
+import net.i2p.data.PrivateKeyFile;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.util.I2PThread;
+
+/**
+ *  Two in-JVM I2PSessions connected by an emulated link,
+ *  for streaming tests and benchmarks without a router.
+ *
+ *  Each direction has a bottleneck rate, a drop-tail queue,
+ *  a one way delay, and random loss, as a tunnel pair would.
+ *  The sessions are Proxy instances that implement only what
+ *  the streaming lib uses: the keys, sendMessage(), receiveMessage(),
+ *  and the muxed listener. Everything else is a no-op.
+ *
+ *  Public for the benchmarks, which get it from the streaming test jar.
+ *
+ *  @since 0.9.59
+ */
+public class EmulatedLink {
+    private final Side _a, _b;
+
+    /**
+     *  @param kBps bottleneck rate, each direction
+     *  @param delay one way, ms
+     *  @param queue drop-tail queue at the bottleneck, bytes
+     *  @param loss random loss, 0 to 1
+     */
+    public EmulatedLink(int kBps, int delay, int queue, double loss, long seed) throws I2PException, IOException {
+        _a = new Side("a", kBps, delay, queue, loss, new Random(seed));
+        _b = new Side("b", kBps, delay, queue, loss, new Random(seed + 1));
+        _a._peer = _b;
+        _b._peer = _a;
+    }
+
+    public I2PSession getSessionA() { return _a._session; }
+
+    public I2PSession getSessionB() { return _b._session; }
+
+    /**
+     *  @return packets dropped in both directions
+     */
+    public int getDropped() { return _a._dropped.get() + _b._dropped.get(); }
+
+    public void start() {
+        _a.start();
+        _b.start();
+    }
+
+    public void stop() {
+        _a._alive = false;
+        _b._alive = false;
+        _a._thread.interrupt();
+        _b._thread.interrupt();
+    }
+
+    /**
+     *  One session, and the link to its peer
+     */
+    private static class Side implements InvocationHandler, Runnable {
+        private final String _name;
+        private final I2PSession _session;
+        private final Destination _dest;
+        private final PrivateKey _privKey;
+        private final SigningPrivateKey _signingKey;
+        private final double _bytesPerNs;
+        private final long _delay;
+        private final int _queue;
+        private final double _loss;
+        private final Random _rnd;
+        private final DelayQueue<Delivery> _inFlight = new DelayQueue<Delivery>();
+        private final Map<Integer, byte[]> _received = new ConcurrentHashMap<Integer, byte[]>();
+        private final AtomicInteger _msgId = new AtomicInteger();
+        private final AtomicInteger _dropped = new AtomicInteger();
+        private final Thread _thread;
+        private volatile I2PSessionMuxedListener _listener;
+        private volatile boolean _alive;
+        private Side _peer;
+        /** when the bottleneck is free, ns */
+        private long _departure;
+
+        public Side(String name, int kBps, int delay, int queue, double loss, Random rnd) throws I2PException, IOException {
+            _name = name;
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+            I2PClientFactory.createClient().createDestination(baos, SigType.EdDSA_SHA512_Ed25519);
+            try {
+                PrivateKeyFile pkf = new PrivateKeyFile(new ByteArrayInputStream(baos.toByteArray()));
+                _dest = pkf.getDestination();
+                _privKey = pkf.getPrivKey();
+                _signingKey = pkf.getSigningPrivKey();
+            } catch (I2PSessionException ise) {
+                throw new I2PException("bad keys", ise);
+            }
+            _bytesPerNs = kBps * 1024 / 1000000000d;
+            _delay = TimeUnit.MILLISECONDS.toNanos(delay);
+            _queue = queue;
+            _loss = loss;
+            _rnd = rnd;
+            _session = (I2PSession) Proxy.newProxyInstance(I2PSession.class.getClassLoader(),
+                                                           new Class<?>[] { I2PSession.class }, this);
+            _thread = new I2PThread(this, "Link " + name, true);
+        }
+
+        public void start() {
+            _alive = true;
+            _thread.start();
+        }
+
+        /**
+         *  Put a message on the link to the peer, or drop it
+         */
+        private synchronized void send(byte[] data, int fromPort, int toPort) {
+            long now = System.nanoTime();
+            if (_departure < now)
+                _departure = now;
+            else if ((_departure - now) * _bytesPerNs + data.length > _queue) {
+                _dropped.incrementAndGet();
+                return;
+            }
+            _departure += (long) (data.length / _bytesPerNs);
+            if (_loss > 0 && _rnd.nextDouble() < _loss) {
+                _dropped.incrementAndGet();
+                return;
+            }
+            _inFlight.offer(new Delivery(data, fromPort, toPort, _departure + _delay));
+        }
+
+        /**
+         *  Deliver to the peer when due
+         */
+        public void run() {
+            while (_alive) {
+                Delivery d;
+                try {
+                    d = _inFlight.take();
+                } catch (InterruptedException ie) {
+                    break;
+                }
+                _peer.receive(d);
+            }
+        }
+
+        private void receive(Delivery d) {
+            I2PSessionMuxedListener l = _listener;
+            if (l == null)
+                return;
+            int id = _msgId.incrementAndGet();
+            _received.put(Integer.valueOf(id), d.data);
+            l.messageAvailable(_session, id, d.data.length, I2PSession.PROTO_STREAMING, d.fromPort, d.toPort);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String m = method.getName();
+            if (m.equals("sendMessage")) {
+                byte[] payload = (byte[]) args[1];
+                int off = (Integer) args[2];
+                int len = (Integer) args[3];
+                byte[] data = new byte[len];
+                System.arraycopy(payload, off, data, 0, len);
+                send(data, (Integer) args[5], (Integer) args[6]);
+                return method.getReturnType() == Long.TYPE ? Long.valueOf(0) : Boolean.TRUE;
+            }
+            if (m.equals("receiveMessage"))
+                return _received.remove(args[0]);
+            if (m.equals("addMuxedSessionListener")) {
+                _listener = (I2PSessionMuxedListener) args[0];
+                return null;
+            }
+            if (m.equals("getMyDestination"))
+                return _dest;
+            if (m.equals("getPrivateKey"))
+                return _signingKey;
+            if (m.equals("getDecryptionKey"))
+                return _privKey;
+            if (m.equals("getSubsessions"))
+                return Collections.emptyList();
+            if (m.equals("toString"))
+                return "EmulatedSession " + _name;
+            if (m.equals("hashCode"))
+                return Integer.valueOf(System.identityHashCode(proxy));
+            if (m.equals("equals"))
+                return Boolean.valueOf(proxy == args[0]);
+            // everything else: not offline, not closed, no-op
+            Class<?> rt = method.getReturnType();
+            if (rt == Boolean.TYPE)
+                return Boolean.FALSE;
+            if (rt == Long.TYPE)
+                return Long.valueOf(0);
+            if (rt == Integer.TYPE)
+                return Integer.valueOf(0);
+            return null;
+        }
+    }
+
+    private static class Delivery implements Delayed {
+        final byte[] data;
+        final int fromPort, toPort;
+        /** System.nanoTime() */
+        final long due;
+
+        public Delivery(byte[] data, int fromPort, int toPort, long due) {
+            this.data = data;
+            this.fromPort = fromPort;
+            this.toPort = toPort;
+            this.due = due;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed o) {
+            return Long.compare(due, ((Delivery) o).due);
+        }
+    }
+}
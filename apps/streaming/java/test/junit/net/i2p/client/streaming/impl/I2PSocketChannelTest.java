@@ -0,0 +1,395 @@
+package net.i2p.client.streaming.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NotYetConnectedException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.client.streaming.AcceptingChannel;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.I2PSocketException;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.data.DataHelper;
+import net.i2p.util.FileUtil;
+
+/**
+ *  I2PSelector, I2PSocketChannel, and I2PServerSocketChannel,
+ *  between two socket managers over an EmulatedLink.
+ */
+public class I2PSocketChannelTest {
+    /** one way, so nothing arrives before we look */
+    private static final int DELAY = 50;
+    private static final long TIMEOUT = 10*1000;
+
+    private static File _dir;
+    private static I2PAppContext _context;
+    private EmulatedLink _link;
+    private I2PSocketManagerFull _client, _server;
+    private AcceptingChannel _serverChannel;
+    private Selector _clientSelector, _serverSelector;
+    /** the server side of the last connect() */
+    private I2PSocket _serverSocket;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        _dir = Files.createTempDirectory("channeltest").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", _dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", _dir.getAbsolutePath());
+        _context = new I2PAppContext(props);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        FileUtil.rmdir(_dir, false);
+    }
+
+    /** new managers each time, so the connections don't carry over */
+    @Before
+    public void setUp() throws Exception {
+        _link = new EmulatedLink(16*1024, DELAY, 1024*1024, 0, 42);
+        _client = new I2PSocketManagerFull(_context, _link.getSessionA(), new Properties(), "test client",
+                                           IncomingConnectionFilter.ALLOW);
+        _server = new I2PSocketManagerFull(_context, _link.getSessionB(), new Properties(), "test server",
+                                           IncomingConnectionFilter.ALLOW);
+        _link.start();
+        _serverChannel = _server.getServerSocket().getChannel();
+        _serverChannel.configureBlocking(false);
+        _clientSelector = _client.openSelector();
+        _serverSelector = _server.openSelector();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _clientSelector.close();
+        _serverSelector.close();
+        _client.destroySocketManager();
+        _server.destroySocketManager();
+        _link.stop();
+    }
+
+    /**
+     *  Connect and accept through the selectors.
+     *
+     *  @return client and server channels, both non-blocking and unregistered
+     */
+    private SocketChannel[] connect() throws Exception {
+        return connect(_client.connectChannel(_server.getSession().getMyDestination(), null));
+    }
+
+    /**
+     *  @param client pending
+     */
+    private SocketChannel[] connect(SocketChannel client) throws Exception {
+        SelectionKey akey = _serverChannel.register(_serverSelector, SelectionKey.OP_ACCEPT);
+        assertFalse(client.isBlocking());
+        SelectionKey ckey = client.register(_clientSelector, SelectionKey.OP_CONNECT);
+
+        assertEquals(1, _serverSelector.select(TIMEOUT));
+        assertTrue(_serverSelector.selectedKeys().contains(akey));
+        assertTrue(akey.isAcceptable());
+        _serverSelector.selectedKeys().clear();
+        I2PSocket sock = _serverChannel.accept();
+        assertNotNull(sock);
+        assertNull(_serverChannel.accept());
+        _serverSocket = sock;
+        SocketChannel server = (SocketChannel) sock.getChannel();
+        server.configureBlocking(false);
+        akey.cancel();
+
+        assertEquals(1, _clientSelector.select(TIMEOUT));
+        assertTrue(ckey.isConnectable());
+        _clientSelector.selectedKeys().clear();
+        assertTrue(client.finishConnect());
+        assertTrue(client.isConnected());
+        assertFalse(client.isConnectionPending());
+        ckey.cancel();
+        // deregister the cancelled keys
+        _clientSelector.selectNow();
+        _serverSelector.selectNow();
+        return new SocketChannel[] { client, server };
+    }
+
+    /**
+     *  Select until the key is selected with op ready
+     */
+    private static void waitFor(Selector sel, SelectionKey key, int op) throws Exception {
+        long expire = System.currentTimeMillis() + TIMEOUT;
+        while ((key.readyOps() & op) == 0 || !sel.selectedKeys().contains(key)) {
+            long wait = expire - System.currentTimeMillis();
+            assertTrue("timeout", wait > 0);
+            sel.select(wait);
+        }
+    }
+
+    @Test
+    public void testConnectAndAccept() throws Exception {
+        // nothing pending
+        assertNull(_serverChannel.accept());
+        _serverChannel.register(_serverSelector, SelectionKey.OP_ACCEPT);
+        assertEquals(0, _serverSelector.selectNow());
+
+        SocketChannel client = _client.connectChannel(_server.getSession().getMyDestination(), null);
+        assertTrue(client.isConnectionPending());
+        assertFalse(client.isConnected());
+        // the SYN hasn't arrived yet
+        assertFalse(client.finishConnect());
+        try {
+            client.read(ByteBuffer.allocate(16));
+            fail();
+        } catch (NotYetConnectedException nyce) {}
+        try {
+            client.write(ByteBuffer.allocate(16));
+            fail();
+        } catch (NotYetConnectedException nyce) {}
+
+        _serverSelector.keys().iterator().next().cancel();
+        _serverSelector.selectNow();
+        SocketChannel[] chs = connect(client);
+        assertTrue(chs[1].isConnected());
+        // already connected
+        assertTrue(chs[0].finishConnect());
+    }
+
+    @Test
+    public void testReadLevelTriggered() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SocketChannel server = chs[1];
+        SelectionKey key = client.register(_clientSelector, SelectionKey.OP_READ);
+        assertEquals(0, _clientSelector.selectNow());
+        // nothing received
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        assertEquals(0, client.read(buf));
+
+        byte[] data = DataHelper.getASCII("hello world");
+        assertEquals(data.length, server.write(ByteBuffer.wrap(data)));
+        waitFor(_clientSelector, key, SelectionKey.OP_READ);
+        assertTrue(key.isReadable());
+
+        // not read, selected again
+        _clientSelector.selectedKeys().clear();
+        assertEquals(1, _clientSelector.selectNow());
+        assertTrue(_clientSelector.selectedKeys().contains(key));
+
+        // partly read, selected again
+        assertEquals(4, client.read(buf));
+        _clientSelector.selectedKeys().clear();
+        assertEquals(1, _clientSelector.selectNow());
+
+        // all read, not selected
+        ByteBuffer rest = ByteBuffer.allocate(64);
+        assertEquals(data.length - 4, client.read(rest));
+        assertEquals(0, client.read(rest));
+        _clientSelector.selectedKeys().clear();
+        assertEquals(0, _clientSelector.selectNow());
+        assertTrue(_clientSelector.selectedKeys().isEmpty());
+        buf.flip();
+        rest.flip();
+        byte[] rcvd = new byte[data.length];
+        buf.get(rcvd, 0, 4);
+        rest.get(rcvd, 4, data.length - 4);
+        assertArrayEquals(data, rcvd);
+    }
+
+    @Test
+    public void testReadEOF() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SocketChannel server = chs[1];
+        SelectionKey key = client.register(_clientSelector, SelectionKey.OP_READ);
+        server.write(ByteBuffer.wrap(new byte[10]));
+        server.shutdownOutput();
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        long expire = System.currentTimeMillis() + TIMEOUT;
+        int read;
+        while ((read = client.read(buf)) >= 0) {
+            assertTrue("timeout", System.currentTimeMillis() < expire);
+            _clientSelector.selectedKeys().clear();
+            _clientSelector.select(1000);
+        }
+        assertEquals(10, buf.position());
+        // EOF stays readable
+        _clientSelector.selectedKeys().clear();
+        assertEquals(1, _clientSelector.selectNow());
+        assertTrue(key.isReadable());
+        assertEquals(-1, client.read(buf));
+    }
+
+    @Test
+    public void testWriteWindowFull() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SelectionKey key = client.register(_clientSelector, SelectionKey.OP_WRITE);
+        assertEquals(1, _clientSelector.selectNow());
+        assertTrue(key.isWritable());
+
+        // more than the initial window, taken until it's full
+        ByteBuffer buf = ByteBuffer.allocate(1024*1024);
+        int written = client.write(buf);
+        assertTrue(written > 0);
+        assertTrue(buf.hasRemaining());
+        // no acks yet
+        assertEquals(0, client.write(buf));
+        _clientSelector.selectedKeys().clear();
+        assertEquals(0, _clientSelector.selectNow());
+
+        // the acks open the window
+        waitFor(_clientSelector, key, SelectionKey.OP_WRITE);
+        assertTrue(client.write(buf) > 0);
+    }
+
+    @Test
+    public void testWakeup() throws Exception {
+        // a wakeup before select makes it return at once
+        _clientSelector.wakeup();
+        long start = System.currentTimeMillis();
+        assertEquals(0, _clientSelector.select());
+        // and only once
+        assertEquals(0, _clientSelector.select(DELAY));
+        assertTrue(System.currentTimeMillis() - start >= DELAY);
+
+        final Selector sel = _clientSelector;
+        final int[] rv = new int[] { -1 };
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    rv[0] = sel.select();
+                } catch (Exception e) {}
+            }
+        };
+        t.start();
+        Thread.sleep(100);
+        assertTrue(t.isAlive());
+        sel.wakeup();
+        t.join(TIMEOUT);
+        assertFalse(t.isAlive());
+        assertEquals(0, rv[0]);
+    }
+
+    @Test
+    public void testCancelKey() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SelectionKey key = client.register(_clientSelector, SelectionKey.OP_WRITE);
+        assertEquals(1, _clientSelector.selectNow());
+        key.cancel();
+        assertFalse(key.isValid());
+        // still there until the next select
+        assertTrue(_clientSelector.keys().contains(key));
+        _clientSelector.selectedKeys().clear();
+        assertEquals(0, _clientSelector.selectNow());
+        assertFalse(_clientSelector.keys().contains(key));
+        assertFalse(client.isRegistered());
+
+        // registers again, and events on the channel select only the new key
+        SelectionKey key2 = client.register(_clientSelector, SelectionKey.OP_WRITE);
+        assertNotSame(key, key2);
+        assertEquals(1, _clientSelector.selectNow());
+        assertEquals(1, _clientSelector.selectedKeys().size());
+        assertTrue(_clientSelector.selectedKeys().contains(key2));
+    }
+
+    @Test
+    public void testCloseRegistered() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SocketChannel server = chs[1];
+        SelectionKey ckey = client.register(_clientSelector, SelectionKey.OP_READ);
+        SelectionKey skey = server.register(_serverSelector, SelectionKey.OP_READ);
+        client.close();
+        assertFalse(ckey.isValid());
+        assertEquals(0, _clientSelector.selectNow());
+        assertTrue(_clientSelector.keys().isEmpty());
+        try {
+            client.read(ByteBuffer.allocate(16));
+            fail();
+        } catch (ClosedChannelException cce) {}
+        try {
+            client.write(ByteBuffer.allocate(16));
+            fail();
+        } catch (ClosedChannelException cce) {}
+        try {
+            client.finishConnect();
+            fail();
+        } catch (ClosedChannelException cce) {}
+
+        // the peer sees EOF
+        waitFor(_serverSelector, skey, SelectionKey.OP_READ);
+        assertEquals(-1, server.read(ByteBuffer.allocate(16)));
+    }
+
+    /** a key that stays ready is checked again once per select, not once more each time */
+    @Test
+    public void testRecheckOnce() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SelectionKey key = client.register(_clientSelector, SelectionKey.OP_WRITE);
+        I2PSelector sel = (I2PSelector) _clientSelector;
+        for (int i = 0; i < 20; i++) {
+            // an event each time, as well as the recheck
+            key.interestOps(SelectionKey.OP_WRITE);
+            _clientSelector.selectNow();
+            assertTrue(_clientSelector.selectedKeys().contains(key));
+            assertEquals(1, sel.getRecheckCount());
+        }
+        // still selected after it's removed, as it's still ready
+        _clientSelector.selectedKeys().clear();
+        assertEquals(1, _clientSelector.selectNow());
+        assertTrue(_clientSelector.selectedKeys().contains(key));
+        assertEquals(1, sel.getRecheckCount());
+    }
+
+    /** the data before a reset is read, then the reset is thrown, not EOF */
+    @Test
+    public void testReadReset() throws Exception {
+        SocketChannel[] chs = connect();
+        SocketChannel client = chs[0];
+        SocketChannel server = chs[1];
+        SelectionKey key = client.register(_clientSelector, SelectionKey.OP_READ);
+        assertEquals(10, server.write(ByteBuffer.wrap(new byte[10])));
+        // wait for the data to arrive
+        waitFor(_clientSelector, key, SelectionKey.OP_READ);
+        _serverSocket.reset();
+        // wait for the reset to arrive
+        long expire = System.currentTimeMillis() + TIMEOUT;
+        while (client.isConnected()) {
+            assertTrue("timeout", System.currentTimeMillis() < expire);
+            Thread.sleep(10);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(64);
+        assertEquals(10, client.read(buf));
+        try {
+            client.read(buf);
+            fail();
+        } catch (IOException ioe) {
+            assertReset(ioe.getCause());
+        }
+        try {
+            client.write(ByteBuffer.allocate(16));
+            fail();
+        } catch (IOException ioe) {
+            assertReset(ioe);
+        }
+    }
+
+    private static void assertReset(Throwable t) {
+        assertTrue(String.valueOf(t), t instanceof I2PSocketException);
+        assertEquals(I2PSocketException.STATUS_CONNECTION_RESET, ((I2PSocketException) t).getStatus());
+    }
+}
@@ -0,0 +1,109 @@
+package net.i2p.client.streaming.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.client.I2PSession;
+import net.i2p.data.ByteArray;
+
+/**
+ *  The reference counting of pooled outbound payloads
+ */
+public class PayloadBufferTest {
+
+    private static PacketLocal packet(ByteArray payload) {
+        PacketLocal rv = new PacketLocal(I2PAppContext.getGlobalContext(), null, (I2PSession) null);
+        rv.setPayload(payload);
+        return rv;
+    }
+
+    @Test
+    public void testCopyOf() {
+        byte[] data = new byte[2 * PayloadBuffer.POOLED_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        ByteArray ba = PayloadBuffer.copyOf(data, 7, 100);
+        assertTrue(ba instanceof PayloadBuffer);
+        assertEquals(0, ba.getOffset());
+        assertEquals(100, ba.getValid());
+        assertEquals(1, ((PayloadBuffer) ba).refCount());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(data[i + 7], ba.getData()[i]);
+        }
+
+        ba = PayloadBuffer.copyOf(data, 0, PayloadBuffer.POOLED_SIZE + 1);
+        assertFalse(ba instanceof PayloadBuffer);
+        assertEquals(PayloadBuffer.POOLED_SIZE + 1, ba.getValid());
+
+        ba = PayloadBuffer.copyOf(null, 0, 0);
+        assertFalse(ba instanceof PayloadBuffer);
+        assertEquals(0, ba.getValid());
+    }
+
+    @Test
+    public void testRelease() {
+        PayloadBuffer ba = (PayloadBuffer) PayloadBuffer.copyOf(new byte[1000], 0, 1000);
+        PacketLocal pkt = packet(ba);
+        assertTrue(pkt.retainPayload());
+        assertEquals(2, ba.refCount());
+        // acked while being sent
+        pkt.releasePayload();
+        assertEquals(1, ba.refCount());
+        pkt.releasePayload();
+        assertEquals(1, ba.refCount());
+        pkt.unretainPayload();
+        assertEquals(0, ba.refCount());
+        // no more sends, and the size is still there
+        assertFalse(pkt.retainPayload());
+        assertEquals(0, ba.refCount());
+        assertEquals(1000, pkt.getPayloadSize());
+    }
+
+    @Test
+    public void testUnpooled() {
+        PacketLocal pkt = packet(new ByteArray(new byte[10]));
+        assertTrue(pkt.retainPayload());
+        pkt.unretainPayload();
+        pkt.releasePayload();
+        assertEquals(10, pkt.getPayloadSize());
+    }
+
+    /** an exception from the session does not leak the retained payload */
+    @Test
+    public void testEnqueueException() {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        I2PSession session = (I2PSession) Proxy.newProxyInstance(I2PSession.class.getClassLoader(),
+                                                                 new Class<?>[] { I2PSession.class },
+                                                                 new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new IllegalStateException("test");
+            }
+        });
+        PacketLocal pkt = new PacketLocal(ctx, null, session);
+        pkt.setSequenceNum(1);
+        PayloadBuffer ba = (PayloadBuffer) PayloadBuffer.copyOf(new byte[1000], 0, 1000);
+        pkt.setPayload(ba);
+        PacketQueue queue = new PacketQueue(ctx, ctx.simpleTimer2());
+        try {
+            queue.enqueue(pkt);
+            fail();
+        } catch (IllegalStateException ise) {}
+        assertEquals(1, ba.refCount());
+        pkt.releasePayload();
+        assertEquals(0, ba.refCount());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testOverRelease() {
+        PayloadBuffer ba = (PayloadBuffer) PayloadBuffer.copyOf(new byte[10], 0, 10);
+        ba.release();
+        ba.release();
+    }
+}
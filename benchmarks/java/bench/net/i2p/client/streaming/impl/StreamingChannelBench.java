@@ -0,0 +1,252 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.I2PException;
+import net.i2p.client.streaming.AcceptingChannel;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.data.Destination;
+import net.i2p.util.FileUtil;
+import net.i2p.util.I2PThread;
+
+/**
+ *  Many concurrent streams between two I2PSocketManagerFulls in the same JVM,
+ *  each side serviced by a single selector thread, over a fast EmulatedLink.
+ *
+ *  Each invocation opens the streams, at most MAX_CONNECTING at a time
+ *  so the server's SYN queue doesn't overflow, sends a request on each,
+ *  and waits for all the echoes with all the streams still open.
+ *  Then it closes them all.
+ *
+ *  With the blocking streams this would take a thread per stream on each side.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingChannelBench {
+    private static final int KBPS = 64*1024;
+    private static final int DELAY = 20;
+    private static final int QUEUE = 4*1024*1024;
+    private static final int SIZE = 1024;
+    /** half the ConnectionHandler SYN queue */
+    private static final int MAX_CONNECTING = 32;
+
+    private File dir;
+    private I2PAppContext ctx;
+    private EmulatedLink link;
+    private I2PSocketManagerFull client;
+    private I2PSocketManagerFull server;
+    private Destination serverDest;
+    private Echo echo;
+    private final byte[] request = new byte[SIZE];
+
+    @Param({"1000", "10000"})
+    public int streams;
+
+    @Setup
+    public void prepare() throws IOException {
+        dir = Files.createTempDirectory("streamingbench").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", dir.getAbsolutePath());
+        ctx = new I2PAppContext(props);
+        ctx.random().nextBytes(request);
+    }
+
+    /**
+     *  New managers each time, so the old connections in TIME-WAIT
+     *  don't pile up
+     */
+    @Setup(Level.Iteration)
+    public void start() throws I2PException, IOException {
+        link = new EmulatedLink(KBPS, DELAY, QUEUE, 0, 42);
+        client = new I2PSocketManagerFull(ctx, link.getSessionA(), new Properties(), "bench client",
+                                          IncomingConnectionFilter.ALLOW);
+        server = new I2PSocketManagerFull(ctx, link.getSessionB(), new Properties(), "bench server",
+                                          IncomingConnectionFilter.ALLOW);
+        serverDest = server.getSession().getMyDestination();
+        link.start();
+        echo = new Echo(server.getServerSocket().getChannel(), server.openSelector());
+        new I2PThread(echo, "bench echo", true).start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws IOException {
+        echo.stop();
+        client.destroySocketManager();
+        server.destroySocketManager();
+        link.stop();
+    }
+
+    @TearDown
+    public void done() {
+        FileUtil.rmdir(dir, false);
+    }
+
+    /**
+     *  The server: accept, and echo everything back until EOF
+     */
+    private static class Echo implements Runnable {
+        private final AcceptingChannel _server;
+        private final Selector _selector;
+        private volatile boolean _running = true;
+
+        public Echo(AcceptingChannel server, Selector selector) throws IOException {
+            _server = server;
+            _selector = selector;
+            _server.configureBlocking(false);
+            _server.register(_selector, SelectionKey.OP_ACCEPT);
+        }
+
+        public void stop() throws IOException {
+            _running = false;
+            _selector.close();
+        }
+
+        public void run() {
+            try {
+                while (_running) {
+                    _selector.select(1000);
+                    for (Iterator<SelectionKey> iter = _selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable()) {
+                            I2PSocket s;
+                            while ((s = ((AcceptingChannel) key.channel()).accept()) != null) {
+                                SocketChannel ch = (SocketChannel) s.getChannel();
+                                ch.configureBlocking(false);
+                                ch.register(_selector, SelectionKey.OP_READ, ByteBuffer.allocate(4*SIZE));
+                            }
+                            continue;
+                        }
+                        SocketChannel ch = (SocketChannel) key.channel();
+                        ByteBuffer buf = (ByteBuffer) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                if (ch.read(buf) < 0) {
+                                    ch.close();
+                                    continue;
+                                }
+                            }
+                            buf.flip();
+                            ch.write(buf);
+                            buf.compact();
+                            key.interestOps(buf.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                        } catch (IOException ioe) {
+                            ch.close();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (_running)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     *  One client stream
+     */
+    private static class Stream {
+        final ByteBuffer out, in;
+
+        public Stream(byte[] request) {
+            out = ByteBuffer.wrap(request);
+            in = ByteBuffer.allocate(request.length);
+        }
+    }
+
+    @Benchmark
+    public int openAndEcho() throws Exception {
+        Selector selector = client.openSelector();
+        List<SocketChannel> channels = new ArrayList<SocketChannel>(streams);
+        int connecting = 0;
+        int done = 0;
+        while (done < streams) {
+            while (channels.size() < streams && connecting < MAX_CONNECTING) {
+                SocketChannel ch = client.connectChannel(serverDest, null);
+                ch.register(selector, SelectionKey.OP_CONNECT, new Stream(request));
+                channels.add(ch);
+                connecting++;
+            }
+            selector.select(1000);
+            for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                SocketChannel ch = (SocketChannel) key.channel();
+                Stream s = (Stream) key.attachment();
+                if (key.isConnectable()) {
+                    if (!ch.finishConnect())
+                        continue;
+                    connecting--;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    continue;
+                }
+                if (key.isWritable()) {
+                    ch.write(s.out);
+                    if (!s.out.hasRemaining())
+                        key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isReadable()) {
+                    if (ch.read(s.in) < 0)
+                        throw new IOException("EOF on " + ch);
+                    if (!s.in.hasRemaining()) {
+                        key.interestOps(0);
+                        done++;
+                    }
+                }
+            }
+        }
+        for (SocketChannel ch : channels) {
+            ch.close();
+        }
+        selector.close();
+        return done;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StreamingChannelBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
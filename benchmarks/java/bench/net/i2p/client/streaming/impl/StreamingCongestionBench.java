@@ -0,0 +1,177 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.I2PException;
+import net.i2p.client.streaming.I2PServerSocket;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.I2PSocketOptions;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.util.FileUtil;
+import net.i2p.util.I2PThread;
+
+/**
+ *  Bulk transfer time of one stream between two I2PSocketManagerFulls
+ *  in the same JVM, over an EmulatedLink with a tunnel-like 1 second RTT,
+ *  for each congestion control on the sending side.
+ *
+ *  Each invocation connects, sends 1 MB, and waits until
+ *  the server has read all of it.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingCongestionBench {
+    private static final int SIZE = 1024*1024;
+    private static final int KBPS = 128;
+    private static final int DELAY = 500;
+    private static final int QUEUE = 128*1024;
+
+    private File dir;
+    private EmulatedLink link;
+    private I2PSocketManagerFull client;
+    private I2PSocketManagerFull server;
+    private Thread acceptor;
+    private final byte[] data = new byte[SIZE];
+    private final Object lock = new Object();
+    private long received;
+
+    @Param({"reno", "cubic", "bbr"})
+    public String cc;
+
+    /** random loss on the link */
+    @Param({"0", "0.01"})
+    public double loss;
+
+    @Setup
+    public void prepare() throws I2PException, IOException {
+        dir = Files.createTempDirectory("streamingbench").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", dir.getAbsolutePath());
+        I2PAppContext ctx = new I2PAppContext(props);
+        ctx.random().nextBytes(data);
+        link = new EmulatedLink(KBPS, DELAY, QUEUE, loss, 42);
+        Properties opts = new Properties();
+        opts.setProperty(I2PSocketOptions.PROP_CONGESTION_CONTROL, cc);
+        client = new I2PSocketManagerFull(ctx, link.getSessionA(), opts, "bench client",
+                                          IncomingConnectionFilter.ALLOW);
+        server = new I2PSocketManagerFull(ctx, link.getSessionB(), new Properties(), "bench server",
+                                          IncomingConnectionFilter.ALLOW);
+        link.start();
+        final I2PServerSocket ss = server.getServerSocket();
+        acceptor = new I2PThread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        I2PSocket s = ss.accept();
+                        if (s != null)
+                            new I2PThread(new Reader(s), "bench reader", true).start();
+                    } catch (ConnectException ce) {
+                        // server socket closed
+                        return;
+                    } catch (I2PException ie) {
+                        return;
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                    }
+                }
+            }
+        }, "bench acceptor", true);
+        acceptor.start();
+    }
+
+    /**
+     *  Read a stream to the end
+     */
+    private class Reader implements Runnable {
+        private final I2PSocket s;
+
+        public Reader(I2PSocket socket) {
+            s = socket;
+        }
+
+        public void run() {
+            byte[] buf = new byte[16*1024];
+            try {
+                InputStream in = s.getInputStream();
+                int read;
+                while ((read = in.read(buf)) > 0) {
+                    synchronized (lock) {
+                        received += read;
+                        lock.notifyAll();
+                    }
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            } finally {
+                try { s.close(); } catch (IOException ioe) {}
+            }
+        }
+    }
+
+    @TearDown
+    public void done() {
+        client.destroySocketManager();
+        server.destroySocketManager();
+        link.stop();
+        acceptor.interrupt();
+        FileUtil.rmdir(dir, false);
+    }
+
+    @Benchmark
+    public long transfer() throws Exception {
+        synchronized (lock) {
+            received = 0;
+        }
+        I2PSocket s = client.connect(server.getSession().getMyDestination());
+        OutputStream out = s.getOutputStream();
+        out.write(data);
+        out.flush();
+        synchronized (lock) {
+            while (received < SIZE) {
+                lock.wait(1000);
+            }
+        }
+        s.close();
+        return link.getDropped();
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StreamingCongestionBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
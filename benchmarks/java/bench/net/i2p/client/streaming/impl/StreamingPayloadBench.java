@@ -0,0 +1,199 @@
+package net.i2p.client.streaming.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.I2PException;
+import net.i2p.client.streaming.I2PServerSocket;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.data.ByteArray;
+import net.i2p.data.Destination;
+import net.i2p.util.FileUtil;
+import net.i2p.util.I2PThread;
+
+/**
+ *  Allocation in the streaming data path.
+ *  Run with -prof gc and compare gc.alloc.rate.norm.
+ *
+ *  reorder: a MessageInputStream given a window of packets out of order, then read.
+ *
+ *  transfer: 1 MB between two I2PSocketManagerFulls over a fast EmulatedLink.
+ *  The payloads the sessions hand to the streaming lib are allocated by the
+ *  EmulatedLink, as by I2CP, and are the same for any streaming change.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingPayloadBench {
+    private static final int WINDOW = 64;
+    private static final int PAYLOAD = 1730;
+    private static final int SIZE = 1024*1024;
+
+    private I2PAppContext ctx;
+    private final ByteArray[] payloads = new ByteArray[WINDOW];
+    private final int[] order = new int[WINDOW];
+    private final byte[] readBuf = new byte[4096];
+    private long nextId;
+    private MessageInputStream in;
+
+    private File dir;
+    private EmulatedLink link;
+    private I2PSocketManagerFull client;
+    private I2PSocketManagerFull server;
+    private Destination serverDest;
+    private final byte[] data = new byte[SIZE];
+    private final Object lock = new Object();
+    private long received;
+
+    @Setup
+    public void prepare() throws I2PException, IOException {
+        dir = Files.createTempDirectory("streamingbench").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", dir.getAbsolutePath());
+        ctx = new I2PAppContext(props);
+        ctx.random().nextBytes(data);
+
+        // a window with every other packet late
+        for (int i = 0; i < WINDOW; i++) {
+            payloads[i] = new ByteArray(new byte[PAYLOAD]);
+            order[i] = i < WINDOW / 2 ? 2*i + 1 : 2*(i - WINDOW / 2);
+        }
+        in = new MessageInputStream(ctx, PAYLOAD, WINDOW, 4 * WINDOW * PAYLOAD);
+
+        link = new EmulatedLink(64*1024, 1, 4*1024*1024, 0, 42);
+        client = new I2PSocketManagerFull(ctx, link.getSessionA(), new Properties(), "bench client",
+                                          IncomingConnectionFilter.ALLOW);
+        server = new I2PSocketManagerFull(ctx, link.getSessionB(), new Properties(), "bench server",
+                                          IncomingConnectionFilter.ALLOW);
+        serverDest = server.getSession().getMyDestination();
+        link.start();
+        final I2PServerSocket ss = server.getServerSocket();
+        new I2PThread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        I2PSocket s = ss.accept();
+                        if (s != null)
+                            new I2PThread(new Reader(s), "bench reader", true).start();
+                    } catch (ConnectException ce) {
+                        return;
+                    } catch (I2PException ie) {
+                        return;
+                    } catch (IOException ioe) {
+                        ioe.printStackTrace();
+                    }
+                }
+            }
+        }, "bench acceptor", true).start();
+    }
+
+    @TearDown
+    public void done() {
+        client.destroySocketManager();
+        server.destroySocketManager();
+        link.stop();
+        FileUtil.rmdir(dir, false);
+    }
+
+    /**
+     *  Read a stream to the end
+     */
+    private class Reader implements Runnable {
+        private final I2PSocket s;
+
+        public Reader(I2PSocket socket) {
+            s = socket;
+        }
+
+        public void run() {
+            byte[] buf = new byte[16*1024];
+            try {
+                InputStream in = s.getInputStream();
+                int read;
+                while ((read = in.read(buf)) >= 0) {
+                    synchronized (lock) {
+                        received += read;
+                        lock.notifyAll();
+                    }
+                }
+            } catch (IOException ioe) {
+            } finally {
+                try { s.close(); } catch (IOException ioe) {}
+            }
+        }
+    }
+
+    @Benchmark
+    public int reorder() throws IOException {
+        long base = nextId;
+        for (int i = 0; i < WINDOW; i++) {
+            in.messageReceived(base + order[i], payloads[order[i]]);
+        }
+        nextId = base + WINDOW;
+        int rv = 0;
+        for (int i = 0; i < WINDOW * PAYLOAD; i += readBuf.length) {
+            rv += in.read(readBuf);
+        }
+        return rv;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public long transfer() throws Exception {
+        synchronized (lock) {
+            received = 0;
+        }
+        I2PSocket s = client.connect(serverDest);
+        OutputStream out = s.getOutputStream();
+        out.write(data);
+        out.flush();
+        synchronized (lock) {
+            while (received < SIZE) {
+                lock.wait(1000);
+            }
+        }
+        s.close();
+        return received;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(StreamingPayloadBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
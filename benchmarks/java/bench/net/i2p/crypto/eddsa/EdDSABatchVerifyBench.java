@@ -0,0 +1,113 @@
+package net.i2p.crypto.eddsa;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.DSAEngine;
+import net.i2p.crypto.SigType;
+import net.i2p.data.Signature;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
+
+/**
+ *  Ed25519 verification of RouterInfo-sized data, each signed by a different key,
+ *  as in a netDb flood or a startup load. Reported as signatures verified per second,
+ *  see the "sigs" counter.
+ *
+ *  single: DSAEngine.verifySignature() for each
+ *  batch:  DSAEngine.verifySignatures() for all, with EdDSABatchVerifier
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EdDSABatchVerifyBench {
+    private DSAEngine dsa;
+    private Signature[] sigs;
+    private byte[][] data;
+    private SigningPublicKey[] keys;
+
+    @Param({"1", "16", "64", "256"})
+    public int size;
+
+    @Param({"single", "batch"})
+    public String mode;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counter {
+        public long sigs;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            sigs = 0;
+        }
+    }
+
+    @Setup
+    public void prepare() throws GeneralSecurityException {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        dsa = ctx.dsa();
+        sigs = new Signature[size];
+        data = new byte[size][];
+        keys = new SigningPublicKey[size];
+        for (int i = 0; i < size; i++) {
+            SimpleDataStructure[] kp = ctx.keyGenerator().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+            keys[i] = (SigningPublicKey) kp[0];
+            data[i] = new byte[700];
+            ctx.random().nextBytes(data[i]);
+            sigs[i] = dsa.sign(data[i], (SigningPrivateKey) kp[1]);
+        }
+    }
+
+    @Benchmark
+    public boolean verify(Counter counter) {
+        boolean rv = true;
+        if (mode.equals("batch")) {
+            boolean[] results = dsa.verifySignatures(sigs, data, keys);
+            for (int i = 0; i < size; i++) {
+                rv &= results[i];
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                rv &= dsa.verifySignature(sigs[i], data[i], keys[i]);
+            }
+        }
+        if (!rv)
+            throw new IllegalStateException();
+        counter.sigs += size;
+        return rv;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(EdDSABatchVerifyBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,113 @@
+package net.i2p.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.util.OrderedProperties;
+
+/**
+ *  DataHelper serialization of integers, dates, and Mappings,
+ *  the building blocks of every I2NP message and netDb entry.
+ *  The Mapping is the size and shape of a typical RouterInfo's options.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataHelperBench {
+    private final byte[] buf = new byte[4096];
+    private long value;
+    private Properties props;
+    private byte[] propsBytes;
+
+    @Setup
+    public void prepare() throws DataFormatException, IOException {
+        value = I2PAppContext.getGlobalContext().random().nextLong(1L << 48);
+        props = new OrderedProperties();
+        props.setProperty("caps", "XfR");
+        props.setProperty("family", "i2p-dev");
+        props.setProperty("netId", "2");
+        props.setProperty("router.version", "0.9.59");
+        props.setProperty("netdb.knownRouters", "4567");
+        props.setProperty("netdb.knownLeaseSets", "123");
+        props.setProperty("stat_bandwidthReceiveBps.60m", "1234.56;2345.67;3456.78;0.0;4567.0;5678.0;");
+        props.setProperty("stat_bandwidthSendBps.60m", "1234.56;2345.67;3456.78;0.0;4567.0;5678.0;");
+        props.setProperty("stat_tunnel.buildClientExpire.60m", "0.0;0.0;0.0;2.0;");
+        props.setProperty("stat_tunnel.participatingTunnels.60m", "123.45;234.56;345.67;0.0;456.0;");
+        propsBytes = new byte[4096];
+        DataHelper.toProperties(propsBytes, 0, props);
+    }
+
+    @Benchmark
+    public long longRoundTrip() {
+        DataHelper.toLong(buf, 0, 8, value);
+        DataHelper.toLong(buf, 8, 4, value & 0xffffffffL);
+        DataHelper.toLong(buf, 12, 2, value & 0xffff);
+        return DataHelper.fromLong(buf, 0, 8) +
+               DataHelper.fromLong(buf, 8, 4) +
+               DataHelper.fromLong(buf, 12, 2);
+    }
+
+    @Benchmark
+    public long dateRoundTrip() throws DataFormatException {
+        DataHelper.toDate(buf, 0, value);
+        return DataHelper.fromDate(buf, 0).getTime();
+    }
+
+    @Benchmark
+    public int writeProperties() throws DataFormatException, IOException {
+        return DataHelper.toProperties(buf, 0, props);
+    }
+
+    @Benchmark
+    public Properties readProperties() throws DataFormatException {
+        Properties rv = new OrderedProperties();
+        DataHelper.fromProperties(propsBytes, 0, rv);
+        return rv;
+    }
+
+    /** stream version, as used by RouterInfo.writeBytes() */
+    @Benchmark
+    public int writePropertiesStream() throws DataFormatException, IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(512);
+        DataHelper.writeProperties(out, props, true);
+        return out.size();
+    }
+
+    /** stream version, as used by RouterInfo.readBytes() */
+    @Benchmark
+    public Properties readPropertiesStream() throws DataFormatException, IOException {
+        return DataHelper.readProperties(new ByteArrayInputStream(propsBytes));
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DataHelperBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
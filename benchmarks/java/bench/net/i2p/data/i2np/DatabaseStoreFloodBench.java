@@ -0,0 +1,142 @@
+package net.i2p.data.i2np;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.SigType;
+import net.i2p.data.DatabaseEntry;
+import net.i2p.data.Hash;
+import net.i2p.data.KeyCertificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.router.RouterAddress;
+import net.i2p.data.router.RouterIdentity;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.util.OrderedProperties;
+
+/**
+ *  The message work of a floodfill for one flooded Ed25519 RouterInfo store:
+ *  read the DatabaseStoreMessage, parse and verify the entry,
+ *  and write a DSM to each of the peers it is flooded to,
+ *  as in HandleFloodfillDatabaseStoreMessageJob and
+ *  FloodfillNetworkDatabaseFacade.flood().
+ *
+ *  reserialize: each flood DSM serializes and gzips the entry again,
+ *               as before 0.9.59
+ *  original:    the flood DSMs write the entry bytes as received
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DatabaseStoreFloodBench {
+    /** FloodfillNetworkDatabaseFacade.MAX_TO_FLOOD */
+    private static final int FLOOD = 3;
+
+    private final I2PAppContext ctx = I2PAppContext.getGlobalContext();
+    private I2NPMessageHandler handler;
+    private byte[] msg;
+
+    @Param({"reserialize", "original"})
+    public String mode;
+
+    @Setup
+    public void prepare() throws Exception {
+        handler = new I2NPMessageHandler(ctx);
+        DatabaseStoreMessage dsm = new DatabaseStoreMessage(ctx);
+        dsm.setEntry(createRouterInfo());
+        dsm.setReplyToken(1 + ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE - 1));
+        byte[] gw = new byte[Hash.HASH_LENGTH];
+        ctx.random().nextBytes(gw);
+        dsm.setReplyGateway(new Hash(gw));
+        dsm.setUniqueId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+        dsm.setMessageExpiration(ctx.clock().now() + 60*60*1000);
+        msg = dsm.toByteArray();
+    }
+
+    private RouterInfo createRouterInfo() throws Exception {
+        KeyGenerator kg = ctx.keyGenerator();
+        Object[] keys = kg.generatePKIKeypair();
+        Object[] skeys = kg.generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+        RouterIdentity ident = new RouterIdentity();
+        ident.setCertificate(new KeyCertificate((SigningPublicKey) skeys[0]));
+        ident.setPublicKey((PublicKey) keys[0]);
+        ident.setSigningPublicKey((SigningPublicKey) skeys[0]);
+        byte[] padding = new byte[SigningPublicKey.KEYSIZE_BYTES - ((SigningPublicKey) skeys[0]).length()];
+        ctx.random().nextBytes(padding);
+        ident.setPadding(padding);
+        RouterInfo ri = new RouterInfo();
+        ri.setIdentity(ident);
+        ri.setPublished(ctx.clock().now());
+        List<RouterAddress> addrs = new ArrayList<RouterAddress>(2);
+        addrs.add(createAddress("NTCP2", 10));
+        addrs.add(createAddress("SSU2", 8));
+        ri.setAddresses(addrs);
+        OrderedProperties opts = new OrderedProperties();
+        opts.setProperty("caps", "XfR");
+        opts.setProperty("netId", "2");
+        opts.setProperty("router.version", "0.9.59");
+        ri.setOptions(opts);
+        ri.sign((SigningPrivateKey) skeys[1]);
+        return ri;
+    }
+
+    private static RouterAddress createAddress(String style, int cost) {
+        OrderedProperties props = new OrderedProperties();
+        props.setProperty("host", "192.0.2.1");
+        props.setProperty("i", "cWQ7nd4F5mY6WaTYqF-FQ7OkCTBXBxc9lvzLjjUw6C8=");
+        props.setProperty("port", "12345");
+        props.setProperty("s", "vDaQvQ9Ie6jCU-LZXqVA4F3l6XMVHh9qKmbc0ZLO0j8=");
+        props.setProperty("v", "2");
+        return new RouterAddress(style, props, cost);
+    }
+
+    @Benchmark
+    public int storeAndFlood() throws I2NPMessageException {
+        DatabaseStoreMessage dsm = (DatabaseStoreMessage) handler.readMessage(msg);
+        DatabaseEntry entry = dsm.getEntry();
+        if (!entry.verifySignature())
+            throw new IllegalStateException();
+        byte[] bytes = mode.equals("original") ? dsm.getEntryBytes() : null;
+        int rv = 0;
+        for (int i = 0; i < FLOOD; i++) {
+            DatabaseStoreMessage out = new DatabaseStoreMessage(ctx);
+            out.setEntry(entry, bytes);
+            out.setMessageExpiration(ctx.clock().now() + 60*1000);
+            rv += out.toByteArray().length;
+        }
+        return rv;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DatabaseStoreFloodBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,144 @@
+package net.i2p.data.i2np;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.data.Certificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.router.RouterAddress;
+import net.i2p.data.router.RouterIdentity;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.util.OrderedProperties;
+
+/**
+ *  I2NPMessageHandler.readMessage() of complete messages with the
+ *  16 byte header, including the checksum verification:
+ *
+ *  data:        1 KB DataMessage
+ *  tunnelData:  TunnelDataMessage, the bulk of a busy router's traffic
+ *  status:      DeliveryStatusMessage, the smallest
+ *  store:       DatabaseStoreMessage of a RouterInfo with two addresses,
+ *               gzipped as sent; the entry is not decompressed or parsed
+ *               until getEntry(), see DatabaseStoreFloodBench
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class I2NPMessageHandlerBench {
+    private final I2PAppContext ctx = I2PAppContext.getGlobalContext();
+    private I2NPMessageHandler handler;
+    private byte[] msg;
+
+    @Param({"data", "tunnelData", "status", "store"})
+    public String type;
+
+    @Setup
+    public void prepare() throws Exception {
+        handler = new I2NPMessageHandler(ctx);
+        I2NPMessage m;
+        if (type.equals("data")) {
+            DataMessage dm = new DataMessage(ctx);
+            byte[] data = new byte[1024];
+            ctx.random().nextBytes(data);
+            dm.setData(data);
+            m = dm;
+        } else if (type.equals("tunnelData")) {
+            TunnelDataMessage tdm = new TunnelDataMessage(ctx);
+            byte[] data = new byte[TunnelDataMessage.DATA_SIZE];
+            ctx.random().nextBytes(data);
+            tdm.setTunnelId(1 + ctx.random().nextLong(0xffffffffL));
+            tdm.setData(data);
+            m = tdm;
+        } else if (type.equals("status")) {
+            DeliveryStatusMessage dsm = new DeliveryStatusMessage(ctx);
+            dsm.setMessageId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+            dsm.setArrival(ctx.clock().now());
+            m = dsm;
+        } else if (type.equals("store")) {
+            DatabaseStoreMessage dsm = new DatabaseStoreMessage(ctx);
+            dsm.setEntry(createRouterInfo());
+            m = dsm;
+        } else {
+            throw new IllegalArgumentException(type);
+        }
+        m.setUniqueId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+        m.setMessageExpiration(ctx.clock().now() + 60*60*1000);
+        msg = m.toByteArray();
+        // sanity check
+        if (handler.readMessage(msg).getType() != m.getType())
+            throw new IllegalStateException();
+    }
+
+    private RouterInfo createRouterInfo() throws Exception {
+        KeyGenerator kg = ctx.keyGenerator();
+        Object[] keys = kg.generatePKIKeypair();
+        Object[] skeys = kg.generateSigningKeypair();
+        RouterIdentity ident = new RouterIdentity();
+        ident.setCertificate(Certificate.NULL_CERT);
+        ident.setPublicKey((PublicKey) keys[0]);
+        ident.setSigningPublicKey((SigningPublicKey) skeys[0]);
+        RouterInfo ri = new RouterInfo();
+        ri.setIdentity(ident);
+        ri.setPublished(ctx.clock().now());
+        List<RouterAddress> addrs = new ArrayList<RouterAddress>(2);
+        addrs.add(createAddress("NTCP2", 10));
+        addrs.add(createAddress("SSU2", 8));
+        ri.setAddresses(addrs);
+        OrderedProperties opts = new OrderedProperties();
+        opts.setProperty("caps", "XfR");
+        opts.setProperty("netId", "2");
+        opts.setProperty("router.version", "0.9.59");
+        ri.setOptions(opts);
+        ri.sign((SigningPrivateKey) skeys[1]);
+        return ri;
+    }
+
+    private static RouterAddress createAddress(String style, int cost) {
+        OrderedProperties props = new OrderedProperties();
+        props.setProperty("host", "192.0.2.1");
+        props.setProperty("i", "cWQ7nd4F5mY6WaTYqF-FQ7OkCTBXBxc9lvzLjjUw6C8=");
+        props.setProperty("port", "12345");
+        props.setProperty("s", "vDaQvQ9Ie6jCU-LZXqVA4F3l6XMVHh9qKmbc0ZLO0j8=");
+        props.setProperty("v", "2");
+        return new RouterAddress(style, props, cost);
+    }
+
+    @Benchmark
+    public I2NPMessage read() throws I2NPMessageException {
+        return handler.readMessage(msg);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(I2NPMessageHandlerBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,341 @@
+package net.i2p.i2ptunnel;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.I2PException;
+import net.i2p.client.streaming.I2PServerSocket;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.IncomingConnectionFilter;
+import net.i2p.client.streaming.impl.EmulatedLink;
+import net.i2p.client.streaming.impl.I2PSocketManagerFull;
+import net.i2p.data.Destination;
+import net.i2p.util.FileUtil;
+import net.i2p.util.I2PThread;
+
+/**
+ *  A server tunnel in front of a local echo server, with many connections open at once,
+ *  forwarded by I2PTunnelRunners with threads or with the EventLoopForwarder.
+ *
+ *  Each invocation opens the connections through an EmulatedLink, sends a request on each,
+ *  and waits for all the echoes with all the connections still open.
+ *  Then it records the live threads and the heap per connection, and closes them all.
+ *  The client and the echo server each use one selector thread, so the difference
+ *  between the modes is the runners. Thread stacks are not in the heap figure.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TunnelForwarderBench {
+    private static final int KBPS = 64*1024;
+    private static final int DELAY = 20;
+    private static final int QUEUE = 4*1024*1024;
+    private static final int SIZE = 1024;
+    /** half the ConnectionHandler SYN queue */
+    private static final int MAX_CONNECTING = 32;
+
+    private File dir;
+    private I2PAppContext ctx;
+    private EmulatedLink link;
+    private I2PSocketManagerFull client;
+    private I2PSocketManagerFull server;
+    private Destination serverDest;
+    private Echo echo;
+    private Acceptor acceptor;
+    private EventLoopForwarder loop;
+    private long baseHeap;
+    private final byte[] request = new byte[SIZE];
+
+    @Param({"1000"})
+    public int connections;
+
+    @Param({"threads", "eventloop"})
+    public String mode;
+
+    /**
+     *  Reported alongside the time
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long threads;
+        public long heapPerConnection;
+    }
+
+    @Setup
+    public void prepare() throws IOException {
+        dir = Files.createTempDirectory("tunnelbench").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", dir.getAbsolutePath());
+        ctx = new I2PAppContext(props);
+        ctx.random().nextBytes(request);
+    }
+
+    @Setup(Level.Iteration)
+    public void start() throws I2PException, IOException {
+        link = new EmulatedLink(KBPS, DELAY, QUEUE, 0, 42);
+        client = new I2PSocketManagerFull(ctx, link.getSessionA(), new Properties(), "bench client",
+                                          IncomingConnectionFilter.ALLOW);
+        server = new I2PSocketManagerFull(ctx, link.getSessionB(), new Properties(), "bench server",
+                                          IncomingConnectionFilter.ALLOW);
+        serverDest = server.getSession().getMyDestination();
+        link.start();
+        echo = new Echo();
+        new I2PThread(echo, "bench echo", true).start();
+        if (mode.equals("eventloop"))
+            loop = new EventLoopForwarder(ctx);
+        acceptor = new Acceptor(server.getServerSocket(), echo.getAddress(), loop);
+        new I2PThread(acceptor, "bench acceptor", true).start();
+        baseHeap = usedHeap();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() throws IOException {
+        acceptor.stop();
+        client.destroySocketManager();
+        server.destroySocketManager();
+        link.stop();
+        echo.stop();
+        if (loop != null) {
+            loop.shutdown();
+            loop = null;
+        }
+    }
+
+    @TearDown
+    public void done() {
+        FileUtil.rmdir(dir, false);
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     *  The local server: echo everything back until EOF, on one thread
+     */
+    private static class Echo implements Runnable {
+        private final ServerSocketChannel _server;
+        private final Selector _selector;
+        private volatile boolean _running = true;
+
+        public Echo() throws IOException {
+            _selector = Selector.open();
+            _server = ServerSocketChannel.open();
+            _server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+            _server.configureBlocking(false);
+            _server.register(_selector, SelectionKey.OP_ACCEPT);
+        }
+
+        public InetSocketAddress getAddress() throws IOException {
+            return (InetSocketAddress) _server.getLocalAddress();
+        }
+
+        public void stop() throws IOException {
+            _running = false;
+            _selector.close();
+            _server.close();
+        }
+
+        public void run() {
+            try {
+                while (_running) {
+                    _selector.select(1000);
+                    for (Iterator<SelectionKey> iter = _selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable()) {
+                            SocketChannel ch;
+                            while ((ch = _server.accept()) != null) {
+                                ch.configureBlocking(false);
+                                ch.register(_selector, SelectionKey.OP_READ, ByteBuffer.allocate(4*SIZE));
+                            }
+                            continue;
+                        }
+                        SocketChannel ch = (SocketChannel) key.channel();
+                        ByteBuffer buf = (ByteBuffer) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                if (ch.read(buf) < 0) {
+                                    ch.close();
+                                    continue;
+                                }
+                            }
+                            buf.flip();
+                            ch.write(buf);
+                            buf.compact();
+                            key.interestOps(buf.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                        } catch (IOException ioe) {
+                            ch.close();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                if (_running)
+                    e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     *  The server tunnel: accept, connect to the echo server, and start a runner,
+     *  as in I2PTunnelServer.blockingHandle()
+     */
+    private static class Acceptor implements Runnable {
+        private final I2PServerSocket _server;
+        private final InetSocketAddress _target;
+        private final EventLoopForwarder _loop;
+        private final Object _slock = new Object();
+        private volatile boolean _running = true;
+
+        /**
+         *  @param loop null for threads
+         */
+        public Acceptor(I2PServerSocket server, InetSocketAddress target, EventLoopForwarder loop) {
+            _server = server;
+            _target = target;
+            _loop = loop;
+        }
+
+        public void stop() {
+            _running = false;
+        }
+
+        public void run() {
+            while (_running) {
+                try {
+                    I2PSocket i2ps = _server.accept();
+                    if (i2ps == null)
+                        continue;
+                    Socket s = SocketChannel.open(_target).socket();
+                    I2PTunnelRunner t = new I2PTunnelRunner(s, i2ps, _slock, null, null,
+                                                            null, (I2PTunnelRunner.FailCallback) null);
+                    t.setEventLoop(_loop);
+                    t.start();
+                } catch (Exception e) {
+                    if (_running)
+                        e.printStackTrace();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     *  One client connection
+     */
+    private static class Stream {
+        final ByteBuffer out, in;
+
+        public Stream(byte[] request) {
+            out = ByteBuffer.wrap(request);
+            in = ByteBuffer.allocate(request.length);
+        }
+    }
+
+    @Benchmark
+    public int openAndEcho(Footprint footprint) throws Exception {
+        Selector selector = client.openSelector();
+        List<SocketChannel> channels = new ArrayList<SocketChannel>(connections);
+        int connecting = 0;
+        int done = 0;
+        while (done < connections) {
+            while (channels.size() < connections && connecting < MAX_CONNECTING) {
+                SocketChannel ch = client.connectChannel(serverDest, null);
+                ch.register(selector, SelectionKey.OP_CONNECT, new Stream(request));
+                channels.add(ch);
+                connecting++;
+            }
+            selector.select(1000);
+            for (Iterator<SelectionKey> iter = selector.selectedKeys().iterator(); iter.hasNext(); ) {
+                SelectionKey key = iter.next();
+                iter.remove();
+                SocketChannel ch = (SocketChannel) key.channel();
+                Stream s = (Stream) key.attachment();
+                if (key.isConnectable()) {
+                    if (!ch.finishConnect())
+                        continue;
+                    connecting--;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    continue;
+                }
+                if (key.isWritable()) {
+                    ch.write(s.out);
+                    if (!s.out.hasRemaining())
+                        key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isReadable()) {
+                    if (ch.read(s.in) < 0)
+                        throw new IOException("EOF on " + ch);
+                    if (!s.in.hasRemaining()) {
+                        key.interestOps(0);
+                        done++;
+                    }
+                }
+            }
+        }
+        // everything is open and idle
+        footprint.threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        footprint.heapPerConnection = (usedHeap() - baseHeap) / connections;
+        System.out.println(mode + ": " + connections + " connections, " + footprint.threads + " threads, " +
+                           footprint.heapPerConnection + " heap bytes per connection");
+        for (SocketChannel ch : channels) {
+            ch.close();
+        }
+        selector.close();
+        return done;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TunnelForwarderBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
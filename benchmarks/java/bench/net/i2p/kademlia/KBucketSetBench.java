@@ -0,0 +1,102 @@
+package net.i2p.kademlia;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.Hash;
+
+/**
+ *  KBucketSet closest-peer selection, with the router's netDb
+ *  parameters (K = 24, B = 4, RejectTrimmer), for random keys.
+ *  The set is offered the given number of random peers;
+ *  as in the router, it keeps only those that fit.
+ *
+ *  getClosest:     the 8 closest to a random key, as in a netDb lookup
+ *  getClosestUs:   the 8 closest to us, as in exploration
+ *  addRemove:      churn of one peer
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KBucketSetBench {
+    private static final int K = 24;
+    private static final int B = 4;
+    private static final int KEYS = 1024;
+    private static final int MAX = 8;
+
+    private KBucketSet<Hash> set;
+    private final Hash[] keys = new Hash[KEYS];
+    private int next;
+
+    @Param({"1000", "10000"})
+    public int peers;
+
+    @Setup
+    public void prepare() {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        set = new KBucketSet<Hash>(ctx, random(ctx), K, B, new RejectTrimmer<Hash>());
+        for (int i = 0; i < peers; i++) {
+            set.add(random(ctx));
+        }
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = random(ctx);
+        }
+    }
+
+    private static Hash random(I2PAppContext ctx) {
+        byte[] b = new byte[Hash.HASH_LENGTH];
+        ctx.random().nextBytes(b);
+        return new Hash(b);
+    }
+
+    private Hash nextKey() {
+        return keys[next++ & (KEYS - 1)];
+    }
+
+    @Benchmark
+    public List<Hash> getClosest() {
+        return set.getClosest(nextKey(), MAX);
+    }
+
+    @Benchmark
+    public List<Hash> getClosestUs() {
+        return set.getClosest(MAX);
+    }
+
+    @Benchmark
+    public boolean addRemove() {
+        Hash h = nextKey();
+        set.add(h);
+        return set.remove(h);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(KBucketSetBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,200 @@
+package net.i2p.router.crypto.ratchet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.crypto.EncType;
+import net.i2p.crypto.KeyPair;
+import net.i2p.data.Certificate;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.PrivateKey;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SessionKey;
+import net.i2p.data.i2np.DataMessage;
+import net.i2p.data.i2np.DeliveryInstructions;
+import net.i2p.data.i2np.GarlicClove;
+import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.router.CommSystemFacade;
+import net.i2p.router.RouterContext;
+import net.i2p.router.dummy.VMCommSystem;
+import net.i2p.router.message.CloveSet;
+
+/**
+ *  ECIESAEADEngine encrypt and decrypt of a garlic message
+ *  containing one 1 KB DataMessage clove, in router context:
+ *
+ *  encryptExisting: ES message with a one-time tag, as for netDb replies
+ *  decryptExisting: ES message, including the tag lookup; decryption is in place,
+ *                   so this includes a copy of the message
+ *  encryptNew:      anonymous N message, one X25519 keygen (inline, not precalculated)
+ *                   and one DH
+ *  decryptNew:      anonymous N message, one DH; each message may only be
+ *                   decrypted once (replay filter), so this is timed
+ *                   over a batch of fresh messages, divide by NEW_BATCH
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ECIESAEADEngineBench {
+    private static final int NEW_BATCH = 256;
+
+    private RouterContext ctx;
+    private ECIESAEADEngine engine;
+    private RatchetSKM skm;
+    private PublicKey pub;
+    private PrivateKey priv;
+    private CloveSet cloves;
+    private SessionKey key;
+    private RatchetSessionTag tag;
+    private byte[] esMsg;
+
+    @Setup
+    public void prepare() {
+        BenchContext bc = new BenchContext();
+        ctx = bc;
+        engine = bc.engine;
+        skm = new RatchetSKM(ctx);
+        KeyPair kp = ctx.keyGenerator().generatePKIKeys(EncType.ECIES_X25519);
+        pub = kp.getPublic();
+        priv = kp.getPrivate();
+        cloves = createCloves(ctx);
+        key = ctx.keyGenerator().generateSessionKey();
+        byte[] t = new byte[RatchetSessionTag.LENGTH];
+        ctx.random().nextBytes(t);
+        tag = new RatchetSessionTag(t);
+        esMsg = engine.encrypt(cloves, key, tag);
+        // sanity check
+        if (esMsg == null || engine.encrypt(cloves, pub) == null)
+            throw new IllegalStateException("Encrypt failed");
+    }
+
+    @TearDown
+    public void done() {
+        skm.shutdown();
+        engine.shutdown();
+    }
+
+    /**
+     *  RatchetSKM needs the context's engine, and the N pattern needs
+     *  the comm system's X25519KeyFactory, but we don't want
+     *  everything else that comes with initAll().
+     *  The VMCommSystem doesn't start its factory, so keys are generated inline.
+     */
+    private static class BenchContext extends RouterContext {
+        final ECIESAEADEngine engine;
+        private final CommSystemFacade comm;
+
+        public BenchContext() {
+            super(null);
+            comm = new VMCommSystem(this);
+            engine = new ECIESAEADEngine(this);
+        }
+
+        @Override
+        public ECIESAEADEngine eciesEngine() {
+            return engine;
+        }
+
+        @Override
+        public CommSystemFacade commSystem() {
+            return comm;
+        }
+    }
+
+    static CloveSet createCloves(RouterContext ctx) {
+        DataMessage msg = new DataMessage(ctx);
+        byte[] data = new byte[1024];
+        ctx.random().nextBytes(data);
+        msg.setData(data);
+        msg.setUniqueId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+        // within ECIESAEADEngine.MAX_NS_FUTURE, for the N DateTime block
+        long exp = ctx.clock().now() + 60*1000;
+        msg.setMessageExpiration(exp);
+        GarlicClove clove = new GarlicClove(ctx);
+        clove.setInstructions(DeliveryInstructions.LOCAL);
+        clove.setData(msg);
+        clove.setCloveId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+        clove.setExpiration(exp);
+        clove.setCertificate(Certificate.NULL_CERT);
+        return new CloveSet(new GarlicClove[] { clove }, Certificate.NULL_CERT,
+                            ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE), exp);
+    }
+
+    /**
+     *  Fresh N messages and a fresh replay filter for each iteration
+     */
+    @State(Scope.Thread)
+    public static class NewSessions {
+        RatchetSKM skm;
+        final byte[][] msgs = new byte[NEW_BATCH][];
+        int next;
+
+        @Setup(Level.Iteration)
+        public void fill(ECIESAEADEngineBench b) {
+            skm = new RatchetSKM(b.ctx);
+            for (int i = 0; i < NEW_BATCH; i++) {
+                msgs[i] = b.engine.encrypt(b.cloves, b.pub);
+            }
+            next = 0;
+        }
+
+        @TearDown(Level.Iteration)
+        public void done() {
+            skm.shutdown();
+        }
+    }
+
+    @Benchmark
+    public byte[] encryptExisting() {
+        return engine.encrypt(cloves, key, tag);
+    }
+
+    @Benchmark
+    public CloveSet decryptExisting() throws DataFormatException {
+        skm.tagsReceived(key, tag, 60*1000);
+        return engine.decrypt(esMsg.clone(), priv, skm);
+    }
+
+    @Benchmark
+    public byte[] encryptNew() {
+        return engine.encrypt(cloves, pub);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = NEW_BATCH)
+    @Measurement(iterations = 10, batchSize = NEW_BATCH)
+    public CloveSet decryptNew(NewSessions s) throws DataFormatException {
+        return engine.decrypt(s.msgs[s.next++], priv, s.skm);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ECIESAEADEngineBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,174 @@
+package net.i2p.router.crypto.ratchet;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.data.DataHelper;
+import net.i2p.data.SessionKey;
+
+/**
+ *  The inbound session tags of a busy router, 500K tags in 1000 tagsets.
+ *
+ *  map: as before 0.9.59, a ConcurrentHashMap of RatchetSessionTags in RatchetSKM,
+ *       and a SparseArray of RatchetSessionTags in each tagset
+ *  index: the InboundTagIndex, and a SparseLongArray in each tagset
+ *
+ *  lookup: the tag from the front of a received message, found in the index.
+ *          Run with -prof gc and compare gc.alloc.rate.norm.
+ *  footprint: the heap per tag for the index and the tagsets' tags,
+ *             not counting the tagsets themselves or their keys.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InboundTagIndexBench {
+    private static final int TAGSETS = 1000;
+    private static final int TAGS_PER_TAGSET = 500;
+    private static final int TAGS = TAGSETS * TAGS_PER_TAGSET;
+    private static final int MESSAGES = 4096;
+
+    private static final SessionTagListener NOOP = new SessionTagListener() {
+        public boolean addTag(long tag, RatchetTagSet ts) { return true; }
+        public void expireTag(long tag, RatchetTagSet ts) {}
+    };
+
+    private final RatchetTagSet[] tagSets = new RatchetTagSet[TAGSETS];
+    private final long[] tags = new long[TAGS];
+    /** the first 8 bytes of some received messages */
+    private final byte[][] messages = new byte[MESSAGES][8];
+    private ConcurrentHashMap<RatchetSessionTag, RatchetTagSet> map;
+    private InboundTagIndex index;
+    private int next;
+
+    @Param({"map", "index"})
+    public String mode;
+
+    /**
+     *  Reported alongside the time
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long heapPerTag;
+    }
+
+    @Setup
+    public void prepare() {
+        SessionKey key = new SessionKey(new byte[32]);
+        for (int i = 0; i < TAGSETS; i++) {
+            tagSets[i] = new SingleTagSet(NOOP, key, new RatchetSessionTag(0L), 0, 0);
+        }
+        Random r = new Random(42);
+        for (int i = 0; i < TAGS; i++) {
+            tags[i] = r.nextLong();
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            DataHelper.toLong8(messages[i], 0, tags[r.nextInt(TAGS)]);
+        }
+        if (mode.equals("map"))
+            map = buildMap();
+        else
+            index = buildIndex();
+    }
+
+    private ConcurrentHashMap<RatchetSessionTag, RatchetTagSet> buildMap() {
+        ConcurrentHashMap<RatchetSessionTag, RatchetTagSet> rv = new ConcurrentHashMap<RatchetSessionTag, RatchetTagSet>(128);
+        for (int i = 0; i < TAGS; i++) {
+            rv.put(new RatchetSessionTag(tags[i]), tagSets[i / TAGS_PER_TAGSET]);
+        }
+        return rv;
+    }
+
+    private InboundTagIndex buildIndex() {
+        InboundTagIndex rv = new InboundTagIndex();
+        for (int i = 0; i < TAGS; i++) {
+            rv.putIfAbsent(tags[i], tagSets[i / TAGS_PER_TAGSET]);
+        }
+        return rv;
+    }
+
+    @Benchmark
+    public RatchetTagSet lookup() {
+        byte[] data = messages[next++ & (MESSAGES - 1)];
+        if (mode.equals("map")) {
+            // as in ECIESAEADEngine before 0.9.59
+            byte[] tag = new byte[8];
+            System.arraycopy(data, 0, tag, 0, 8);
+            RatchetSessionTag st = new RatchetSessionTag(tag);
+            return map.get(st);
+        } else {
+            return index.get(DataHelper.fromLong8(data, 0));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public Object[] footprint(Footprint footprint) {
+        long base = usedHeap();
+        Object[] rv = new Object[TAGSETS + 1];
+        if (mode.equals("map")) {
+            rv[TAGSETS] = buildMap();
+            for (int i = 0; i < TAGSETS; i++) {
+                // as the tagsets fill them, in order
+                SparseArray<RatchetSessionTag> sa = new SparseArray<RatchetSessionTag>(TAGS_PER_TAGSET);
+                for (int j = 0; j < TAGS_PER_TAGSET; j++) {
+                    sa.append(j, new RatchetSessionTag(tags[(i * TAGS_PER_TAGSET) + j]));
+                }
+                rv[i] = sa;
+            }
+        } else {
+            rv[TAGSETS] = buildIndex();
+            for (int i = 0; i < TAGSETS; i++) {
+                SparseLongArray sa = new SparseLongArray(TAGS_PER_TAGSET);
+                for (int j = 0; j < TAGS_PER_TAGSET; j++) {
+                    sa.append(j, tags[(i * TAGS_PER_TAGSET) + j]);
+                }
+                rv[i] = sa;
+            }
+        }
+        footprint.heapPerTag = (usedHeap() - base) / TAGS;
+        System.out.println(mode + ": " + footprint.heapPerTag + " heap bytes per tag");
+        return rv;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(InboundTagIndexBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
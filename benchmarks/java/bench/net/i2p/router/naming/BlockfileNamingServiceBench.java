@@ -0,0 +1,129 @@
+package net.i2p.router.naming;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
+import net.i2p.util.FileUtil;
+
+/**
+ *  BlockfileNamingService lookups in a new hostsdb.blockfile,
+ *  imported from a generated hosts.txt in a temporary directory.
+ *  The lookup keys cycle through 1024 names, much more than the
+ *  NamingService caches, so nearly all lookups go to the skiplists.
+ *
+ *  lookup:        a name in the database
+ *  lookupMiss:    a name not in the database
+ *  reverseLookup: a Destination in the database
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlockfileNamingServiceBench {
+    private static final int KEYS = 1024;
+
+    private File dir;
+    private BlockfileNamingService bns;
+    private final String[] hits = new String[KEYS];
+    private final String[] misses = new String[KEYS];
+    private final Destination[] dests = new Destination[KEYS];
+    private int next;
+
+    /** entries in the database */
+    @Param({"1000", "10000"})
+    public int hosts;
+
+    @Setup
+    public void prepare() throws DataFormatException, IOException {
+        dir = Files.createTempDirectory("bnsbench").toFile();
+        Properties props = new Properties();
+        props.setProperty("i2p.dir.config", dir.getAbsolutePath());
+        props.setProperty("i2p.dir.router", dir.getAbsolutePath());
+        I2PAppContext ctx = new I2PAppContext(props);
+        Destination[] all = new Destination[hosts];
+        PrintWriter out = new PrintWriter(new File(dir, "hosts.txt"), "UTF-8");
+        try {
+            for (int i = 0; i < hosts; i++) {
+                // 384 random bytes and a null certificate
+                byte[] b = new byte[387];
+                ctx.random().nextBytes(b, 0, 384);
+                all[i] = Destination.create(new ByteArrayInputStream(b));
+                out.println(name(i) + '=' + all[i].toBase64());
+            }
+        } finally {
+            out.close();
+        }
+        for (int i = 0; i < KEYS; i++) {
+            int j = ctx.random().nextInt(hosts);
+            hits[i] = name(j);
+            dests[i] = all[j];
+            misses[i] = name(hosts + i);
+        }
+        bns = new BlockfileNamingService(ctx);
+        // sanity check
+        if (bns.size() != hosts || !dests[0].equals(bns.lookup(hits[0])))
+            throw new IllegalStateException("Import failed");
+    }
+
+    @TearDown
+    public void done() {
+        bns.shutdown();
+        FileUtil.rmdir(dir, false);
+    }
+
+    private static String name(int i) {
+        return "host" + i + "-bench.i2p";
+    }
+
+    @Benchmark
+    public Destination lookup() {
+        return bns.lookup(hits[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public Destination lookupMiss() {
+        return bns.lookup(misses[next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    public String reverseLookup() {
+        return bns.reverseLookup(dests[next++ & (KEYS - 1)]);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BlockfileNamingServiceBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
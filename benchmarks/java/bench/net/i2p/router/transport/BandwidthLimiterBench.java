@@ -0,0 +1,133 @@
+package net.i2p.router.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.router.RouterContext;
+
+/**
+ *  32 threads requesting outbound bandwidth at once, 8 local, 8 netDb and 16 participating,
+ *  from the FIFO limiter or the TokenBucketLimiter.
+ *  Each request waits for its allocation as UDPSender does, and gives up after 5 tries.
+ *
+ *  One more thread stands in for the refiller.
+ *  under: 16 byte requests, and it fills the buckets to the max every 100 us,
+ *         so requests are rarely queued, and the cost is the contention in the limiter.
+ *  over: 1 KB requests, and it adds 256 KB every ms, less than is requested,
+ *        so requests are queued, and the per-class throughput shows how the bandwidth is shared out.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class BandwidthLimiterBench {
+    private static final int UNDER_SIZE = 16;
+    private static final int OVER_SIZE = 1024;
+    private static final int MAX_KBPS = FIFOBandwidthRefiller.MAX_OUTBOUND_BANDWIDTH;
+    private static final int OVER_REFILL = 256*1024;
+
+    private FIFOBandwidthLimiter limiter;
+    private int size;
+    private final List<FIFOBandwidthLimiter.Request> buf = new ArrayList<FIFOBandwidthLimiter.Request>(2);
+
+    @Param({"fifo", "token"})
+    public String mode;
+
+    @Param({"under", "over"})
+    public String load;
+
+    @Setup
+    public void prepare() {
+        Properties props = new Properties();
+        if (mode.equals("token"))
+            props.setProperty(FIFOBandwidthLimiter.PROP_TOKEN_BUCKETS, "true");
+        RouterContext ctx = new RouterContext(null, props);
+        // no refiller thread, we do it
+        limiter = new FIFOBandwidthLimiter(ctx, false);
+        limiter.setOutboundBurstKBps(MAX_KBPS);
+        limiter.setOutboundBurstBytes(MAX_KBPS * 1024);
+        limiter.setInboundBurstKBps(MAX_KBPS);
+        limiter.setInboundBurstBytes(MAX_KBPS * 1024);
+        size = load.equals("under") ? UNDER_SIZE : OVER_SIZE;
+    }
+
+    private int request(int cls) {
+        FIFOBandwidthLimiter.Request req = limiter.requestOutbound(size, 0, cls, "bench");
+        int waitCount = 0;
+        while (req.getPendingRequested() > 0 && waitCount++ < 5) {
+            req.waitForNextAllocation();
+        }
+        if (req.getPendingRequested() > 0) {
+            req.abort();
+            return 0;
+        }
+        return size;
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(8)
+    public int local() {
+        return request(FIFOBandwidthLimiter.CLASS_LOCAL);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(8)
+    public int netdb() {
+        return request(FIFOBandwidthLimiter.CLASS_NETDB);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(16)
+    public int participating() {
+        return request(FIFOBandwidthLimiter.CLASS_PARTICIPATING);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void refill() {
+        if (load.equals("under")) {
+            limiter.refillBandwidthQueues(buf, 0, MAX_KBPS * 1024, 0, 0);
+            LockSupport.parkNanos(100*1000);
+        } else {
+            limiter.refillBandwidthQueues(buf, 0, OVER_REFILL, 0, 0);
+            LockSupport.parkNanos(1000*1000);
+        }
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(BandwidthLimiterBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,64 @@
+package net.i2p.router.transport.crypto;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.KeyPair;
+
+/**
+ *  X25519 key pair generation, to decide the default for crypto.xdh.provider.
+ *
+ *  i2p: KeyGenerator, with the Noise Curve25519.eval()
+ *  jdk: the JDK XDH provider, Java 11+
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class X25519KeyGenBench {
+    private X25519Generator gen;
+
+    @Param({"i2p", "jdk"})
+    public String provider;
+
+    @Setup
+    public void prepare() {
+        boolean jdk = provider.equals("jdk");
+        if (jdk && !X25519Generator.isJDKAvailable())
+            throw new IllegalStateException("JDK XDH not available");
+        gen = new X25519Generator(I2PAppContext.getGlobalContext(), jdk);
+    }
+
+    @Benchmark
+    public KeyPair generate() {
+        return gen.generate();
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(X25519KeyGenBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
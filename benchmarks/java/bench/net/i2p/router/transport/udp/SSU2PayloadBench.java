@@ -0,0 +1,154 @@
+package net.i2p.router.transport.udp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.Hash;
+import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.data.i2np.TunnelDataMessage;
+import net.i2p.data.router.RouterInfo;
+
+/**
+ *  SSU2Payload.processPayload() of the decrypted payload of a data phase packet,
+ *  with a callback that only counts:
+ *
+ *  data:     ACK block, I2NP block with a TunnelDataMessage, padding
+ *  fragment: ACK block, 1400 byte follow-on fragment
+ *  acks:     ACK block with 32 ranges, padding
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SSU2PayloadBench {
+    private static final int BLOCK_I2NP = 3;
+    private static final int BLOCK_FOLLOWONFRAG = 5;
+
+    private final I2PAppContext ctx = I2PAppContext.getGlobalContext();
+    private final Counter counter = new Counter();
+    private byte[] payload;
+    private int length;
+
+    @Param({"data", "fragment", "acks"})
+    public String type;
+
+    @Setup
+    public void prepare() throws Exception {
+        List<SSU2Payload.Block> blocks = new ArrayList<SSU2Payload.Block>(3);
+        if (type.equals("data")) {
+            blocks.add(new SSU2Payload.AckBlock(12345, 7, new byte[] { 1, 2 }, 1));
+            TunnelDataMessage msg = new TunnelDataMessage(ctx);
+            byte[] data = new byte[TunnelDataMessage.DATA_SIZE];
+            ctx.random().nextBytes(data);
+            msg.setTunnelId(1 + ctx.random().nextLong(0xffffffffL));
+            msg.setData(data);
+            msg.setUniqueId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+            msg.setMessageExpiration(ctx.clock().now() + 60*1000);
+            byte[] raw = new byte[2048];
+            int len = msg.toRawByteArrayNTCP2(raw, 0);
+            blocks.add(new RawBlock(BLOCK_I2NP, raw, len));
+            blocks.add(new SSU2Payload.PaddingBlock(ctx, 40));
+        } else if (type.equals("fragment")) {
+            blocks.add(new SSU2Payload.AckBlock(12345, 7, new byte[] { 1, 2 }, 1));
+            byte[] raw = new byte[5 + 1400];
+            ctx.random().nextBytes(raw);
+            // fragment 2, not last, then message ID
+            raw[0] = (byte) (2 << 1);
+            blocks.add(new RawBlock(BLOCK_FOLLOWONFRAG, raw, raw.length));
+        } else if (type.equals("acks")) {
+            byte[] ranges = new byte[64];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = (byte) (1 + (i % 3));
+            }
+            blocks.add(new SSU2Payload.AckBlock(123456, 17, ranges, ranges.length / 2));
+            blocks.add(new SSU2Payload.PaddingBlock(ctx, 24));
+        } else {
+            throw new IllegalArgumentException(type);
+        }
+        payload = new byte[1500];
+        length = SSU2Payload.writePayload(payload, 0, blocks);
+        // sanity check
+        if (SSU2Payload.processPayload(ctx, counter, payload, 0, length, false, null) != blocks.size())
+            throw new IllegalStateException();
+    }
+
+    @Benchmark
+    public int process() throws Exception {
+        return SSU2Payload.processPayload(ctx, counter, payload, 0, length, false, null);
+    }
+
+    /** Already formatted block data */
+    private static class RawBlock extends SSU2Payload.Block {
+        private final byte[] d;
+        private final int len;
+
+        public RawBlock(int type, byte[] data, int length) {
+            super(type);
+            d = data;
+            len = length;
+        }
+
+        public int getDataLength() {
+            return len;
+        }
+
+        public int writeData(byte[] tgt, int off) {
+            System.arraycopy(d, 0, tgt, off, len);
+            return off + len;
+        }
+    }
+
+    /** Counts what it gets and throws it away */
+    private static class Counter implements SSU2Payload.PayloadCallback {
+        long count;
+
+        public void gotDateTime(long time) { count++; }
+        public void gotI2NP(I2NPMessage msg) { count++; }
+        public void gotFragment(byte[] data, int off, int len, long messageID, int frag, boolean isLast) { count++; }
+        public void gotACK(long ackThru, int acks, byte[] ranges) { count++; }
+        public void gotOptions(byte[] options, boolean isHandshake) { count++; }
+        public void gotRI(RouterInfo ri, boolean isHandshake, boolean flood) { count++; }
+        public void gotRIFragment(byte[] data, boolean isHandshake, boolean flood, boolean isGzipped, int frag, int totalFrags) { count++; }
+        public void gotAddress(byte[] ip, int port) { count++; }
+        public void gotRelayTagRequest() { count++; }
+        public void gotRelayTag(long tag) { count++; }
+        public void gotRelayRequest(byte[] data) { count++; }
+        public void gotRelayResponse(int status, byte[] data) { count++; }
+        public void gotRelayIntro(Hash aliceHash, byte[] data) { count++; }
+        public void gotPeerTest(int msg, int status, Hash h, byte[] data) { count++; }
+        public void gotToken(long token, long expires) { count++; }
+        public void gotTermination(int reason, long lastReceived) { count++; }
+        public void gotPathChallenge(RemoteHostId from, byte[] data) { count++; }
+        public void gotPathResponse(RemoteHostId from, byte[] data) { count++; }
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(SSU2PayloadBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,122 @@
+package net.i2p.router.tunnel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.data.Hash;
+import net.i2p.data.TunnelId;
+import net.i2p.data.i2np.DataMessage;
+import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.router.RouterContext;
+
+/**
+ *  FragmentHandler reassembly at the tunnel endpoint of one DataMessage
+ *  of the given size, from the tunnel messages produced by the
+ *  BatchedPreprocessor at the gateway, including the checksum verification
+ *  of each tunnel message and the parsing of the reassembled I2NP message.
+ *
+ *  Each tunnel message is copied before it is handed to the FragmentHandler,
+ *  as it takes ownership of it.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FragmentHandlerBench {
+    private RouterContext ctx;
+    private FragmentHandler handler;
+    private final Counter counter = new Counter();
+    private final List<byte[]> fragments = new ArrayList<byte[]>();
+
+    /** bytes in the DataMessage */
+    @Param({"512", "4096", "16384"})
+    public int size;
+
+    @Setup
+    public void prepare() throws InterruptedException {
+        ctx = new RouterContext(null);
+        BatchedPreprocessor.DEFAULT_DELAY = 0;
+        DataMessage msg = new DataMessage(ctx);
+        byte[] data = new byte[size];
+        ctx.random().nextBytes(data);
+        msg.setData(data);
+        msg.setUniqueId(ctx.random().nextLong(I2NPMessage.MAX_ID_VALUE));
+        msg.setMessageExpiration(ctx.clock().now() + 60*60*1000);
+        List<PendingGatewayMessage> pending = new ArrayList<PendingGatewayMessage>(1);
+        pending.add(new PendingGatewayMessage(msg, null, null));
+        TunnelGateway.QueuePreprocessor pre = new BatchedPreprocessor(ctx, "bench");
+        Capture capture = new Capture();
+        while (pre.preprocessQueue(pending, capture, capture)) {
+            Thread.sleep(10);
+        }
+        handler = new FragmentHandler(ctx, counter);
+        // sanity check
+        long before = counter.count;
+        reassemble();
+        if (counter.count != before + 1)
+            throw new IllegalStateException("Reassembly failed");
+    }
+
+    @Benchmark
+    public long reassemble() {
+        for (int i = 0; i < fragments.size(); i++) {
+            byte[] frag = fragments.get(i).clone();
+            handler.receiveTunnelMessage(frag, 0, frag.length);
+        }
+        return counter.count;
+    }
+
+    /** Keeps a copy of each preprocessed tunnel message */
+    private class Capture implements TunnelGateway.Sender, TunnelGateway.Receiver {
+        public long sendPreprocessed(byte[] preprocessed, TunnelGateway.Receiver receiver) {
+            return receiver.receiveEncrypted(preprocessed);
+        }
+
+        public long receiveEncrypted(byte[] encrypted) {
+            fragments.add(encrypted.clone());
+            return -1;
+        }
+
+        public Hash getSendTo() {
+            return null;
+        }
+    }
+
+    /** Counts what it gets and throws it away */
+    private static class Counter implements FragmentHandler.DefragmentedReceiver {
+        long count;
+
+        public void receiveComplete(I2NPMessage msg, Hash toRouter, TunnelId toTunnel) {
+            count++;
+        }
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(FragmentHandlerBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,111 @@
+package net.i2p.router.tunnel;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.data.Hash;
+import net.i2p.data.i2np.I2NPMessageException;
+import net.i2p.data.i2np.I2NPMessageImpl;
+import net.i2p.data.i2np.TunnelDataMessage;
+import net.i2p.router.RouterContext;
+
+/**
+ *  A participant forwarding a TunnelDataMessage from an I2NP block
+ *  in an NTCP2 or SSU2 receive buffer to an SSU2 packet for the next hop,
+ *  including the hop crypto.
+ *  Run with -prof gc and compare gc.alloc.rate.norm.
+ *
+ *  copy: as before 0.9.59, the data copied out of the receive buffer by readMessage(),
+ *        and the message written again into a new buffer for the OutboundMessageState
+ *  inplace: the received buffer processed in place and sent on
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParticipantForwardBench {
+    private static final int OFFSET = 3;
+
+    private RouterContext ctx;
+    private HopProcessor processor;
+    private final Hash prev = new Hash(new byte[Hash.HASH_LENGTH]);
+    private final byte[] rcvBuf = new byte[OFFSET + TunnelDataMessage.RAW_SIZE];
+    private final byte[] packet = new byte[1500];
+
+    @Param({"copy", "inplace"})
+    public String mode;
+
+    @Setup
+    public void prepare() {
+        ctx = new RouterContext(null);
+        HopConfig cfg = new HopConfig();
+        cfg.setIVKey(ctx.keyGenerator().generateSessionKey());
+        cfg.setLayerKey(ctx.keyGenerator().generateSessionKey());
+        cfg.setReceiveFrom(prev);
+        // a busy tunnel, so it uses the TunnelLayerCipher
+        for (int i = 0; i < HopProcessor.MIN_MESSAGES_FOR_CIPHER; i++) {
+            cfg.incrementProcessedMessages();
+        }
+        processor = new HopProcessor(ctx, cfg, DummyValidator.getInstance());
+        TunnelDataMessage msg = new TunnelDataMessage(ctx);
+        msg.setUniqueId(1);
+        msg.setTunnelId(1234);
+        byte[] data = new byte[TunnelDataMessage.DATA_SIZE];
+        ctx.random().nextBytes(data);
+        msg.setData(data);
+        msg.toRawByteArrayNTCP2(rcvBuf, OFFSET);
+    }
+
+    @Benchmark
+    public int forward() throws I2NPMessageException {
+        TunnelDataMessage msg;
+        byte[] out;
+        if (mode.equals("copy")) {
+            msg = new TunnelDataMessage(ctx);
+            msg.setUniqueId(1);
+            msg.readMessage(rcvBuf, OFFSET + 9, TunnelDataMessage.RAW_SIZE - 9, TunnelDataMessage.MESSAGE_TYPE);
+            byte[] data = msg.getData();
+            processor.process(data, 0, data.length, prev);
+            msg.setTunnelId(5678);
+            out = new byte[TunnelDataMessage.RAW_SIZE];
+            msg.toRawByteArrayNTCP2(out, 0);
+        } else {
+            msg = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, rcvBuf, OFFSET,
+                                                                            TunnelDataMessage.RAW_SIZE, null);
+            byte[] data = msg.getDataBuffer();
+            processor.process(data, msg.getDataOffset(), TunnelDataMessage.DATA_SIZE, prev);
+            msg.setTunnelId(5678);
+            out = msg.getRawByteArrayNTCP2();
+        }
+        // into the packet
+        System.arraycopy(out, 0, packet, 0, out.length);
+        return packet[0];
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ParticipantForwardBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
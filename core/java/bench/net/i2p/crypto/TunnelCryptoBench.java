@@ -0,0 +1,115 @@
+package net.i2p.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.SessionKey;
+
+/**
+ *  Participating hop crypto (double IV encryption plus the CBC layer)
+ *  for a burst of 1024 byte tunnel messages, as HopProcessor does it:
+ *
+ *  aesEngine: ctx.aes() per message, Cryptix or pooled JVM Cipher
+ *             depending on CryptixAESEngine's AES-NI check
+ *  jcaInit:   JVM Cipher init() for each message and again on release,
+ *             what CryptixAESEngine does when it uses the JVM AES
+ *  batched:   TunnelLayerCipher, whole burst at once
+ *
+ *  Time is per burst; divide by burst for per-message.
+ *  The JVM AES results depend on AES-NI.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TunnelCryptoBench {
+    private static final int LEN = 1024;
+    private static final SecretKeySpec ZERO_KEY = new SecretKeySpec(new byte[32], "AES");
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[16]);
+
+    private final I2PAppContext ctx = I2PAppContext.getGlobalContext();
+    private SessionKey ivKey, layerKey;
+    private byte[][] msgs;
+    private int[] offsets;
+    private TunnelLayerCipher batch;
+    private Cipher ecb, cbc;
+
+    @Param({"1", "8", "32"})
+    public int burst;
+
+    @Setup
+    public void prepare() throws GeneralSecurityException {
+        ivKey = ctx.keyGenerator().generateSessionKey();
+        layerKey = ctx.keyGenerator().generateSessionKey();
+        msgs = new byte[burst][LEN];
+        offsets = new int[burst];
+        for (int i = 0; i < burst; i++) {
+            ctx.random().nextBytes(msgs[i]);
+        }
+        batch = new TunnelLayerCipher(ivKey, layerKey, true);
+        ecb = Cipher.getInstance("AES/ECB/NoPadding");
+        ecb.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(ivKey.getData(), "AES"));
+        cbc = Cipher.getInstance("AES/CBC/NoPadding");
+    }
+
+    @Benchmark
+    public void aesEngine() {
+        AESEngine aes = ctx.aes();
+        for (int i = 0; i < burst; i++) {
+            byte[] m = msgs[i];
+            aes.encryptBlock(m, 0, ivKey, m, 0);
+            aes.encrypt(m, 16, m, 16, layerKey, m, 0, LEN - 16);
+            aes.encryptBlock(m, 0, ivKey, m, 0);
+        }
+    }
+
+    @Benchmark
+    public void jcaInit() throws GeneralSecurityException {
+        for (int i = 0; i < burst; i++) {
+            byte[] m = msgs[i];
+            ecb.update(m, 0, 16, m, 0);
+            cbc.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(layerKey.getData(), "AES"),
+                     new IvParameterSpec(m, 0, 16), ctx.random());
+            cbc.doFinal(m, 16, LEN - 16, m, 16);
+            cbc.init(Cipher.DECRYPT_MODE, ZERO_KEY, ZERO_IV, ctx.random());
+            ecb.update(m, 0, 16, m, 0);
+        }
+    }
+
+    @Benchmark
+    public void batched() throws GeneralSecurityException {
+        batch.process(msgs, offsets, burst, LEN);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TunnelCryptoBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
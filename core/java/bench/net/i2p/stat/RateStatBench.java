@@ -0,0 +1,103 @@
+package net.i2p.stat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  Contended RateStat.addData() with the usual three periods,
+ *  against the pre-0.9.59 design of one synchronized Rate per period,
+ *  at 1, 4, and 16 threads all recording to the same stat.
+ *  Total throughput (ops/s) should scale with threads for striped
+ *  and fall off for synchronized.
+ *
+ *  Run with -prof gc to confirm striped allocates nothing.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RateStatBench {
+    private static final long[] PERIODS = new long[] { 60*1000l, 60*60*1000l, 24*60*60*1000l };
+
+    private final RateStat _stat = new RateStat("bench", "bench", "bench", PERIODS);
+    private final SynchronizedRate[] _old = new SynchronizedRate[PERIODS.length];
+    {
+        for (int i = 0; i < PERIODS.length; i++) {
+            _old[i] = new SynchronizedRate();
+        }
+    }
+
+    /** the fields addData() used to update under the lock */
+    private static class SynchronizedRate {
+        private float _currentTotalValue;
+        private int _currentEventCount;
+        private int _currentTotalEventTime;
+        private float _lifetimeTotalValue;
+        private long _lifetimeEventCount;
+        private long _lifetimeTotalEventTime;
+
+        public synchronized void addData(long value, long eventDuration) {
+            _currentTotalValue += value;
+            _currentEventCount++;
+            _currentTotalEventTime += eventDuration;
+            _lifetimeTotalValue += value;
+            _lifetimeEventCount++;
+            _lifetimeTotalEventTime += eventDuration;
+        }
+    }
+
+    private void old() {
+        for (SynchronizedRate r : _old)
+            r.addData(1234, 5);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void striped1() { _stat.addData(1234, 5); }
+
+    @Benchmark
+    @Threads(4)
+    public void striped4() { _stat.addData(1234, 5); }
+
+    @Benchmark
+    @Threads(16)
+    public void striped16() { _stat.addData(1234, 5); }
+
+    @Benchmark
+    @Threads(1)
+    public void synchronized1() { old(); }
+
+    @Benchmark
+    @Threads(4)
+    public void synchronized4() { old(); }
+
+    @Benchmark
+    @Threads(16)
+    public void synchronized16() { old(); }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(RateStatBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -71,6 +71,14 @@ public final class CryptixAESEngine extends AESEngine {
         }
     }
 
+    /**
+     *  Are we using the JVM's AES for large data?
+     *  @since 0.9.59
+     */
+    static boolean useSystemAES() {
+        return USE_SYSTEM_AES;
+    }
+
     /** */
     public CryptixAESEngine(I2PAppContext context) {
         super(context);
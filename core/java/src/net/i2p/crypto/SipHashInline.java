@@ -212,6 +212,48 @@ public final class SipHashInline {
         return v0 ^ v1 ^ v2 ^ v3;
     }
 
+    /**
+     *  Same as hash24() of the 8 bytes of data in big-endian order,
+     *  as written by DataHelper.toLong8(), without the byte array.
+     *
+     *  @param k0 the first 8 bytes of the key
+     *  @param k1 the last 8 bytes of the key
+     *  @since 0.9.59
+     */
+    public static long hash24(long k0, long k1, long data) {
+        long v0 = 0x736f6d6570736575L ^ k0;
+        long v1 = 0x646f72616e646f6dL ^ k1;
+        long v2 = 0x6c7967656e657261L ^ k0;
+        long v3 = 0x7465646279746573L ^ k1;
+        // the one 8 byte block, then the last block with only the length
+        long m = Long.reverseBytes(data);
+        for (int b = 0; b < 2; b++) {
+            v3 ^= m;
+            for (int r = 0; r < 2; r++) {
+                v0 += v1;                    v2 += v3;
+                v1 = (v1 << 13) | v1 >>> 51; v3 = (v3 << 16) | v3 >>> 48;
+                v1 ^= v0;                    v3 ^= v2;
+                v0 = (v0 << 32) | v0 >>> 32; v2 += v1;
+                v0 += v3;                    v1 = (v1 << 17) | v1 >>> 47;
+                v3 = (v3 << 21) | v3 >>> 43; v1 ^= v2;
+                v3 ^= v0;                    v2 = (v2 << 32) | v2 >>> 32;
+            }
+            v0 ^= m;
+            m = 8L << 56;
+        }
+        v2 ^= 0xff;
+        for (int r = 0; r < 4; r++) {
+            v0 += v1;                    v2 += v3;
+            v1 = (v1 << 13) | v1 >>> 51; v3 = (v3 << 16) | v3 >>> 48;
+            v1 ^= v0;                    v3 ^= v2;
+            v0 = (v0 << 32) | v0 >>> 32; v2 += v1;
+            v0 += v3;                    v1 = (v1 << 17) | v1 >>> 47;
+            v3 = (v3 << 21) | v3 >>> 43; v1 ^= v2;
+            v3 ^= v0;                    v2 = (v2 << 32) | v2 >>> 32;
+        }
+        return v0 ^ v1 ^ v2 ^ v3;
+    }
+
     /**
      *  Test vectors from https://www.131002.net/siphash/siphash.pdf
      */
@@ -0,0 +1,153 @@
+package net.i2p.crypto;
+
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.i2p.data.SessionKey;
+
+/**
+ * The AES layer and double IV encryption of tunnel messages at one hop,
+ * for a burst of messages at a time, using JVM ciphers initialized once
+ * for the hop's keys.
+ *
+ * CryptixAESEngine acquires a pooled Cipher and calls init() for each
+ * message, and again to reset it, so the key schedule is computed twice
+ * per message, and the IV blocks go through Cryptix one at a time.
+ * Here the IV blocks of the whole burst go through one ECB call, and
+ * the layer through one CBC call per message, without any init().
+ *
+ * The CBC ciphers keep a zero IV. To encrypt with IV V, the IV slot
+ * is replaced with X = D(V), so the CBC output is E(X) = V followed by
+ * the ciphertext. To decrypt, the IV slot and data are decrypted together,
+ * and the first block of output is discarded.
+ *
+ * Only for use when the JVM AES has AES-NI, see isAvailable().
+ * Thread safe, but a burst is processed under a lock.
+ *
+ * @since 0.9.59
+ */
+public final class TunnelLayerCipher {
+    private final boolean _encrypt;
+    /** ECB, for the IV */
+    private final Cipher _iv;
+    /** ECB decrypt for the layer, only when encrypting */
+    private final Cipher _layerECB;
+    /** CBC with zero IV */
+    private final Cipher _layerCBC;
+    private byte[] _scratch = new byte[16 * 8];
+    private byte[] _out = new byte[1024];
+    private final byte[][] _one = new byte[1][];
+    private final int[] _oneOffset = new int[1];
+
+    private static final int IV_LENGTH = 16;
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[16]);
+
+    /**
+     *  @param encrypt true for a participating hop or inbound gateway (HopProcessor),
+     *                 false to remove a layer at the inbound endpoint or outbound gateway
+     *  @throws GeneralSecurityException if the JVM can't do it
+     */
+    public TunnelLayerCipher(SessionKey ivKey, SessionKey layerKey, boolean encrypt) throws GeneralSecurityException {
+        _encrypt = encrypt;
+        int mode = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+        SecretKeySpec ik = new SecretKeySpec(ivKey.getData(), "AES");
+        SecretKeySpec lk = new SecretKeySpec(layerKey.getData(), "AES");
+        _iv = Cipher.getInstance("AES/ECB/NoPadding");
+        _iv.init(mode, ik);
+        _layerCBC = Cipher.getInstance("AES/CBC/NoPadding");
+        _layerCBC.init(mode, lk, ZERO_IV);
+        if (encrypt) {
+            _layerECB = Cipher.getInstance("AES/ECB/NoPadding");
+            _layerECB.init(Cipher.DECRYPT_MODE, lk);
+        } else {
+            _layerECB = null;
+        }
+    }
+
+    /**
+     *  Is the JVM AES in use and fast, i.e. with AES-NI and unlimited strength?
+     *  If not, don't bother, CryptixAESEngine is faster.
+     */
+    public static boolean isAvailable() {
+        return CryptixAESEngine.useSystemAES();
+    }
+
+    /**
+     *  One message, in place.
+     *
+     *  @param orig IV + data
+     *  @param offset where the IV begins
+     *  @param length IV + data, multiple of 16, should always be 1024
+     */
+    public synchronized void process(byte[] orig, int offset, int length) throws GeneralSecurityException {
+        _one[0] = orig;
+        _oneOffset[0] = offset;
+        try {
+            process(_one, _oneOffset, 1, length);
+        } finally {
+            _one[0] = null;
+        }
+    }
+
+    /**
+     *  A burst of messages, each in place.
+     *  Same as HopProcessor (encrypt) or OutboundGatewayProcessor.decrypt() (decrypt)
+     *  on each message.
+     *
+     *  @param msgs IV + data, non-null for the first count elements
+     *  @param offsets where the IV begins in each
+     *  @param count how many
+     *  @param length IV + data in each, multiple of 16, should always be 1024
+     */
+    public synchronized void process(byte[][] msgs, int[] offsets, int count, int length) throws GeneralSecurityException {
+        if (length <= IV_LENGTH || (length & 0x0f) != 0)
+            throw new IllegalArgumentException("bad length " + length);
+        if (count <= 0)
+            return;
+        int blocks = count * IV_LENGTH;
+        if (_scratch.length < blocks)
+            _scratch = new byte[blocks];
+        if (_out.length < length)
+            _out = new byte[length];
+        byte[] scratch = _scratch;
+        byte[] out = _out;
+        gather(msgs, offsets, count, scratch);
+        _iv.update(scratch, 0, blocks, scratch, 0);
+        if (_encrypt) {
+            // IV slot = D(IV) so the CBC output starts with the IV
+            _layerECB.update(scratch, 0, blocks, scratch, 0);
+            scatter(scratch, msgs, offsets, count);
+            for (int i = 0; i < count; i++) {
+                byte[] m = msgs[i];
+                int off = offsets[i];
+                _layerCBC.doFinal(m, off, length, out, 0);
+                System.arraycopy(out, 0, m, off, length);
+            }
+            gather(msgs, offsets, count, scratch);
+        } else {
+            scatter(scratch, msgs, offsets, count);
+            for (int i = 0; i < count; i++) {
+                byte[] m = msgs[i];
+                int off = offsets[i];
+                _layerCBC.doFinal(m, off, length, out, 0);
+                System.arraycopy(out, IV_LENGTH, m, off + IV_LENGTH, length - IV_LENGTH);
+            }
+        }
+        _iv.update(scratch, 0, blocks, scratch, 0);
+        scatter(scratch, msgs, offsets, count);
+    }
+
+    private static void gather(byte[][] msgs, int[] offsets, int count, byte[] scratch) {
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(msgs[i], offsets[i], scratch, i * IV_LENGTH, IV_LENGTH);
+        }
+    }
+
+    private static void scatter(byte[] scratch, byte[][] msgs, int[] offsets, int count) {
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(scratch, i * IV_LENGTH, msgs[i], offsets[i], IV_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package net.i2p.crypto.eddsa;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.crypto.eddsa.math.Curve;
+import net.i2p.crypto.eddsa.math.GroupElement;
+import net.i2p.crypto.eddsa.math.ScalarOps;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+import net.i2p.util.RandomSource;
+
+/**
+ * Batch verification of Ed25519 signatures.
+ *<p>
+ * For signatures $(R_i, S_i)$ with keys $A_i$ and $h_i = H(R_i,A_i,M_i)$,
+ * and random 128-bit $z_i$, checks
+ *</p><p>
+ * $8 * ((\sum z_i S_i) B - \sum z_i R_i - \sum (z_i h_i) A_i) = 0$
+ *</p><p>
+ * in one multi-scalar multiplication, with the doublings shared by all
+ * the signatures. If the batch fails, each half is checked the same way,
+ * down to single signatures, which are verified with EdDSAEngine,
+ * so the caller gets a result for each, and one bad signature
+ * costs about $2 \log_2 n$ batches rather than $n$ single verifications.
+ *</p><p>
+ * This is the cofactored equation of RFC 8032 section 5.1.7.
+ * EdDSAEngine checks the cofactorless equation $S B = R + h A$.
+ * So that the results don't depend on batching, signatures where
+ * $R$ or $A$ is of small order, which anybody could make for a small-order key,
+ * are verified with EdDSAEngine and not batched.
+ * Signatures with $S \ge l$ or a non-canonical $R$ are rejected by both.
+ * A signature made by the signer with an $R$ or $A$ that is the sum of
+ * a valid point and a small-order point is still accepted here but
+ * rejected by EdDSAEngine, as checking for that would cost a scalar
+ * multiplication per signature, as much as verifying it alone.
+ *</p><p>
+ * Not thread safe.
+ *</p>
+ *
+ * @since 0.9.59
+ */
+public final class EdDSABatchVerifier {
+
+    private final EdDSAParameterSpec _spec;
+    private final List<Entry> _entries;
+
+    private static final int SIG_LEN = 64;
+    private static final int POINT_LEN = 32;
+    /** bytes of the random z */
+    private static final int Z_LEN = 16;
+    /** l, little endian */
+    private static final byte[] ORDER = Utils.hexToBytes("edd3f55c1a631258d69cf7a2def9de1400000000000000000000000000000010");
+    private static final byte[] L_MINUS_ONE = Utils.hexToBytes("ecd3f55c1a631258d69cf7a2def9de1400000000000000000000000000000010");
+
+    private static class Entry {
+        final EdDSAPublicKey key;
+        final byte[] data;
+        final int off, len;
+        final byte[] sig;
+        /** set by prepare() */
+        GroupElement negR;
+        byte[] s, h;
+
+        Entry(EdDSAPublicKey key, byte[] data, int off, int len, byte[] sig) {
+            this.key = key;
+            this.data = data;
+            this.off = off;
+            this.len = len;
+            this.sig = sig;
+        }
+    }
+
+    public EdDSABatchVerifier() {
+        this(16);
+    }
+
+    /**
+     *  @param size the expected number of signatures
+     */
+    public EdDSABatchVerifier(int size) {
+        _spec = EdDSANamedCurveTable.getByName(EdDSANamedCurveTable.ED_25519);
+        _entries = new ArrayList<Entry>(size);
+    }
+
+    /**
+     *  Add a signature to the batch.
+     *  The data and signature are not copied, do not modify until verify() returns.
+     *
+     *  @param key must be Ed25519
+     *  @param sig 64 bytes
+     *  @throws IllegalArgumentException if the key is not Ed25519
+     */
+    public void add(EdDSAPublicKey key, byte[] data, int off, int len, byte[] sig) {
+        if (!_spec.equals(key.getParams()))
+            throw new IllegalArgumentException("Ed25519 only");
+        _entries.add(new Entry(key, data, off, len, sig));
+    }
+
+    /**
+     *  @return the number of signatures added since the last verify()
+     */
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     *  Verify all the signatures added, and clear the batch.
+     *
+     *  @return the results, in the order added, true if valid
+     */
+    public boolean[] verify() {
+        int n = _entries.size();
+        boolean[] rv = new boolean[n];
+        if (n == 0)
+            return rv;
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(_spec.getHashAlgorithm());
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+        EdDSAEngine engine = new EdDSAEngine(md);
+        try {
+            // not worth it for one
+            if (n == 1) {
+                rv[0] = verifyOne(engine, _entries.get(0));
+                return rv;
+            }
+            int[] batch = new int[n];
+            int count = 0;
+            for (int i = 0; i < n; i++) {
+                Entry e = _entries.get(i);
+                switch (prepare(md, e)) {
+                  case BATCH:
+                    batch[count++] = i;
+                    break;
+                  case ALONE:
+                    rv[i] = verifyOne(engine, e);
+                    break;
+                  default:
+                    break;
+                }
+            }
+            if (count > 0)
+                verifyBatch(engine, batch, 0, count, rv);
+        } finally {
+            _entries.clear();
+        }
+        return rv;
+    }
+
+    /** prepare() results */
+    private static final int INVALID = 0, ALONE = 1, BATCH = 2;
+
+    /**
+     *  Checks that may be done individually are done here,
+     *  and the values needed for the batch are set in the entry.
+     *
+     *  @return INVALID if EdDSAEngine would reject it,
+     *          ALONE if it must be verified with EdDSAEngine,
+     *          BATCH otherwise
+     */
+    private int prepare(MessageDigest md, Entry e) {
+        byte[] sig = e.sig;
+        if (sig.length != SIG_LEN)
+            return INVALID;
+        byte[] s = new byte[POINT_LEN];
+        System.arraycopy(sig, POINT_LEN, s, 0, POINT_LEN);
+        if (!isReduced(s))
+            return INVALID;
+        GroupElement negR = decodeNegative(_spec.getCurve(), sig);
+        if (negR == null)
+            return INVALID;
+        // The batch ignores small-order components, EdDSAEngine doesn't
+        if (isSmallOrder(negR) || isSmallOrder(e.key.getA()))
+            return ALONE;
+        md.update(sig, 0, POINT_LEN);
+        md.update(e.key.getAbyte());
+        md.update(e.data, e.off, e.len);
+        e.s = s;
+        e.negR = negR;
+        e.h = _spec.getScalarOps().reduce(md.digest());
+        return BATCH;
+    }
+
+    /**
+     *  Sets rv[i] for the entries batch[from] through batch[to - 1].
+     *  If they don't verify together, each half is tried,
+     *  down to one, which is verified with EdDSAEngine.
+     */
+    private void verifyBatch(EdDSAEngine engine, int[] batch, int from, int to, boolean[] rv) {
+        int count = to - from;
+        if (count == 1) {
+            int i = batch[from];
+            rv[i] = verifyOne(engine, _entries.get(i));
+            return;
+        }
+        if (checkBatch(batch, from, to)) {
+            for (int j = from; j < to; j++) {
+                rv[batch[j]] = true;
+            }
+            return;
+        }
+        int mid = from + (count / 2);
+        verifyBatch(engine, batch, from, mid, rv);
+        verifyBatch(engine, batch, mid, to, rv);
+    }
+
+    /**
+     *  The batch equation, with new random z,
+     *  for the prepared entries batch[from] through batch[to - 1].
+     *
+     *  @return true if they all verified
+     */
+    private boolean checkBatch(int[] batch, int from, int to) {
+        int n = to - from;
+        ScalarOps ops = _spec.getScalarOps();
+        RandomSource rand = RandomSource.getInstance();
+        // -R and -A, or A with a negated scalar, for each
+        GroupElement[] points = new GroupElement[2 * n];
+        byte[][] scalars = new byte[2 * n][];
+        byte[] zs = new byte[POINT_LEN];
+        byte[] zero = new byte[POINT_LEN];
+        int count = 0;
+        for (int j = from; j < to; j++) {
+            Entry e = _entries.get(batch[j]);
+            byte[] z = new byte[POINT_LEN];
+            rand.nextBytes(z, 0, Z_LEN);
+            points[count] = e.negR;
+            scalars[count++] = z;
+            byte[] zh = ops.multiplyAndAdd(z, e.h, zero);
+            GroupElement negA = e.key.getNegativeAIfCached();
+            if (negA != null) {
+                points[count] = negA;
+                scalars[count++] = zh;
+            } else {
+                // -zh * A, without the inversions of getNegativeA()
+                points[count] = e.key.getA();
+                scalars[count++] = ops.multiplyAndAdd(zh, L_MINUS_ONE, zero);
+            }
+            zs = ops.multiplyAndAdd(z, e.s, zs);
+        }
+        GroupElement r = _spec.getB().multiScalarMultiplyVariableTime(points, scalars, zs);
+        // with the cofactor cleared, the identity
+        return isSmallOrder(r);
+    }
+
+    /**
+     *  Verify one with EdDSAEngine
+     */
+    private static boolean verifyOne(EdDSAEngine engine, Entry e) {
+        try {
+            engine.initVerify(e.key);
+            return engine.verifyOneShot(e.data, e.off, e.len, e.sig);
+        } catch (GeneralSecurityException gse) {
+            return false;
+        }
+    }
+
+    /**
+     *  @return true if 8P is the identity, i.e. P is the identity or of small order
+     */
+    private static boolean isSmallOrder(GroupElement p) {
+        GroupElement r = p.dbl().toP2().dbl().toP2().dbl().toP2();
+        return !r.getX().isNonZero() && !r.getY().subtract(r.getZ()).isNonZero();
+    }
+
+    /**
+     *  @param s 32 bytes, little endian
+     *  @return s &lt; l
+     */
+    private static boolean isReduced(byte[] s) {
+        for (int i = POINT_LEN - 1; i >= 0; i--) {
+            int a = s[i] & 0xff;
+            int b = ORDER[i] & 0xff;
+            if (a < b)
+                return true;
+            if (a > b)
+                return false;
+        }
+        return false;
+    }
+
+    /**
+     *  Decode R from the first 32 bytes of the signature, negated,
+     *  by flipping the sign bit.
+     *  EdDSAEngine compares R with a canonical encoding,
+     *  so reject the non-canonical encodings the decoder accepts.
+     *
+     *  @return -R in P3 representation, or null if invalid
+     */
+    private static GroupElement decodeNegative(Curve curve, byte[] sig) {
+        // y >= p
+        if ((sig[POINT_LEN - 1] & 0x7f) == 0x7f && (sig[0] & 0xff) >= 0xed) {
+            boolean ff = true;
+            for (int i = 1; i < POINT_LEN - 1; i++) {
+                if (sig[i] != (byte) 0xff) {
+                    ff = false;
+                    break;
+                }
+            }
+            if (ff)
+                return null;
+        }
+        byte[] b = new byte[POINT_LEN];
+        System.arraycopy(sig, 0, b, 0, POINT_LEN);
+        b[POINT_LEN - 1] ^= (byte) 0x80;
+        GroupElement rv;
+        try {
+            rv = new GroupElement(curve, b);
+        } catch (IllegalArgumentException iae) {
+            return null;
+        }
+        // x == 0 with the sign bit set
+        if (!rv.getX().isNonZero() && (sig[POINT_LEN - 1] & 0x80) != 0)
+            return null;
+        return rv;
+    }
+}
@@ -263,6 +263,17 @@ public class EdDSAPublicKey implements EdDSAKey, PublicKey {
         return ourAneg;
     }
 
+    /**
+     *  For EdDSABatchVerifier, which avoids the precomputation in getNegativeA()
+     *  for keys used once.
+     *
+     *  @return -A if getNegativeA() was called before, else null
+     *  @since 0.9.59
+     */
+    GroupElement getNegativeAIfCached() {
+        return Aneg;
+    }
+
     public byte[] getAbyte() {
         return Abyte;
     }
@@ -583,6 +583,29 @@ public class GroupElement implements Serializable {
         return dblPrecmp;
     }
 
+    /**
+     * Precomputes a table of odd multiples in CACHED representation,
+     * for {@link #multiScalarMultiplyVariableTime(GroupElement[], byte[][], byte[])}.
+     * Unlike precomputeDouble(), there are no inversions,
+     * so this is cheap enough to do for a point used only once.
+     *
+     * @return P,3P,5P,7P,9P,11P,13P,15P in CACHED representation
+     * @since 0.9.59
+     */
+    private GroupElement[] precomputeCached() {
+        if (this.repr != Representation.P3)
+            throw new UnsupportedOperationException();
+        GroupElement[] rv = new GroupElement[8];
+        final GroupElement dbl = this.dbl().toP3().toCached();
+        GroupElement Bi = this;
+        rv[0] = toCached();
+        for (int i = 1; i < 8; i++) {
+            Bi = Bi.add(dbl).toP3();
+            rv[i] = Bi.toCached();
+        }
+        return rv;
+    }
+
     /**
      * Doubles a given group element $p$ in $P^2$ or $P^3$ representation and returns the result in $P \times P$ representation.
      * $r = 2 * p$ where $p = (X : Y : Z)$ or $p = (X : Y : Z : T)$
@@ -1069,6 +1092,89 @@ public class GroupElement implements Serializable {
         return r;
     }
 
+    /**
+     * $r = a_0 * A_0 + \dots + a_{n-1} * A_{n-1} + b * B$ where $B$ is this point,
+     * sharing the doublings among all the points, as for batch verification.
+     * <p>
+     * $B$ must have been previously precomputed.
+     * If $A_i$ was precomputed, its table is used, otherwise a table
+     * in CACHED representation is built for this call.
+     *
+     * @param A the points, in P3 representation
+     * @param a the scalars, $a_i = a_i[0]+256*a_i[1]+\dots+256^{31} a_i[31]$
+     * @param b $= b[0]+256*b[1]+\dots+256^{31} b[31]$
+     * @return the GroupElement in P2 representation
+     * @since 0.9.59
+     */
+    public GroupElement multiScalarMultiplyVariableTime(final GroupElement[] A, final byte[][] a, final byte[] b) {
+        final int n = A.length;
+        if (a.length != n)
+            throw new IllegalArgumentException();
+        final byte[][] aslide = new byte[n][];
+        final GroupElement[][] tables = new GroupElement[n][];
+        for (int j = 0; j < n; j++) {
+            aslide[j] = slide(a[j]);
+            tables[j] = A[j].dblPrecmp != null ? A[j].dblPrecmp : A[j].precomputeCached();
+        }
+        final byte[] bslide = slide(b);
+
+        GroupElement r = this.curve.getZero(Representation.P2);
+
+        int i;
+        for (i = 255; i >= 0; --i) {
+            if (bslide[i] != 0)
+                break;
+            boolean found = false;
+            for (int j = 0; j < n; j++) {
+                if (aslide[j][i] != 0) {
+                    found = true;
+                    break;
+                }
+            }
+            if (found)
+                break;
+        }
+
+        for (; i >= 0; --i) {
+            GroupElement t = r.dbl();
+
+            for (int j = 0; j < n; j++) {
+                int d = aslide[j][i];
+                if (d != 0)
+                    t = t.toP3().addMultiple(tables[j], d);
+            }
+
+            if (bslide[i] > 0) {
+                t = t.toP3().madd(this.dblPrecmp[bslide[i]/2]);
+            } else if (bslide[i] < 0) {
+                t = t.toP3().msub(this.dblPrecmp[(-bslide[i])/2]);
+            }
+
+            r = t.toP2();
+        }
+
+        return r;
+    }
+
+    /**
+     * $r = p + d * Q$ where $p$ is this point and $d * Q$ is looked up
+     * in a table of odd multiples of $Q$, in PRECOMP or CACHED representation.
+     *
+     * @param table from precomputeDouble() or precomputeCached()
+     * @param d odd, in $\{-15, -13, \dots, 13, 15\}$
+     * @return the P1P1 representation of the result.
+     * @since 0.9.59
+     */
+    private GroupElement addMultiple(final GroupElement[] table, final int d) {
+        if (d > 0) {
+            GroupElement q = table[d/2];
+            return q.repr == Representation.PRECOMP ? madd(q) : add(q);
+        } else {
+            GroupElement q = table[(-d)/2];
+            return q.repr == Representation.PRECOMP ? msub(q) : sub(q);
+        }
+    }
+
     /**
      * Verify that a point is on its curve.
      * @return true if the point lies on its curve.
@@ -9,10 +9,13 @@ package net.i2p.data;
  *
  */
 
+import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.List;
 
 import net.i2p.I2PAppContext;
 import net.i2p.crypto.DSAEngine;
+import net.i2p.crypto.SHA256Generator;
 import net.i2p.crypto.SigAlgo;
 import net.i2p.crypto.SigType;
 
@@ -64,6 +67,10 @@ public abstract class DatabaseEntry extends DataStructureImpl {
     private long _routingKeyGenMod;
     protected boolean _receivedAsPublished;
     protected boolean _receivedAsReply;
+    /** set by verifySignatures() or verifySignature(VerifyResultCache) */
+    private volatile Boolean _verifyResult;
+    /** cached by getSignedHash() */
+    private volatile Hash _signedHash;
 
     /**
      * A common interface to the timestamp of the two subclasses.
@@ -238,6 +245,9 @@ public abstract class DatabaseEntry extends DataStructureImpl {
     public boolean verifySignature() {
         if (_signature == null)
             return false;
+        Boolean known = _verifyResult;
+        if (known != null)
+            return known.booleanValue();
         byte data[];
         try {
             data = getBytes();
@@ -255,6 +265,159 @@ public abstract class DatabaseEntry extends DataStructureImpl {
             return false;
         return DSAEngine.getInstance().verifySignature(_signature, data, spk);
     }
+
+    /**
+     * The data covered by the signature, for verifySignatures().
+     * This is getBytes() here.
+     *
+     * @return null if unavailable, or if verifySignature() must be used
+     * @since 0.9.59
+     */
+    protected byte[] getSignedBytes() {
+        try {
+            return getBytes();
+        } catch (DataFormatException dfe) {
+            return null;
+        }
+    }
+
+    /**
+     * The result of verifySignatures() or verifySignature(VerifyResultCache),
+     * for verifySignature() in subclasses.
+     *
+     * @return null if not set
+     * @since 0.9.59
+     */
+    protected Boolean getVerifyResult() {
+        return _verifyResult;
+    }
+
+    /**
+     * A cache of verifySignature() results,
+     * keyed by the signing key and getSignedHash(),
+     * see verifySignature(VerifyResultCache).
+     *
+     * @since 0.9.59
+     */
+    public interface VerifyResultCache {
+        /**
+         * @param signedHash from getSignedHash()
+         * @return the result for an identical entry, or null if unknown
+         */
+        public Boolean get(SigningPublicKey spk, Hash signedHash);
+
+        /**
+         * @param signedHash from getSignedHash()
+         */
+        public void put(SigningPublicKey spk, Hash signedHash, boolean valid);
+    }
+
+    /**
+     * Same as verifySignature(), but with the result of an identical entry
+     * from the cache, if there is one, and kept in this entry, so that
+     * later calls to verifySignature() do not verify again.
+     * Otherwise the result of verifySignature() is added to the cache.
+     *
+     * Entries without a getSignedHash(), such as those with
+     * offline signatures and encrypted leasesets, are always verified.
+     * A result already in this entry is not replaced.
+     *
+     * @return valid
+     * @since 0.9.59
+     */
+    public boolean verifySignature(VerifyResultCache cache) {
+        Hash h = getSignedHash();
+        SigningPublicKey spk = getSigningPublicKey();
+        if (h == null || spk == null)
+            return verifySignature();
+        Boolean rv = cache.get(spk, h);
+        if (rv != null) {
+            if (_verifyResult == null)
+                _verifyResult = rv;
+            return verifySignature();
+        }
+        boolean valid = verifySignature();
+        cache.put(spk, h, valid);
+        return valid;
+    }
+
+    /**
+     * SHA-256 of the data covered by the signature, followed by the signature,
+     * to identify identical copies of this entry
+     * for a cache of verifySignature() results.
+     * The signature is included so that a result may not be reused
+     * for the same data with a different signature.
+     *
+     * @return null if unsigned, or if verifySignature() must be used,
+     *         as for offline signatures and encrypted leasesets
+     * @since 0.9.59
+     */
+    public Hash getSignedHash() {
+        Hash rv = _signedHash;
+        if (rv != null)
+            return rv;
+        Signature sig = _signature;
+        if (sig == null)
+            return null;
+        byte[] b = getSignedBytes();
+        if (b == null)
+            return null;
+        MessageDigest md = SHA256Generator.getDigestInstance();
+        md.update(b);
+        md.update(sig.getData());
+        rv = new Hash(md.digest());
+        _signedHash = rv;
+        return rv;
+    }
+
+    /**
+     * Verify the signatures of several entries together, which is faster
+     * than verifySignature() for each, see DSAEngine.verifySignatures().
+     * The result is kept in each entry, and returned by verifySignature()
+     * without verifying again.
+     *
+     * Only Ed25519 signatures are verified here. Other types, offline
+     * signatures, and encrypted leasesets are left for verifySignature().
+     *
+     * @return the number of entries verified, valid or not
+     * @since 0.9.59
+     */
+    public static int verifySignatures(List<? extends DatabaseEntry> entries) {
+        int n = entries.size();
+        DatabaseEntry[] des = new DatabaseEntry[n];
+        Signature[] sigs = new Signature[n];
+        byte[][] data = new byte[n][];
+        SigningPublicKey[] spks = new SigningPublicKey[n];
+        int count = 0;
+        for (DatabaseEntry de : entries) {
+            Signature sig = de._signature;
+            if (sig == null || sig.getType() != SigType.EdDSA_SHA512_Ed25519 ||
+                de._verifyResult != null)
+                continue;
+            byte[] b = de.getSignedBytes();
+            if (b == null)
+                continue;
+            SigningPublicKey spk = de.getSigningPublicKey();
+            if (spk == null || spk.getType() != SigType.EdDSA_SHA512_Ed25519)
+                continue;
+            des[count] = de;
+            sigs[count] = sig;
+            data[count] = b;
+            spks[count++] = spk;
+        }
+        if (count == 0)
+            return 0;
+        if (count < n) {
+            sigs = Arrays.copyOf(sigs, count);
+            data = Arrays.copyOf(data, count);
+            spks = Arrays.copyOf(spks, count);
+        }
+        boolean[] results = DSAEngine.getInstance().verifySignatures(sigs, data, spks);
+        for (int i = 0; i < count; i++) {
+            des[i]._verifyResult = Boolean.valueOf(results[i]);
+        }
+        return count;
+    }
     
     /**
      * If true, we received this LeaseSet by a remote peer publishing it to
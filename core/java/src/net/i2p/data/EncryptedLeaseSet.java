@@ -887,6 +887,17 @@ public class EncryptedLeaseSet extends LeaseSet2 {
         return verifySignature(_clientPrivateKey);
     }
 
+    /**
+     * Not batch verified, as verifySignature() also decrypts.
+     *
+     * @return null always
+     * @since 0.9.59
+     */
+    @Override
+    protected byte[] getSignedBytes() {
+        return null;
+    }
+
     /**
      * Decrypt if possible, and verify inner sig also.
      *
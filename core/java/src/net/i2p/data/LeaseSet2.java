@@ -625,6 +625,9 @@ public class LeaseSet2 extends LeaseSet {
     public boolean verifySignature() {
         if (_signature == null)
             return false;
+        Boolean known = getVerifyResult();
+        if (known != null)
+            return known.booleanValue();
         // Disallow RSA as it's so slow it could be used as a DoS
         SigType type = _signature.getType();
         if (type == null || type.getBaseAlgorithm() == SigAlgo.RSA)
@@ -657,6 +660,29 @@ public class LeaseSet2 extends LeaseSet {
         }
         return out.verifySignature(_signature, spk);
     }
+
+    /**
+     * The type and the data, as covered by the signature,
+     * for verifySignatures().
+     *
+     * @return null for offline signatures, or on error
+     * @since 0.9.59
+     */
+    @Override
+    protected byte[] getSignedBytes() {
+        if (isOffline())
+            return null;
+        ByteArrayStream out = new ByteArrayStream(1 + size());
+        try {
+            out.write(getType());
+            writeBytesWithoutSig(out);
+        } catch (IOException ioe) {
+            return null;
+        } catch (DataFormatException dfe) {
+            return null;
+        }
+        return out.toByteArray();
+    }
     
     @Override
     public boolean equals(Object object) {
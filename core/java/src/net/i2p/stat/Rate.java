@@ -11,9 +11,18 @@ import net.i2p.data.DataHelper;
  * of events (using the interval between events), and lifetime data.
  *
  * If value is always a constant, you should be using Frequency instead.
+ *
+ * As of 0.9.59, addData() is lock-free, and events are only folded into
+ * the period totals by coalesce(). The current and lifetime getters
+ * include events since the last coalesce.
  */
 public class Rate {
     //private final static Log _log = new Log(Rate.class);
+    /** running totals, shared with the other Rates of our RateStat */
+    private final RateAccumulator _accumulator;
+    /** accumulator totals as of the last coalesce or load */
+    private long _baseValue, _baseCount, _baseTime;
+    /** current (partial) period as of the last coalesce or load */
     private float _currentTotalValue;
     // was long, save space
     private int _currentEventCount;
@@ -42,17 +51,17 @@ public class Rate {
 
     /** in the current (partial) period, what is the total value acrued through all events? */
     public synchronized double getCurrentTotalValue() {
-        return _currentTotalValue;
+        return _currentTotalValue + (_accumulator.getValue() - _baseValue);
     }
 
     /** in the current (partial) period, how many events have occurred? */
     public synchronized long getCurrentEventCount() {
-        return _currentEventCount;
+        return _currentEventCount + (_accumulator.getCount() - _baseCount);
     }
 
     /** in the current (partial) period, how much of the time has been spent doing the events? */
     public synchronized long getCurrentTotalEventTime() {
-        return _currentTotalEventTime;
+        return _currentTotalEventTime + (_accumulator.getTime() - _baseTime);
     }
 
     /** in the last full period, what was the total value acrued through all events? */
@@ -90,17 +99,17 @@ public class Rate {
 
     /** since rate creation, what was the total value acrued through all events?  */
     public synchronized double getLifetimeTotalValue() {
-        return _lifetimeTotalValue;
+        return _lifetimeTotalValue + (_accumulator.getValue() - _baseValue);
     }
 
     /** since rate creation, how many events have occurred? */
     public synchronized long getLifetimeEventCount() {
-        return _lifetimeEventCount;
+        return _lifetimeEventCount + (_accumulator.getCount() - _baseCount);
     }
 
     /** since rate creation, how much of the time was spent doing the events? */
     public synchronized long getLifetimeTotalEventTime() {
-        return _lifetimeTotalEventTime;
+        return _lifetimeTotalEventTime + (_accumulator.getTime() - _baseTime);
     }
 
     /** when was the rate last coalesced? */
@@ -128,9 +137,18 @@ public class Rate {
      * @throws IllegalArgumentException if the period is invalid
      */
     public Rate(long period) throws IllegalArgumentException {
+        this(period, new RateAccumulator());
+    }
+
+    /**
+     * For RateStat, all of whose Rates share one accumulator.
+     * @since 0.9.59
+     */
+    Rate(long period, RateAccumulator accumulator) throws IllegalArgumentException {
         if (period <= 0 || period > Integer.MAX_VALUE)
             throw new IllegalArgumentException();
 
+        _accumulator = accumulator;
         _creationDate = now();
         _lastCoalesceDate = _creationDate;
         _period = (int) period;
@@ -159,12 +177,12 @@ public class Rate {
      * If value is always a constant, you should be using Frequency instead.
      * If you always use this call, eventDuration is always zero,
      * and the various get*Saturation*() and get*EventTime() methods will return zero.
+     *
+     * As of 0.9.59, lock-free. If this Rate belongs to a RateStat, the event is
+     * recorded for all of its Rates; use RateStat.addData().
      */
-    public synchronized void addData(long value) {
-        _currentTotalValue += value;
-        _currentEventCount++;
-        _lifetimeTotalValue += value;
-        _lifetimeEventCount++;
+    public void addData(long value) {
+        _accumulator.add(value, 0);
     }
 
     /**
@@ -200,14 +218,8 @@ public class Rate {
      * @param value value to accrue in the current period
      * @param eventDuration how long it took to accrue this data (set to 0 if it was instantaneous)
      */
-    public synchronized void addData(long value, long eventDuration) {
-        _currentTotalValue += value;
-        _currentEventCount++;
-        _currentTotalEventTime += eventDuration;
-
-        _lifetimeTotalValue += value;
-        _lifetimeEventCount++;
-        _lifetimeTotalEventTime += eventDuration;
+    public void addData(long value, long eventDuration) {
+        _accumulator.add(value, eventDuration);
     }
 
     /** 2s is plenty of slack to deal with slow coalescing (across many stats) */
@@ -226,6 +238,23 @@ public class Rate {
     
             // ok ok, lets coalesce
 
+            // fold in everything recorded since last time
+            long value = _accumulator.getValue();
+            long count = _accumulator.getCount();
+            long time = _accumulator.getTime();
+            long dValue = value - _baseValue;
+            long dCount = count - _baseCount;
+            long dTime = time - _baseTime;
+            _baseValue = value;
+            _baseCount = count;
+            _baseTime = time;
+            _currentTotalValue += dValue;
+            _currentEventCount += (int) dCount;
+            _currentTotalEventTime += (int) dTime;
+            _lifetimeTotalValue += dValue;
+            _lifetimeEventCount += dCount;
+            _lifetimeTotalEventTime += dTime;
+
             // how much were we off by?  (so that we can sample down the measured values)
             float periodFactor = measuredPeriod / (float)_period;
             _lastTotalValue = _currentTotalValue / periodFactor;
@@ -281,8 +310,10 @@ public class Rate {
      * What was the average value across the events since the stat was created?
      */
     public synchronized double getLifetimeAverageValue() {
-        if ((_lifetimeTotalValue != 0) && (_lifetimeEventCount > 0))
-            return _lifetimeTotalValue / _lifetimeEventCount;
+        double total = getLifetimeTotalValue();
+        long count = getLifetimeEventCount();
+        if ((total != 0) && (count > 0))
+            return total / count;
        
         return 0.0D;
     }
@@ -339,11 +370,13 @@ public class Rate {
      * @return ratio, or 0 if event times aren't used
      */
     public synchronized double getLifetimeEventSaturation() {
-        if ((_lastEventCount > 0) && (_lifetimeTotalEventTime > 0)) {
-            double eventTime = (double) _lifetimeTotalEventTime / (double) _lifetimeEventCount;
+        long lifetimeEventTime = getLifetimeTotalEventTime();
+        if ((_lastEventCount > 0) && (lifetimeEventTime > 0)) {
+            long lifetimeEventCount = getLifetimeEventCount();
+            double eventTime = (double) lifetimeEventTime / (double) lifetimeEventCount;
             double maxEvents = _period / eventTime;
             double numPeriods = getLifetimePeriods();
-            double avgEventsPerPeriod = _lifetimeEventCount / numPeriods;
+            double avgEventsPerPeriod = lifetimeEventCount / numPeriods;
             return avgEventsPerPeriod / maxEvents;
         }
         return 0.0D;
@@ -407,8 +440,9 @@ public class Rate {
      * Warning- returns ratio, not percentage (i.e. it is not multiplied by 100 here)
      */
     public synchronized double getPercentageOfLifetimeValue() {
-        if ((_lastTotalValue != 0) && (_lifetimeTotalValue != 0)) {
-            double lifetimePeriodValue = _period * (_lifetimeTotalValue / (now() - _creationDate));
+        double lifetimeTotalValue = getLifetimeTotalValue();
+        if ((_lastTotalValue != 0) && (lifetimeTotalValue != 0)) {
+            double lifetimePeriodValue = _period * (lifetimeTotalValue / (now() - _creationDate));
             return _lastTotalValue / lifetimePeriodValue;
         }
   
@@ -433,7 +467,8 @@ public class Rate {
     public synchronized RateAverages computeAverages(RateAverages out, boolean useLifetime) {
         out.reset();
         
-        final long total = _currentEventCount + _lastEventCount;
+        final long currentEventCount = getCurrentEventCount();
+        final long total = currentEventCount + _lastEventCount;
         out.setTotalEventCount(total);
         
         if (total <= 0) {
@@ -441,12 +476,13 @@ public class Rate {
             out.setAverage(avg);
         } else {
 
-            if (_currentEventCount > 0)
-                out.setCurrent( getCurrentTotalValue() / _currentEventCount );
+            final double currentTotalValue = getCurrentTotalValue();
+            if (currentEventCount > 0)
+                out.setCurrent( currentTotalValue / currentEventCount );
             if (_lastEventCount > 0)
                 out.setLast( getLastTotalValue() / _lastEventCount );
 
-            out.setTotalValues(getCurrentTotalValue() + getLastTotalValue());
+            out.setTotalValues(currentTotalValue + getLastTotalValue());
             out.setAverage( out.getTotalValues()  / total );
         }
         return out;
@@ -473,12 +509,12 @@ public class Rate {
         PersistenceHelper.addDate(buf, addComments, prefix, ".currentDate",
                               "When was this data written?", now());
         PersistenceHelper.add(buf, addComments, prefix, ".currentTotalValue",
-                              "Total value of data points in the current (uncoalesced) period", _currentTotalValue);
+                              "Total value of data points in the current (uncoalesced) period", getCurrentTotalValue());
         PersistenceHelper.add(buf, addComments, prefix, ".currentEventCount",
-                              "How many events have occurred in the current (uncoalesced) period?", _currentEventCount);
+                              "How many events have occurred in the current (uncoalesced) period?", getCurrentEventCount());
         PersistenceHelper.addTime(buf, addComments, prefix, ".currentTotalEventTime",
                               "How much time have the events in the current (uncoalesced) period consumed?",
-                              _currentTotalEventTime);
+                              getCurrentTotalEventTime());
         PersistenceHelper.add(buf, addComments, prefix, ".lastTotalValue",
                               "Total value of data points in the most recent (coalesced) period", _lastTotalValue);
         PersistenceHelper.add(buf, addComments, prefix, ".lastEventCount",
@@ -494,12 +530,12 @@ public class Rate {
                               "How much time have the events in the most extreme period consumed?",
                               _extremeTotalEventTime);
         PersistenceHelper.add(buf, addComments, prefix, ".lifetimeTotalValue",
-                              "Total value of data points since this stat was created", _lifetimeTotalValue);
+                              "Total value of data points since this stat was created", getLifetimeTotalValue());
         PersistenceHelper.add(buf, addComments, prefix, ".lifetimeEventCount",
-                              "How many events have occurred since this stat was created?", _lifetimeEventCount);
+                              "How many events have occurred since this stat was created?", getLifetimeEventCount());
         PersistenceHelper.addTime(buf, addComments, prefix, ".lifetimeTotalEventTime",
                               "How much total time was consumed by the events since this stat was created?",
-                              _lifetimeTotalEventTime);
+                              getLifetimeTotalEventTime());
     }
 
     /**
@@ -528,6 +564,10 @@ public class Rate {
         _lifetimeTotalValue = (float)PersistenceHelper.getDouble(props, prefix, ".lifetimeTotalValue");
         _lifetimeEventCount = PersistenceHelper.getLong(props, prefix, ".lifetimeEventCount");
         _lifetimeTotalEventTime = PersistenceHelper.getLong(props, prefix, ".lifetimeTotalEventTime");
+        // the loaded data replaces anything recorded so far
+        _baseValue = _accumulator.getValue();
+        _baseCount = _accumulator.getCount();
+        _baseTime = _accumulator.getTime();
 
         if (treatAsCurrent) _lastCoalesceDate = now();
 
@@ -0,0 +1,102 @@
+package net.i2p.stat;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import net.i2p.util.SystemVersion;
+
+/**
+ * Lock-free running totals of event count, value, and event time,
+ * shared by all the Rates of a RateStat so an event is recorded once.
+ *
+ * Starts as a single set of counters. The first time two threads
+ * collide on it, it switches to an array of padded stripes chosen by
+ * thread ID, in the style of java.util.concurrent.atomic.LongAdder
+ * (which we can't use here, as it's Java 8 / Android API 24).
+ * Recording never locks or allocates, except for the one-time expansion.
+ *
+ * Totals only ever increase; each Rate remembers the totals at its last
+ * coalesce. A read concurrent with add() may see the count but not yet
+ * the value of an event, which is corrected in the next period.
+ *
+ * @since 0.9.59
+ */
+final class RateAccumulator {
+    private volatile long _count;
+    private volatile long _value;
+    private volatile long _time;
+    private volatile AtomicLongArray _cells;
+    private volatile int _mask;
+
+    private static final AtomicLongFieldUpdater<RateAccumulator> COUNT =
+        AtomicLongFieldUpdater.newUpdater(RateAccumulator.class, "_count");
+    private static final AtomicLongFieldUpdater<RateAccumulator> VALUE =
+        AtomicLongFieldUpdater.newUpdater(RateAccumulator.class, "_value");
+    private static final AtomicLongFieldUpdater<RateAccumulator> TIME =
+        AtomicLongFieldUpdater.newUpdater(RateAccumulator.class, "_time");
+
+    /** count, value, time, then pad out to a 64-byte cache line */
+    private static final int STRIDE = 8;
+    private static final int STRIPES;
+    static {
+        int cores = SystemVersion.getCores();
+        int n = 2;
+        while (n < cores && n < 16)
+            n <<= 1;
+        STRIPES = n;
+    }
+
+    public void add(long value, long duration) {
+        AtomicLongArray cells = _cells;
+        if (cells == null) {
+            long c = _count;
+            if (COUNT.compareAndSet(this, c, c + 1)) {
+                if (value != 0)
+                    VALUE.addAndGet(this, value);
+                if (duration != 0)
+                    TIME.addAndGet(this, duration);
+                return;
+            }
+            cells = expand();
+        }
+        int i = stripe() * STRIDE;
+        cells.incrementAndGet(i);
+        if (value != 0)
+            cells.addAndGet(i + 1, value);
+        if (duration != 0)
+            cells.addAndGet(i + 2, duration);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & _mask;
+    }
+
+    private synchronized AtomicLongArray expand() {
+        AtomicLongArray rv = _cells;
+        if (rv == null) {
+            rv = new AtomicLongArray(STRIPES * STRIDE);
+            _mask = STRIPES - 1;
+            _cells = rv;
+        }
+        return rv;
+    }
+
+    public long getCount() { return _count + sum(0); }
+
+    public long getValue() { return _value + sum(1); }
+
+    public long getTime() { return _time + sum(2); }
+
+    private long sum(int field) {
+        AtomicLongArray cells = _cells;
+        if (cells == null)
+            return 0;
+        long rv = 0;
+        for (int i = field; i < cells.length(); i += STRIDE) {
+            rv += cells.get(i);
+        }
+        return rv;
+    }
+}
@@ -17,6 +17,8 @@ public class RateStat {
     private final String _description;
     /** actual rate objects for this statistic */
     protected final Rate[] _rates;
+    /** shared by all the rates, so each event is recorded once */
+    private final RateAccumulator _accumulator;
     /** component we tell about events as they occur */
     private StatLog _statLog;
 
@@ -31,9 +33,10 @@ public class RateStat {
         System.arraycopy(periods, 0, periodsCopy, 0, periods.length);
         sort(periodsCopy);
         
+        _accumulator = new RateAccumulator();
         _rates = new Rate[periodsCopy.length];
         for (int i = 0; i < periodsCopy.length; i++) {
-            Rate rate = new Rate(periodsCopy[i]);
+            Rate rate = new Rate(periodsCopy[i], _accumulator);
             rate.setRateStat(this);
             _rates[i] = rate;
         }
@@ -47,11 +50,11 @@ public class RateStat {
     
     /** 
      * update all of the rates for the various periods with the given value.  
+     * As of 0.9.59, lock-free; the rates see it when they are coalesced.
      */
     public void addData(long value, long eventDuration) {
         if (_statLog != null) _statLog.addData(_groupName, _statName, value, eventDuration);
-        for (Rate r: _rates)
-            r.addData(value, eventDuration);
+        _accumulator.add(value, eventDuration);
     }
 
     /** 
@@ -61,8 +64,7 @@ public class RateStat {
      */
     public void addData(long value) {
         if (_statLog != null) _statLog.addData(_groupName, _statName, value, 0);
-        for (Rate r: _rates)
-            r.addData(value);
+        _accumulator.add(value, 0);
     }
 
     /** coalesce all the stats */
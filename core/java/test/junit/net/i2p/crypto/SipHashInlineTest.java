@@ -21,8 +21,12 @@ package net.i2p.crypto;
  *
  */
 
+import java.util.Random;
+
 import junit.framework.TestCase;
 
+import net.i2p.data.DataHelper;
+
 public class SipHashInlineTest extends TestCase {
     private long[] EXPECTED = new long[] {
 	0x726fdb47dd0e0e31L,
@@ -103,4 +107,16 @@ public class SipHashInlineTest extends TestCase {
 	    assertEquals(EXPECTED[i], SipHashInline.hash24(k0, k1, msg));
 	}
     }
+
+    public void testLong() {
+	Random r = new Random(1);
+	byte[] buf = new byte[8];
+	for (int i = 0; i < 1000; i++) {
+	    long k0 = r.nextLong();
+	    long k1 = r.nextLong();
+	    long x = r.nextLong();
+	    DataHelper.toLong8(buf, 0, x);
+	    assertEquals(SipHashInline.hash24(k0, k1, buf), SipHashInline.hash24(k0, k1, x));
+	}
+    }
 }
@@ -0,0 +1,78 @@
+package net.i2p.crypto;
+
+import junit.framework.TestCase;
+import net.i2p.I2PAppContext;
+import net.i2p.data.DataHelper;
+import net.i2p.data.SessionKey;
+
+/**
+ *  Compare to the per-message AESEngine calls in
+ *  HopProcessor and OutboundGatewayProcessor.decrypt()
+ */
+public class TunnelLayerCipherTest extends TestCase {
+    private static final int LEN = 1024;
+    private static final int COUNT = 7;
+
+    private final I2PAppContext ctx = I2PAppContext.getGlobalContext();
+    private final CryptixAESEngine aes = new CryptixAESEngine(ctx);
+
+    /** as in HopProcessor */
+    private void hop(byte[] orig, int offset, SessionKey ivKey, SessionKey layerKey) {
+        aes.encryptBlock(orig, offset, ivKey, orig, offset);
+        aes.encrypt(orig, offset + 16, orig, offset + 16, layerKey, orig, offset, LEN - 16);
+        aes.encryptBlock(orig, offset, ivKey, orig, offset);
+    }
+
+    /** as in OutboundGatewayProcessor */
+    private void unwrap(byte[] orig, int offset, SessionKey ivKey, SessionKey layerKey) {
+        aes.decryptBlock(orig, offset, ivKey, orig, offset);
+        aes.decrypt(orig, offset + 16, orig, offset + 16, layerKey, orig, offset, LEN - 16);
+        aes.decryptBlock(orig, offset, ivKey, orig, offset);
+    }
+
+    public void testBurst() throws Exception {
+        SessionKey ivKey = ctx.keyGenerator().generateSessionKey();
+        SessionKey layerKey = ctx.keyGenerator().generateSessionKey();
+        TunnelLayerCipher enc = new TunnelLayerCipher(ivKey, layerKey, true);
+        TunnelLayerCipher dec = new TunnelLayerCipher(ivKey, layerKey, false);
+        byte[][] orig = new byte[COUNT][];
+        byte[][] batch = new byte[COUNT][];
+        int[] offsets = new int[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            offsets[i] = i * 3;
+            orig[i] = new byte[LEN + offsets[i]];
+            ctx.random().nextBytes(orig[i]);
+            batch[i] = orig[i].clone();
+        }
+        // twice, to be sure the ciphers are reusable
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < COUNT; i++) {
+                hop(orig[i], offsets[i], ivKey, layerKey);
+            }
+            enc.process(batch, offsets, COUNT, LEN);
+            for (int i = 0; i < COUNT; i++) {
+                assertTrue(DataHelper.eq(orig[i], batch[i]));
+            }
+        }
+        for (int j = 0; j < 2; j++) {
+            for (int i = 0; i < COUNT; i++) {
+                unwrap(orig[i], offsets[i], ivKey, layerKey);
+            }
+            dec.process(batch, offsets, COUNT, LEN);
+            for (int i = 0; i < COUNT; i++) {
+                assertTrue(DataHelper.eq(orig[i], batch[i]));
+            }
+        }
+    }
+
+    public void testSingle() throws Exception {
+        SessionKey ivKey = ctx.keyGenerator().generateSessionKey();
+        SessionKey layerKey = ctx.keyGenerator().generateSessionKey();
+        byte[] orig = new byte[LEN];
+        ctx.random().nextBytes(orig);
+        byte[] data = orig.clone();
+        new TunnelLayerCipher(ivKey, layerKey, true).process(data, 0, LEN);
+        new TunnelLayerCipher(ivKey, layerKey, false).process(data, 0, LEN);
+        assertTrue(DataHelper.eq(orig, data));
+    }
+}
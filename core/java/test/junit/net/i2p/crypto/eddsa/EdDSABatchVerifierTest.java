@@ -0,0 +1,195 @@
+package net.i2p.crypto.eddsa;
+
+import static org.junit.Assert.*;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAParameterSpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  Batch results must match EdDSAEngine
+ */
+public class EdDSABatchVerifierTest {
+    private static final int COUNT = 24;
+
+    private EdDSAParameterSpec spec;
+    private EdDSAEngine engine;
+    private EdDSAPrivateKey[] privs;
+    private EdDSAPublicKey[] keys;
+    private byte[][] msgs;
+    private byte[][] sigs;
+
+    @Before
+    public void setUp() throws Exception {
+        spec = EdDSANamedCurveTable.getByName(EdDSANamedCurveTable.ED_25519);
+        engine = new EdDSAEngine(MessageDigest.getInstance(spec.getHashAlgorithm()));
+        Random r = new Random(5541);
+        privs = new EdDSAPrivateKey[COUNT];
+        keys = new EdDSAPublicKey[COUNT];
+        msgs = new byte[COUNT][];
+        sigs = new byte[COUNT][];
+        for (int i = 0; i < COUNT; i++) {
+            byte[] seed = new byte[32];
+            r.nextBytes(seed);
+            EdDSAPrivateKeySpec privSpec = new EdDSAPrivateKeySpec(seed, spec);
+            EdDSAPrivateKey priv = new EdDSAPrivateKey(privSpec);
+            privs[i] = priv;
+            keys[i] = new EdDSAPublicKey(new EdDSAPublicKeySpec(privSpec.getA(), spec));
+            msgs[i] = new byte[r.nextInt(600)];
+            r.nextBytes(msgs[i]);
+            engine.initSign(priv);
+            sigs[i] = engine.signOneShot(msgs[i]);
+        }
+    }
+
+    private boolean[] verify(EdDSABatchVerifier batch) {
+        for (int i = 0; i < COUNT; i++) {
+            batch.add(keys[i], msgs[i], 0, msgs[i].length, sigs[i]);
+        }
+        assertEquals(COUNT, batch.size());
+        boolean[] rv = batch.verify();
+        assertEquals(0, batch.size());
+        return rv;
+    }
+
+    private void checkIndividually(boolean[] results) throws Exception {
+        for (int i = 0; i < COUNT; i++) {
+            engine.initVerify(keys[i]);
+            assertEquals("sig " + i, engine.verifyOneShot(msgs[i], sigs[i]), results[i]);
+        }
+    }
+
+    @Test
+    public void testValid() throws Exception {
+        EdDSABatchVerifier batch = new EdDSABatchVerifier();
+        boolean[] results = verify(batch);
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue(results[i]);
+        }
+        // reusable
+        results = verify(batch);
+        for (int i = 0; i < COUNT; i++) {
+            assertTrue(results[i]);
+        }
+        // one
+        batch.add(keys[0], msgs[0], 0, msgs[0].length, sigs[0]);
+        assertTrue(batch.verify()[0]);
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        // message
+        msgs[1] = msgs[1].clone();
+        msgs[1][0] ^= 1;
+        // R
+        sigs[5] = sigs[5].clone();
+        sigs[5][3] ^= 0x10;
+        // S
+        sigs[9] = sigs[9].clone();
+        sigs[9][40] ^= 0x01;
+        // S >= l
+        sigs[13] = sigs[13].clone();
+        sigs[13][63] |= (byte) 0xf0;
+        // R sign bit
+        sigs[17] = sigs[17].clone();
+        sigs[17][31] ^= (byte) 0x80;
+        // wrong key
+        keys[20] = keys[21];
+        boolean[] results = verify(new EdDSABatchVerifier());
+        checkIndividually(results);
+        for (int i = 0; i < COUNT; i++) {
+            boolean bad = i == 1 || i == 5 || i == 9 || i == 13 || i == 17 || i == 20;
+            assertEquals("sig " + i, !bad, results[i]);
+        }
+    }
+
+    /** the point of order 2, y = -1 */
+    private static final byte[] ORDER_2 = Utils.hexToBytes("ecffffffffffffffffffffffffffffffffffffffffffffffffffffffffffff7f");
+    /** y = 1 */
+    private static final byte[] IDENTITY = Utils.hexToBytes("0100000000000000000000000000000000000000000000000000000000000000");
+
+    /**
+     *  A signature with the given R, and S = h a, so S B = h A
+     */
+    private byte[] signWithR(int i, byte[] r) throws Exception {
+        MessageDigest md = MessageDigest.getInstance(spec.getHashAlgorithm());
+        md.update(r);
+        md.update(keys[i].getAbyte());
+        md.update(msgs[i]);
+        byte[] h = spec.getScalarOps().reduce(md.digest());
+        byte[] sig = new byte[64];
+        System.arraycopy(r, 0, sig, 0, 32);
+        byte[] s = spec.getScalarOps().multiplyAndAdd(h, privs[i].geta(), new byte[32]);
+        System.arraycopy(s, 0, sig, 32, 32);
+        return sig;
+    }
+
+    /**
+     *  Small-order R, that the cofactored batch equation would accept
+     */
+    @Test
+    public void testSmallOrderR() throws Exception {
+        // valid, S B = R + h A
+        sigs[2] = signWithR(2, IDENTITY);
+        // invalid, S B = h A = R + h A - R
+        sigs[7] = signWithR(7, ORDER_2);
+        sigs[11] = signWithR(11, ORDER_2);
+        boolean[] results = verify(new EdDSABatchVerifier());
+        checkIndividually(results);
+        assertTrue(results[2]);
+        assertFalse(results[7]);
+        assertFalse(results[11]);
+    }
+
+    /**
+     *  Small-order A, that the cofactored batch equation would accept
+     *  for any R = S B
+     */
+    @Test
+    public void testSmallOrderKey() throws Exception {
+        EdDSAPublicKey key = new EdDSAPublicKey(new EdDSAPublicKeySpec(ORDER_2, spec));
+        Random r = new Random(1234);
+        int bad = 0;
+        for (int i = 0; i < COUNT; i += 3) {
+            byte[] h = new byte[64];
+            r.nextBytes(h);
+            byte[] s = spec.getScalarOps().reduce(h);
+            byte[] sig = new byte[64];
+            System.arraycopy(spec.getB().scalarMultiply(s).toByteArray(), 0, sig, 0, 32);
+            System.arraycopy(s, 0, sig, 32, 32);
+            keys[i] = key;
+            sigs[i] = sig;
+            engine.initVerify(key);
+            if (!engine.verifyOneShot(msgs[i], sig))
+                bad++;
+        }
+        // valid if h is even
+        assertTrue(bad > 0);
+        boolean[] results = verify(new EdDSABatchVerifier());
+        checkIndividually(results);
+    }
+
+    /**
+     *  One bad one, anywhere, and the others are still found valid
+     */
+    @Test
+    public void testHalving() throws Exception {
+        for (int bad = 0; bad < COUNT; bad += 5) {
+            byte[][] orig = sigs.clone();
+            sigs[bad] = sigs[bad].clone();
+            sigs[bad][40] ^= 0x01;
+            boolean[] results = verify(new EdDSABatchVerifier());
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals("sig " + i, i != bad, results[i]);
+            }
+            sigs = orig;
+        }
+    }
+}
@@ -873,6 +873,30 @@ public class GroupElementTest {
         }
     }
 
+    @Test
+    public void multiScalarMultiplyVariableTimeReturnsExpectedResult() {
+        for (int i=0; i<5; i++) {
+            // Arrange:
+            final GroupElement basePoint = ed25519.getB();
+            // one with the double precomputation, one without
+            final GroupElement g1 = MathUtils.getRandomGroupElement(true);
+            final GroupElement g2 = MathUtils.getRandomGroupElement(false);
+            final FieldElement f1 = MathUtils.getRandomFieldElement();
+            final FieldElement f2 = MathUtils.getRandomFieldElement();
+            final FieldElement f3 = MathUtils.getRandomFieldElement();
+
+            // Act:
+            final GroupElement h1 = basePoint.multiScalarMultiplyVariableTime(new GroupElement[] { g1, g2 },
+                    new byte[][] { f2.toByteArray(), f3.toByteArray() }, f1.toByteArray());
+            final GroupElement h2 = MathUtils.addGroupElements(
+                    MathUtils.doubleScalarMultiplyGroupElements(basePoint, f1, g1, f2),
+                    MathUtils.scalarMultiplyGroupElement(g2, f3));
+
+            // Assert:
+            assertThat(h1, IsEqual.equalTo(h2));
+        }
+    }
+
     // endregion
 
     /**
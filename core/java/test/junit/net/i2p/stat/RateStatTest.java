@@ -50,6 +50,34 @@ public class RateStatTest extends TestCase {
         } catch (UnsupportedOperationException expected){}
     }
 
+    /** lock-free recording loses nothing, and coalesce folds it in */
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        final RateStat rs = new RateStat("test", "test concurrent adds", "tests", new long[] { 60*1000, 60*60*1000 });
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        rs.addData(3, 1);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(80000, rs.getLifetimeEventCount());
+        for (long period : rs.getPeriods()) {
+            Rate r = rs.getRate(period);
+            assertEquals(80000, r.getCurrentEventCount());
+            assertEquals(240000.0, r.getCurrentTotalValue());
+            assertEquals(80000, r.getCurrentTotalEventTime());
+        }
+        assertEquals(3.0, rs.getLifetimeAverageValue());
+    }
+
     @Test
     public void testRateStat() throws Exception{
         RateStat rs = new RateStat("moo", "moo moo moo", "cow trueisms", new long[] { 60 * 1000, 60 * 60 * 1000,
@@ -0,0 +1,190 @@
+package net.i2p.router;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  Compare the JobQueue timed job stores: the TreeSet under a single lock
+ *  (default) and the JobTimingWheel (router.jobQueue.timingWheel=true).
+ *
+ *  lifecycle() schedules a million jobs up to ten minutes out, reschedules
+ *  every one of them, then pumps through the whole period in 10 ms steps,
+ *  the way the QueuePumper would. reschedule() is the addJob() hot path,
+ *  remove and re-add of a random job in a million, from four threads.
+ *
+ *  @since 0.9.59
+ */
+@Fork(1)
+@State(Scope.Benchmark)
+public class JobQueueTimedBench {
+    private static final int JOBS = 1000 * 1000;
+    private static final long SPAN = 10*60*1000;
+    private static final long STEP = 10;
+
+    @Param({"treeset", "wheel"})
+    public String store;
+
+    private RouterContext _context;
+    private BenchJob[] _jobs;
+    private Set<Job> _timedJobs;
+    private final Object _jobLock = new Object();
+    private JobTimingWheel _wheel;
+    private long _base;
+
+    private static class BenchJob extends JobImpl {
+        public BenchJob(RouterContext ctx) { super(ctx); }
+        public String getName() { return "Bench"; }
+        public void runJob() {}
+    }
+
+    @Setup
+    public void prepare() {
+        _context = new RouterContext(null);
+        _jobs = new BenchJob[JOBS];
+        for (int i = 0; i < JOBS; i++) {
+            _jobs[i] = new BenchJob(_context);
+        }
+    }
+
+    /**
+     *  Fresh, fully populated store for each iteration
+     */
+    @Setup(Level.Iteration)
+    public void populate() {
+        _base = System.currentTimeMillis();
+        if (store.equals("wheel")) {
+            _wheel = new JobTimingWheel(16, _base);
+            _timedJobs = null;
+        } else {
+            _timedJobs = new TreeSet<Job>(new JobQueue.JobComparator());
+            _wheel = null;
+        }
+        Random rand = new Random(1);
+        for (int i = 0; i < JOBS; i++) {
+            BenchJob j = _jobs[i];
+            j.getTiming().setStartAfter(_base + 1 + rand.nextInt((int) SPAN));
+            add(j);
+        }
+    }
+
+    private void add(Job job) {
+        if (store.equals("wheel")) {
+            _wheel.add(job, job.getTiming().getStartAfter());
+        } else {
+            synchronized (_jobLock) {
+                _timedJobs.add(job);
+            }
+        }
+    }
+
+    /**
+     *  As in JobQueue.addJob(), except we remove before changing the
+     *  start time, so the TreeSet can always find it.
+     */
+    private void reschedule(Job job, long start) {
+        if (store.equals("wheel")) {
+            _wheel.remove(job);
+            job.getTiming().setStartAfter(start);
+            _wheel.add(job, start);
+        } else {
+            synchronized (_jobLock) {
+                _timedJobs.remove(job);
+                job.getTiming().setStartAfter(start);
+                _timedJobs.add(job);
+            }
+        }
+    }
+
+    /**
+     *  As in QueuePumper.run()
+     *  @return number promoted
+     */
+    private int pump(long now, List<Job> ready) {
+        if (store.equals("wheel")) {
+            _wheel.advance(now, ready);
+        } else {
+            synchronized (_jobLock) {
+                for (Iterator<Job> iter = _timedJobs.iterator(); iter.hasNext(); ) {
+                    Job j = iter.next();
+                    if (j.getTiming().getStartAfter() > now)
+                        break;
+                    ready.add(j);
+                    iter.remove();
+                }
+            }
+        }
+        int rv = ready.size();
+        ready.clear();
+        return rv;
+    }
+
+    /**
+     *  Reschedule all, then promote all.
+     *  @return number promoted, should be JOBS
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public int lifecycle() {
+        Random rand = new Random(2);
+        for (int i = 0; i < JOBS; i++) {
+            reschedule(_jobs[i], _base + 1 + rand.nextInt((int) SPAN));
+        }
+        List<Job> ready = new ArrayList<Job>(1024);
+        int rv = 0;
+        for (long now = _base; now <= _base + SPAN + STEP; now += STEP) {
+            rv += pump(now, ready);
+        }
+        if (rv != JOBS)
+            throw new IllegalStateException("Promoted " + rv + " of " + JOBS);
+        return rv;
+    }
+
+    /**
+     *  Contended addJob() reschedules
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+    @Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+    @Threads(4)
+    public void reschedule() {
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        reschedule(_jobs[rand.nextInt(JOBS)], _base + 1 + rand.nextLong(SPAN));
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(JobQueueTimedBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
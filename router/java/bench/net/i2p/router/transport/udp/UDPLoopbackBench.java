@@ -0,0 +1,163 @@
+package net.i2p.router.transport.udp;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *  Loopback packets per second for the blocking DatagramSocket path
+ *  used by default in UDPReceiver/UDPSender, and the batched
+ *  non-blocking DatagramChannel path enabled by i2np.udp.nio=true.
+ *
+ *  Each invocation sends a burst of packets and receives them all,
+ *  copying each into a UDPPacket-sized array as the receiver does.
+ *  Results are in packets per second.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UDPLoopbackBench {
+    private static final int BURST = 32;
+    private static final int TIMEOUT = 1000;
+
+    @Param({"64", "1280"})
+    public int size;
+
+    private DatagramSocket _sendSocket, _recvSocket;
+    private DatagramPacket _sendPacket;
+    private DatagramChannel _sendChannel, _recvChannel;
+    private Selector _selector;
+    private InetSocketAddress _socketTo, _channelTo;
+    private final ByteBuffer _sendBuf = ByteBuffer.allocateDirect(UDPPacket.MAX_PACKET_SIZE);
+    private final ByteBuffer _recvBuf = ByteBuffer.allocateDirect(UDPPacket.MAX_PACKET_SIZE);
+    private final byte[][] _packets = new byte[BURST][UDPPacket.MAX_PACKET_SIZE];
+    private final DatagramPacket[] _recvPackets = new DatagramPacket[BURST];
+
+    @Setup
+    public void prepare() throws IOException {
+        InetAddress lo = InetAddress.getLoopbackAddress();
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+
+        _recvSocket = new DatagramSocket(0, lo);
+        _recvSocket.setReceiveBufferSize(256*1024);
+        _recvSocket.setSoTimeout(TIMEOUT);
+        _sendSocket = new DatagramSocket(0, lo);
+        _socketTo = new InetSocketAddress(lo, _recvSocket.getLocalPort());
+        _sendPacket = new DatagramPacket(data, size, _socketTo);
+        for (int i = 0; i < BURST; i++) {
+            _recvPackets[i] = new DatagramPacket(_packets[i], UDPPacket.MAX_PACKET_SIZE);
+        }
+
+        _recvChannel = DatagramChannel.open();
+        _recvChannel.socket().setReceiveBufferSize(256*1024);
+        _recvChannel.bind(new InetSocketAddress(lo, 0));
+        _recvChannel.configureBlocking(false);
+        _selector = Selector.open();
+        _recvChannel.register(_selector, SelectionKey.OP_READ);
+        _sendChannel = DatagramChannel.open();
+        _sendChannel.bind(new InetSocketAddress(lo, 0));
+        _channelTo = new InetSocketAddress(lo, _recvChannel.socket().getLocalPort());
+        _sendBuf.put(data);
+        _sendBuf.flip();
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        _sendSocket.close();
+        _recvSocket.close();
+        _selector.close();
+        _sendChannel.close();
+        _recvChannel.close();
+    }
+
+    /**
+     *  One blocking send() and receive() per packet.
+     *  @return packets received
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int socket() throws IOException {
+        for (int i = 0; i < BURST; i++) {
+            _sendSocket.send(_sendPacket);
+        }
+        int rv = 0;
+        try {
+            for (int i = 0; i < BURST; i++) {
+                DatagramPacket dp = _recvPackets[i];
+                dp.setLength(UDPPacket.MAX_PACKET_SIZE);
+                _recvSocket.receive(dp);
+                rv++;
+            }
+        } catch (SocketTimeoutException ste) {}
+        return rv;
+    }
+
+    /**
+     *  Send from a direct buffer, and drain everything available
+     *  on each selector wakeup, as in UDPReceiver.ChannelRunner.
+     *  @return packets received
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int channel() throws IOException {
+        for (int i = 0; i < BURST; i++) {
+            _sendBuf.rewind();
+            _sendChannel.send(_sendBuf, _channelTo);
+        }
+        int rv = 0;
+        while (rv < BURST) {
+            _recvBuf.clear();
+            if (_recvChannel.receive(_recvBuf) == null) {
+                if (_selector.select(TIMEOUT) == 0)
+                    break;
+                _selector.selectedKeys().clear();
+                continue;
+            }
+            _recvBuf.flip();
+            _recvBuf.get(_packets[rv], 0, _recvBuf.remaining());
+            rv++;
+        }
+        return rv;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(UDPLoopbackBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
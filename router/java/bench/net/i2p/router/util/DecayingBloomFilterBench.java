@@ -0,0 +1,151 @@
+package net.i2p.router.util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.I2PAppContext;
+
+/**
+ *  add() of random 16 byte entries, as BloomFilterIVValidator does,
+ *  for DecayingBloomFilter and ShardedDecayingBloomFilter with
+ *  SipHash and SHA-1, at m=25, on 1 and 4 threads.
+ *  Each iteration starts with an empty filter and adds at most
+ *  a few million entries, well under the filter's capacity.
+ *
+ *  At the end, main() prints the measured false positive rate
+ *  at a few sizes and loads, for the javadoc table in ShardedDecayingBloomFilter.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecayingBloomFilterBench {
+    private static final int DURATION = 10*60*1000;
+    private static final int ENTRIES = 1024;
+
+    @Param({"dbf", "siphash", "sha1"})
+    public String filter;
+
+    private DecayingBloomFilter _filter;
+
+    @State(Scope.Thread)
+    public static class Entries {
+        final byte[][] entries = new byte[ENTRIES][16];
+        final Random rand = new Random();
+        int counter;
+
+        /** new random entries each iteration, so we aren't measuring dups */
+        @Setup(Level.Iteration)
+        public void fill() {
+            for (int i = 0; i < ENTRIES; i++) {
+                rand.nextBytes(entries[i]);
+            }
+        }
+
+        /** vary one byte per invocation, cheap and still new */
+        void next(int n) {
+            for (int i = 0; i < ENTRIES; i++) {
+                entries[i][0] = (byte) n;
+                entries[i][1] = (byte) (n >> 8);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void prepare() {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        if (filter.equals("dbf"))
+            _filter = new DecayingBloomFilter(ctx, DURATION, 16, "bench", 25);
+        else
+            _filter = new ShardedDecayingBloomFilter(ctx, DURATION, 16, "bench", 25, filter.equals("siphash"));
+    }
+
+    @TearDown(Level.Iteration)
+    public void done() {
+        _filter.stopDecaying();
+        _filter.clear();
+    }
+
+    private int add(Entries e) {
+        e.next(e.counter++);
+        int rv = 0;
+        for (int i = 0; i < ENTRIES; i++) {
+            if (_filter.add(e.entries[i]))
+                rv++;
+        }
+        return rv;
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(ENTRIES)
+    public int add1(Entries e) { return add(e); }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(ENTRIES)
+    public int add4(Entries e) { return add(e); }
+
+    /**
+     *  @param m filter size exponent
+     *  @param kbps one 16 byte entry per KB for one 600 second period
+     */
+    private static void falsePositives(int m, int kbps) {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        ShardedDecayingBloomFilter f = new ShardedDecayingBloomFilter(ctx, DURATION, 16, "fpr", m, true);
+        Random r = new Random();
+        byte[] b = new byte[16];
+        int n = 600 * kbps;
+        for (int i = 0; i < n; i++) {
+            r.nextBytes(b);
+            f.add(b);
+        }
+        double theory = f.getFalsePositiveRate();
+        int probes = 10*1000*1000;
+        int fp = 0;
+        for (int i = 0; i < probes; i++) {
+            if (f.isKnown(r.nextLong()))
+                fp++;
+        }
+        f.stopDecaying();
+        System.out.println("m=" + m + " " + kbps + " KBps: measured " + (fp / (double) probes) +
+                           " theory " + theory);
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DecayingBloomFilterBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+
+        falsePositives(20, 64);
+        falsePositives(23, 512);
+        falsePositives(23, 1024);
+        falsePositives(25, 4096);
+    }
+}
@@ -0,0 +1,100 @@
+package net.i2p.router.util;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.i2p.data.TunnelId;
+
+/**
+ *  TunnelDispatcher lookups: ConcurrentHashMap keyed by TunnelId,
+ *  creating a TunnelId for each lookup as TunnelDataMessage.getTunnelIdObj()
+ *  did, vs. TunnelIdMap keyed by the primitive ID.
+ *  Three quarters of the lookups hit.
+ *
+ *  Run with -prof gc to see the allocation difference.
+ *
+ *  @since 0.9.59
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TunnelIdMapBench {
+    private static final int LOOKUPS = 1024;
+
+    @Param({"1000", "20000"})
+    public int tunnels;
+
+    private final ConcurrentHashMap<TunnelId, Object> _chm = new ConcurrentHashMap<TunnelId, Object>();
+    private final TunnelIdMap<Object> _map = new TunnelIdMap<Object>();
+    private final long[] _lookups = new long[LOOKUPS];
+
+    @Setup
+    public void prepare() {
+        Random rand = new Random(1);
+        long[] ids = new long[tunnels];
+        for (int i = 0; i < tunnels; i++) {
+            long id = 1 + (rand.nextLong() & 0xffffffffL) % TunnelId.MAX_ID_VALUE;
+            ids[i] = id;
+            Object v = new Object();
+            _chm.put(new TunnelId(id), v);
+            _map.put(id, v);
+        }
+        for (int i = 0; i < LOOKUPS; i++) {
+            if ((i & 3) != 0)
+                _lookups[i] = ids[rand.nextInt(tunnels)];
+            else
+                _lookups[i] = 1 + (rand.nextLong() & 0xffffffffL) % TunnelId.MAX_ID_VALUE;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int concurrentHashMap() {
+        int rv = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (_chm.get(new TunnelId(_lookups[i])) != null)
+                rv++;
+        }
+        return rv;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public int tunnelIdMap() {
+        int rv = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (_map.get(_lookups[i]) != null)
+                rv++;
+        }
+        return rv;
+    }
+
+    public static void main(String args[]) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TunnelIdMapBench.class.getSimpleName())
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -10,9 +10,13 @@ package net.i2p.data.i2np;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
 
 import net.i2p.I2PAppContext;
+import net.i2p.data.ByteArray;
 import net.i2p.data.DatabaseEntry;
 import net.i2p.data.DataFormatException;
 import net.i2p.data.DataHelper;
@@ -23,13 +27,21 @@ import net.i2p.data.LeaseSet2;
 import net.i2p.data.MetaLeaseSet;
 import net.i2p.data.router.RouterInfo;
 import net.i2p.data.TunnelId;
+import net.i2p.util.ByteCache;
 
 /**
  * Defines the message a router sends to another router to test the network
  * database reachability, as well as the reply message sent back.
  *
- * TODO: Don't decompress and recompress RouterInfos at the OBEP and IBGW.
- * Could this even change the message length or corrupt things?
+ * As of 0.9.59, a received message is parsed lazily.
+ * readMessage() reads the key, type, and reply fields, and keeps
+ * the entry as received, gzipped for a RouterInfo.
+ * The entry is parsed on the first getEntry().
+ * If the message is written again, or the entry is flooded with
+ * setEntry(entry, bytes), the bytes as received are written,
+ * and the entry is not serialized or compressed again.
+ * That's only if the bytes are the entry and nothing else,
+ * otherwise they are dropped when parsed, and the entry is written as for a new message.
  *
  * @author jrandom
  */
@@ -37,7 +49,12 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
     public final static int MESSAGE_TYPE = 1;
     private Hash _key;
     private DatabaseEntry _dbEntry;
+    /** the entry as written, gzipped for a RouterInfo */
     private byte[] _byteCache;
+    /** the type as received or set */
+    private int _dbType = -1;
+    /** received, and getEntry() failed */
+    private boolean _parseFailed;
     private long _replyToken;
     private TunnelId _replyTunnel;
     private Hash _replyGateway;
@@ -60,18 +77,78 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
     }
     
     /**
-     * Defines the entry in the network database being stored
+     * Defines the entry in the network database being stored.
+     *
+     * As of 0.9.59, a received entry is parsed here, on the first call.
+     * Returns null if it cannot be parsed.
+     *
+     * @return null if received and corrupt, or if never set
+     */
+    public synchronized DatabaseEntry getEntry() {
+        if (_dbEntry == null && _byteCache != null && !_parseFailed) {
+            try {
+                parseEntry();
+            } catch (I2NPMessageException ime) {
+                _parseFailed = true;
+                // createRateStat in KNDF
+                _context.statManager().addRateData("netDb.DSMParseFailed", 1);
+                net.i2p.util.Log log = _context.logManager().getLog(DatabaseStoreMessage.class);
+                if (log.shouldWarn())
+                    log.warn("Bad entry in DSM for " + _key, ime);
+            }
+        }
+        return _dbEntry;
+    }
+
+    /**
+     * The entry type, without parsing a received entry.
+     *
+     * @return the DatabaseEntry.KEY_TYPE_*, or -1 if never set
+     * @since 0.9.59
+     */
+    public int getEntryType() {
+        return _dbType;
+    }
+
+    /**
+     * The entry as it is written, gzipped for a RouterInfo.
+     * For a received message, this is the entry as received.
+     * Otherwise, null until the message is written.
+     *
+     * Do not modify.
+     *
+     * @return null if not received and never written
+     * @since 0.9.59
      */
-    public DatabaseEntry getEntry() { return _dbEntry; }
+    public synchronized byte[] getEntryBytes() {
+        return _byteCache;
+    }
 
     /**
      * This also sets the key
      * @throws IllegalStateException if data previously set, to protect saved checksum
      */
     public void setEntry(DatabaseEntry entry) {
-        if (_dbEntry != null)
+        setEntry(entry, null);
+    }
+
+    /**
+     * This also sets the key.
+     * To send the same entry in several messages, with the bytes from
+     * getEntryBytes() of a message with the same entry, that was
+     * received or already written, so it isn't serialized and compressed again.
+     *
+     * @param entryBytes may be null; if non-null, must be from getEntryBytes()
+     *                   of a message with the same entry
+     * @throws IllegalStateException if data previously set, to protect saved checksum
+     * @since 0.9.59
+     */
+    public synchronized void setEntry(DatabaseEntry entry, byte[] entryBytes) {
+        if (_dbEntry != null || _byteCache != null)
             throw new IllegalStateException();
         _dbEntry = entry;
+        _dbType = entry.getType();
+        _byteCache = entryBytes;
     }
     
     /**
@@ -154,50 +231,125 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
             _replyGateway = null;
         }
         
+        int end = offset + dataSize;
         if (DatabaseEntry.isLeaseSet(dbType)) {
-            if (dbType == DatabaseEntry.KEY_TYPE_LEASESET)
-                _dbEntry = new LeaseSet();
-            else if (dbType == DatabaseEntry.KEY_TYPE_LS2)
-                _dbEntry = new LeaseSet2();
-            else if (dbType == DatabaseEntry.KEY_TYPE_ENCRYPTED_LS2)
-                _dbEntry = new EncryptedLeaseSet();
+            // parsed in getEntry()
+            if (curIndex >= end)
+                throw new I2NPMessageException("No leaseSet");
+            _byteCache = Arrays.copyOfRange(data, curIndex, end);
+        } else if ((dbType & 0x01) == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
+            dbType = DatabaseEntry.KEY_TYPE_ROUTERINFO;
+            int compressedSize = (int)DataHelper.fromLong(data, curIndex, 2);
+            curIndex += 2;
+            if (compressedSize <= 0 || curIndex + compressedSize > data.length || curIndex + compressedSize > end)
+                throw new I2NPMessageException("Compressed RI length: " + compressedSize +
+                                               " but remaining bytes: " + Math.min(data.length - curIndex, end - curIndex));
+            // decompressed and parsed in getEntry()
+            _byteCache = Arrays.copyOfRange(data, curIndex, curIndex + compressedSize);
+        } else {
+            throw new I2NPMessageException("Unknown type " + dbType);
+        }
+        _dbType = dbType;
+    }
+
+    /**
+     *  Parse the received entry in _byteCache.
+     *  If a leaseset is followed by anything, it is dropped from _byteCache,
+     *  so it isn't sent on.
+     *  If a gzipped routerinfo has anything else in the gzip data,
+     *  _byteCache is cleared, so it's compressed again if sent on.
+     *
+     *  @since 0.9.59 split out of readMessage()
+     */
+    private void parseEntry() throws I2NPMessageException {
+        DatabaseEntry entry;
+        if (DatabaseEntry.isLeaseSet(_dbType)) {
+            if (_dbType == DatabaseEntry.KEY_TYPE_LEASESET)
+                entry = new LeaseSet();
+            else if (_dbType == DatabaseEntry.KEY_TYPE_LS2)
+                entry = new LeaseSet2();
+            else if (_dbType == DatabaseEntry.KEY_TYPE_ENCRYPTED_LS2)
+                entry = new EncryptedLeaseSet();
             else
-                _dbEntry = new MetaLeaseSet();
+                entry = new MetaLeaseSet();
             try {
-                _dbEntry.readBytes(new ByteArrayInputStream(data, curIndex, data.length-curIndex));
+                ByteArrayInputStream in = new ByteArrayInputStream(_byteCache);
+                entry.readBytes(in);
+                int extra = in.available();
+                if (extra > 0) {
+                    _byteCache = Arrays.copyOf(_byteCache, _byteCache.length - extra);
+                    _hasChecksum = false;
+                }
             } catch (DataFormatException dfe) {
                 throw new I2NPMessageException("Error reading the leaseSet", dfe);
             } catch (IOException ioe) {
                 throw new I2NPMessageException("Error reading the leaseSet", ioe);
             }
-        } else if ((dbType & 0x01) == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
-            _dbEntry = new RouterInfo();
-            int compressedSize = (int)DataHelper.fromLong(data, curIndex, 2);
-            curIndex += 2;
-            if (compressedSize <= 0 || curIndex + compressedSize > data.length || curIndex + compressedSize > dataSize + offset)
-                throw new I2NPMessageException("Compressed RI length: " + compressedSize +
-                                               " but remaining bytes: " + Math.min(data.length - curIndex, dataSize + offset -curIndex));
-            
+        } else {
+            entry = new RouterInfo();
             try {
-                // TODO we could delay decompression, just copy to a new byte array and store in _byteCache
-                // May not be necessary since the IBGW now uses UnknownI2NPMessage.
-                // DSMs at the OBEP are generally garlic wrapped, so the OBEP won't see it.
-                // If we do delay it, getEntry() will have to check if _dbEntry is null and _byteCache
-                // is non-null, and then decompress.
-                byte decompressed[] = DataHelper.decompress(data, curIndex, compressedSize);
-                _dbEntry.readBytes(new ByteArrayInputStream(decompressed));
+                byte decompressed[] = gunzipExact(_byteCache);
+                boolean exact = decompressed != null;
+                if (!exact)
+                    decompressed = DataHelper.decompress(_byteCache);
+                ByteArrayInputStream in = new ByteArrayInputStream(decompressed);
+                entry.readBytes(in);
+                if (!exact || in.available() > 0) {
+                    // don't send on the sender's extra data, serialize and compress it again
+                    _byteCache = null;
+                    _hasChecksum = false;
+                }
             } catch (DataFormatException dfe) {
                 throw new I2NPMessageException("Error reading the routerInfo", dfe);
             } catch (IOException ioe) {
-                //net.i2p.util.Log log = new net.i2p.util.Log(DatabaseStoreMessage.class);
-                //log.error("Corrupt compressed routerInfo size = " + compressedSize + " key " + _key, ioe);
-                throw new I2NPMessageException("Corrupt compressed routerInfo size = " + compressedSize, ioe);
+                throw new I2NPMessageException("Corrupt compressed routerInfo size = " + _byteCache.length, ioe);
             }
-        } else {
-            throw new I2NPMessageException("Unknown type " + dbType);
         }
-        //if (!key.equals(_dbEntry.getHash()))
+        //if (!key.equals(entry.getHash()))
         //    throw new I2NPMessageException("Hash mismatch in DSM");
+        _dbEntry = entry;
+    }
+
+    /**
+     *  Gunzip, only if the data is a gzip header without options,
+     *  the deflate data, and the footer, and nothing else.
+     *  DataHelper.decompress() ignores the header options,
+     *  and anything between the deflate data and the last 8 bytes.
+     *
+     *  @return null if there's anything else, or if corrupt or too big
+     *  @since 0.9.59
+     */
+    private static byte[] gunzipExact(byte[] gz) {
+        int len = gz.length;
+        if (len < 18 || gz[0] != 0x1f || gz[1] != (byte) 0x8b || gz[2] != 0x08 || gz[3] != 0)
+            return null;
+        ByteCache cache = ByteCache.getInstance(8, DataHelper.MAX_UNCOMPRESSED);
+        ByteArray ba = cache.acquire();
+        Inflater inf = new Inflater(true);
+        try {
+            byte[] buf = ba.getData();
+            // the deflate data must end at the footer
+            inf.setInput(gz, 10, len - 18);
+            int written = 0;
+            while (!inf.finished()) {
+                if (written >= buf.length || inf.needsInput() || inf.needsDictionary())
+                    return null;
+                written += inf.inflate(buf, written, buf.length - written);
+            }
+            if (inf.getRemaining() > 0)
+                return null;
+            CRC32 crc = new CRC32();
+            crc.update(buf, 0, written);
+            if (DataHelper.fromLongLE(gz, len - 8, 4) != crc.getValue() ||
+                DataHelper.fromLongLE(gz, len - 4, 4) != written)
+                return null;
+            return Arrays.copyOf(buf, written);
+        } catch (java.util.zip.DataFormatException dfe) {
+            return null;
+        } finally {
+            inf.end();
+            cache.release(ba);
+        }
     }
     
     
@@ -206,15 +358,15 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
      *
      *  @throws IllegalStateException
      */
-    protected int calculateWrittenLength() { 
-        // TODO if _byteCache is non-null, don't check _dbEntry
-        if (_dbEntry == null)
+    protected synchronized int calculateWrittenLength() { 
+        // _byteCache is non-null if received, or set with the entry
+        if (_dbEntry == null && _byteCache == null)
             throw new IllegalStateException("Missing entry");
         int len = Hash.HASH_LENGTH + 1 + 4; // key+type+replyToken
         if (_replyToken > 0) 
             len += 4 + Hash.HASH_LENGTH; // replyTunnel+replyGateway
-        int type = _dbEntry.getType();
-        if (_dbEntry.isLeaseSet()) {
+        int type = _dbType;
+        if (DatabaseEntry.isLeaseSet(type)) {
             if (_byteCache == null) {
                 _byteCache = _dbEntry.toByteArray();
             }
@@ -233,10 +385,10 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
     }
 
     /** write the message body to the output array, starting at the given index */
-    protected int writeMessageBody(byte out[], int curIndex) throws I2NPMessageException {
-        if (_dbEntry == null) throw new I2NPMessageException("Missing entry");
-        int type = _dbEntry.getType();
-        if (type != DatabaseEntry.KEY_TYPE_ROUTERINFO && !_dbEntry.isLeaseSet())
+    protected synchronized int writeMessageBody(byte out[], int curIndex) throws I2NPMessageException {
+        if (_dbEntry == null && _byteCache == null) throw new I2NPMessageException("Missing entry");
+        int type = _dbType;
+        if (type != DatabaseEntry.KEY_TYPE_ROUTERINFO && !DatabaseEntry.isLeaseSet(type))
             throw new I2NPMessageException("Invalid key type " + type);
         
         // Use the hash of the DatabaseEntry
@@ -271,7 +423,7 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
     @Override
     public int hashCode() {
         return DataHelper.hashCode(getKey()) +
-               DataHelper.hashCode(_dbEntry) +
+               DataHelper.hashCode(getEntry()) +
                (int) _replyToken +
                DataHelper.hashCode(_replyTunnel) +
                DataHelper.hashCode(_replyGateway);
@@ -282,7 +434,7 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
         if ( (object != null) && (object instanceof DatabaseStoreMessage) ) {
             DatabaseStoreMessage msg = (DatabaseStoreMessage)object;
             return DataHelper.eq(getKey(),msg.getKey()) &&
-                   DataHelper.eq(_dbEntry,msg.getEntry()) &&
+                   DataHelper.eq(getEntry(), msg.getEntry()) &&
                    _replyToken == msg._replyToken &&
                    DataHelper.eq(_replyTunnel, msg._replyTunnel) &&
                    DataHelper.eq(_replyGateway, msg._replyGateway);
@@ -303,11 +455,11 @@ public class DatabaseStoreMessage extends FastI2NPMessageImpl {
             buf.append("\n\tReply gateway: ").append(_replyGateway);
         }
         buf.append("\n\tKey: ");
-        if (_dbEntry.getType() == DatabaseEntry.KEY_TYPE_ROUTERINFO)
+        if (_dbType == DatabaseEntry.KEY_TYPE_ROUTERINFO)
             buf.append(getKey());
         else
             buf.append(getKey().toBase32());
-        buf.append("\n\tEntry: ").append(_dbEntry);
+        buf.append("\n\tEntry: ").append(getEntry());
         buf.append(']');
         return buf.toString();
     }
@@ -378,12 +378,17 @@ public abstract class I2NPMessageImpl implements I2NPMessage {
      *  THe header consists of a one-byte type, 4-byte ID, and a 4-byte expiration in seconds only.
      *  Used by NTCP2 and SSU2 only!
      *
+     *  As of 0.9.59, a TunnelDataMessage is kept in this form,
+     *  so a participant can forward it without another copy.
+     *
      *  @param handler ignored, may be null
      *  @since 0.9.35
      */
     public static I2NPMessage fromRawByteArrayNTCP2(I2PAppContext ctx, byte buffer[], int offset,
                                                     int len, I2NPMessageHandler handler) throws I2NPMessageException {
         int type = buffer[offset] & 0xff;
+        if (type == TunnelDataMessage.MESSAGE_TYPE && len == TunnelDataMessage.RAW_SIZE)
+            return TunnelDataMessage.fromRawByteArrayNTCP2(ctx, buffer, offset, len);
         offset++;
         I2NPMessage msg = createMessage(ctx, type);
 
@@ -31,6 +31,14 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
     
     public final static int MESSAGE_TYPE = 18;
     public static final int DATA_SIZE = 1024;
+    /**
+     *  The message as in an NTCP2 or SSU2 I2NP block:
+     *  9 byte short header, 4 byte tunnel ID, and the data
+     *
+     *  @since 0.9.59
+     */
+    public static final int RAW_SIZE = 9 + 4 + DATA_SIZE;
+    private static final int RAW_DATA_OFFSET = 9 + 4;
     /** if we can't deliver a tunnel message in 10s, forget it */
     private static final int EXPIRATION_PERIOD = 10*1000;
     
@@ -100,6 +108,18 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
     /** For use-after-free checks. Always false if PIPELINED_CACHE is false. */
     private boolean _hadCache;
 
+    /**
+     *  The whole message as received by NTCP2 or SSU2, RAW_SIZE bytes,
+     *  with the data at RAW_DATA_OFFSET.
+     *  A participant processes the data in place, and the same buffer goes
+     *  out to the next hop, with the header and tunnel ID rewritten.
+     *  Null if not received that way, or once getData() has copied the data out.
+     *  Never released, as with transmitted _dataBufs, see above.
+     *
+     *  @since 0.9.59
+     */
+    private byte[] _raw;
+
     public TunnelDataMessage(I2PAppContext context) {
         super(context);
         setMessageExpiration(context.clock().now() + EXPIRATION_PERIOD);
@@ -130,7 +150,26 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
         _tunnelId = id.getTunnelId();
     }
     
+    /**
+     *  If the message was received by NTCP2 or SSU2, this copies the data
+     *  out of the received buffer, as readMessage() would have, so the data
+     *  starts at offset 0.
+     *  Participants should use getDataBuffer() and getDataOffset() instead.
+     */
     public byte[] getData() {
+        if (_raw != null) {
+            // the endpoints hand the data to the fragment handler,
+            // which caches it and releases it later, so it must be DATA_SIZE at 0
+            if (PIPELINED_CACHE) {
+                _dataBuf = _cache.acquire();
+                _data = _dataBuf.getData();
+                _hadCache = true;
+            } else {
+                _data = new byte[DATA_SIZE];
+            }
+            System.arraycopy(_raw, RAW_DATA_OFFSET, _data, 0, DATA_SIZE);
+            _raw = null;
+        }
         if (_hadCache && _dataBuf == null) {
             RuntimeException e = new RuntimeException("TDM data buf use after free");
             _log.error("TDM boom", e);
@@ -139,11 +178,33 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
         return _data;
     }
 
+    /**
+     *  The buffer holding the data, for processing in place.
+     *  Unlike getData(), this does not copy the data out of a buffer
+     *  received by NTCP2 or SSU2, so the data starts at getDataOffset().
+     *  Call this before getDataOffset().
+     *
+     *  @since 0.9.59
+     */
+    public byte[] getDataBuffer() {
+        byte[] raw = _raw;
+        return raw != null ? raw : getData();
+    }
+
+    /**
+     *  The offset of the data in getDataBuffer()
+     *
+     *  @since 0.9.59
+     */
+    public int getDataOffset() {
+        return _raw != null ? RAW_DATA_OFFSET : 0;
+    }
+
     /**
      *  @throws IllegalStateException if data previously set, to protect saved checksum
      */
     public void setData(byte data[]) { 
-        if (_data != null)
+        if (_data != null || _raw != null)
             throw new IllegalStateException();
         if ( (data == null) || (data.length <= 0) )
             throw new IllegalArgumentException("Empty tunnel payload?");
@@ -172,11 +233,84 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
         }
         System.arraycopy(data, curIndex, _data, 0, DATA_SIZE);
     }
+
+    /**
+     *  Read the message with the short 9-byte header, as in an NTCP2 or SSU2 I2NP block.
+     *  Unlike readMessage(), the whole message is kept in one buffer,
+     *  so a participant may process the data in place and
+     *  send the same buffer on, see getDataBuffer() and getRawByteArrayNTCP2().
+     *  This is the only copy, as the transports reuse their receive buffers.
+     *
+     *  @param len must be RAW_SIZE
+     *  @since 0.9.59
+     */
+    static TunnelDataMessage fromRawByteArrayNTCP2(I2PAppContext ctx, byte buffer[], int offset,
+                                                   int len) throws I2NPMessageException {
+        if (len != RAW_SIZE)
+            throw new I2NPMessageException("Bad length " + len);
+        if ((buffer[offset] & 0xff) != MESSAGE_TYPE)
+            throw new I2NPMessageException("Message type is incorrect for this message");
+        long tunnelId = DataHelper.fromLong(buffer, offset + 9, 4);
+        if (tunnelId <= 0) 
+            throw new I2NPMessageException("Invalid tunnel Id " + tunnelId);
+        TunnelDataMessage rv = new TunnelDataMessage(ctx);
+        byte[] raw = new byte[RAW_SIZE];
+        System.arraycopy(buffer, offset, raw, 0, RAW_SIZE);
+        rv.setUniqueId(DataHelper.fromLong(raw, 1, 4));
+        // in seconds, round up so we don't lose time every hop
+        rv.setMessageExpiration((DataHelper.fromLong(raw, 5, 4) * 1000) + 500);
+        rv._tunnelId = tunnelId;
+        rv._raw = raw;
+        return rv;
+    }
+
+    /**
+     *  The message with the short 9-byte header, for SSU2 to send without another copy.
+     *  The header and tunnel ID are written into the received buffer,
+     *  so the caller must not modify it.
+     *
+     *  @return the buffer, RAW_SIZE bytes, or null if the message was not
+     *          received by NTCP2 or SSU2, or the data was copied out by getData()
+     *  @since 0.9.59
+     */
+    public byte[] getRawByteArrayNTCP2() {
+        byte[] raw = _raw;
+        if (raw == null)
+            return null;
+        raw[0] = (byte) MESSAGE_TYPE;
+        DataHelper.toLong(raw, 1, 4, getUniqueId());
+        DataHelper.toLong(raw, 5, 4, (_expiration + 500) / 1000);
+        DataHelper.toLong(raw, 9, 4, _tunnelId);
+        return raw;
+    }
+
+    /**
+     *  One copy from the received buffer if we have it
+     *
+     *  @since 0.9.59
+     */
+    @Override
+    public int toRawByteArrayNTCP2(byte buffer[], int off) {
+        byte[] raw = getRawByteArrayNTCP2();
+        if (raw == null)
+            return super.toRawByteArrayNTCP2(buffer, off);
+        System.arraycopy(raw, 0, buffer, off, RAW_SIZE);
+        return off + RAW_SIZE;
+    }
     
     /** calculate the message body's length (not including the header and footer */
     protected int calculateWrittenLength() { return 4 + DATA_SIZE; }
     /** write the message body to the output array, starting at the given index */
     protected int writeMessageBody(byte out[], int curIndex) throws I2NPMessageException {
+        byte[] raw = _raw;
+        if (raw != null) {
+            if (_tunnelId <= 0)
+                throw new I2NPMessageException("Not enough data to write out (id=" + _tunnelId + ")");
+            DataHelper.toLong(out, curIndex, 4, _tunnelId);
+            curIndex += 4;
+            System.arraycopy(raw, RAW_DATA_OFFSET, out, curIndex, DATA_SIZE);
+            return curIndex + DATA_SIZE;
+        }
         if ( (_tunnelId <= 0) || (_data == null) )
             throw new I2NPMessageException("Not enough data to write out (id=" + _tunnelId + ")");
         if (_data.length <= 0) 
@@ -207,16 +341,28 @@ public class TunnelDataMessage extends FastI2NPMessageImpl {
     
     @Override
     public int hashCode() {
-        return (int)_tunnelId +
-               DataHelper.hashCode(_data);
+        // as DataHelper.hashCode(), but don't copy the data out
+        int rv = 0;
+        byte[] data = getDataBuffer();
+        if (data != null) {
+            int off = getDataOffset();
+            for (int i = 0; i < 32; i++)
+                rv ^= (data[off + i] << i);
+        }
+        return (int)_tunnelId + rv;
     }
     
     @Override
     public boolean equals(Object object) {
         if ( (object != null) && (object instanceof TunnelDataMessage) ) {
             TunnelDataMessage msg = (TunnelDataMessage)object;
-            return _tunnelId == msg.getTunnelId() &&
-                   DataHelper.eq(getData(),msg.getData());
+            if (_tunnelId != msg.getTunnelId())
+                return false;
+            byte[] data = getDataBuffer();
+            byte[] odata = msg.getDataBuffer();
+            if (data == null || odata == null)
+                return data == odata;
+            return DataHelper.eq(data, getDataOffset(), odata, msg.getDataOffset(), DATA_SIZE);
         } else {
             return false;
         }
@@ -421,6 +421,9 @@ public class InNetMessagePool implements Service {
         }
     }
     
+    /** @since 0.9.59 */
+    private static final int MAX_DATA_BURST = 16;
+
     /** unused unless DISPATCH_DIRECT == false */
     private class SharedShortCircuitDataJob extends JobImpl {
         public SharedShortCircuitDataJob(RouterContext ctx) {
@@ -429,17 +432,28 @@ public class InNetMessagePool implements Service {
         public String getName() { return "Dispatch tunnel participant message"; }
         public void runJob() { 
             int remaining = 0;
-            I2NPMessage msg = null;
-            Hash from = null;
+            List<I2NPMessage> msgs = null;
+            List<Hash> froms = null;
             synchronized (_pendingDataMessages) {
-                if (!_pendingDataMessages.isEmpty()) {
-                    msg = _pendingDataMessages.remove(0);
-                    from = _pendingDataMessagesFrom.remove(0);
+                int sz = _pendingDataMessages.size();
+                if (sz > 0) {
+                    // take a burst so the tunnel dispatcher can batch the crypto
+                    int n = Math.min(sz, MAX_DATA_BURST);
+                    List<I2NPMessage> m = _pendingDataMessages.subList(0, n);
+                    List<Hash> f = _pendingDataMessagesFrom.subList(0, n);
+                    msgs = new ArrayList<I2NPMessage>(m);
+                    froms = new ArrayList<Hash>(f);
+                    m.clear();
+                    f.clear();
                 }
                 remaining = _pendingDataMessages.size();
             }
-            if (msg != null)
-                doShortCircuitTunnelData(msg, from); 
+            if (msgs != null) {
+                if (msgs.size() == 1)
+                    doShortCircuitTunnelData(msgs.get(0), froms.get(0));
+                else
+                    getContext().tunnelDispatcher().dispatch(msgs, froms);
+            }
             if (remaining > 0)
                 getContext().jobQueue().addJob(SharedShortCircuitDataJob.this);
         }
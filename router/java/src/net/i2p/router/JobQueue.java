@@ -11,11 +11,13 @@ package net.i2p.router;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.Set;
@@ -52,6 +54,10 @@ public class JobQueue {
     private final BlockingQueue<Job> _readyJobs;
     /** SortedSet of jobs that are scheduled for running in the future, earliest first */
     private final Set<Job> _timedJobs;
+    /** if non-null, used instead of _timedJobs, and not protected by _jobLock */
+    private final JobTimingWheel _timingWheel;
+    /** timing wheel only, an earlier job was added while the pumper was busy */
+    private boolean _pumperWakeup;
     /** job name to JobStat for that job */
     private final ConcurrentHashMap<String, JobStats> _jobStats;
     private final QueuePumper _pumper;
@@ -63,7 +69,7 @@ public class JobQueue {
     private final Object _jobLock;
     private volatile long _nextPumperRun;
     
-    /** how many when we go parallel */
+    /** how many when we go parallel, unless work stealing */
     private static final int RUNNERS;
     static {
         long maxMemory = SystemVersion.getMaxMemory();
@@ -79,6 +85,24 @@ public class JobQueue {
     private final static int DEFAULT_MAX_RUNNERS = 1;
     /** router.config parameter to override the max runners */
     private final static String PROP_MAX_RUNNERS = "router.maxJobRunners";
+
+    /**
+     *  Use a lock-striped timing wheel for the timed jobs instead of
+     *  a TreeSet under the single job lock.
+     *  @since 0.9.59
+     */
+    private final static String PROP_TIMING_WHEEL = "router.jobQueue.timingWheel";
+
+    /**
+     *  Give each runner its own ready queue, with stealing, and size the
+     *  runners from the number of cores rather than memory.
+     *  @since 0.9.59
+     */
+    private final static String PROP_WORK_STEALING = "router.jobQueue.workStealing";
+    /** @since 0.9.59 */
+    private final static int MAX_STEALING_RUNNERS = 32;
+    /** how many when we go parallel */
+    private final int _defaultRunners;
     
     /** how frequently should we check and update the max runners */
     private final static long MAX_LIMIT_UPDATE_DELAY = 60*1000;
@@ -157,11 +181,21 @@ public class JobQueue {
         _context.statManager().createRequiredRateStat("jobQueue.jobLag", "Job run delay (ms)", "JobQueue", new long[] { 60*1000l, 60*60*1000l, 24*60*60*1000l });
         _context.statManager().createRateStat("jobQueue.jobWait", "How long does a job sit on the job queue?", "JobQueue", new long[] { 60*60*1000l, 24*60*60*1000l });
 
-        _readyJobs = new LinkedBlockingQueue<Job>();
+        _jobStats = new ConcurrentHashMap<String,JobStats>();
+        if (_context.getBooleanProperty(PROP_WORK_STEALING)) {
+            _defaultRunners = Math.max(RUNNERS, Math.min(SystemVersion.getCores(), MAX_STEALING_RUNNERS));
+            _readyJobs = new WorkStealingJobQueue(_context.getProperty(PROP_MAX_RUNNERS, _defaultRunners), _jobStats);
+        } else {
+            _defaultRunners = RUNNERS;
+            _readyJobs = new LinkedBlockingQueue<Job>();
+        }
         _timedJobs = new TreeSet<Job>(new JobComparator());
+        if (_context.getBooleanProperty(PROP_TIMING_WHEEL))
+            _timingWheel = new JobTimingWheel(Math.min(16, 2 * SystemVersion.getCores()), _context.clock().now());
+        else
+            _timingWheel = null;
         _jobLock = new Object();
-        _queueRunners = new ConcurrentHashMap<Integer,JobQueueRunner>(RUNNERS);
-        _jobStats = new ConcurrentHashMap<String,JobStats>();
+        _queueRunners = new ConcurrentHashMap<Integer,JobQueueRunner>(_defaultRunners);
         _pumper = new QueuePumper();
     }
     
@@ -183,44 +217,82 @@ public class JobQueue {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("Scheduling job far in the future: " + (new Date(start)) + ' ' + job);
         }
-        synchronized (_jobLock) {
-            if (_readyJobs.contains(job))
-                alreadyExists = true;
-            numReady = _readyJobs.size();
-            if (!alreadyExists) {
-                //if (_timedJobs.contains(job))
-                //    alreadyExists = true;
-                // Always remove and re-add, since it needs to be
-                // re-sorted in the TreeSet.
-                boolean removed = _timedJobs.remove(job);
-                if (removed && _log.shouldLog(Log.WARN))
-                    _log.warn("Rescheduling job: " + job);
-            }
-
-            if ((!alreadyExists) && shouldDrop(job, numReady)) {
-                job.dropped();
-                dropped = true;
-            } else {
-                if (!alreadyExists) {
+        if (_timingWheel != null) {
+            // The stripe lock is held by the pumper while it promotes due jobs
+            // from the stripe to _readyJobs, so the job is in exactly one of them,
+            // or neither, while we hold it.
+            // The _jobLock is only taken for an early wakeup of the pumper.
+            boolean wakeup = false;
+            synchronized (_timingWheel.getLock(job)) {
+                boolean removed = _timingWheel.remove(job);
+                if (removed) {
+                    if (_log.shouldLog(Log.WARN))
+                        _log.warn("Rescheduling job: " + job);
+                } else if (_readyJobs.contains(job)) {
+                    alreadyExists = true;
+                }
+                numReady = _readyJobs.size();
+                if ((!alreadyExists) && shouldDrop(job, numReady)) {
+                    job.dropped();
+                    dropped = true;
+                } else if (!alreadyExists) {
                     if (start <= now) {
-                        // don't skew us - its 'start after' its been queued, or later
                         job.getTiming().setStartAfter(now);
                         if (job instanceof JobImpl)
                             ((JobImpl)job).madeReady(now);
                         _readyJobs.offer(job);
                     } else {
-                        _timedJobs.add(job);
-                        // only notify for _timedJobs, as _readyJobs does not use that lock
-                        // only notify if sooner, to reduce contention
-                        if (start < _nextPumperRun)
-                            _jobLock.notifyAll();
+                        _timingWheel.add(job, start);
+                        wakeup = start < _nextPumperRun;
+                    }
+                }
+            }
+            if (wakeup) {
+                synchronized (_jobLock) {
+                    _pumperWakeup = true;
+                    _jobLock.notifyAll();
+                }
+            }
+        } else {
+            synchronized (_jobLock) {
+                if (_readyJobs.contains(job))
+                    alreadyExists = true;
+                numReady = _readyJobs.size();
+                if (!alreadyExists) {
+                    //if (_timedJobs.contains(job))
+                    //    alreadyExists = true;
+                    // Always remove and re-add, since it needs to be
+                    // re-sorted in the TreeSet.
+                    boolean removed = _timedJobs.remove(job);
+                    if (removed && _log.shouldLog(Log.WARN))
+                        _log.warn("Rescheduling job: " + job);
+                }
+
+                if ((!alreadyExists) && shouldDrop(job, numReady)) {
+                    job.dropped();
+                    dropped = true;
+                } else {
+                    if (!alreadyExists) {
+                        if (start <= now) {
+                            // don't skew us - its 'start after' its been queued, or later
+                            job.getTiming().setStartAfter(now);
+                            if (job instanceof JobImpl)
+                                ((JobImpl)job).madeReady(now);
+                            _readyJobs.offer(job);
+                        } else {
+                            _timedJobs.add(job);
+                            // only notify for _timedJobs, as _readyJobs does not use that lock
+                            // only notify if sooner, to reduce contention
+                            if (start < _nextPumperRun)
+                                _jobLock.notifyAll();
+                        }
                     }
                 }
             }
         }
         
         _context.statManager().addRateData("jobQueue.readyJobs", numReady);
-        _context.statManager().addRateData("jobQueue.queuedJobs", _timedJobs.size());
+        _context.statManager().addRateData("jobQueue.queuedJobs", getTimedCount());
         if (dropped) {
             _context.statManager().addRateData("jobQueue.droppedJobs", 1);
             if (_log.shouldLog(Log.WARN))
@@ -239,6 +311,13 @@ public class JobQueue {
     }
     
     public void removeJob(Job job) {
+        if (_timingWheel != null) {
+            synchronized (_timingWheel.getLock(job)) {
+                if (!_timingWheel.remove(job))
+                    _readyJobs.remove(job);
+            }
+            return;
+        }
         synchronized (_jobLock) {
             boolean removed = _timedJobs.remove(job);
             // linear search, do this last
@@ -255,6 +334,8 @@ public class JobQueue {
      */
     @Deprecated
     public boolean isJobActive(Job job) {
+        if (_timingWheel != null && _timingWheel.contains(job))
+            return true;
         synchronized (_jobLock) {
             if (_readyJobs.contains(job) || _timedJobs.contains(job))
                 return true;
@@ -279,6 +360,14 @@ public class JobQueue {
             return _readyJobs.size();
     }
 
+    /**
+     *  Unsynchronized, for stats only
+     *  @since 0.9.59
+     */
+    private int getTimedCount() {
+        return _timingWheel != null ? _timingWheel.size() : _timedJobs.size();
+    }
+
     public long getMaxLag() { 
             // first job is the one that has been waiting the longest
             Job j = _readyJobs.peek();
@@ -340,7 +429,7 @@ public class JobQueue {
     
     public void allowParallelOperation() { 
         _allowParallelOperation = true; 
-        runQueue(_context.getProperty(PROP_MAX_RUNNERS, RUNNERS));
+        runQueue(_context.getProperty(PROP_MAX_RUNNERS, _defaultRunners));
     }
     
     /** 
@@ -357,6 +446,8 @@ public class JobQueue {
     /** @deprecated do you really want to do this? */
     @Deprecated
     public void restart() {
+        if (_timingWheel != null)
+            _timingWheel.clear();
         synchronized (_jobLock) {
             _timedJobs.clear();
             _readyJobs.clear();
@@ -366,6 +457,8 @@ public class JobQueue {
     
     void shutdown() { 
         _alive = false; 
+        if (_timingWheel != null)
+            _timingWheel.clear();
         synchronized (_jobLock) {
             _timedJobs.clear();
             _readyJobs.clear();
@@ -468,6 +561,17 @@ public class JobQueue {
         return j;
     }
     
+    /**
+     *  Called by the runner after each job from getNext(), even if it threw,
+     *  to release its slow job permit in the WorkStealingJobQueue.
+     *
+     *  @since 0.9.59
+     */
+    void jobDone() {
+        if (_readyJobs instanceof WorkStealingJobQueue)
+            ((WorkStealingJobQueue) _readyJobs).releaseSlow();
+    }
+
     /**
      * Blocking call to retrieve the next ready job
      *
@@ -540,6 +644,8 @@ public class JobQueue {
 
         public void run() {
             try {
+                if (_timingWheel != null)
+                    runWheel();
                 while (_alive) {
                     long now = _context.clock().now();
                     long timeToWait = -1;
@@ -615,6 +721,36 @@ public class JobQueue {
             }
         }
 
+        /**
+         *  Timing wheel version of run().
+         *  The wheel is advanced outside of the _jobLock, which is only
+         *  used to wait, so addJob() never blocks behind a pass.
+         *  @since 0.9.59
+         */
+        private void runWheel() {
+            while (_alive) {
+                // any job added from here on before we wait forces another pass
+                _nextPumperRun = Long.MAX_VALUE;
+                long now = _context.clock().now();
+                // offers to _readyJobs under each stripe lock, see addJob()
+                long next = _timingWheel.advance(now, _readyJobs);
+                long timeToWait = next - now;
+                if (timeToWait < 10)
+                    timeToWait = 10;
+                else if (timeToWait > 10*1000)
+                    timeToWait = 10*1000;
+                try {
+                    synchronized (_jobLock) {
+                        if (!_pumperWakeup) {
+                            _nextPumperRun = now + timeToWait;
+                            _jobLock.wait(timeToWait);
+                        }
+                        _pumperWakeup = false;
+                    }
+                } catch (InterruptedException ie) {}
+            }
+        }
+
         public void offsetChanged(long delta) {
             updateJobTimings(delta);
             synchronized (_jobLock) {
@@ -645,6 +781,8 @@ public class JobQueue {
      * completion.
      */
     private void updateJobTimings(long delta) {
+        if (_timingWheel != null)
+            _timingWheel.offsetChanged(delta, _context.clock().now());
         synchronized (_jobLock) {
             for (Job j : _timedJobs) {
                 j.getTiming().offsetChanged(delta);
@@ -742,7 +880,7 @@ public class JobQueue {
      *  Ensure different jobs with the same timing are different so they aren't removed.
      *  @since 0.8.9
      */
-    private static class JobComparator implements Comparator<Job>, Serializable {
+    static class JobComparator implements Comparator<Job>, Serializable {
          public int compare(Job l, Job r) {
              // equals first, Jobs generally don't override so this should be fast
              // And this MUST be first so we can remove a job even if its timing has changed.
@@ -787,6 +925,12 @@ public class JobQueue {
                     justFinishedJobs.add(job);
             }
         }
+        if (_timingWheel != null) {
+            List<Job> timed = new ArrayList<Job>(_timingWheel.size());
+            _timingWheel.getJobs(timed);
+            Collections.sort(timed, new JobComparator());
+            timedJobs.addAll(timed);
+        }
         synchronized (_jobLock) {
             readyJobs.addAll(_readyJobs); 
             timedJobs.addAll(_timedJobs);
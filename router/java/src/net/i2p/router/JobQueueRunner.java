@@ -97,6 +97,8 @@ class JobQueueRunner extends I2PThread {
                 _lastEnd = lastActive;
             } catch (Throwable t) {
                 _log.log(Log.CRIT, "error running?", t);
+            } finally {
+                _context.jobQueue().jobDone();
             }
         }
         if (_context.router().isAlive())
@@ -0,0 +1,389 @@
+package net.i2p.router;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ *  Lock-striped hierarchical timing wheel for the JobQueue timed jobs.
+ *  Alternative to the TreeSet, enabled with router.jobQueue.timingWheel=true.
+ *
+ *  Jobs are assigned to a stripe by job ID, and each stripe is a
+ *  four-level wheel of 64 slots with its own lock, so add() and remove()
+ *  are O(1) and concurrent addJob() calls rarely contend with each other
+ *  or with the pumper. Level 0 has a resolution of 16 ms and the wheel
+ *  covers about three days; jobs further out are parked in the last
+ *  slot and re-cascaded.
+ *
+ *  Jobs are promoted by advance(), which only returns jobs whose
+ *  start time has passed. A job whose start time was moved later without
+ *  going through addJob() is put back rather than run early.
+ *
+ *  For use by JobQueue only.
+ *
+ *  @since 0.9.59
+ */
+final class JobTimingWheel {
+    private final Stripe[] _stripes;
+    private final int _mask;
+
+    private static final int TICK_SHIFT = 4;
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (LEVEL_BITS * LEVELS)) - 1;
+    /** if we fall this many ticks behind, rebuild rather than step through them */
+    private static final long MAX_STEP = SLOTS * SLOTS;
+
+    /**
+     *  @param stripes will be rounded up to a power of 2
+     *  @param now current time
+     */
+    public JobTimingWheel(int stripes, long now) {
+        int n = 1;
+        while (n < stripes)
+            n <<= 1;
+        _stripes = new Stripe[n];
+        _mask = n - 1;
+        long tick = now >> TICK_SHIFT;
+        for (int i = 0; i < n; i++) {
+            _stripes[i] = new Stripe(tick);
+        }
+    }
+
+    private Stripe stripe(Job job) {
+        long id = job.getJobId();
+        return _stripes[((int) (id ^ (id >>> 32))) & _mask];
+    }
+
+    /**
+     *  Replaces any existing entry for the job.
+     *
+     *  @param start the job's start time
+     */
+    public void add(Job job, long start) {
+        Stripe s = stripe(job);
+        synchronized (s) {
+            s.add(job, start);
+        }
+    }
+
+    /**
+     *  @return true if it was present
+     */
+    public boolean remove(Job job) {
+        Stripe s = stripe(job);
+        synchronized (s) {
+            return s.remove(job);
+        }
+    }
+
+    /**
+     *  The lock that add(), remove(), and advance() hold for the job.
+     *  Hold it to remove the job and check the ready queue it is
+     *  promoted to as one step, as advance() moves due jobs to the
+     *  ready queue while holding it.
+     */
+    public Object getLock(Job job) {
+        return stripe(job);
+    }
+
+    public boolean contains(Job job) {
+        Stripe s = stripe(job);
+        synchronized (s) {
+            return s.nodes.containsKey(job);
+        }
+    }
+
+    /**
+     *  Unsynchronized total, may be slightly out of date.
+     */
+    public int size() {
+        int rv = 0;
+        for (int i = 0; i < _stripes.length; i++) {
+            rv += _stripes[i].size;
+        }
+        return rv;
+    }
+
+    public void clear() {
+        for (int i = 0; i < _stripes.length; i++) {
+            Stripe s = _stripes[i];
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    /**
+     *  Move all jobs due at or before now to ready,
+     *  taking each stripe lock once.
+     *  Each job is added to ready, and madeReady(now) is called
+     *  for a JobImpl, before its stripe lock is released.
+     *
+     *  @param ready out parameter, due jobs in no particular order,
+     *               may be the JobQueue ready queue
+     *  @return the earliest time any remaining job may be due,
+     *          or the next cascade time, whichever is sooner
+     */
+    public long advance(long now, Collection<Job> ready) {
+        long rv = Long.MAX_VALUE;
+        for (int i = 0; i < _stripes.length; i++) {
+            Stripe s = _stripes[i];
+            synchronized (s) {
+                long next = s.advance(now, ready);
+                if (next < rv)
+                    rv = next;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Adjust the timing of every job by delta and re-sort them all.
+     *  For clock shifts.
+     */
+    public void offsetChanged(long delta, long now) {
+        for (int i = 0; i < _stripes.length; i++) {
+            Stripe s = _stripes[i];
+            synchronized (s) {
+                for (Job j : s.nodes.keySet()) {
+                    j.getTiming().offsetChanged(delta);
+                }
+                s.rebuild(now, null);
+            }
+        }
+    }
+
+    /**
+     *  @param out out parameter, in no particular order
+     */
+    public void getJobs(Collection<Job> out) {
+        for (int i = 0; i < _stripes.length; i++) {
+            Stripe s = _stripes[i];
+            synchronized (s) {
+                out.addAll(s.nodes.keySet());
+            }
+        }
+    }
+
+    private static final class Node {
+        final Job job;
+        long time;
+        Node prev, next;
+        int level, slot;
+
+        Node(Job job, long time) {
+            this.job = job;
+            this.time = time;
+        }
+    }
+
+    /**
+     *  One independent wheel. All access synchronized on this.
+     */
+    private static final class Stripe {
+        private final Node[][] _slots = new Node[LEVELS][SLOTS];
+        private final Map<Job, Node> nodes = new HashMap<Job, Node>();
+        /** all jobs in ticks before this have been promoted */
+        private long _tick;
+        volatile int size;
+
+        Stripe(long tick) {
+            _tick = tick;
+        }
+
+        void add(Job job, long start) {
+            Node n = new Node(job, start);
+            Node old = nodes.put(job, n);
+            if (old != null)
+                unlink(old);
+            size = nodes.size();
+            insert(n);
+        }
+
+        boolean remove(Job job) {
+            Node n = nodes.remove(job);
+            if (n == null)
+                return false;
+            size = nodes.size();
+            unlink(n);
+            return true;
+        }
+
+        void clear() {
+            for (int i = 0; i < LEVELS; i++) {
+                for (int j = 0; j < SLOTS; j++) {
+                    _slots[i][j] = null;
+                }
+            }
+            nodes.clear();
+            size = 0;
+        }
+
+        /**
+         *  Same indexing as the classic Linux timer wheel:
+         *  the level is chosen by how far out the tick is,
+         *  the slot by the bits of the absolute tick for that level.
+         */
+        private void insert(Node n) {
+            long t = n.time >> TICK_SHIFT;
+            long delta = t - _tick;
+            int level;
+            if (delta < SLOTS) {
+                if (t < _tick)
+                    t = _tick;
+                level = 0;
+            } else {
+                if (delta > MAX_DELTA)
+                    t = _tick + MAX_DELTA;
+                delta = t - _tick;
+                level = 1;
+                while (level < LEVELS - 1 && delta >= (1L << (LEVEL_BITS * (level + 1))))
+                    level++;
+            }
+            int slot = (int) (t >> (LEVEL_BITS * level)) & SLOT_MASK;
+            n.level = level;
+            n.slot = slot;
+            n.prev = null;
+            Node head = _slots[level][slot];
+            n.next = head;
+            if (head != null)
+                head.prev = n;
+            _slots[level][slot] = n;
+        }
+
+        private void unlink(Node n) {
+            if (n.prev != null)
+                n.prev.next = n.next;
+            else
+                _slots[n.level][n.slot] = n.next;
+            if (n.next != null)
+                n.next.prev = n.prev;
+            n.prev = null;
+            n.next = null;
+        }
+
+        /**
+         *  Re-insert everything in one slot of a higher level
+         */
+        private int cascade(int level) {
+            int slot = (int) (_tick >> (LEVEL_BITS * level)) & SLOT_MASK;
+            Node n = _slots[level][slot];
+            _slots[level][slot] = null;
+            while (n != null) {
+                Node next = n.next;
+                insert(n);
+                n = next;
+            }
+            return slot;
+        }
+
+        /**
+         *  @return next possible due time
+         */
+        long advance(long now, Collection<Job> ready) {
+            long nowTick = now >> TICK_SHIFT;
+            if (nowTick - _tick > MAX_STEP) {
+                rebuild(now, ready);
+            } else {
+                while (true) {
+                    expire(now, ready);
+                    if (_tick >= nowTick)
+                        break;
+                    _tick++;
+                    if ((_tick & SLOT_MASK) == 0) {
+                        for (int level = 1; level < LEVELS; level++) {
+                            if (cascade(level) != 0)
+                                break;
+                        }
+                    }
+                }
+            }
+            return nextTime();
+        }
+
+        /**
+         *  Promote due jobs in the current level 0 slot
+         */
+        private void expire(long now, Collection<Job> ready) {
+            int slot = (int) _tick & SLOT_MASK;
+            Node n = _slots[0][slot];
+            while (n != null) {
+                Node next = n.next;
+                if (n.time <= now) {
+                    long start = n.job.getTiming().getStartAfter();
+                    unlink(n);
+                    if (start > n.time && start > now) {
+                        // moved later without addJob(), put it back
+                        n.time = start;
+                        insert(n);
+                    } else {
+                        nodes.remove(n.job);
+                        promote(n.job, now, ready);
+                    }
+                }
+                n = next;
+            }
+            size = nodes.size();
+        }
+
+        private static void promote(Job job, long now, Collection<Job> ready) {
+            if (job instanceof JobImpl)
+                ((JobImpl)job).madeReady(now);
+            ready.add(job);
+        }
+
+        /**
+         *  Reset to now and re-insert everything.
+         *  For clock shifts and long stalls.
+         *
+         *  @param ready if non-null, due jobs are removed and added to it
+         */
+        void rebuild(long now, Collection<Job> ready) {
+            for (int i = 0; i < LEVELS; i++) {
+                for (int j = 0; j < SLOTS; j++) {
+                    _slots[i][j] = null;
+                }
+            }
+            _tick = now >> TICK_SHIFT;
+            List<Node> due = ready != null ? new ArrayList<Node>() : null;
+            for (Node n : nodes.values()) {
+                n.time = n.job.getTiming().getStartAfter();
+                if (due != null && n.time <= now)
+                    due.add(n);
+                else
+                    insert(n);
+            }
+            if (due != null) {
+                for (Node n : due) {
+                    nodes.remove(n.job);
+                    promote(n.job, now, ready);
+                }
+            }
+            size = nodes.size();
+        }
+
+        /**
+         *  The earliest job in level 0, else when level 0 next wraps.
+         */
+        private long nextTime() {
+            for (int i = 0; i < SLOTS; i++) {
+                long t = _tick + i;
+                Node n = _slots[0][(int) t & SLOT_MASK];
+                if (n != null) {
+                    long rv = Long.MAX_VALUE;
+                    for ( ; n != null; n = n.next) {
+                        if (n.time < rv)
+                            rv = n.time;
+                    }
+                    return rv;
+                }
+            }
+            return ((_tick | SLOT_MASK) + 1) << TICK_SHIFT;
+        }
+    }
+}
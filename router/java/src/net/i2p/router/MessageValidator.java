@@ -2,6 +2,7 @@ package net.i2p.router;
 
 import net.i2p.router.util.DecayingBloomFilter;
 import net.i2p.router.util.DecayingHashSet;
+import net.i2p.router.util.ShardedDecayingBloomFilter;
 import net.i2p.util.Log;
 
 /**
@@ -97,7 +98,10 @@ public class MessageValidator {
     }
     
     public synchronized void startup() {
-        _filter = new DecayingHashSet(_context, (int)Router.CLOCK_FUDGE_FACTOR * 2, 8, "RouterMV");
+        if (_context.getBooleanProperty(ShardedDecayingBloomFilter.PROP_ENABLE))
+            _filter = new ShardedDecayingBloomFilter(_context, (int)Router.CLOCK_FUDGE_FACTOR * 2, 8, "RouterMV");
+        else
+            _filter = new DecayingHashSet(_context, (int)Router.CLOCK_FUDGE_FACTOR * 2, 8, "RouterMV");
     }
     
     synchronized void shutdown() {
@@ -32,6 +32,7 @@ import net.i2p.router.startup.RouterAppManager;
 import net.i2p.router.transport.CommSystemFacadeImpl;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.transport.OutboundMessageRegistry;
+import net.i2p.router.transport.crypto.KeyPrecalcPool;
 import net.i2p.router.tunnel.TunnelDispatcher;
 import net.i2p.router.tunnel.pool.TunnelPoolManager;
 import net.i2p.util.KeyRing;
@@ -76,10 +77,11 @@ public class RouterContext extends I2PAppContext {
     private GarlicMessageParser _garlicMessageParser;
     private ElGamalAESEngine _elGamalAESEngine;
     private ECIESAEADEngine _eciesEngine;
+    private KeyPrecalcPool _keyPrecalcPool;
     private final Set<Runnable> _finalShutdownTasks;
     // split up big lock on this to avoid deadlocks
     private volatile boolean _initialized;
-    private final Object _lock1 = new Object(), _lock2 = new Object(), _lock3 = new Object();
+    private final Object _lock1 = new Object(), _lock2 = new Object(), _lock3 = new Object(), _lock4 = new Object();
 
     private static final List<RouterContext> _contexts = new CopyOnWriteArrayList<RouterContext>();
     
@@ -720,6 +722,23 @@ public class RouterContext extends I2PAppContext {
         return _eciesEngine;
     }
 
+    /**
+     * The threads that precalculate X25519 and Elligator2 keys,
+     * shared by the key factories.
+     *
+     * Created on first use, so it's available before initAll().
+     *
+     * @return non-null
+     * @since 0.9.59
+     */
+    public KeyPrecalcPool keyPrecalcPool() {
+        synchronized (_lock4) {
+            if (_keyPrecalcPool == null)
+                _keyPrecalcPool = new KeyPrecalcPool(this);
+            return _keyPrecalcPool;
+        }
+    }
+
     /** 
      *  How long this router was down before it started, or 0 if unknown.
      *
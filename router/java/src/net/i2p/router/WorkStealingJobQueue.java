@@ -0,0 +1,328 @@
+package net.i2p.router;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Ready job queue for the JobQueueRunners, as an alternative to
+ *  a single LinkedBlockingQueue. Enabled with router.jobQueue.workStealing=true.
+ *
+ *  Each runner has its own lane, and jobs are placed in a lane
+ *  by job class, so the same kind of job tends to run on the same thread.
+ *  A runner takes from its own lane first, and steals from the others
+ *  when it runs dry.
+ *
+ *  Job classes whose average run time in JobStats is over SLOW_JOB_TIME
+ *  go in a separate deque in each lane, and no more than half of the
+ *  runners may be running one at a time, so a backlog of slow jobs can't
+ *  occupy every runner while the fast ones wait.
+ *  Within a lane, the oldest of the fast and slow heads goes first.
+ *
+ *  take() identifies the lane from the calling JobQueueRunner;
+ *  other threads use lane 0.
+ *  A runner that took a slow job must call releaseSlow() when it is done,
+ *  see JobQueue.jobDone().
+ *
+ *  For use by JobQueue only.
+ *
+ *  @since 0.9.59
+ */
+final class WorkStealingJobQueue extends AbstractQueue<Job> implements BlockingQueue<Job> {
+    private final Lane[] _lanes;
+    private final Map<String, JobStats> _jobStats;
+    private final int _maxSlow;
+    private final AtomicInteger _slowRunning = new AtomicInteger();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final AtomicInteger _idle = new AtomicInteger();
+    private final Object _idleLock = new Object();
+    /** does this runner hold one of the _maxSlow permits */
+    private final ThreadLocal<Boolean> _holdingSlow = new ThreadLocal<Boolean>();
+
+    /** average run time (ms) above which a job class is slow */
+    static final int SLOW_JOB_TIME = 25;
+    /** don't classify until we've seen this many */
+    private static final int MIN_RUNS = 8;
+    /** failsafe */
+    private static final long IDLE_WAIT = 1000;
+
+    private static final class Lane {
+        final Deque<Job> fast = new ConcurrentLinkedDeque<Job>();
+        final Deque<Job> slow = new ConcurrentLinkedDeque<Job>();
+    }
+
+    /**
+     *  @param runners expected number of runners, one lane each
+     *  @param jobStats from JobQueue, not copied
+     */
+    public WorkStealingJobQueue(int runners, Map<String, JobStats> jobStats) {
+        if (runners <= 0)
+            throw new IllegalArgumentException();
+        _lanes = new Lane[runners];
+        for (int i = 0; i < runners; i++) {
+            _lanes[i] = new Lane();
+        }
+        _jobStats = jobStats;
+        _maxSlow = Math.max(1, runners / 2);
+    }
+
+    private boolean isSlow(Job job) {
+        String name = job.getName();
+        // PoisonJob
+        if (name == null)
+            return false;
+        JobStats stats = _jobStats.get(name);
+        return stats != null && stats.getRuns() >= MIN_RUNS && stats.getAvgTime() > SLOW_JOB_TIME;
+    }
+
+    private static long startAfter(Job job) {
+        JobTiming jt = job.getTiming();
+        // PoisonJob timing is null
+        return jt != null ? jt.getStartAfter() : Long.MIN_VALUE;
+    }
+
+    private int myLane() {
+        Thread t = Thread.currentThread();
+        if (t instanceof JobQueueRunner)
+            return ((JobQueueRunner) t).getRunnerId() % _lanes.length;
+        return 0;
+    }
+
+    public boolean offer(Job job) {
+        if (job == null)
+            throw new NullPointerException();
+        Lane lane = _lanes[(job.getClass().hashCode() & Integer.MAX_VALUE) % _lanes.length];
+        if (isSlow(job))
+            lane.slow.offerLast(job);
+        else
+            lane.fast.offerLast(job);
+        _size.incrementAndGet();
+        if (_idle.get() > 0) {
+            synchronized (_idleLock) {
+                _idleLock.notify();
+            }
+        }
+        return true;
+    }
+
+    public void put(Job job) {
+        offer(job);
+    }
+
+    public boolean offer(Job job, long timeout, TimeUnit unit) {
+        return offer(job);
+    }
+
+    /**
+     *  Blocking, for JobQueueRunners.
+     *  Releases any slow permit still held from the previous take().
+     */
+    public Job take() throws InterruptedException {
+        releaseSlow();
+        int id = myLane();
+        Job rv = poll(id, true);
+        if (rv != null)
+            return rv;
+        synchronized (_idleLock) {
+            // increment before checking again, offer() checks after adding
+            _idle.incrementAndGet();
+            try {
+                while ((rv = poll(id, true)) == null) {
+                    _idleLock.wait(IDLE_WAIT);
+                }
+            } finally {
+                _idle.decrementAndGet();
+            }
+        }
+        return rv;
+    }
+
+    public Job poll(long timeout, TimeUnit unit) throws InterruptedException {
+        releaseSlow();
+        int id = myLane();
+        Job rv = poll(id, true);
+        if (rv != null)
+            return rv;
+        long end = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (_idleLock) {
+            _idle.incrementAndGet();
+            try {
+                while ((rv = poll(id, true)) == null) {
+                    long left = end - System.currentTimeMillis();
+                    if (left <= 0)
+                        break;
+                    _idleLock.wait(left);
+                }
+            } finally {
+                _idle.decrementAndGet();
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Non-blocking, ignores the slow job limit.
+     */
+    public Job poll() {
+        return poll(myLane(), false);
+    }
+
+    /**
+     *  Own lane first, then steal.
+     *
+     *  @param limitSlow if true, acquire a slow permit to take a slow job
+     */
+    private Job poll(int id, boolean limitSlow) {
+        int n = _lanes.length;
+        for (int i = 0; i < n; i++) {
+            Job rv = poll(_lanes[(id + i) % n], limitSlow);
+            if (rv != null) {
+                _size.decrementAndGet();
+                return rv;
+            }
+        }
+        return null;
+    }
+
+    private Job poll(Lane lane, boolean limitSlow) {
+        Job slow = lane.slow.peekFirst();
+        if (slow != null) {
+            Job fast = lane.fast.peekFirst();
+            if (fast == null || startAfter(slow) <= startAfter(fast)) {
+                if (!limitSlow) {
+                    slow = lane.slow.pollFirst();
+                    if (slow != null)
+                        return slow;
+                } else if (acquireSlow()) {
+                    slow = lane.slow.pollFirst();
+                    if (slow != null) {
+                        _holdingSlow.set(Boolean.TRUE);
+                        return slow;
+                    }
+                    _slowRunning.decrementAndGet();
+                }
+            }
+        }
+        return lane.fast.pollFirst();
+    }
+
+    private boolean acquireSlow() {
+        while (true) {
+            int cur = _slowRunning.get();
+            if (cur >= _maxSlow)
+                return false;
+            if (_slowRunning.compareAndSet(cur, cur + 1))
+                return true;
+        }
+    }
+
+    /**
+     *  Release the slow permit held by the calling thread, if any,
+     *  and wake an idle runner, as a slow job may now be taken.
+     */
+    void releaseSlow() {
+        if (Boolean.TRUE.equals(_holdingSlow.get())) {
+            _holdingSlow.set(Boolean.FALSE);
+            _slowRunning.decrementAndGet();
+            if (_idle.get() > 0) {
+                synchronized (_idleLock) {
+                    _idleLock.notify();
+                }
+            }
+        }
+    }
+
+    /**
+     *  The oldest head of all the lanes
+     */
+    public Job peek() {
+        Job rv = null;
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < _lanes.length; i++) {
+            Lane lane = _lanes[i];
+            Job j = lane.fast.peekFirst();
+            if (j != null) {
+                long t = startAfter(j);
+                if (rv == null || t < oldest) {
+                    rv = j;
+                    oldest = t;
+                }
+            }
+            j = lane.slow.peekFirst();
+            if (j != null) {
+                long t = startAfter(j);
+                if (rv == null || t < oldest) {
+                    rv = j;
+                    oldest = t;
+                }
+            }
+        }
+        return rv;
+    }
+
+    public int size() {
+        return Math.max(0, _size.get());
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        for (int i = 0; i < _lanes.length; i++) {
+            Lane lane = _lanes[i];
+            if (lane.fast.contains(o) || lane.slow.contains(o))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (int i = 0; i < _lanes.length; i++) {
+            Lane lane = _lanes[i];
+            if (lane.fast.remove(o) || lane.slow.remove(o)) {
+                _size.decrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *  Snapshot, unmodifiable
+     */
+    public Iterator<Job> iterator() {
+        List<Job> rv = new ArrayList<Job>(size());
+        for (int i = 0; i < _lanes.length; i++) {
+            Lane lane = _lanes[i];
+            rv.addAll(lane.fast);
+            rv.addAll(lane.slow);
+        }
+        return Collections.unmodifiableList(rv).iterator();
+    }
+
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    public int drainTo(Collection<? super Job> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    public int drainTo(Collection<? super Job> c, int maxElements) {
+        int rv = 0;
+        Job j;
+        while (rv < maxElements && (j = poll()) != null) {
+            c.add(j);
+            rv++;
+        }
+        return rv;
+    }
+}
@@ -28,6 +28,13 @@ class ArrayUtils {
         return new char[minLen];
     }
 
+    /**
+     *  @since 0.9.59
+     */
+    public static long[] newUnpaddedLongArray(int minLen) {
+        return new long[minLen];
+    }
+
     public static Object[] newUnpaddedObjectArray(int minLen) {
         return new Object[minLen];
     }
@@ -55,6 +55,7 @@ public final class ECIESAEADEngine {
     private final MuxedEngine _muxedEngine;
     private final HKDF _hkdf;
     private final Elg2KeyFactory _edhThread;
+    private final TagSetPregenerator _pregen;
     private boolean _isRunning;
 
     private static final byte[] ZEROLEN = new byte[0];
@@ -98,6 +99,7 @@ public final class ECIESAEADEngine {
         _muxedEngine = new MuxedEngine(ctx);
         _hkdf = new HKDF(ctx);
         _edhThread = new Elg2KeyFactory(ctx);
+        _pregen = new TagSetPregenerator(ctx);
         
         _context.statManager().createFrequencyStat("crypto.eciesAEAD.encryptNewSession",
                                                    "how frequently we encrypt to a new ECIES/AEAD+SessionTag session?",
@@ -122,6 +124,7 @@ public final class ECIESAEADEngine {
     public synchronized void startup() {
         if (!_isRunning) {
             _edhThread.start();
+            _pregen.startup();
             _isRunning = true;
         }
     }
@@ -132,6 +135,16 @@ public final class ECIESAEADEngine {
     public synchronized void shutdown() {
         _isRunning = false;
         _edhThread.shutdown();
+        _pregen.shutdown();
+    }
+
+    /**
+     *  For RatchetSKM
+     *
+     *  @since 0.9.59
+     */
+    TagSetPregenerator getTagSetPregenerator() {
+        return _pregen;
     }
 
     //// start decrypt ////
@@ -187,19 +200,18 @@ public final class ECIESAEADEngine {
             return null;
         }
 
-        byte tag[] = new byte[TAGLEN];
-        System.arraycopy(data, 0, tag, 0, TAGLEN);
-        RatchetSessionTag st = new RatchetSessionTag(tag);
+        // probe without allocating, most NS won't match
+        long st = DataHelper.fromLong8(data, 0);
         SessionKeyAndNonce key = keyManager.consumeTag(st);
         CloveSet decrypted;
         if (key != null) {
-            decrypted = xx_decryptFast(tag, st, key, data, targetPrivateKey, keyManager);
+            decrypted = xx_decryptFast(st, key, data, targetPrivateKey, keyManager);
             // we do NOT retry as NS
         } else {
             decrypted = x_decryptSlow(data, targetPrivateKey, keyManager);
         }
         if (decrypted == null && _log.shouldDebug())
-            _log.info("Decrypt fail NS/NSR/ES, possible tag: " + st);
+            _log.info("Decrypt fail NS/NSR/ES, possible tag: " + new RatchetSessionTag(st));
         return decrypted;
     }
 
@@ -236,13 +248,11 @@ public final class ECIESAEADEngine {
                 _log.debug("Data is less than the minimum size (" + data.length + " < " + MIN_ENCRYPTED_SIZE + ")");
             return null;
         }
-        byte tag[] = new byte[TAGLEN];
-        System.arraycopy(data, 0, tag, 0, TAGLEN);
-        RatchetSessionTag st = new RatchetSessionTag(tag);
+        long st = DataHelper.fromLong8(data, 0);
         SessionKeyAndNonce key = keyManager.consumeTag(st);
         CloveSet decrypted;
         if (key != null) {
-            decrypted = xx_decryptFast(tag, st, key, data, targetPrivateKey, keyManager);
+            decrypted = xx_decryptFast(st, key, data, targetPrivateKey, keyManager);
         } else {
             decrypted = null;
         }
@@ -257,19 +267,22 @@ public final class ECIESAEADEngine {
      * @return decrypted data or null on failure
      * @since 0.9.46
      */
-    private CloveSet xx_decryptFast(byte[] tag, RatchetSessionTag st, SessionKeyAndNonce key,
+    private CloveSet xx_decryptFast(long st, SessionKeyAndNonce key,
                                     byte data[], PrivateKey targetPrivateKey,
                                     RatchetSKM keyManager) throws DataFormatException {
         CloveSet decrypted;
         final boolean shouldDebug = _log.shouldDebug();
         HandshakeState state = key.getHandshakeState();
+        // for the AD, only after the tag matched
+        byte tag[] = new byte[TAGLEN];
+        System.arraycopy(data, 0, tag, 0, TAGLEN);
         if (state == null) {
             if (shouldDebug)
-                _log.debug("Decrypting ES with tag: " + st.toBase64() + " key: " + key + ": " + data.length + " bytes");
+                _log.debug("Decrypting ES with tag: " + new RatchetSessionTag(st).toBase64() + " key: " + key + ": " + data.length + " bytes");
             decrypted = decryptExistingSession(tag, data, key, targetPrivateKey, keyManager);
         } else if (data.length >= MIN_NSR_SIZE) {
             if (shouldDebug)
-                _log.debug("Decrypting NSR with tag: " + st.toBase64() + " key: " + key + ": " + data.length + " bytes");
+                _log.debug("Decrypting NSR with tag: " + new RatchetSessionTag(st).toBase64() + " key: " + key + ": " + data.length + " bytes");
             decrypted = decryptNewSessionReply(tag, data, state, keyManager);
         } else {
             decrypted = null;
@@ -281,7 +294,7 @@ public final class ECIESAEADEngine {
         } else {
             _context.statManager().updateFrequency("crypto.eciesAEAD.decryptFailed");
             if (_log.shouldWarn()) {
-                _log.warn("ECIES decrypt fail: known tag [" + st + "], failed decrypt with key " + key);
+                _log.warn("ECIES decrypt fail: known tag [" + new RatchetSessionTag(st) + "], failed decrypt with key " + key);
             }
         }
         return decrypted;
@@ -1479,8 +1492,11 @@ public final class ECIESAEADEngine {
             if (msg.getType() != DatabaseStoreMessage.MESSAGE_TYPE)
                 continue;
             DatabaseStoreMessage dsm = (DatabaseStoreMessage) msg;
+            if (dsm.getEntryType() != DatabaseEntry.KEY_TYPE_LS2)
+                continue;
             DatabaseEntry entry = dsm.getEntry();
-            if (entry.getType() != DatabaseEntry.KEY_TYPE_LS2)
+            // null if it could not be parsed
+            if (entry == null)
                 continue;
             LeaseSet2 ls2 = (LeaseSet2) entry;
             // i2pd bug?
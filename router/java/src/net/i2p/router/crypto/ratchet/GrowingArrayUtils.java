@@ -65,6 +65,23 @@ final class GrowingArrayUtils {
         return array;
     }
 
+    /**
+     * Primitive long version of {@link #append(Object[], int, Object)}.
+     *
+     * @since 0.9.59
+     */
+    public static long[] append(long[] array, int currentSize, long element) {
+        assert currentSize <= array.length;
+
+        if (currentSize + 1 > array.length) {
+            long[] newArray = ArrayUtils.newUnpaddedLongArray(growSize(currentSize));
+            System.arraycopy(array, 0, newArray, 0, currentSize);
+            array = newArray;
+        }
+        array[currentSize] = element;
+        return array;
+    }
+
     /**
      * Inserts an element into the array at the specified index, growing the array if there is no
      * more room.
@@ -113,6 +130,27 @@ final class GrowingArrayUtils {
         return newArray;
     }
 
+    /**
+     * Primitive long version of {@link #insert(Object[], int, int, Object)}.
+     *
+     * @since 0.9.59
+     */
+    public static long[] insert(long[] array, int currentSize, int index, long element) {
+        assert currentSize <= array.length;
+
+        if (currentSize + 1 <= array.length) {
+            System.arraycopy(array, index, array, index + 1, currentSize - index);
+            array[index] = element;
+            return array;
+        }
+
+        long[] newArray = ArrayUtils.newUnpaddedLongArray(growSize(currentSize));
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = element;
+        System.arraycopy(array, index, newArray, index + 1, array.length - index);
+        return newArray;
+    }
+
     /**
      * Given the current size of an array, returns an ideal size to which the array should grow.
      * This is typically double the given size, but should not be relied upon to do so in the
@@ -0,0 +1,271 @@
+package net.i2p.router.crypto.ratchet;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ *  Map of inbound session tags to their tagsets, keyed by the 8 byte tag as a long.
+ *  Replaces a ConcurrentHashMap of RatchetSessionTag objects, so that a lookup
+ *  allocates nothing, and each tag costs a long and a reference in a table,
+ *  instead of a map node and a RatchetSessionTag.
+ *
+ *  Open addressing with linear probing, and backward shift on removal,
+ *  so there are no tombstones. Split into segments, each with its own lock.
+ *  The tags are HKDF output, but we mix the bits anyway.
+ *
+ *  @since 0.9.59
+ */
+class InboundTagIndex {
+    private final Segment[] _segments;
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    /** per-segment, power of 2 */
+    private static final int MIN_CAPACITY = 16;
+
+    public InboundTagIndex() {
+        _segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            _segments[i] = new Segment();
+        }
+    }
+
+    private static long mix(long tag) {
+        return tag * 0x9E3779B97F4A7C15L;
+    }
+
+    private Segment segment(long h) {
+        return _segments[(int) (h >>> (64 - SEGMENT_BITS))];
+    }
+
+    /**
+     *  @return true if added, false if already present
+     */
+    public boolean putIfAbsent(long tag, RatchetTagSet ts) {
+        long h = mix(tag);
+        Segment seg = segment(h);
+        synchronized (seg) {
+            return seg.putIfAbsent(tag, (int) h, ts);
+        }
+    }
+
+    /**
+     *  @return the tagset or null
+     */
+    public RatchetTagSet get(long tag) {
+        long h = mix(tag);
+        Segment seg = segment(h);
+        synchronized (seg) {
+            int i = seg.indexOf(tag, (int) h);
+            return i >= 0 ? seg.values[i] : null;
+        }
+    }
+
+    /**
+     *  @return the tagset the tag was mapped to, or null
+     */
+    public RatchetTagSet remove(long tag) {
+        long h = mix(tag);
+        Segment seg = segment(h);
+        synchronized (seg) {
+            int i = seg.indexOf(tag, (int) h);
+            if (i < 0)
+                return null;
+            RatchetTagSet rv = seg.values[i];
+            seg.removeAt(i);
+            return rv;
+        }
+    }
+
+    /**
+     *  Remove only if mapped to this tagset
+     *
+     *  @return true if removed
+     */
+    public boolean remove(long tag, RatchetTagSet ts) {
+        long h = mix(tag);
+        Segment seg = segment(h);
+        synchronized (seg) {
+            int i = seg.indexOf(tag, (int) h);
+            if (i < 0 || seg.values[i] != ts)
+                return false;
+            seg.removeAt(i);
+            return true;
+        }
+    }
+
+    public int size() {
+        int rv = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment seg = _segments[i];
+            synchronized (seg) {
+                rv += seg.size;
+            }
+        }
+        return rv;
+    }
+
+    public void clear() {
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment seg = _segments[i];
+            synchronized (seg) {
+                seg.clear();
+            }
+        }
+    }
+
+    /**
+     *  @return a new set of the distinct tagsets
+     */
+    public Set<RatchetTagSet> getTagSets() {
+        Set<RatchetTagSet> rv = new HashSet<RatchetTagSet>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment seg = _segments[i];
+            synchronized (seg) {
+                RatchetTagSet[] values = seg.values;
+                for (int j = 0; j < values.length; j++) {
+                    if (values[j] != null)
+                        rv.add(values[j]);
+                }
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Remove all the tags of these tagsets.
+     *  Callers must not hold the lock on any tagset, as tagsets call
+     *  in here with their lock held.
+     *
+     *  @param tagSets compared by identity
+     *  @return the number of tags removed
+     */
+    public int removeAll(Set<RatchetTagSet> tagSets) {
+        if (tagSets.isEmpty())
+            return 0;
+        Map<RatchetTagSet, Boolean> remove = new IdentityHashMap<RatchetTagSet, Boolean>(tagSets.size());
+        for (RatchetTagSet ts : tagSets) {
+            remove.put(ts, Boolean.TRUE);
+        }
+        int rv = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment seg = _segments[i];
+            synchronized (seg) {
+                rv += seg.removeAll(remove.keySet());
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  One lock, one table.
+     *  Caller must synch.
+     */
+    private static class Segment {
+        long[] keys;
+        RatchetTagSet[] values;
+        int size;
+
+        Segment() {
+            keys = new long[MIN_CAPACITY];
+            values = new RatchetTagSet[MIN_CAPACITY];
+        }
+
+        /**
+         *  @param h the mixed tag, the low bits are the start slot
+         *  @return index or -1
+         */
+        int indexOf(long tag, int h) {
+            int mask = keys.length - 1;
+            for (int i = h & mask; ; i = (i + 1) & mask) {
+                if (values[i] == null)
+                    return -1;
+                if (keys[i] == tag)
+                    return i;
+            }
+        }
+
+        boolean putIfAbsent(long tag, int h, RatchetTagSet ts) {
+            if (indexOf(tag, h) >= 0)
+                return false;
+            // max load 3/4
+            if ((size + 1) * 4 > keys.length * 3)
+                resize(keys.length * 2);
+            insert(tag, h, ts);
+            size++;
+            return true;
+        }
+
+        private void insert(long tag, int h, RatchetTagSet ts) {
+            int mask = keys.length - 1;
+            int i = h & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = tag;
+            values[i] = ts;
+        }
+
+        /**
+         *  Backward shift, so every entry stays reachable from its start slot
+         */
+        void removeAt(int i) {
+            int mask = keys.length - 1;
+            int hole = i;
+            for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+                int start = ((int) mix(keys[j])) & mask;
+                // move j to the hole if its start slot is not in (hole, j]
+                if (((j - start) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    hole = j;
+                }
+            }
+            keys[hole] = 0;
+            values[hole] = null;
+            size--;
+            // shrink at 1/8 so the memory goes away with the tagsets
+            if (keys.length > MIN_CAPACITY && size * 8 < keys.length)
+                resize(keys.length / 2);
+        }
+
+        int removeAll(Set<RatchetTagSet> remove) {
+            int removed = 0;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null && remove.contains(values[i])) {
+                    values[i] = null;
+                    removed++;
+                }
+            }
+            if (removed > 0) {
+                size -= removed;
+                // rehash, as the holes broke the probe sequences
+                int cap = keys.length;
+                while (cap > MIN_CAPACITY && size * 8 < cap) {
+                    cap /= 2;
+                }
+                resize(cap);
+            }
+            return removed;
+        }
+
+        private void resize(int capacity) {
+            long[] oldKeys = keys;
+            RatchetTagSet[] oldValues = values;
+            keys = new long[capacity];
+            values = new RatchetTagSet[capacity];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null)
+                    insert(oldKeys[i], (int) mix(oldKeys[i]), oldValues[i]);
+            }
+        }
+
+        void clear() {
+            keys = new long[MIN_CAPACITY];
+            values = new RatchetTagSet[MIN_CAPACITY];
+            size = 0;
+        }
+    }
+}
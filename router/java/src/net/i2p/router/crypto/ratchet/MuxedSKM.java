@@ -9,6 +9,7 @@ import net.i2p.I2PAppContext;
 import net.i2p.crypto.EncType;
 import net.i2p.crypto.TagSetHandle;
 import net.i2p.crypto.SessionKeyManager;
+import net.i2p.data.DataHelper;
 import net.i2p.data.PublicKey;
 import net.i2p.data.SessionKey;
 import net.i2p.data.SessionTag;
@@ -229,8 +230,7 @@ public class MuxedSKM extends SessionKeyManager {
     public SessionKey consumeTag(SessionTag tag) {
         SessionKey rv = _elg.consumeTag(tag);
         if (rv == null) {
-            RatchetSessionTag rstag = new RatchetSessionTag(tag.getData());
-            rv = _ec.consumeTag(rstag);
+            rv = _ec.consumeTag(DataHelper.fromLong8(tag.getData(), 0));
         }
         return rv;
     }
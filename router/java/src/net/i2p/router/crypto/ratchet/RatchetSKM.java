@@ -48,7 +48,7 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
     private final ConcurrentHashMap<PublicKey, OutboundSession> _outboundSessions;
     private final HashMap<PublicKey, List<OutboundSession>> _pendingOutboundSessions;
     /** Map allowing us to go from a SessionTag to the containing RatchetTagSet */
-    private final ConcurrentHashMap<RatchetSessionTag, RatchetTagSet> _inboundTagSets;
+    private final InboundTagIndex _inboundTagSets;
     protected final RouterContext _context;
     private volatile boolean _alive;
     private final HKDF _hkdf;
@@ -99,7 +99,7 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
         _destination = dest;
         _outboundSessions = new ConcurrentHashMap<PublicKey, OutboundSession>(64);
         _pendingOutboundSessions = new HashMap<PublicKey, List<OutboundSession>>(64);
-        _inboundTagSets = new ConcurrentHashMap<RatchetSessionTag, RatchetTagSet>(128);
+        _inboundTagSets = new InboundTagIndex();
         _hkdf = new HKDF(context);
         _replayFilter = new DecayingHashSet(context, (int) ECIESAEADEngine.MAX_NS_AGE, 32, "Ratchet-NS");
         // start the precalc of Elg2 keys if it wasn't already started
@@ -148,9 +148,7 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
 
     /** RatchetTagSet */
     private Set<RatchetTagSet> getRatchetTagSets() {
-        synchronized (_inboundTagSets) {
-            return new HashSet<RatchetTagSet>(_inboundTagSets.values());
-        }
+        return _inboundTagSets.getTagSets();
     }
 
     /** OutboundSession - used only by HTML */
@@ -547,6 +545,19 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
      * @return a SessionKeyAndNonce or null
      */
     public SessionKeyAndNonce consumeTag(RatchetSessionTag tag) {
+        return consumeTag(tag.getLong());
+    }
+
+    /**
+     * Inbound.
+     *
+     * As consumeTag(RatchetSessionTag), but the lookup allocates nothing.
+     *
+     * @param tag the first 8 bytes of the message, see RatchetSessionTag.getLong()
+     * @return a SessionKeyAndNonce or null
+     * @since 0.9.59
+     */
+    public SessionKeyAndNonce consumeTag(long tag) {
         RatchetTagSet tagSet;
         tagSet = _inboundTagSets.remove(tag);
         if (tagSet == null) {
@@ -559,8 +570,11 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
         synchronized(tagSet) {
             firstInbound = !tagSet.getAcked();
             key = tagSet.consume(tag);
-            if (key != null)
-                tagSet.setDate(_context.clock().now());
+            if (key != null) {
+                long now = _context.clock().now();
+                tagSet.setDate(now);
+                _context.eciesEngine().getTagSetPregenerator().consumed(tagSet, now);
+            }
         }
         if (key != null) {
             HandshakeState state = tagSet.getHandshakeState();
@@ -581,14 +595,15 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
                 } // else null for SingleTagSets
             }
             if (_log.shouldDebug()) {
+                String b64 = new RatchetSessionTag(tag).toBase64();
                 if (state != null)
-                    _log.debug("IB NSR Tag " + key.getNonce() + " consumed: " + tag.toBase64() + " from\n" + tagSet);
+                    _log.debug("IB NSR Tag " + key.getNonce() + " consumed: " + b64 + " from\n" + tagSet);
                 else
-                    _log.debug("IB ES Tag " + key.getNonce() + " consumed: " + tag.toBase64() + " from\n" + tagSet);
+                    _log.debug("IB ES Tag " + key.getNonce() + " consumed: " + b64 + " from\n" + tagSet);
             }
         } else {
             if (_log.shouldWarn())
-                _log.warn("tag " + tag + " not found in tagset!!! " + tagSet);
+                _log.warn("tag " + new RatchetSessionTag(tag) + " not found in tagset!!! " + tagSet);
         }
         return key;
     }
@@ -642,14 +657,13 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
         long now = _context.clock().now();
 
         // inbound
-        int removed = 0;
-        for (Iterator<RatchetTagSet> iter = _inboundTagSets.values().iterator(); iter.hasNext();) {
-            RatchetTagSet ts = iter.next();
-            if (ts.getExpiration() < now) {
-                iter.remove();
-                removed++;
-            }
+        // getExpiration() locks the tagset, so check them outside the index
+        Set<RatchetTagSet> expired = new HashSet<RatchetTagSet>();
+        for (RatchetTagSet ts : _inboundTagSets.getTagSets()) {
+            if (ts.getExpiration() < now)
+                expired.add(ts);
         }
+        int removed = _inboundTagSets.removeAll(expired);
 
         // outbound
         int oremoved = 0;
@@ -697,14 +711,14 @@ public class RatchetSKM extends SessionKeyManager implements SessionTagListener
      *
      *  @return true if added, false if dup
      */
-    public boolean addTag(RatchetSessionTag tag, RatchetTagSet ts) {
-        return _inboundTagSets.putIfAbsent(tag, ts) == null;
+    public boolean addTag(long tag, RatchetTagSet ts) {
+        return _inboundTagSets.putIfAbsent(tag, ts);
     }
 
     /**
      *  Remove the tag associated with this tagset.
      */
-    public void expireTag(RatchetSessionTag tag, RatchetTagSet ts) {
+    public void expireTag(long tag, RatchetTagSet ts) {
         _inboundTagSets.remove(tag, ts);
     }
 
@@ -31,6 +31,8 @@ import net.i2p.util.Log;
  *
  *  For inbound, generates the tags in advance, maintaining minSize lookahead.
  *  Keys are generated as required.
+ *  As of 0.9.59, the TagSetPregenerator generates inbound ES tags and keys
+ *  further ahead for busy tagsets, so consume() usually finds them ready.
  *
  *  Caller must synch on all methods.
  *
@@ -45,8 +47,8 @@ class RatchetTagSet implements TagSetHandle {
     // NSR only, else null
     private final HandshakeState _state;
     // inbound only, else null
-    // We use object for tags because we must do indexOfValueByValue()
-    private final SparseArray<RatchetSessionTag> _sessionTags;
+    // We use long for tags to save space, as of 0.9.59
+    private final SparseLongArray _sessionTags;
     // inbound ES only, else null
     // We use byte[] for key to save space, because we don't need indexOfValueByValue()
     private final SparseArray<byte[]> _sessionKeys;
@@ -69,6 +71,13 @@ class RatchetTagSet implements TagSetHandle {
     private KeyPair _nextKeys;
     private NextSessionKey _nextKey;
     private boolean _nextKeyAcked;
+    // inbound ES only, for the TagSetPregenerator, since 0.9.59
+    private int _highestUsed = -1;
+    private int _pregenMark = -1;
+    private int _pregenBatch = MIN_PREGEN;
+    private boolean _pregenQueued;
+    private boolean _pregenMissed;
+    private boolean _lastInline;
     /** for debugging */
     private static final AtomicInteger __tagSetID = new AtomicInteger();
     private final int _tagSetID = __tagSetID.incrementAndGet();
@@ -90,6 +99,9 @@ class RatchetTagSet implements TagSetHandle {
     static final int DEBUG_SINGLE_ES = 0x10003;
     // Start empty (no allocations), we only use storage for gaps
     private static final int INITIAL_KEY_CAPACITY = 0;
+    // tags and keys pregenerated ahead of the highest tag used
+    private static final int MIN_PREGEN = 8;
+    private static final int MAX_PREGEN = 64;
 
     /**
      *  Outbound NSR Tagset
@@ -162,7 +174,7 @@ class RatchetTagSet implements TagSetHandle {
         hkdf.calculate(ck, ZEROLEN, INFO_2, _sesstag_ck, _symmkey_ck, 0);
         hkdf.calculate(_sesstag_ck, ZEROLEN, INFO_3, _sesstag_ck, _sesstag_constant, 0);
         if (isInbound) {
-            _sessionTags = new SparseArray<RatchetSessionTag>(minSize);
+            _sessionTags = new SparseLongArray(minSize);
             if (state == null)
                 _sessionKeys = new SparseArray<byte[]>(INITIAL_KEY_CAPACITY);
             else
@@ -369,20 +381,33 @@ class RatchetTagSet implements TagSetHandle {
      *  @return associated SessionKey or null if not found.
      */
     public SessionKeyAndNonce consume(RatchetSessionTag tag) {
+        return consume(tag.getLong());
+    }
+
+    /**
+     *  inbound only
+     *  @param tag as a long, see RatchetSessionTag.getLong()
+     *  @return associated SessionKey or null if not found.
+     *  @since 0.9.59
+     */
+    public SessionKeyAndNonce consume(long tag) {
         if (_sessionTags == null)
             throw new IllegalStateException("Outbound tagset");
         // linear search for tag
-        int idx = _sessionTags.indexOfValueByValue(tag);
+        int idx = _sessionTags.indexOfValue(tag);
         if (idx < 0) {
             Log log = I2PAppContext.getGlobalContext().logManager().getLog(RatchetTagSet.class);
             if (log.shouldWarn())
-                log.warn("Tag not found " + tag.toBase64() +
+                log.warn("Tag not found " + new RatchetSessionTag(tag).toBase64() +
                          " in:\n" + toString(), new Exception());
             return null;
         }
         _acked = true;
+        _lastInline = false;
         int tagnum = _sessionTags.keyAt(idx);
         _sessionTags.removeAt(idx);
+        if (tagnum > _highestUsed)
+            _highestUsed = tagnum;
 
         // NSR
         if (_state != null) {
@@ -400,6 +425,8 @@ class RatchetTagSet implements TagSetHandle {
             addTags(tagnum);
             return new SessionKeyAndNonce(rv, _id, tagnum, _remoteKey);
         } else if (tagnum > _lastKey) {
+            _lastInline = true;
+            _pregenMissed = true;
             // if there's any gaps, catch up and store
             for (int i = _lastKey + 1; i < tagnum; i++) {
                 //System.out.println("Fill in key gap at " + i);
@@ -412,7 +439,7 @@ class RatchetTagSet implements TagSetHandle {
             // dup or some other error
             Log log = I2PAppContext.getGlobalContext().logManager().getLog(RatchetTagSet.class);
             if (log.shouldWarn())
-                log.warn("No key found for tag " + tag.toBase64() + " at index " + idx +
+                log.warn("No key found for tag " + new RatchetSessionTag(tag).toBase64() + " at index " + idx +
                          " tagnum = " + tagnum + " lastkey = " + _lastKey, new Exception());
             return null;
         }
@@ -422,24 +449,18 @@ class RatchetTagSet implements TagSetHandle {
      *  inbound only
      */
     private void addTags(int usedTagNumber) {
-        int lookAhead, trimBehind;
-        if (_maxSize > _originalSize) {
-            // grow from originalSize at N = 0 to
-            // maxSize at N = 2 * (maxSize - originalSize)
-            // for typical loss rates, this keeps us at about maxSize,
-            // but worst case about maxSize * 2
-            lookAhead = Math.min(_maxSize, _originalSize + (usedTagNumber / 2));
-            trimBehind = lookAhead;
-        } else {
-            lookAhead = _originalSize;
-            trimBehind = _originalSize;
-        }
+        int lookAhead = lookAhead(usedTagNumber);
+        int trimBehind = lookAhead;
 
         // add as many as we need to maintain minSize from the tag used
         int remaining = _lastTag - usedTagNumber;
         int toAdd = lookAhead - remaining;
         if (toAdd > 0) {
             //System.out.println("Extending tags by " + toAdd);
+            if (_sessionKeys != null) {
+                _lastInline = true;
+                _pregenMissed = true;
+            }
             for (int i = 0; i < toAdd; i++) {
                 storeNextTag();
             }
@@ -466,13 +487,102 @@ class RatchetTagSet implements TagSetHandle {
         }
     }
 
+    /**
+     *  inbound only
+     *  @since 0.9.59 split out from addTags()
+     */
+    private int lookAhead(int usedTagNumber) {
+        if (_maxSize > _originalSize) {
+            // grow from originalSize at N = 0 to
+            // maxSize at N = 2 * (maxSize - originalSize)
+            // for typical loss rates, this keeps us at about maxSize,
+            // but worst case about maxSize * 2
+            return Math.min(_maxSize, _originalSize + (usedTagNumber / 2));
+        }
+        return _originalSize;
+    }
+
+    /**
+     *  Inbound ES only, else always false.
+     *
+     *  @return true if the last consume() had to generate a tag or key
+     *  @since 0.9.59
+     */
+    boolean wasInline() {
+        return _lastInline;
+    }
+
+    /**
+     *  Inbound ES only, else always false.
+     *  Call after consume(). If this returns true, it's marked as queued,
+     *  and the caller must queue it for pregenerate(), or call pregenerationDropped().
+     *
+     *  @return true if the keys ready ahead are running low
+     *  @since 0.9.59
+     */
+    boolean needsPregeneration() {
+        if (_sessionKeys == null || _pregenQueued || _lastTag >= MAX)
+            return false;
+        if (_lastKey - _highestUsed > _pregenBatch / 2)
+            return false;
+        _pregenQueued = true;
+        return true;
+    }
+
+    /**
+     *  The queue was full
+     *
+     *  @since 0.9.59
+     */
+    void pregenerationDropped() {
+        _pregenQueued = false;
+    }
+
+    /**
+     *  Inbound ES only.
+     *  Extend the tags and keys ahead of the highest tag used, by a batch
+     *  sized to the tags used since the last call. The batch doubles
+     *  after consume() had to generate inline, and halves when the
+     *  demand falls off.
+     *
+     *  @return the number of tags and keys generated
+     *  @since 0.9.59
+     */
+    int pregenerate() {
+        _pregenQueued = false;
+        if (_sessionKeys == null)
+            return 0;
+        int used = _highestUsed - _pregenMark;
+        _pregenMark = _highestUsed;
+        if (_pregenMissed) {
+            _pregenBatch = Math.min(MAX_PREGEN, Math.max(_pregenBatch * 2, used));
+            _pregenMissed = false;
+        } else if (used < _pregenBatch / 4 && _pregenBatch > MIN_PREGEN) {
+            _pregenBatch /= 2;
+        }
+        int rv = 0;
+        // tags beyond the lookahead, so addTags() has nothing to do
+        int tagTarget = Math.min(MAX, _highestUsed + lookAhead(_highestUsed) + _pregenBatch);
+        while (_lastTag < tagTarget) {
+            storeNextTag();
+            rv++;
+        }
+        // keys for the next tags, as consume() does for gaps
+        int keyTarget = Math.min(_lastTag, _highestUsed + _pregenBatch);
+        while (_lastKey < keyTarget) {
+            _sessionKeys.append(_lastKey + 1, consumeNextKey().getData());
+            rv++;
+        }
+        return rv;
+    }
+
     /**
      *  inbound only
      */
     private void storeNextTag() {
-        RatchetSessionTag tag = consumeNext();
-        if (tag == null)
+        if (_lastTag >= MAX)
             return;
+        long tag = nextTag();
         _sessionTags.append(_lastTag, tag);
         if (_lsnr != null)
             _lsnr.addTag(tag, this);
@@ -487,10 +597,19 @@ class RatchetTagSet implements TagSetHandle {
     public RatchetSessionTag consumeNext() {
         if (_lastTag >= MAX)
             return null;
+        return new RatchetSessionTag(nextTag());
+    }
+
+    /**
+     *  Caller must check _lastTag &lt; MAX
+     *
+     *  @since 0.9.59 split out from consumeNext()
+     */
+    private long nextTag() {
         byte[] tmp = new byte[32];
         hkdf.calculate(_sesstag_ck, _sesstag_constant, INFO_4, _sesstag_ck, tmp, 0);
         _lastTag++;
-        return new RatchetSessionTag(tmp);
+        return DataHelper.fromLong8(tmp, 0);
     }
 
     /**
@@ -567,9 +686,7 @@ class RatchetTagSet implements TagSetHandle {
         if (_sessionTags != null) {
             for (int i = 0; i < sz; i++) {
                 int n = _sessionTags.keyAt(i);
-                RatchetSessionTag tag = _sessionTags.valueAt(i);
-                if (tag == null)
-                    continue;
+                RatchetSessionTag tag = new RatchetSessionTag(_sessionTags.valueAt(i));
                 buf.append("\n  ").append(n).append('\t').append(tag.toBase64());
                 if (_sessionKeys != null) {
                     byte[] key = _sessionKeys.get(n);
@@ -10,12 +10,15 @@ interface SessionTagListener {
     /**
      *  Map the tag to this tagset.
      *
+     *  @param tag as a long since 0.9.59, see RatchetSessionTag.getLong()
      *  @return true if added, false if dup
      */
-    public boolean addTag(RatchetSessionTag tag, RatchetTagSet ts);
+    public boolean addTag(long tag, RatchetTagSet ts);
 
     /**
      *  Remove the tag associated with this tagset.
+     *
+     *  @param tag as a long since 0.9.59, see RatchetSessionTag.getLong()
      */
-    public void expireTag(RatchetSessionTag tag, RatchetTagSet ts);
+    public void expireTag(long tag, RatchetTagSet ts);
 }
@@ -20,7 +20,7 @@ class SingleTagSet extends RatchetTagSet {
     public SingleTagSet(SessionTagListener lsnr, SessionKey key, RatchetSessionTag tag, long date, long timeout) {
         super(lsnr, key, date, timeout);
         _tag = tag;
-        lsnr.addTag(tag, this);
+        lsnr.addTag(tag.getLong(), this);
     }
 
     @Override
@@ -34,8 +34,8 @@ class SingleTagSet extends RatchetTagSet {
     }
 
     @Override
-    public SessionKeyAndNonce consume(RatchetSessionTag tag) {
-        if (_isUsed || !tag.equals(_tag))
+    public SessionKeyAndNonce consume(long tag) {
+        if (_isUsed || tag != _tag.getLong())
             return null;
         _isUsed = true;
         return new SessionKeyAndNonce(_key.getData(), 0);
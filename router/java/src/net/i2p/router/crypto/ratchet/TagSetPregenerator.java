@@ -0,0 +1,142 @@
+package net.i2p.router.crypto.ratchet;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.i2p.router.RouterContext;
+import net.i2p.util.I2PThread;
+import net.i2p.util.Log;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Generate the tags and keys of busy inbound ES tagsets ahead of use,
+ *  so the HKDF is done here and not in the garlic decrypt path.
+ *
+ *  RatchetSKM calls consumed() after each tag is used. When a tagset's
+ *  keys ready ahead run low, it's queued, and one of a few threads
+ *  extends it by a batch sized to its recent use. See RatchetTagSet.pregenerate().
+ *  If the queue is full, or the threads fall behind, the tagset
+ *  generates inline as before.
+ *
+ *  Inbound tagsets only. Outbound tags and keys are generated on demand,
+ *  one each per message, and the DH keys for the ratchets come from the
+ *  X25519KeyFactory.
+ *
+ *  @since 0.9.59
+ */
+class TagSetPregenerator implements Runnable {
+    private final RouterContext _context;
+    private final Log _log;
+    private final LinkedBlockingQueue<Queued> _queue;
+    private final List<Thread> _threads;
+    private final int _threadCount;
+    private volatile boolean _isRunning;
+
+    private static final String PROP_THREADS = "crypto.ratchet.pregen.threads";
+    private static final String PROP_QUEUE = "crypto.ratchet.pregen.queue";
+    private static final int MAX_THREADS = 2;
+    private static final int DEFAULT_QUEUE = 256;
+
+    public TagSetPregenerator(RouterContext ctx) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(TagSetPregenerator.class);
+        int cores = SystemVersion.getCores();
+        int dflt = (cores >= 4 && !SystemVersion.isSlow()) ? MAX_THREADS : 1;
+        _threadCount = Math.max(0, ctx.getProperty(PROP_THREADS, dflt));
+        _queue = new LinkedBlockingQueue<Queued>(Math.max(1, ctx.getProperty(PROP_QUEUE, DEFAULT_QUEUE)));
+        _threads = new CopyOnWriteArrayList<Thread>();
+        ctx.statManager().createRateStat("crypto.ratchet.pregenHit", "Inbound tag and key were ready", "Encryption", new long[] { 60*1000, 60*60*1000 });
+        ctx.statManager().createRateStat("crypto.ratchet.pregenMiss", "Inbound tag or key generated inline", "Encryption", new long[] { 60*1000, 60*60*1000 });
+        ctx.statManager().createRateStat("crypto.ratchet.pregenDropped", "Pregeneration queue full", "Encryption", new long[] { 60*1000, 60*60*1000 });
+        ctx.statManager().createRateStat("crypto.ratchet.pregenTime", "Time from queue to extended tagset (ms)", "Encryption", new long[] { 60*1000, 60*60*1000 });
+        ctx.statManager().createRateStat("crypto.ratchet.pregenBatch", "Tags and keys generated per extension", "Encryption", new long[] { 60*1000, 60*60*1000 });
+    }
+
+    /**
+     *  May be called multiple times
+     */
+    public synchronized void startup() {
+        if (_isRunning || _threadCount <= 0)
+            return;
+        _isRunning = true;
+        for (int i = 0; i < _threadCount; i++) {
+            Thread t = new I2PThread(this, "Ratchet pregen " + (i+1) + '/' + _threadCount, true);
+            if (!SystemVersion.isWindows())
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+            _threads.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     *  Cannot be restarted
+     */
+    public synchronized void shutdown() {
+        _isRunning = false;
+        for (Thread t : _threads) {
+            t.interrupt();
+        }
+        _threads.clear();
+        _queue.clear();
+    }
+
+    /**
+     *  Inbound. Call after ts.consume() returns a key, with the tagset lock held.
+     *  Records the hit or miss and queues the tagset if it's running low.
+     */
+    public void consumed(RatchetTagSet ts, long now) {
+        if (ts.getHandshakeState() != null || ts instanceof SingleTagSet)
+            return;
+        _context.statManager().addRateData(ts.wasInline() ? "crypto.ratchet.pregenMiss" : "crypto.ratchet.pregenHit", 1);
+        if (!_isRunning || !ts.needsPregeneration())
+            return;
+        if (!_queue.offer(new Queued(ts, now))) {
+            ts.pregenerationDropped();
+            _context.statManager().addRateData("crypto.ratchet.pregenDropped", 1);
+        }
+    }
+
+    public void run() {
+        try {
+            while (_isRunning) {
+                Queued q;
+                try {
+                    q = _queue.take();
+                } catch (InterruptedException ie) {
+                    continue;
+                }
+                int count;
+                synchronized (q.ts) {
+                    // don't put the tags of an expired tagset back in the index
+                    if (q.ts.getExpiration() > _context.clock().now())
+                        count = q.ts.pregenerate();
+                    else
+                        count = 0;
+                }
+                if (count > 0) {
+                    _context.statManager().addRateData("crypto.ratchet.pregenTime", _context.clock().now() - q.queued);
+                    _context.statManager().addRateData("crypto.ratchet.pregenBatch", count);
+                }
+            }
+        } catch (IllegalStateException ise) {
+            if (_isRunning)
+                throw ise;
+            // else ignore, PRNG gets stopped first and throws ISE
+        } finally {
+            _threads.remove(Thread.currentThread());
+        }
+        if (_log.shouldInfo())
+            _log.info("Ratchet pregen thread stopped");
+    }
+
+    private static class Queued {
+        final RatchetTagSet ts;
+        final long queued;
+
+        Queued(RatchetTagSet ts, long now) {
+            this.ts = ts;
+            queued = now;
+        }
+    }
+}
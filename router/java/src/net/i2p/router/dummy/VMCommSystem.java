@@ -63,8 +63,8 @@ public class VMCommSystem extends CommSystemFacade {
         _context.statManager().createRateStat("transport.sendMessageLarge", "How many messages over 4KB are sent?", "Transport", new long[] { 60*1000l, 5*60*1000l, 60*60*1000l, 24*60*60*1000l });
         _context.statManager().createRateStat("transport.receiveMessageLarge", "How many messages over 4KB are received?", "Transport", new long[] { 60*1000l, 5*60*1000l, 60*60*1000l, 24*60*60*1000l });
         _context.statManager().createRequiredRateStat("transport.sendProcessingTime", "Time to process and send a message (ms)", "Transport", new long[] { 60*1000l });
-        // we do NOT start the thread, all keys will be generated inline
-        _xdhThread = new X25519KeyFactory(context);
+        // we do NOT start it, all keys will be generated inline
+        _xdhThread = new X25519KeyFactory(context, context.keyPrecalcPool());
     }
 
     /**
@@ -57,14 +57,15 @@ class FloodOnlyLookupMatchJob extends JobImpl implements ReplyJob {
         // Just note success here.
         if (dsm.getKey().equals(_search.getKey()))
             _success = true;
-        DatabaseEntry entry = dsm.getEntry();
-        int type = entry.getType();
+        int type = dsm.getEntryType();
         if (DatabaseEntry.isLeaseSet(type)) {
             // Since HFDSMJ wants to setReceivedAsPublished(), we have to
             // set a flag saying this was really the result of a query,
             // so don't do that.
             LeaseSet ls = (LeaseSet) dsm.getEntry();
-            ls.setReceivedAsReply();
+            // null if it could not be parsed, HFDSMJ will drop it
+            if (ls != null)
+                ls.setReceivedAsReply();
         }
     }
 }
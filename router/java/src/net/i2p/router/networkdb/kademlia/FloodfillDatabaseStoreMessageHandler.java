@@ -23,6 +23,7 @@ import net.i2p.router.RouterContext;
 public class FloodfillDatabaseStoreMessageHandler implements HandlerJobBuilder {
     private RouterContext _context;
     private FloodfillNetworkDatabaseFacade _facade;
+    private final StoreBatchVerifier _verifier;
     
     public FloodfillDatabaseStoreMessageHandler(RouterContext context, FloodfillNetworkDatabaseFacade facade) {
         _context = context;
@@ -32,10 +33,13 @@ public class FloodfillDatabaseStoreMessageHandler implements HandlerJobBuilder {
         context.statManager().createRateStat("netDb.storeLeaseSetHandled", "How many leaseSet store messages have we handled?", "NetworkDatabase", new long[] { 60*60*1000l });
         context.statManager().createRateStat("netDb.storeRouterInfoHandled", "How many routerInfo store messages have we handled?", "NetworkDatabase", new long[] { 60*60*1000l });
         context.statManager().createRateStat("netDb.storeRecvTime", "How long it takes to handle the local store part of a dbStore?", "NetworkDatabase", new long[] { 60*60*1000l });
+        _verifier = new StoreBatchVerifier(context, facade);
     }
 
     public Job createJob(I2NPMessage receivedMessage, RouterIdentity from, Hash fromHash) {
-        Job j = new HandleFloodfillDatabaseStoreMessageJob(_context, (DatabaseStoreMessage)receivedMessage, from, fromHash, _facade);
+        DatabaseStoreMessage dsm = (DatabaseStoreMessage) receivedMessage;
+        _verifier.add(dsm);
+        Job j = new HandleFloodfillDatabaseStoreMessageJob(_context, dsm, from, fromHash, _facade, _verifier);
         if (false) {
             j.runJob();
             return null;
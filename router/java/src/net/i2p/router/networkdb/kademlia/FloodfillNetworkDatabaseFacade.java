@@ -232,6 +232,22 @@ public class FloodfillNetworkDatabaseFacade extends KademliaNetworkDatabaseFacad
      *  we flood to those closest to the key.
      */
     public void flood(DatabaseEntry ds) {
+        flood(ds, null);
+    }
+
+    /**
+     *  Send to a subset of all floodfill peers.
+     *  We do this to implement Kademlia within the floodfills, i.e.
+     *  we flood to those closest to the key.
+     *
+     *  The entry is serialized (and compressed, for a RouterInfo) at most once,
+     *  for the first message, and the rest use the same bytes.
+     *
+     *  @param entryBytes the entry as received, from DatabaseStoreMessage.getEntryBytes(),
+     *                    so it isn't serialized at all; or null
+     *  @since 0.9.59
+     */
+    public void flood(DatabaseEntry ds, byte[] entryBytes) {
         Hash key = ds.getHash();
         RouterKeyGenerator gen = _context.routerKeyGenerator();
         Hash rkey = gen.getRoutingKey(key);
@@ -290,7 +306,12 @@ public class FloodfillNetworkDatabaseFacade extends KademliaNetworkDatabaseFacad
                 continue;
             }
             DatabaseStoreMessage msg = new DatabaseStoreMessage(_context);
-            msg.setEntry(ds);
+            msg.setEntry(ds, entryBytes);
+            if (entryBytes == null) {
+                // serialize now, for this and the next ones
+                msg.getMessageSize();
+                entryBytes = msg.getEntryBytes();
+            }
             OutNetMessage m = new OutNetMessage(_context, msg, _context.clock().now()+FLOOD_TIMEOUT, FLOOD_PRIORITY, target);
             Job floodFail = new FloodFailedJob(_context, peer);
             m.setOnFailedSendJob(floodFail);
@@ -358,7 +358,8 @@ class FloodfillVerifyStoreJob extends JobImpl {
                 // Verify it's as recent as the one we sent
                 DatabaseStoreMessage dsm = (DatabaseStoreMessage)_message;
                 DatabaseEntry entry = dsm.getEntry();
-                if (!entry.verifySignature()) {
+                // null if it could not be parsed
+                if (entry == null || !entry.verifySignature()) {
                     if (_log.shouldWarn())
                         _log.warn(getJobId() + ": Sent bad data for verify: " + _target);
                     pm.dbLookupFailed(_target);
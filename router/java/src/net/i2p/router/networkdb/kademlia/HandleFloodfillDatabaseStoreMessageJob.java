@@ -45,6 +45,7 @@ class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
     private final RouterIdentity _from;
     private Hash _fromHash;
     private final FloodfillNetworkDatabaseFacade _facade;
+    private final StoreBatchVerifier _verifier;
     private final static int REPLY_TIMEOUT = 60*1000;
     private final static int MESSAGE_PRIORITY = OutNetMessage.PRIORITY_NETDB_REPLY;
     // must be lower than LIMIT_ROUTERS in StartExplorersJob
@@ -53,16 +54,19 @@ class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
 
     /**
      * @param receivedMessage must never have reply token set if it came down a tunnel
+     * @param verifier may be null, since 0.9.59
      */
     public HandleFloodfillDatabaseStoreMessageJob(RouterContext ctx, DatabaseStoreMessage receivedMessage,
                                                   RouterIdentity from, Hash fromHash,
-                                                  FloodfillNetworkDatabaseFacade facade) {
+                                                  FloodfillNetworkDatabaseFacade facade,
+                                                  StoreBatchVerifier verifier) {
         super(ctx);
         _log = ctx.logManager().getLog(getClass());
         _message = receivedMessage;
         _from = from;
         _fromHash = fromHash;
         _facade = facade;
+        _verifier = verifier;
     }
     
     public void runJob() {
@@ -74,7 +78,18 @@ class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
         boolean wasNew = false;
         RouterInfo prevNetDb = null;
         Hash key = _message.getKey();
+        // verify this and any other stores waiting together,
+        // store() won't verify again
+        if (_verifier != null)
+            _verifier.verifyPending();
         DatabaseEntry entry = _message.getEntry();
+        if (entry == null) {
+            // parsed lazily as of 0.9.59, counted and logged in DSM.getEntry(),
+            // drop it as we would have before it got here
+            if (_log.shouldWarn())
+                _log.warn("Dropping store of unparsable entry for " + key + " from " + _fromHash);
+            return;
+        }
         int type = entry.getType();
         if (DatabaseEntry.isLeaseSet(type)) {
             getContext().statManager().addRateData("netDb.storeLeaseSetHandled", 1);
@@ -359,7 +374,9 @@ class HandleFloodfillDatabaseStoreMessageJob extends JobImpl {
                     return;
                 }
                 long floodBegin = System.currentTimeMillis();
-                _facade.flood(entry);
+                // the bytes as received, so the entry isn't serialized and compressed again,
+                // or null if they had anything else in them, see DatabaseStoreMessage.parseEntry()
+                _facade.flood(entry, _message.getEntryBytes());
                 // ERR: see comment in HandleDatabaseLookupMessageJob regarding hidden mode
                 //else if (!_message.getRouterInfo().isHidden())
                 long floodEnd = System.currentTimeMillis();
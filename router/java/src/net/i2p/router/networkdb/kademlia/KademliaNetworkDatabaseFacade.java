@@ -79,6 +79,7 @@ public abstract class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacad
     private NegativeLookupCache _negativeCache;
     protected final int _networkID;
     private final BlindCache _blindCache;
+    private final SignatureCache _sigCache;
 
     /** 
      * Map of Hash to RepublishLeaseSetJob for leases we'realready managing.
@@ -178,6 +179,7 @@ public abstract class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacad
         _activeRequests = new HashMap<Hash, SearchJob>(8);
         _reseedChecker = new ReseedChecker(context);
         _blindCache = new BlindCache(context);
+        _sigCache = new SignatureCache(context);
         context.statManager().createRateStat("netDb.lookupDeferred", "how many lookups are deferred?", "NetworkDatabase", new long[] { 60*60*1000 });
         context.statManager().createRateStat("netDb.exploreKeySet", "how many keys are queued for exploration?", "NetworkDatabase", new long[] { 60*60*1000 });
         context.statManager().createRateStat("netDb.negativeCache", "Aborted lookup, already cached", "NetworkDatabase", new long[] { 60*60*1000l });
@@ -192,6 +194,7 @@ public abstract class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacad
         context.statManager().createRateStat("netDb.republishLeaseSetCount", "How often we republish a leaseSet?", "NetworkDatabase", new long[] { 60*60*1000l });
         // following is for DatabaseStoreMessage
         context.statManager().createRateStat("netDb.DSMAllZeros", "Store with zero key", "NetworkDatabase", new long[] { 60*60*1000l });
+        context.statManager().createRateStat("netDb.DSMParseFailed", "Store with an entry that could not be parsed", "NetworkDatabase", new long[] { 60*60*1000l });
         // following is for HandleDatabaseLookupMessageJob
         context.statManager().createRateStat("netDb.DLMAllZeros", "Lookup with zero key", "NetworkDatabase", new long[] { 60*60*1000l });
     }
@@ -212,6 +215,9 @@ public abstract class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacad
 
     KBucketSet<Hash> getKBuckets() { return _kb; }
     DataStore getDataStore() { return _ds; }
+
+    /** @since 0.9.59 */
+    SignatureCache getSignatureCache() { return _sigCache; }
     
     long getLastExploreNewDate() { return _lastExploreNew; }
     void setLastExploreNewDate(long when) { 
@@ -897,7 +903,7 @@ public abstract class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacad
             return "Key does not match leaseSet.destination - " + key.toBase64();
         }
         // todo experimental sig types
-        if (!leaseSet.verifySignature()) {
+        if (!_sigCache.verify(leaseSet)) {
             // throws UnsupportedCryptoException
             processStoreFailure(key, leaseSet);
             if (_log.shouldLog(Log.WARN))
@@ -1108,7 +1114,7 @@ public abstract class KademliaNetworkDatabaseFacade extends NetworkDatabaseFacad
             return "Key does not match routerInfo.identity";
         }
         // todo experimental sig types
-        if (!routerInfo.isValid()) {
+        if (!_sigCache.verify(routerInfo)) {
             // throws UnsupportedCryptoException
             processStoreFailure(key, routerInfo);
             if (_log.shouldLog(Log.WARN))
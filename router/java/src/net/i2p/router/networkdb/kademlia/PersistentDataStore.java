@@ -65,6 +65,8 @@ public class PersistentDataStore extends TransientDataStore {
     static final String DIR_PREFIX = "r";
     private static final String B64 = Base64.ALPHABET_I2P;
     private static final int MAX_ROUTERS_INIT = SystemVersion.isSlow() ? 1000 : 4000;
+    /** RIs read before verifying their signatures together */
+    private static final int READ_BATCH = 64;
 
     /**
      *  @param dbDir relative path
@@ -443,32 +445,27 @@ public class PersistentDataStore extends TransientDataStore {
                     }
                 }
                 Collections.shuffle(toRead, _context.random());
+                // Read up to READ_BATCH, verify the sigs together, then store
+                List<ReadRouterJob> batch = new ArrayList<ReadRouterJob>(READ_BATCH);
                 int i = 0;
                 for (File file : toRead) {
                     // Take the first 4000 good ones, delete the rest
-                    if (i >= MAX_ROUTERS_INIT && !_initialized) {
+                    if (i + batch.size() >= MAX_ROUTERS_INIT && !_initialized) {
                         file.delete();
                         continue;
                     }
                     Hash key = getRouterInfoHash(file.getName());
                     if (key != null) {
                         ReadRouterJob rrj = new ReadRouterJob(file, key);
-                        if (!rrj.read())
+                        if (!rrj.parse())
                             continue;
-                        if (i++ == 150 && SystemVersion.isSlow() && !_initialized) {
-                            // Can take 2 minutes to load them all on Android,
-                            // after we have already built expl. tunnels.
-                            // This is enough to let i2ptunnel get started.
-                            // Do not set _initialized yet so we don't start rescanning.
-                            _setNetDbReady = true;
-                            _context.router().setNetDbReady();
-                        } else if (i == 500 && !_setNetDbReady) {
-                            // do this for faster systems also at 500
-                            _setNetDbReady = true;
-                            _context.router().setNetDbReady();
-                        }
+                        batch.add(rrj);
+                        if (batch.size() >= READ_BATCH)
+                            i = storeBatch(batch, i);
                     }
                 }
+                if (!batch.isEmpty())
+                    i = storeBatch(batch, i);
             }
             
             if (!_initialized) {
@@ -503,12 +500,48 @@ public class PersistentDataStore extends TransientDataStore {
                 }
             }
         }
+
+        /**
+         *  Verify the signatures together, and store.
+         *  Clears the batch.
+         *
+         *  @param count stored so far
+         *  @return stored so far, including this batch
+         *  @since 0.9.59
+         */
+        private int storeBatch(List<ReadRouterJob> batch, int count) {
+            List<RouterInfo> ris = new ArrayList<RouterInfo>(batch.size());
+            for (ReadRouterJob rrj : batch) {
+                ris.add(rrj.getRouterInfo());
+            }
+            // the results are kept in each RI for isValid()
+            DatabaseEntry.verifySignatures(ris);
+            for (ReadRouterJob rrj : batch) {
+                if (!rrj.store())
+                    continue;
+                if (count++ == 150 && SystemVersion.isSlow() && !_initialized) {
+                    // Can take 2 minutes to load them all on Android,
+                    // after we have already built expl. tunnels.
+                    // This is enough to let i2ptunnel get started.
+                    // Do not set _initialized yet so we don't start rescanning.
+                    _setNetDbReady = true;
+                    _context.router().setNetDbReady();
+                } else if (count == 500 && !_setNetDbReady) {
+                    // do this for faster systems also at 500
+                    _setNetDbReady = true;
+                    _context.router().setNetDbReady();
+                }
+            }
+            batch.clear();
+            return count;
+        }
     }
     
     private class ReadRouterJob extends JobImpl {
         private final File _routerFile;
         private final Hash _key;
         private long _knownDate;
+        private RouterInfo _ri;
 
         /**
          *  @param key must match the RI hash in the file
@@ -546,6 +579,17 @@ public class PersistentDataStore extends TransientDataStore {
          *  @since 0.9.58
          */
         public boolean read() {
+            return parse() && store();
+        }
+
+        /**
+         *  Read the file, without verifying the signature.
+         *  Deletes the file if corrupt.
+         *
+         *  @return success
+         *  @since 0.9.59 split out from read()
+         */
+        public boolean parse() {
             if (!shouldRead()) return false;
             if (_log.shouldLog(Log.DEBUG))
                 _log.debug("Reading " + _routerFile);
@@ -556,9 +600,55 @@ public class PersistentDataStore extends TransientDataStore {
                     fis = new FileInputStream(_routerFile);
                     fis = new BufferedInputStream(fis);
                     RouterInfo ri = new RouterInfo();
-                    ri.readBytes(fis, true);  // true = verify sig on read
+                    // sig verified in store(), or for several at once by storeBatch()
+                    ri.readBytes(fis, false);
+                    _ri = ri;
+                } catch (DataFormatException dfe) {
+                    if (_log.shouldLog(Log.INFO))
+                        _log.info("Error reading the routerInfo from " + _routerFile.getName(), dfe);
+                    corrupt = true;
+                } catch (IOException ioe) {
+                    if (_log.shouldLog(Log.INFO))
+                        _log.info("Unable to read the router reference in " + _routerFile.getName(), ioe);
+                    corrupt = true;
+                } catch (RuntimeException e) {
+                    // key certificate problems, etc., don't let one bad RI kill the whole thing
+                    if (_log.shouldLog(Log.INFO))
+                        _log.info("Unable to read the router reference in " + _routerFile.getName(), e);
+                    corrupt = true;
+                } finally {
+                    if (fis != null) try { fis.close(); } catch (IOException ioe) {}
+                }
+                if (corrupt) _routerFile.delete();
+                return !corrupt;
+        }
+
+        /**
+         *  @return non-null after parse() succeeds
+         *  @since 0.9.59
+         */
+        public RouterInfo getRouterInfo() {
+            return _ri;
+        }
+
+        /**
+         *  Verify the signature, if not already done, check, and store.
+         *  Call only after parse() succeeds.
+         *  Deletes the file if corrupt.
+         *
+         *  @return success
+         *  @since 0.9.59 split out from read()
+         */
+        public boolean store() {
+                RouterInfo ri = _ri;
+                boolean corrupt = false;
+                try {
                     Hash h = ri.getIdentity().calculateHash();
-                    if (ri.getNetworkId() != _networkID) {
+                    if (!ri.isValid()) {
+                        corrupt = true;
+                        if (_log.shouldLog(Log.INFO))
+                            _log.info("Bad sig on the routerInfo from " + _routerFile.getName());
+                    } else if (ri.getNetworkId() != _networkID) {
                         corrupt = true;
                         if (_log.shouldLog(Log.ERROR))
                             _log.error("The router "
@@ -593,21 +683,11 @@ public class PersistentDataStore extends TransientDataStore {
                             corrupt = true;
                         }
                     }
-                } catch (DataFormatException dfe) {
-                    if (_log.shouldLog(Log.INFO))
-                        _log.info("Error reading the routerInfo from " + _routerFile.getName(), dfe);
-                    corrupt = true;
-                } catch (IOException ioe) {
-                    if (_log.shouldLog(Log.INFO))
-                        _log.info("Unable to read the router reference in " + _routerFile.getName(), ioe);
-                    corrupt = true;
                 } catch (RuntimeException e) {
                     // key certificate problems, etc., don't let one bad RI kill the whole thing
                     if (_log.shouldLog(Log.INFO))
                         _log.info("Unable to read the router reference in " + _routerFile.getName(), e);
                     corrupt = true;
-                } finally {
-                    if (fis != null) try { fis.close(); } catch (IOException ioe) {}
                 }
                 if (corrupt) _routerFile.delete();
                 return !corrupt;
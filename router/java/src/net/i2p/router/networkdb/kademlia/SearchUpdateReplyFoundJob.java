@@ -85,6 +85,8 @@ class SearchUpdateReplyFoundJob extends JobImpl implements ReplyJob {
             DatabaseStoreMessage msg = (DatabaseStoreMessage)message;
             DatabaseEntry entry = msg.getEntry();
             try {
+                if (entry == null)
+                    throw new IllegalArgumentException("Unparsable entry for " + msg.getKey());
                 _facade.store(msg.getKey(), entry);
                 getContext().profileManager().dbLookupSuccessful(_peer, timeToReply);
             } catch (UnsupportedCryptoException iae) {
@@ -0,0 +1,124 @@
+package net.i2p.router.networkdb.kademlia;
+
+import java.util.Map;
+
+import net.i2p.data.DatabaseEntry;
+import net.i2p.data.Hash;
+import net.i2p.data.KeysAndCert;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.router.RouterContext;
+import net.i2p.util.LHMCache;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Results of signature verification of RouterInfos and LeaseSets,
+ *  keyed by the signing key and DatabaseEntry.getSignedHash(),
+ *  so that identical copies received again, by flood, search reply,
+ *  or exploration, are not verified again.
+ *
+ *  Invalid results are cached also.
+ *  Offline-signed and encrypted leasesets are always verified.
+ *
+ *  @since 0.9.59
+ */
+class SignatureCache implements DatabaseEntry.VerifyResultCache {
+    private final RouterContext _context;
+    private final Map<Key, Boolean> _cache;
+
+    public SignatureCache(RouterContext ctx) {
+        _context = ctx;
+        long maxMemory = SystemVersion.getMaxMemory();
+        // 1024 nominal for 128 MB
+        int size = (int) Math.max(256, Math.min(4096, maxMemory / (128*1024)));
+        _cache = new LHMCache<Key, Boolean>(size);
+        ctx.statManager().createRateStat("netDb.sigCacheHit", "Signature verification result found in cache", "NetworkDatabase", new long[] { 60*1000, 60*60*1000l });
+        ctx.statManager().createRateStat("netDb.sigCacheMiss", "Signature verification result not in cache", "NetworkDatabase", new long[] { 60*1000, 60*60*1000l });
+    }
+
+    /**
+     *  Use the cached result if present, and set it in the entry
+     *  so that later calls to verifySignature() do not verify again.
+     *  Otherwise, call verifySignature() and cache the result.
+     *  See DatabaseEntry.verifySignature(VerifyResultCache).
+     *
+     *  @return valid
+     */
+    public boolean verify(DatabaseEntry entry) {
+        return entry.verifySignature(this);
+    }
+
+    /**
+     *  For DatabaseEntry.verifySignature(VerifyResultCache) only.
+     *  Updates the stats.
+     */
+    public Boolean get(SigningPublicKey spk, Hash signedHash) {
+        Boolean rv;
+        synchronized(_cache) {
+            rv = _cache.get(new Key(spk, signedHash));
+        }
+        _context.statManager().addRateData(rv != null ? "netDb.sigCacheHit" : "netDb.sigCacheMiss", 1);
+        return rv;
+    }
+
+    /**
+     *  For DatabaseEntry.verifySignature(VerifyResultCache) only.
+     */
+    public void put(SigningPublicKey spk, Hash signedHash, boolean valid) {
+        synchronized(_cache) {
+            _cache.put(new Key(spk, signedHash), Boolean.valueOf(valid));
+        }
+    }
+
+    /**
+     *  Does not set the result in the entry, or update the stats.
+     *
+     *  @return true if a result for the entry is cached
+     */
+    public boolean isCached(DatabaseEntry entry) {
+        Key key = getKey(entry);
+        if (key == null)
+            return false;
+        synchronized(_cache) {
+            return _cache.containsKey(key);
+        }
+    }
+
+    /**
+     *  @return null if not cacheable
+     */
+    private static Key getKey(DatabaseEntry entry) {
+        Hash h = entry.getSignedHash();
+        if (h == null)
+            return null;
+        KeysAndCert kac = entry.getKeysAndCert();
+        if (kac == null)
+            return null;
+        SigningPublicKey spk = kac.getSigningPublicKey();
+        if (spk == null)
+            return null;
+        return new Key(spk, h);
+    }
+
+    private static class Key {
+        private final SigningPublicKey _spk;
+        private final Hash _hash;
+
+        public Key(SigningPublicKey spk, Hash h) {
+            _spk = spk;
+            _hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return _hash.equals(k._hash) && _spk.equals(k._spk);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package net.i2p.router.networkdb.kademlia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import net.i2p.data.DatabaseEntry;
+import net.i2p.data.Hash;
+import net.i2p.data.i2np.DatabaseStoreMessage;
+import net.i2p.router.RouterContext;
+
+/**
+ *  Verify the signatures of received DatabaseStoreMessages together,
+ *  with DatabaseEntry.verifySignatures().
+ *
+ *  FloodfillDatabaseStoreMessageHandler adds each message as its job is created.
+ *  The first of the jobs to run verifies all the entries waiting,
+ *  so that when the job queue is backed up, as in a flood of stores,
+ *  the signatures are verified in a batch, and the following jobs
+ *  find their entry already verified.
+ *  Otherwise, each entry is verified alone in store(), as before.
+ *  Entries with a result in the SignatureCache are not verified here.
+ *
+ *  @since 0.9.59
+ */
+class StoreBatchVerifier {
+    private final RouterContext _context;
+    private final KademliaNetworkDatabaseFacade _facade;
+    private final LinkedBlockingQueue<DatabaseStoreMessage> _pending;
+
+    private static final int MAX_BATCH = 64;
+    /** if full, the rest are verified alone */
+    private static final int MAX_PENDING = 4 * MAX_BATCH;
+
+    public StoreBatchVerifier(RouterContext ctx, KademliaNetworkDatabaseFacade facade) {
+        _context = ctx;
+        _facade = facade;
+        _pending = new LinkedBlockingQueue<DatabaseStoreMessage>(MAX_PENDING);
+        ctx.statManager().createRateStat("netDb.storeVerifyBatch", "Size of batch signature verifications of received stores", "NetworkDatabase", new long[] { 60*1000, 60*60*1000l });
+    }
+
+    /**
+     *  Called when the job for the message is created.
+     */
+    public void add(DatabaseStoreMessage msg) {
+        _pending.offer(msg);
+    }
+
+    /**
+     *  Called before handling a store.
+     *  Verifies the entries waiting, if more than one.
+     */
+    public void verifyPending() {
+        if (_pending.isEmpty())
+            return;
+        List<DatabaseStoreMessage> msgs = new ArrayList<DatabaseStoreMessage>(MAX_BATCH);
+        _pending.drainTo(msgs, MAX_BATCH);
+        if (msgs.size() <= 1)
+            return;
+        List<DatabaseEntry> entries = new ArrayList<DatabaseEntry>(msgs.size());
+        for (DatabaseStoreMessage msg : msgs) {
+            // parses it if not already done
+            DatabaseEntry entry = msg.getEntry();
+            if (entry == null)
+                continue;
+            // Don't verify what won't be stored, as in HFDSMJ
+            Hash key = msg.getKey();
+            DatabaseEntry prev = _facade.lookupLocallyWithoutValidation(key);
+            if (prev != null && prev.getDate() >= entry.getDate())
+                continue;
+            // store() will use the cached result
+            if (_facade.getSignatureCache().isCached(entry))
+                continue;
+            entries.add(entry);
+        }
+        if (entries.size() <= 1)
+            return;
+        int count = DatabaseEntry.verifySignatures(entries);
+        if (count > 0)
+            _context.statManager().addRateData("netDb.storeVerifyBatch", count);
+    }
+}
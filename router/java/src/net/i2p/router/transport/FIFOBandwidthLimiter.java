@@ -7,6 +7,10 @@ import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import net.i2p.data.i2np.DatabaseLookupMessage;
+import net.i2p.data.i2np.DatabaseSearchReplyMessage;
+import net.i2p.data.i2np.DatabaseStoreMessage;
+import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
 import net.i2p.router.util.PQEntry;
 import net.i2p.util.I2PThread;
@@ -30,6 +34,10 @@ import net.i2p.util.Log;
  *  methods for the common case where we are under the bandwidth limits.
  *  And the volatile counters are now AtomicIntegers / AtomicLongs.
  *
+ *  As of 0.9.59, with i2np.bandwidth.tokenBuckets=true, the requests
+ *  are handled instead by a TokenBucketLimiter, with no locks,
+ *  and with separate classes for outbound traffic. See TokenBucketLimiter.
+ *
  */
 public class FIFOBandwidthLimiter {
     private final Log _log;
@@ -70,6 +78,27 @@ public class FIFOBandwidthLimiter {
 
     private final FIFOBandwidthRefiller _refiller;
     private final Thread _refillerThread;
+    /** null unless enabled */
+    private final TokenBucketLimiter _tokenBuckets;
+
+    /**
+     *  Use the TokenBucketLimiter, restart required
+     *  @since 0.9.59
+     */
+    public static final String PROP_TOKEN_BUCKETS = "i2np.bandwidth.tokenBuckets";
+
+    /**
+     *  Outbound traffic classes, most important first.
+     *  Only the TokenBucketLimiter treats them differently.
+     *  @since 0.9.59
+     */
+    public static final int CLASS_LOCAL = 0;
+    /** @since 0.9.59 */
+    public static final int CLASS_NETDB = 1;
+    /** @since 0.9.59 */
+    public static final int CLASS_PARTICIPATING = 2;
+    /** @since 0.9.59 */
+    static final int CLASS_COUNT = 3;
     
     private long _lastTotalSent;
     private long _lastTotalReceived;
@@ -85,6 +114,14 @@ public class FIFOBandwidthLimiter {
     }
     
     public FIFOBandwidthLimiter(RouterContext context) {
+        this(context, true);
+    }
+
+    /**
+     *  @param startRefiller false for tests and benchmarks that call refillBandwidthQueues() themselves
+     *  @since 0.9.59
+     */
+    FIFOBandwidthLimiter(RouterContext context, boolean startRefiller) {
         _context = context;
         _log = context.logManager().getLog(FIFOBandwidthLimiter.class);
         _context.statManager().createRateStat("bwLimiter.pendingOutboundRequests", "How many outbound requests are ahead of the current one (ignoring ones with 0)?", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
@@ -96,16 +133,31 @@ public class FIFOBandwidthLimiter {
         _lastTotalSent = _totalAllocatedOutboundBytes.get();
         _lastTotalReceived = _totalAllocatedInboundBytes.get();
         _lastStatsUpdated = now();
+        if (_context.getBooleanProperty(PROP_TOKEN_BUCKETS))
+            _tokenBuckets = new TokenBucketLimiter(_context, this);
+        else
+            _tokenBuckets = null;
         _refiller = new FIFOBandwidthRefiller(_context, this);
         _refillerThread = new I2PThread(_refiller, "BWRefiller", true);
         _refillerThread.setPriority(I2PThread.NORM_PRIORITY + 1);
-        _refillerThread.start();
+        if (startRefiller)
+            _refillerThread.start();
     }
 
     //public long getAvailableInboundBytes() { return _availableInboundBytes; }
     //public long getAvailableOutboundBytes() { return _availableOutboundBytes; }
-    public long getTotalAllocatedInboundBytes() { return _totalAllocatedInboundBytes.get(); }
-    public long getTotalAllocatedOutboundBytes() { return _totalAllocatedOutboundBytes.get(); }
+    public long getTotalAllocatedInboundBytes() {
+        if (_tokenBuckets != null)
+            return _tokenBuckets.getTotalAllocatedInboundBytes();
+        return _totalAllocatedInboundBytes.get();
+    }
+
+    public long getTotalAllocatedOutboundBytes() {
+        if (_tokenBuckets != null)
+            return _tokenBuckets.getTotalAllocatedOutboundBytes();
+        return _totalAllocatedOutboundBytes.get();
+    }
+
     //public long getTotalWastedInboundBytes() { return _totalWastedInboundBytes.get(); }
     //public long getTotalWastedOutboundBytes() { return _totalWastedOutboundBytes.get(); }
     //public long getMaxInboundBytes() { return _maxInboundBytes; }
@@ -171,6 +223,8 @@ public class FIFOBandwidthLimiter {
 
     /** @since 0.8.8 */
     private void clear() {
+        if (_tokenBuckets != null)
+            _tokenBuckets.clear();
         _pendingInboundRequests.clear();
         _pendingOutboundRequests.clear();
         _availableInbound.set(0);
@@ -198,6 +252,8 @@ public class FIFOBandwidthLimiter {
      *  @since 0.8.12
      */
     public boolean sentParticipatingMessage(int size, float factor) {
+        if (_tokenBuckets != null && _tokenBuckets.shouldDropParticipating())
+            return false;
         return _refiller.incrementParticipatingMessageBytes(size, factor);
     }
 
@@ -215,6 +271,8 @@ public class FIFOBandwidthLimiter {
      * Request some bytes. Does not block.
      */
     public Request requestInbound(int bytesIn, String purpose) {
+        if (_tokenBuckets != null)
+            return _tokenBuckets.requestInbound(bytesIn);
         // try to satisfy without grabbing the global lock
         if (shortcutSatisfyInboundRequest(bytesIn))
             return _noop;
@@ -244,8 +302,22 @@ public class FIFOBandwidthLimiter {
 
     /**
      * Request some bytes. Does not block.
+     * For the TokenBucketLimiter, this is CLASS_LOCAL.
      */
     public Request requestOutbound(int bytesOut, int priority, String purpose) {
+        return requestOutbound(bytesOut, priority, CLASS_LOCAL, purpose);
+    }
+
+    /**
+     * Request some bytes. Does not block.
+     *
+     * @param trafficClass CLASS_LOCAL, CLASS_NETDB, or CLASS_PARTICIPATING,
+     *                     ignored unless the TokenBucketLimiter is enabled
+     * @since 0.9.59
+     */
+    public Request requestOutbound(int bytesOut, int priority, int trafficClass, String purpose) {
+        if (_tokenBuckets != null)
+            return _tokenBuckets.requestOutbound(bytesOut, priority, trafficClass);
         // try to satisfy without grabbing the global lock
         if (shortcutSatisfyOutboundRequest(bytesOut))
             return _noop;
@@ -274,12 +346,18 @@ public class FIFOBandwidthLimiter {
     void setOutboundBurstKBps(int kbytesPerSecond) {
         _maxOutbound = kbytesPerSecond * 1024;
     }
+    /** @since 0.9.59 */
+    int getMaxInbound() { return _maxInbound; }
+    /** @since 0.9.59 */
+    int getMaxOutbound() { return _maxOutbound; }
     public int getInboundBurstBytes() { return _maxInboundBurst; }
     public int getOutboundBurstBytes() { return _maxOutboundBurst; }
     void setInboundBurstBytes(int bytes) { _maxInboundBurst = bytes; }
     void setOutboundBurstBytes(int bytes) { _maxOutboundBurst = bytes; }
     
     StringBuilder getStatus() {
+        if (_tokenBuckets != null)
+            return _tokenBuckets.getStatus();
         StringBuilder rv = new StringBuilder(128);
         rv.append("Available: ").append(_availableInbound).append('/').append(_availableOutbound);
         rv.append(" Max: ").append(_maxInbound).append('/').append(_maxOutbound);
@@ -321,6 +399,11 @@ public class FIFOBandwidthLimiter {
      * @param maxBurstOut allow up to this many bytes in from the burst section for this time period (may be negative)
      */
     final void refillBandwidthQueues(List<Request> buf, long bytesInbound, long bytesOutbound, long maxBurstIn, long maxBurstOut) {
+        if (_tokenBuckets != null) {
+            _tokenBuckets.refill(bytesInbound, bytesOutbound, maxBurstIn, maxBurstOut);
+            updateStats();
+            return;
+        }
         //if (_log.shouldLog(Log.DEBUG))
         //    _log.debug("Refilling the queues with " + bytesInbound + "/" + bytesOutbound + ": " + getStatus().toString());
 
@@ -400,8 +483,8 @@ public class FIFOBandwidthLimiter {
         long time = now - _lastStatsUpdated;
         // If at least one second has passed
         if (time >= 1000) {
-            long totS = _totalAllocatedOutboundBytes.get();
-            long totR = _totalAllocatedInboundBytes.get();
+            long totS = getTotalAllocatedOutboundBytes();
+            long totR = getTotalAllocatedInboundBytes();
             long sent = totS - _lastTotalSent; // How much we sent meanwhile
             long recv = totR - _lastTotalReceived; // How much we received meanwhile
             _lastTotalSent = totS;
@@ -779,6 +862,26 @@ public class FIFOBandwidthLimiter {
         return rv;
     }
 
+    /**
+     *  The class of an outbound message, for the TokenBucketLimiter.
+     *  Our own traffic is by priority, the rest by message type.
+     *
+     *  @return CLASS_LOCAL, CLASS_NETDB, or CLASS_PARTICIPATING
+     *  @since 0.9.59
+     */
+    public static int getTrafficClass(OutNetMessage msg) {
+        if (msg.getPriority() >= OutNetMessage.PRIORITY_MY_DATA)
+            return CLASS_LOCAL;
+        switch (msg.getMessageTypeId()) {
+            case DatabaseStoreMessage.MESSAGE_TYPE:
+            case DatabaseLookupMessage.MESSAGE_TYPE:
+            case DatabaseSearchReplyMessage.MESSAGE_TYPE:
+                return CLASS_NETDB;
+            default:
+                return CLASS_PARTICIPATING;
+        }
+    }
+
     /** @deprecated not worth translating */
     @Deprecated
     public void renderStatusHTML(Writer out) throws IOException {
@@ -815,7 +918,10 @@ public class FIFOBandwidthLimiter {
 ******/
     }
     
-    private static class SimpleRequest implements Request {
+    /**
+     *  Package private for TokenBucketLimiter since 0.9.59
+     */
+    static class SimpleRequest implements Request {
         private int _allocated;
         private final int _total;
         private final long _requestId;
@@ -973,7 +1079,8 @@ public class FIFOBandwidthLimiter {
         public void complete(Request req);
     }
 
-    private static final NoopRequest _noop = new NoopRequest();
+    /** package private for TokenBucketLimiter since 0.9.59 */
+    static final NoopRequest _noop = new NoopRequest();
 
     private static class NoopRequest implements Request {
         public void abort() {}
@@ -188,7 +188,9 @@ public class FIFOBandwidthRefiller implements Runnable {
     private int getShareBandwidth() {
         int maxKBps = Math.min(_inboundKBytesPerSecond, _outboundKBytesPerSecond);
         // limit to 90% so it doesn't clog up at the transport bandwidth limiter
-        float share = Math.min((float) _context.router().getSharePercentage(), MAX_SHARE_PERCENTAGE);
+        // router is null in tests and benchmarks
+        float pct = _context.router() != null ? (float) _context.router().getSharePercentage() : MAX_SHARE_PERCENTAGE;
+        float share = Math.min(pct, MAX_SHARE_PERCENTAGE);
         return (int) (maxKBps * share * 1024f * SHARE_LIMIT_FACTOR);
     }
     
@@ -0,0 +1,385 @@
+package net.i2p.router.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.i2p.router.RouterContext;
+import net.i2p.router.transport.FIFOBandwidthLimiter.Request;
+import net.i2p.router.transport.FIFOBandwidthLimiter.SimpleRequest;
+import net.i2p.util.Log;
+
+/**
+ *  The alternative to the locked FIFO queues in FIFOBandwidthLimiter,
+ *  enabled with i2np.bandwidth.tokenBuckets=true, restart required.
+ *  Instantiated by FIFOBandwidthLimiter, refilled by FIFOBandwidthRefiller,
+ *  with the same rates and the same burst behavior.
+ *
+ *  Bytes are tokens in atomic buckets. A request that fits is granted
+ *  with a compare-and-set, with no lock and no wait, and requests queued
+ *  in other classes don't get in the way.
+ *  A request that doesn't fit goes on a lock-free queue for its class.
+ *  The queues are served by the refiller, or by whichever requesting thread
+ *  gets there first; the others don't wait.
+ *
+ *  Outbound traffic is in three classes, local, netDb, and participating,
+ *  and each refill, each gets its weighted share of the bandwidth.
+ *  What a class didn't use by the next refill goes to a spare bucket shared by all classes,
+ *  but a class may only take from it if no more important class is waiting.
+ *  So under saturation, participating traffic waits first, and when its queue
+ *  gets too deep, sentParticipatingMessage() starts dropping it.
+ *
+ *  Inbound traffic is one class, as we don't know what it is until it's decrypted.
+ *
+ *  @since 0.9.59
+ */
+class TokenBucketLimiter {
+    private final RouterContext _context;
+    private final Log _log;
+    private final FIFOBandwidthLimiter _limiter;
+    private final Direction _in;
+    private final Direction _out;
+
+    /**
+     *  Outbound weights for local, netDb, and participating,
+     *  comma separated, restart required
+     */
+    public static final String PROP_CLASS_WEIGHTS = "i2np.bandwidth.classWeights";
+    private static final int[] DEFAULT_WEIGHTS = { 50, 20, 30 };
+    /** drop participating traffic if this fraction of a second of the burst rate is queued */
+    private static final int MAX_PARTICIPATING_QUEUE_DIVISOR = 2;
+
+    public TokenBucketLimiter(RouterContext context, FIFOBandwidthLimiter limiter) {
+        _context = context;
+        _log = context.logManager().getLog(TokenBucketLimiter.class);
+        _limiter = limiter;
+        _in = new Direction(new int[] { 1 }, "bwLimiter.inboundDelayedTime");
+        _out = new Direction(getWeights(), "bwLimiter.outboundDelayedTime");
+        _context.statManager().createRateStat("bwLimiter.participatingDropped", "Participating message dropped, queue too deep", "BandwidthLimiter", new long[] { 5*60*1000l, 60*60*1000l });
+    }
+
+    private int[] getWeights() {
+        String s = _context.getProperty(PROP_CLASS_WEIGHTS);
+        if (s == null)
+            return DEFAULT_WEIGHTS;
+        String[] w = s.split(",");
+        if (w.length != FIFOBandwidthLimiter.CLASS_COUNT) {
+            _log.error("Bad " + PROP_CLASS_WEIGHTS + ": " + s);
+            return DEFAULT_WEIGHTS;
+        }
+        int[] rv = new int[w.length];
+        try {
+            for (int i = 0; i < w.length; i++) {
+                rv[i] = Integer.parseInt(w[i].trim());
+                if (rv[i] <= 0)
+                    throw new NumberFormatException();
+            }
+        } catch (NumberFormatException nfe) {
+            _log.error("Bad " + PROP_CLASS_WEIGHTS + ": " + s);
+            return DEFAULT_WEIGHTS;
+        }
+        return rv;
+    }
+
+    /**
+     *  Does not block.
+     */
+    public Request requestInbound(int bytes) {
+        return request(_in, 0, bytes, 0);
+    }
+
+    /**
+     *  Does not block.
+     *
+     *  @param trafficClass FIFOBandwidthLimiter.CLASS_*
+     */
+    public Request requestOutbound(int bytes, int priority, int trafficClass) {
+        if (trafficClass < 0 || trafficClass >= FIFOBandwidthLimiter.CLASS_COUNT)
+            throw new IllegalArgumentException("Bad class " + trafficClass);
+        return request(_out, trafficClass, bytes, priority);
+    }
+
+    /** lifetime counter of bytes received */
+    public long getTotalAllocatedInboundBytes() {
+        return _in.totalAllocated.sum();
+    }
+
+    /** lifetime counter of bytes sent */
+    public long getTotalAllocatedOutboundBytes() {
+        return _out.totalAllocated.sum();
+    }
+
+    /**
+     *  @return true if the participating queue is too deep
+     */
+    public boolean shouldDropParticipating() {
+        long max = _limiter.getMaxOutbound() / MAX_PARTICIPATING_QUEUE_DIVISOR;
+        boolean rv = _out.queued[FIFOBandwidthLimiter.CLASS_PARTICIPATING].get() > max;
+        if (rv)
+            _context.statManager().addRateData("bwLimiter.participatingDropped", 1);
+        return rv;
+    }
+
+    /**
+     *  Called by FIFOBandwidthLimiter.refillBandwidthQueues(), from the refiller thread only.
+     *
+     *  @param maxBurstIn allow up to this many bytes in from the burst reserve for this time period (may be negative)
+     *  @param maxBurstOut allow up to this many bytes in from the burst reserve for this time period (may be negative)
+     */
+    void refill(long bytesInbound, long bytesOutbound, long maxBurstIn, long maxBurstOut) {
+        refill(_in, bytesInbound, maxBurstIn, _limiter.getMaxInbound(), _limiter.getInboundBurstBytes());
+        refill(_out, bytesOutbound, maxBurstOut, _limiter.getMaxOutbound(), _limiter.getOutboundBurstBytes());
+    }
+
+    /**
+     *  Drop all tokens and queued requests
+     */
+    void clear() {
+        _in.clear();
+        _out.clear();
+    }
+
+    StringBuilder getStatus() {
+        StringBuilder rv = new StringBuilder(256);
+        rv.append("Inbound: ");
+        _in.getStatus(rv);
+        rv.append(" Outbound: ");
+        _out.getStatus(rv);
+        return rv;
+    }
+
+    /**
+     *  The buckets and queues for inbound or outbound
+     */
+    private static class Direction {
+        final int[] weights;
+        final int totalWeight;
+        /** one per class */
+        final AtomicLong[] tokens;
+        final ConcurrentLinkedQueue<SimpleRequest>[] pending;
+        /**
+         *  Total bytes of the requests in pending, including any partial grants.
+         *  Added to before the offer and subtracted after the poll,
+         *  so zero means the queue is empty, and it's cheaper to check.
+         */
+        final AtomicLong[] queued;
+        /** shared by all classes */
+        final AtomicLong spare = new AtomicLong();
+        /** tokens for bursting, only the refiller puts them in the other buckets */
+        final AtomicLong reserve = new AtomicLong();
+        /** not an AtomicLong, so the requesting threads don't contend on it */
+        final LongAdder totalAllocated = new LongAdder();
+        final String delayStat;
+        /** only one thread serves the queues at a time */
+        final AtomicBoolean serving = new AtomicBoolean();
+        /** somebody wants the queues served */
+        final AtomicBoolean wanted = new AtomicBoolean();
+        /** only used by the serving thread */
+        final List<SimpleRequest> satisfied = new ArrayList<SimpleRequest>(8);
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Direction(int[] weights, String delayStat) {
+            this.weights = weights;
+            int tot = 0;
+            for (int i = 0; i < weights.length; i++) {
+                tot += weights[i];
+            }
+            totalWeight = tot;
+            tokens = new AtomicLong[weights.length];
+            pending = (ConcurrentLinkedQueue<SimpleRequest>[]) new ConcurrentLinkedQueue[weights.length];
+            queued = new AtomicLong[weights.length];
+            for (int i = 0; i < weights.length; i++) {
+                tokens[i] = new AtomicLong();
+                pending[i] = new ConcurrentLinkedQueue<SimpleRequest>();
+                queued[i] = new AtomicLong();
+            }
+            this.delayStat = delayStat;
+        }
+
+        /**
+         *  @return true if no class more important than cls has a request waiting
+         */
+        boolean noneWaitingAbove(int cls) {
+            for (int i = 0; i < cls; i++) {
+                if (queued[i].get() > 0)
+                    return false;
+            }
+            return true;
+        }
+
+        /** class buckets only */
+        long classTokens() {
+            long rv = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                rv += tokens[i].get();
+            }
+            return rv;
+        }
+
+        void clear() {
+            for (int i = 0; i < tokens.length; i++) {
+                pending[i].clear();
+                queued[i].set(0);
+                tokens[i].set(0);
+            }
+            spare.set(0);
+            reserve.set(0);
+        }
+
+        void getStatus(StringBuilder buf) {
+            buf.append("available");
+            for (int i = 0; i < tokens.length; i++) {
+                buf.append(i == 0 ? " " : "/").append(tokens[i].get());
+            }
+            buf.append(" spare ").append(spare.get());
+            buf.append(" burst ").append(reserve.get());
+            buf.append(" queued");
+            for (int i = 0; i < queued.length; i++) {
+                buf.append(i == 0 ? " " : "/").append(queued[i].get());
+            }
+        }
+    }
+
+    private Request request(Direction d, int cls, int bytes, int priority) {
+        // try to satisfy without queueing, but not ahead of our own class
+        if (d.queued[cls].get() <= 0) {
+            if (take(d.tokens[cls], bytes) ||
+                (d.noneWaitingAbove(cls) && take(d.spare, bytes))) {
+                d.totalAllocated.add(bytes);
+                return FIFOBandwidthLimiter._noop;
+            }
+        }
+        SimpleRequest req = new SimpleRequest(bytes, priority);
+        d.queued[cls].addAndGet(bytes);
+        d.pending[cls].offer(req);
+        serve(d);
+        return req;
+    }
+
+    /**
+     *  Take all or nothing
+     *
+     *  @return success
+     */
+    private static boolean take(AtomicLong bucket, int bytes) {
+        while (true) {
+            long avail = bucket.get();
+            if (avail < bytes)
+                return false;
+            if (bucket.compareAndSet(avail, avail - bytes))
+                return true;
+        }
+    }
+
+    /**
+     *  Take as much as there is, up to max
+     *
+     *  @return how much was taken, 0 to max
+     */
+    private static long takeUpTo(AtomicLong bucket, long max) {
+        while (true) {
+            long avail = bucket.get();
+            if (avail <= 0)
+                return 0;
+            long rv = Math.min(avail, max);
+            if (bucket.compareAndSet(avail, avail - rv))
+                return rv;
+        }
+    }
+
+    /**
+     *  Serve the queues, unless another thread is doing it already.
+     *  If so, it will go around again for us.
+     */
+    private void serve(Direction d) {
+        d.wanted.set(true);
+        while (d.wanted.get() && d.serving.compareAndSet(false, true)) {
+            try {
+                d.wanted.set(false);
+                locked_serve(d);
+            } finally {
+                d.serving.set(false);
+            }
+        }
+    }
+
+    /**
+     *  Grant what we can to the requests at the head of each queue,
+     *  most important class first. A request that is not fully
+     *  satisfied stays at the head.
+     *  Only one thread at a time.
+     */
+    private void locked_serve(Direction d) {
+        List<SimpleRequest> satisfied = d.satisfied;
+        for (int cls = 0; cls < d.pending.length; cls++) {
+            ConcurrentLinkedQueue<SimpleRequest> queue = d.pending[cls];
+            SimpleRequest req;
+            while ((req = queue.peek()) != null) {
+                // zero if aborted
+                int want = req.getPendingRequested();
+                if (want > 0) {
+                    long got = takeUpTo(d.tokens[cls], want);
+                    if (got < want && d.noneWaitingAbove(cls))
+                        got += takeUpTo(d.spare, want - got);
+                    if (got <= 0)
+                        break;
+                    req.allocateBytes((int) got);
+                    d.totalAllocated.add(got);
+                    satisfied.add(req);
+                    if (got < want)
+                        break;
+                    long waited = _limiter.now() - req.getRequestTime();
+                    if (waited > 10)
+                        _context.statManager().addRateData(d.delayStat, waited);
+                }
+                queue.poll();
+                d.queued[cls].addAndGet(0 - req.getTotalRequested());
+            }
+        }
+        for (int i = 0; i < satisfied.size(); i++) {
+            satisfied.get(i).notifyAllocation();
+        }
+        satisfied.clear();
+    }
+
+    /**
+     *  Add the bytes, and up to maxBurst from the burst reserve if we are below max.
+     *  Each class gets its weighted share of them, and what it didn't use
+     *  of its last share goes to the spare bucket. Above max, the spare bucket
+     *  overflows to the burst reserve, and above burstSize it is lost.
+     *  Same as FIFOBandwidthLimiter.refillBandwidthQueues(), but per-class.
+     *
+     *  @param max most tokens available at once, class and spare buckets together
+     *  @param burstSize most tokens in the burst reserve
+     */
+    private void refill(Direction d, long bytes, long maxBurst, int max, int burstSize) {
+        long avail = d.classTokens() + d.spare.get();
+        if (avail + bytes < max && maxBurst > 0)
+            bytes += takeUpTo(d.reserve, Math.min(maxBurst, max - (avail + bytes)));
+        long extra = bytes;
+        for (int i = 0; i < d.tokens.length; i++) {
+            extra += takeUpTo(d.tokens[i], Long.MAX_VALUE);
+            long share = bytes * d.weights[i] / d.totalWeight;
+            d.tokens[i].addAndGet(share);
+            extra -= share;
+        }
+        long sp = d.spare.addAndGet(extra);
+        long room = Math.max(0, max - d.classTokens());
+        if (sp > room) {
+            long over = takeUpTo(d.spare, sp - room);
+            long res = d.reserve.addAndGet(over);
+            if (res > burstSize)
+                takeUpTo(d.reserve, res - burstSize);
+        }
+        if (_log.shouldDebug()) {
+            StringBuilder buf = new StringBuilder(128);
+            buf.append("Refilled ").append(bytes).append(": ");
+            d.getStatus(buf);
+            _log.debug(buf.toString());
+        }
+        serve(d);
+    }
+}
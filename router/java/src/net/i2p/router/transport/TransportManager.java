@@ -133,7 +133,7 @@ public class TransportManager implements TransportEventListener {
         boolean enableNTCP2 = isNTCPEnabled(context);
         _dhThread = (_enableUDP || enableNTCP2) ? new DHSessionKeyBuilder.PrecalcRunner(context) : null;
         // always created, even if NTCP2 is not enabled, because ratchet needs it
-        _xdhThread = new X25519KeyFactory(context);
+        _xdhThread = new X25519KeyFactory(context, context.keyPrecalcPool());
     }
 
     /**
@@ -448,7 +448,7 @@ public class TransportManager implements TransportEventListener {
     synchronized void startListening() {
         if (_dhThread != null && _dhThread.getState() == Thread.State.NEW)
             _dhThread.start();
-        if (_xdhThread != null && _xdhThread.getState() == Thread.State.NEW)
+        if (_xdhThread != null)
             _xdhThread.start();
         // For now, only start UPnP if we have no publicly-routable addresses
         // so we don't open the listener ports to the world.
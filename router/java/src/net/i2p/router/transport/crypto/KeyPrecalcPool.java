@@ -0,0 +1,345 @@
+package net.i2p.router.transport.crypto;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.i2p.I2PAppContext;
+import net.i2p.util.I2PThread;
+import net.i2p.util.Log;
+import net.i2p.util.SystemVersion;
+
+/**
+ *  Worker threads shared by the key factories, to keep their queues of
+ *  precalculated keys filled. Replaces a thread per factory,
+ *  each sleeping between keys.
+ *
+ *  Each Source has a queue and a fill target. The target follows the
+ *  rate keys are taken, enough for TARGET_TIME, between the min and max.
+ *  It doubles when the queue runs dry. The workers fill whichever
+ *  queue is furthest below its target, and wait when all are full.
+ *  When a queue falls below half its target, the workers are woken.
+ *
+ *  Also holds the X25519Generator shared by the factories.
+ *
+ *  @since 0.9.59
+ */
+public class KeyPrecalcPool implements Runnable {
+    private final I2PAppContext _context;
+    private final Log _log;
+    private final List<Source<?>> _sources;
+    private final List<Thread> _threads;
+    private final int _threadCount;
+    private final X25519Generator _xdhGenerator;
+    private final Object _lock = new Object();
+    private volatile boolean _isRunning;
+    private boolean _wasStarted;
+    private long _lastRateUpdate;
+
+    public static final String PROP_THREADS = "crypto.precalc.threads";
+    /** auto, jdk, or i2p */
+    public static final String PROP_XDH_PROVIDER = "crypto.xdh.provider";
+    private static final int MAX_THREADS = 4;
+    /** how often we recalculate the targets */
+    private static final long RATE_INTERVAL = 1000;
+    /** how long the queues should last at the current rate */
+    private static final int TARGET_TIME = 10;
+    /** idle wait, the queues are checked at least this often */
+    private static final long IDLE_WAIT = 10*1000;
+
+    /**
+     *  Threads are not started until startup().
+     */
+    public KeyPrecalcPool(I2PAppContext ctx) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(KeyPrecalcPool.class);
+        _sources = new CopyOnWriteArrayList<Source<?>>();
+        _threads = new CopyOnWriteArrayList<Thread>();
+        int dflt = Math.max(1, Math.min(MAX_THREADS, SystemVersion.getCores() / 2));
+        _threadCount = Math.max(1, ctx.getProperty(PROP_THREADS, dflt));
+        // see X25519KeyGenBench
+        String prov = ctx.getProperty(PROP_XDH_PROVIDER, "auto");
+        boolean jdk;
+        if (prov.equals("jdk"))
+            jdk = true;
+        else if (prov.equals("i2p"))
+            jdk = false;
+        else
+            jdk = SystemVersion.isJava11() && !SystemVersion.isAndroid();
+        _xdhGenerator = new X25519Generator(ctx, jdk);
+        if (_log.shouldInfo())
+            _log.info("Key precalc threads: " + _threadCount + " X25519 from " + (_xdhGenerator.isJDK() ? "JDK" : "I2P"));
+    }
+
+    /**
+     *  @return non-null
+     */
+    public X25519Generator getX25519Generator() {
+        return _xdhGenerator;
+    }
+
+    /**
+     *  Start the threads, if not already started.
+     *  Cannot be restarted after the last source is removed.
+     */
+    public synchronized void startup() {
+        if (_wasStarted)
+            return;
+        _wasStarted = true;
+        _isRunning = true;
+        for (int i = 0; i < _threadCount; i++) {
+            Thread t = new I2PThread(this, "Key Precalc " + (i+1) + '/' + _threadCount, true);
+            if (!SystemVersion.isWindows())
+                t.setPriority(Thread.NORM_PRIORITY - 1);
+            _threads.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     *  Stop the threads
+     */
+    public synchronized void shutdown() {
+        _isRunning = false;
+        for (Thread t : _threads) {
+            t.interrupt();
+        }
+        _threads.clear();
+    }
+
+    /**
+     *  The source will be filled after startup()
+     */
+    public void add(Source<?> source) {
+        if (!_sources.contains(source))
+            _sources.add(source);
+        wakeup();
+    }
+
+    /**
+     *  Stops the threads when the last source is removed.
+     */
+    public void remove(Source<?> source) {
+        _sources.remove(source);
+        if (_sources.isEmpty())
+            shutdown();
+    }
+
+    private void wakeup() {
+        synchronized (_lock) {
+            _lock.notifyAll();
+        }
+    }
+
+    public void run() {
+        try {
+            run2();
+        } catch (IllegalStateException ise) {
+            if (_isRunning)
+                throw ise;
+            // else ignore, thread can be slow to shutdown on Android,
+            // PRNG gets stopped first and throws ISE
+        } finally {
+            _threads.remove(Thread.currentThread());
+        }
+    }
+
+    private void run2() {
+        while (_isRunning) {
+            updateTargets();
+            Source<?> src = next();
+            if (src == null) {
+                synchronized (_lock) {
+                    try {
+                        _lock.wait(IDLE_WAIT);
+                    } catch (InterruptedException ie) {}
+                }
+                continue;
+            }
+            try {
+                src.fill();
+            } finally {
+                src._pending.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     *  Once per RATE_INTERVAL, by whichever thread gets here
+     */
+    private void updateTargets() {
+        long now = System.currentTimeMillis();
+        synchronized (_lock) {
+            long elapsed = now - _lastRateUpdate;
+            if (elapsed < RATE_INTERVAL)
+                return;
+            _lastRateUpdate = now;
+            for (Source<?> src : _sources) {
+                src.updateTarget(elapsed);
+            }
+        }
+    }
+
+    /**
+     *  The source furthest below its target, marked as pending
+     *
+     *  @return null if all are full
+     */
+    private Source<?> next() {
+        synchronized (_lock) {
+            Source<?> rv = null;
+            float best = 0;
+            for (Source<?> src : _sources) {
+                int target = src._target;
+                int deficit = target - src.size() - src._pending.get();
+                if (deficit <= 0)
+                    continue;
+                float need = deficit / (float) target;
+                if (need > best) {
+                    best = need;
+                    rv = src;
+                }
+            }
+            if (rv != null)
+                rv._pending.incrementAndGet();
+            return rv;
+        }
+    }
+
+    /**
+     *  A queue of precalculated keys, filled by the pool.
+     *
+     *  @since 0.9.59
+     */
+    public static abstract class Source<K> {
+        protected final I2PAppContext _context;
+        private final KeyPrecalcPool _pool;
+        private final String _statPrefix;
+        private final LinkedBlockingQueue<K> _keys;
+        private final int _minSize;
+        private final int _maxSize;
+        private final AtomicInteger _used = new AtomicInteger();
+        private final AtomicInteger _empty = new AtomicInteger();
+        private final AtomicInteger _pending = new AtomicInteger();
+        private volatile int _target;
+        private float _rate;
+
+        /**
+         *  @param statPrefix e.g. "crypto.XDH", for the stats
+         *                    GenerateTime, Used, Reused, and Empty
+         *  @param minSize minimum target
+         *  @param maxSize queue capacity
+         */
+        protected Source(I2PAppContext ctx, KeyPrecalcPool pool, String statPrefix, int minSize, int maxSize) {
+            _context = ctx;
+            _pool = pool;
+            _statPrefix = statPrefix;
+            _minSize = Math.max(1, minSize);
+            _maxSize = Math.max(_minSize, maxSize);
+            _target = _minSize;
+            _keys = new LinkedBlockingQueue<K>(_maxSize);
+            ctx.statManager().createRateStat(statPrefix + "GenerateTime", "How long it takes to create x and X", "Encryption", new long[] { 60*60*1000 });
+            ctx.statManager().createRateStat(statPrefix + "Used", "Need a DH from the queue", "Encryption", new long[] { 60*60*1000 });
+            ctx.statManager().createRateStat(statPrefix + "Reused", "Unused DH requeued", "Encryption", new long[] { 60*60*1000 });
+            ctx.statManager().createRateStat(statPrefix + "Empty", "DH queue empty", "Encryption", new long[] { 60*1000, 60*60*1000 });
+            ctx.statManager().createRateStat(statPrefix + "Target", "DH queue fill target", "Encryption", new long[] { 60*1000, 60*60*1000 });
+        }
+
+        /**
+         *  Generate a key. Called by the pool threads,
+         *  and inline if the queue is empty.
+         */
+        protected abstract K precalc();
+
+        /**
+         *  Pulls a prebuilt key from the queue,
+         *  or if not available, constructs a new one.
+         */
+        protected K get() {
+            _context.statManager().addRateData(_statPrefix + "Used", 1);
+            _used.incrementAndGet();
+            K rv = _keys.poll();
+            if (rv == null) {
+                _context.statManager().addRateData(_statPrefix + "Empty", 1);
+                _empty.incrementAndGet();
+                // more now, don't wait for updateTarget()
+                int target = _target;
+                if (target < _maxSize)
+                    _target = Math.min(_maxSize, target * 2);
+                _pool.wakeup();
+                rv = timedPrecalc();
+            } else if (_keys.size() < _target / 2) {
+                _pool.wakeup();
+            }
+            return rv;
+        }
+
+        /**
+         *  Put an unused key back on the queue for reuse.
+         *
+         *  @return true if successful, false if full
+         */
+        protected boolean requeue(K key) {
+            if (_keys.offer(key)) {
+                _context.statManager().addRateData(_statPrefix + "Reused", 1);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         *  @return true if below target, for deciding whether to return a spare key
+         */
+        protected boolean wantsMore() {
+            return _keys.size() < _target;
+        }
+
+        public int size() {
+            return _keys.size();
+        }
+
+        /**
+         *  Start filling, and start the pool if not already started
+         */
+        public void start() {
+            _pool.add(this);
+            _pool.startup();
+        }
+
+        /**
+         *  Stop filling
+         */
+        public void shutdown() {
+            _pool.remove(this);
+            _keys.clear();
+        }
+
+        private K timedPrecalc() {
+            long start = System.currentTimeMillis();
+            K rv = precalc();
+            _context.statManager().addRateData(_statPrefix + "GenerateTime", System.currentTimeMillis() - start);
+            return rv;
+        }
+
+        /** pool thread */
+        private void fill() {
+            _keys.offer(timedPrecalc());
+        }
+
+        /** pool lock held */
+        private void updateTarget(long elapsed) {
+            int used = _used.getAndSet(0);
+            int empty = _empty.getAndSet(0);
+            // keys per second, moving average
+            float rate = used * 1000f / elapsed;
+            _rate = (_rate * 3 + rate) / 4;
+            int target = (int) Math.ceil(_rate * TARGET_TIME);
+            // don't shrink right after running dry
+            if (empty > 0)
+                target = Math.max(target, _target);
+            _target = Math.max(_minSize, Math.min(_maxSize, target));
+            _context.statManager().addRateData(_statPrefix + "Target", _target);
+        }
+    }
+}
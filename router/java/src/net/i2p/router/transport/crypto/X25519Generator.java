@@ -0,0 +1,120 @@
+package net.i2p.router.transport.crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.EncType;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.KeyPair;
+import net.i2p.data.PrivateKey;
+import net.i2p.data.PublicKey;
+
+/**
+ *  Generate X25519 key pairs, with our Curve25519,
+ *  or with the JDK "XDH" provider (Java 11+), which may be faster.
+ *  The keys are the same either way.
+ *  See X25519KeyGenBench.
+ *
+ *  Thread safe.
+ *
+ *  @since 0.9.59
+ */
+public class X25519Generator {
+    private final I2PAppContext _context;
+    private final ThreadLocal<KeyPairGenerator> _jdk;
+
+    private static final EncType TYPE = EncType.ECIES_X25519;
+    private static final String JDK_ALG = "X25519";
+    // The raw key is the last 32 bytes of the X.509 and PKCS#8 encodings
+    private static final int PUB_ENC_LEN = 44;
+    private static final int PRIV_ENC_LEN = 48;
+    private static final boolean JDK_AVAILABLE = checkJDK();
+
+    /**
+     *  @param useJDK if true and available
+     */
+    public X25519Generator(I2PAppContext ctx, boolean useJDK) {
+        _context = ctx;
+        _jdk = (useJDK && JDK_AVAILABLE) ? new JDKGenerator() : null;
+    }
+
+    /**
+     *  @return true if the JDK XDH provider is available and generates what we expect
+     */
+    public static boolean isJDKAvailable() {
+        return JDK_AVAILABLE;
+    }
+
+    /**
+     *  @return true if generating with the JDK provider
+     */
+    public boolean isJDK() {
+        return _jdk != null;
+    }
+
+    public KeyPair generate() {
+        if (_jdk != null) {
+            KeyPair rv = generateJDK(_jdk.get());
+            if (rv != null)
+                return rv;
+        }
+        return _context.keyGenerator().generatePKIKeys(TYPE);
+    }
+
+    /**
+     *  @return null on failure
+     */
+    private static KeyPair generateJDK(KeyPairGenerator kpg) {
+        java.security.KeyPair kp;
+        byte[] epriv;
+        // as in KeyGenerator, loop if too small
+        do {
+            kp = kpg.generateKeyPair();
+            epriv = kp.getPrivate().getEncoded();
+            if (epriv == null || epriv.length != PRIV_ENC_LEN)
+                return null;
+        } while (epriv[PRIV_ENC_LEN - 1] == 0);
+        byte[] epub = kp.getPublic().getEncoded();
+        if (epub == null || epub.length != PUB_ENC_LEN)
+            return null;
+        byte[] bpriv = new byte[32];
+        byte[] bpub = new byte[32];
+        System.arraycopy(epriv, PRIV_ENC_LEN - 32, bpriv, 0, 32);
+        System.arraycopy(epub, PUB_ENC_LEN - 32, bpub, 0, 32);
+        PublicKey pub = new PublicKey(TYPE, bpub);
+        PrivateKey priv = new PrivateKey(TYPE, bpriv, pub);
+        return new KeyPair(pub, priv);
+    }
+
+    /**
+     *  Make sure the encodings are as we expect,
+     *  by comparing with our own calculation of the public key.
+     */
+    private static boolean checkJDK() {
+        try {
+            KeyPair kp = generateJDK(KeyPairGenerator.getInstance(JDK_ALG));
+            if (kp == null)
+                return false;
+            PublicKey pub = KeyGenerator.getPublicKey(kp.getPrivate());
+            return pub.equals(kp.getPublic());
+        } catch (GeneralSecurityException gse) {
+            // Java 8-10
+            return false;
+        } catch (RuntimeException re) {
+            return false;
+        }
+    }
+
+    private static class JDKGenerator extends ThreadLocal<KeyPairGenerator> {
+        @Override
+        protected KeyPairGenerator initialValue() {
+            try {
+                return KeyPairGenerator.getInstance(JDK_ALG);
+            } catch (GeneralSecurityException gse) {
+                // checked in checkJDK()
+                throw new IllegalStateException(gse);
+            }
+        }
+    }
+}
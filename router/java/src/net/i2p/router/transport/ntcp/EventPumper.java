@@ -42,12 +42,23 @@ import net.i2p.util.SystemVersion;
 
 /**
  *  The main NTCP NIO thread.
+ *
+ *  As of 0.9.59, there may be more than one, see NTCPTransport.PROP_PUMPERS.
+ *  The primary pumper accepts all inbound connections and
+ *  hands each one off to a pumper chosen round-robin.
+ *  Each connection's key is registered with a single pumper's selector,
+ *  so all I/O for the connection is done by that pumper.
  */
 class EventPumper implements Runnable {
     private final RouterContext _context;
     private final Log _log;
     private volatile boolean _alive;
     private Selector _selector;
+    /** 0 for the primary */
+    private final int _id;
+    private final boolean _isPrimary;
+    private final String _name;
+    private final String _statKeySetSize, _statLoopsPerSecond, _statBusyTime;
     private final Set<NTCPConnection> _wantsWrite = new ConcurrentHashSet<NTCPConnection>(32);
     /**
      *  The following 3 are unbounded and lockless for performance in runDelayedEvents()
@@ -55,6 +66,8 @@ class EventPumper implements Runnable {
     private final Queue<NTCPConnection> _wantsRead = new ConcurrentLinkedQueue<NTCPConnection>();
     private final Queue<ServerSocketChannel> _wantsRegister = new ConcurrentLinkedQueue<ServerSocketChannel>();
     private final Queue<NTCPConnection> _wantsConRegister = new ConcurrentLinkedQueue<NTCPConnection>();
+    /** accepted by the primary, to be registered here */
+    private final Queue<SocketChannel> _wantsAcceptRegister = new ConcurrentLinkedQueue<SocketChannel>();
     private final NTCPTransport _transport;
     private final ObjectCounter<String> _blockedIPs;
     private long _expireIdleWriteTime;
@@ -121,15 +134,42 @@ class EventPumper implements Runnable {
     private static final Set<Status> STATUS_OK =
         EnumSet.of(Status.OK, Status.IPV4_OK_IPV6_UNKNOWN, Status.IPV4_OK_IPV6_FIREWALLED);
 
+    /**
+     *  The primary pumper
+     */
     public EventPumper(RouterContext ctx, NTCPTransport transport) {
+        this(ctx, transport, null, 0);
+    }
+
+    /**
+     *  @param primary null for the primary, else the primary, to share the blocked IPs
+     *  @param id 0 for the primary, else 1 to (number of pumpers - 1)
+     *  @since 0.9.59
+     */
+    public EventPumper(RouterContext ctx, NTCPTransport transport, EventPumper primary, int id) {
         _context = ctx;
         _log = ctx.logManager().getLog(getClass());
         _transport = transport;
+        _id = id;
+        _isPrimary = primary == null;
         _expireIdleWriteTime = MAX_EXPIRE_IDLE_TIME;
-        _blockedIPs = new ObjectCounter<String>();
-        _context.statManager().createRateStat("ntcp.pumperKeySetSize", "", "ntcp", new long[] {10*60*1000} );
+        _blockedIPs = _isPrimary ? new ObjectCounter<String>() : primary._blockedIPs;
+        int count = transport.getShardCount();
+        if (count > 1) {
+            _name = "NTCP Pumper " + (id + 1) + '/' + count;
+            _statKeySetSize = "ntcp.pumperKeySetSize." + id;
+            _statLoopsPerSecond = "ntcp.pumperLoopsPerSecond." + id;
+            _statBusyTime = "ntcp.pumperBusyTime." + id;
+        } else {
+            _name = "NTCP Pumper";
+            _statKeySetSize = "ntcp.pumperKeySetSize";
+            _statLoopsPerSecond = "ntcp.pumperLoopsPerSecond";
+            _statBusyTime = "ntcp.pumperBusyTime";
+        }
+        _context.statManager().createRateStat(_statKeySetSize, "", "ntcp", new long[] {10*60*1000} );
         //_context.statManager().createRateStat("ntcp.pumperKeysPerLoop", "", "ntcp", new long[] {10*60*1000} );
-        _context.statManager().createRateStat("ntcp.pumperLoopsPerSecond", "", "ntcp", new long[] {10*60*1000} );
+        _context.statManager().createRateStat(_statLoopsPerSecond, "", "ntcp", new long[] {10*60*1000} );
+        _context.statManager().createRateStat(_statBusyTime, "Time per second spent outside select() (ms)", "ntcp", new long[] {60*1000, 10*60*1000} );
         _context.statManager().createRateStat("ntcp.zeroRead", "", "ntcp", new long[] {10*60*1000} );
         _context.statManager().createRateStat("ntcp.zeroReadDrop", "", "ntcp", new long[] {10*60*1000} );
         _context.statManager().createRateStat("ntcp.dropInboundNoMessage", "", "ntcp", new long[] {10*60*1000} );
@@ -143,7 +183,7 @@ class EventPumper implements Runnable {
         try {
             _selector = Selector.open();
             _alive = true;
-            new I2PThread(this, "NTCP Pumper", true).start();
+            new I2PThread(this, _name, true).start();
         } catch (IOException ioe) {
             _log.log(Log.CRIT, "Error opening the NTCP selector", ioe);
         } catch (java.lang.InternalError jlie) {
@@ -176,6 +216,17 @@ class EventPumper implements Runnable {
         _selector.wakeup();
     }
 
+    /**
+     *  Inbound, accepted by the primary, to be registered with this pumper.
+     *  Caller must have configured it non-blocking.
+     *
+     *  @since 0.9.59
+     */
+    private void registerAccepted(SocketChannel chan) {
+        _wantsAcceptRegister.offer(chan);
+        _selector.wakeup();
+    }
+
     /**
      *  Outbound
      */
@@ -197,12 +248,15 @@ class EventPumper implements Runnable {
         int failsafeLoopCount = FAILSAFE_LOOP_COUNT;
         long lastFailsafeIteration = System.currentTimeMillis();
         long lastBlockedIPClear = lastFailsafeIteration;
+        // nanoseconds spent outside select() since the last failsafe iteration
+        long busyTime = 0;
         while (_alive && _selector.isOpen()) {
             try {
                 loopCount++;
 
                 try {
                     int count = _selector.select(SELECTOR_LOOP_DELAY);
+                    long beforeProcess = System.nanoTime();
                     if (count > 0) {
                         Set<SelectionKey> selected = _selector.selectedKeys();
                         //_context.statManager().addRateData("ntcp.pumperKeysPerLoop", selected.size());
@@ -211,6 +265,7 @@ class EventPumper implements Runnable {
                         selected.clear();
                     }
                     runDelayedEvents();
+                    busyTime += System.nanoTime() - beforeProcess;
                 } catch (ClosedSelectorException cse) {
                     continue;
                 } catch (IOException ioe) {
@@ -232,8 +287,10 @@ class EventPumper implements Runnable {
                     try {
                         Set<SelectionKey> all = _selector.keys();
                         int lastKeySetSize = all.size();
-                        _context.statManager().addRateData("ntcp.pumperKeySetSize", lastKeySetSize);
-                        _context.statManager().addRateData("ntcp.pumperLoopsPerSecond", loopCount / (FAILSAFE_ITERATION_FREQ / 1000));
+                        _context.statManager().addRateData(_statKeySetSize, lastKeySetSize);
+                        _context.statManager().addRateData(_statLoopsPerSecond, loopCount / (FAILSAFE_ITERATION_FREQ / 1000));
+                        _context.statManager().addRateData(_statBusyTime, busyTime / (1000*1000) / (FAILSAFE_ITERATION_FREQ / 1000));
+                        busyTime = 0;
                         // reset the failsafe loop counter,
                         // and recalculate the max loops before failsafe sleep, based on number of keys
                         loopCount = 0;
@@ -355,7 +412,7 @@ class EventPumper implements Runnable {
                         } catch (InterruptedException ie) {}
                     }
                 }
-                if (lastBlockedIPClear + BLOCKED_IP_FREQ < now) {
+                if (_isPrimary && lastBlockedIPClear + BLOCKED_IP_FREQ < now) {
                     _blockedIPs.clear();
                     lastBlockedIPClear = now;
                 }
@@ -393,6 +450,10 @@ class EventPumper implements Runnable {
             _log.error("Error closing keys on pumper shutdown", e);
         }
         _wantsConRegister.clear();
+        SocketChannel schan;
+        while ((schan = _wantsAcceptRegister.poll()) != null) {
+            try { schan.close(); } catch (IOException ioe) {}
+        }
         _wantsRead.clear();
         _wantsRegister.clear();
         _wantsWrite.clear();
@@ -534,15 +595,29 @@ class EventPumper implements Runnable {
             if (_nodelay)
                 chan.socket().setTcpNoDelay(true);
 
-            SelectionKey ckey = chan.register(_selector, SelectionKey.OP_READ);
-            NTCPConnection con = new NTCPConnection(_context, _transport, chan, ckey);
-            ckey.attach(con);
-            _transport.establishing(con);
+            int shard = _transport.nextShard();
+            if (shard == _id)
+                acceptRegister(chan);
+            else
+                _transport.getPumper(shard).registerAccepted(chan);
         } catch (IOException ioe) {
             _log.error("Error accepting", ioe);
         }
     }
 
+    /**
+     *  Register an accepted channel with our selector and create the connection.
+     *  Must be called from our thread.
+     *
+     *  @since 0.9.59 split out from processAccept()
+     */
+    private void acceptRegister(SocketChannel chan) throws IOException {
+        SelectionKey ckey = chan.register(_selector, SelectionKey.OP_READ);
+        NTCPConnection con = new NTCPConnection(_context, _transport, chan, ckey, _id);
+        ckey.attach(con);
+        _transport.establishing(con);
+    }
+
     /**
      * Should we allow another inbound establishment?
      * Used to throttle outbound hole punches.
@@ -971,6 +1046,18 @@ class EventPumper implements Runnable {
             }
         }
         
+        SocketChannel achan;
+        while ((achan = _wantsAcceptRegister.poll()) != null) {
+            try {
+                acceptRegister(achan);
+            } catch (IOException ioe) {
+                if (_log.shouldLog(Log.WARN)) _log.warn("Error registering", ioe);
+                try { achan.close(); } catch (IOException e) {}
+            }
+        }
+
+        if (!_isPrimary)
+            return;
         long now = System.currentTimeMillis();
         if (_lastExpired + 1000 <= now) {
             expireTimedOut();
@@ -82,9 +82,13 @@ public class NTCPConnection implements Closeable {
     /** Requests that were not granted immediately */
     private final Set<FIFOBandwidthLimiter.Request> _bwInRequests;
     private final Set<FIFOBandwidthLimiter.Request> _bwOutRequests;
+    /** class of the queued writes in _bwOutRequests, so they stay in order */
+    private volatile int _bwOutClass;
     private long _establishedOn;
     private volatile EstablishState _establishState;
     private final NTCPTransport _transport;
+    /** which pumper, reader, and writer; fixed for the life of the connection */
+    private final int _shard;
     private final boolean _isInbound;
     private final AtomicBoolean _closed = new AtomicBoolean();
     private final RouterAddress _remAddr;
@@ -216,9 +220,12 @@ public class NTCPConnection implements Closeable {
      * Create an inbound connected (though not established) NTCP connection.
      * Caller MUST call transport.establishing(this) after construction.
      * Caller MUST key.attach(this) after construction.
+     *
+     * @param shard the pumper that registered the key
+     * @since 0.9.59 added shard param
      */
-    public NTCPConnection(RouterContext ctx, NTCPTransport transport, SocketChannel chan, SelectionKey key) {
-        this(ctx, transport, null, true);
+    public NTCPConnection(RouterContext ctx, NTCPTransport transport, SocketChannel chan, SelectionKey key, int shard) {
+        this(ctx, transport, null, true, shard);
         _chan = chan;
         _version = 1;
         _conKey = key;
@@ -234,7 +241,7 @@ public class NTCPConnection implements Closeable {
      */
     public NTCPConnection(RouterContext ctx, NTCPTransport transport, RouterIdentity remotePeer,
                           RouterAddress remAddr, int version) throws DataFormatException {
-        this(ctx, transport, remAddr, false);
+        this(ctx, transport, remAddr, false, transport.nextShard());
         _remotePeer = remotePeer;
         _version = version;
         if (version != 2) {
@@ -251,13 +258,14 @@ public class NTCPConnection implements Closeable {
 
     /**
      * Base constructor in/out
-     * @since 0.9.36
+     * @since 0.9.36, shard param added in 0.9.59
      */
-    private NTCPConnection(RouterContext ctx, NTCPTransport transport, RouterAddress remAddr, boolean isIn) {
+    private NTCPConnection(RouterContext ctx, NTCPTransport transport, RouterAddress remAddr, boolean isIn, int shard) {
         _context = ctx;
         _log = ctx.logManager().getLog(getClass());
         _created = ctx.clock().now();
         _transport = transport;
+        _shard = shard;
         _remAddr = remAddr;
         _lastSendTime = _created;
         _lastReceiveTime = _created;
@@ -284,6 +292,22 @@ public class NTCPConnection implements Closeable {
      */
     public SelectionKey getKey() { return _conKey; }
     public void setChannel(SocketChannel chan) { _chan = chan; }
+
+    /**
+     *  The pumper that owns our key
+     *  @since 0.9.59
+     */
+    EventPumper getPumper() { return _transport.getPumper(_shard); }
+
+    /**
+     *  @since 0.9.59
+     */
+    private Reader getReader() { return _transport.getReader(_shard); }
+
+    /**
+     *  @since 0.9.59
+     */
+    private net.i2p.router.transport.ntcp.Writer getWriter() { return _transport.getWriter(_shard); }
     public void setKey(SelectionKey key) { _conKey = key; }
 
     public boolean isInbound() { return _isInbound; }
@@ -512,8 +536,8 @@ public class NTCPConnection implements Closeable {
         if (_conKey != null) _conKey.cancel();
         _establishState = EstablishBase.FAILED;
         NTCPConnection old = _transport.removeCon(this);
-        _transport.getReader().connectionClosed(this);
-        _transport.getWriter().connectionClosed(this);
+        getReader().connectionClosed(this);
+        getWriter().connectionClosed(this);
 
         for (FIFOBandwidthLimiter.Request req :_bwInRequests) {
             req.abort();
@@ -572,7 +596,7 @@ public class NTCPConnection implements Closeable {
             return;
         }
         if (isEstablished() && !hasCurrentOutbound())
-            _transport.getWriter().wantsWrite(this, "enqueued");
+            getWriter().wantsWrite(this, "enqueued");
     }
 
     public boolean isBacklogged() { return _outbound.isBacklogged(); }
@@ -677,6 +701,8 @@ public class NTCPConnection implements Closeable {
     private void prepareNextWriteNTCP2(PrepBuffer buf) {
         int size = OutboundNTCP2State.MAC_SIZE;
         List<Block> blocks = new ArrayList<Block>(4);
+        // most important of the messages, for the bandwidth limiter
+        int trafficClass;
         long now = _context.clock().now();
         /* synchronized (_currentOutbound) */  {
             if (!_currentOutbound.isEmpty()) {
@@ -696,6 +722,7 @@ public class NTCPConnection implements Closeable {
                 _transport.afterSend(msg, false, false, msg.getLifetime());
             }
             _currentOutbound.add(msg);
+            trafficClass = FIFOBandwidthLimiter.getTrafficClass(msg);
             I2NPMessage m = msg.getMessage();
             Block block = new NTCP2Payload.I2NPBlock(m);
             blocks.add(block);
@@ -721,6 +748,7 @@ public class NTCPConnection implements Closeable {
                     }
                     if (msg.getExpiration() >= now) {
                         _currentOutbound.add(msg);
+                        trafficClass = Math.min(trafficClass, FIFOBandwidthLimiter.getTrafficClass(msg));
                         block = new NTCP2Payload.I2NPBlock(m);
                         blocks.add(block);
                         size += NTCP2Payload.BLOCK_HEADER_SIZE + msz;
@@ -763,7 +791,7 @@ public class NTCPConnection implements Closeable {
             size += block.getTotalLength();
         }
         byte[] tmp = size <= BUFFER_SIZE ? buf.unencrypted : new byte[size];
-        sendNTCP2(tmp, blocks);
+        sendNTCP2(tmp, blocks, trafficClass);
     }
 
     /**
@@ -927,6 +955,20 @@ public class NTCPConnection implements Closeable {
      *  @since 0.9.36
      */
     private void sendNTCP2(byte[] tmp, List<Block> blocks) {
+        sendNTCP2(tmp, blocks, FIFOBandwidthLimiter.CLASS_LOCAL);
+    }
+
+    /**
+     *  This constructs the payload from the blocks, using the
+     *  tmp byte array, then encrypts the payload and
+     *  passes it to the pumper for writing.
+     *
+     *  @param tmp to be used for output of NTCP2Payload.writePayload(),
+     *         must have room for block output. May be released immediately on return.
+     *  @param trafficClass for the bandwidth limiter
+     *  @since 0.9.59
+     */
+    private void sendNTCP2(byte[] tmp, List<Block> blocks, int trafficClass) {
         int payloadlen = NTCP2Payload.writePayload(tmp, 0, blocks);
         int framelen = payloadlen + OutboundNTCP2State.MAC_SIZE;
         // TODO use a buffer
@@ -950,7 +992,7 @@ public class NTCPConnection implements Closeable {
             toLong8LE(_sendSipIV, 0, sipIV);
             enc[0] = (byte) ((framelen >> 8) ^ (sipIV >> 8));
             enc[1] = (byte) (framelen ^ sipIV);
-            wantsWrite(enc);
+            wantsWrite(enc, 0, enc.length, trafficClass);
         }
 
         if (_log.shouldDebug()) {
@@ -983,7 +1025,7 @@ public class NTCPConnection implements Closeable {
         }
         // schedule up the beginning of our handshaking by calling prepareNextWrite on the
         // writer thread pool
-        _transport.getWriter().wantsWrite(this, "outbound connected");
+        getWriter().wantsWrite(this, "outbound connected");
     }
 
     /**
@@ -1003,7 +1045,7 @@ public class NTCPConnection implements Closeable {
             // our reads used to be bw throttled (during which time we were no
             // longer interested in reading from the network), but we aren't
             // throttled anymore, so we should resume being interested in reading
-            _transport.getPumper().wantsRead(NTCPConnection.this);
+            getPumper().wantsRead(NTCPConnection.this);
         }
     }
 
@@ -1057,12 +1099,30 @@ public class NTCPConnection implements Closeable {
      *  @since 0.9.35 off/len version, moved from EventPumper in 0.9.52
      */
     void wantsWrite(byte data[], int off, int len) {
+        wantsWrite(data, off, len, FIFOBandwidthLimiter.CLASS_LOCAL);
+    }
+
+    /**
+     *  Call when there is data ready to write.
+     *  If we have bandwidth, calls write() which calls EventPumnper.wantsWrite(con).
+     *  If no bandwidth, calls queuedWrite().
+     *
+     *  Frames must go out in order, so if any writes are queued,
+     *  this one is requested in the same class, behind them.
+     *
+     *  @param trafficClass FIFOBandwidthLimiter.CLASS_*
+     *  @since 0.9.59
+     */
+    void wantsWrite(byte data[], int off, int len, int trafficClass) {
         ByteBuffer buf = ByteBuffer.wrap(data, off, len);
-        FIFOBandwidthLimiter.Request req = _context.bandwidthLimiter().requestOutbound(len, 0, "NTCP write");
+        if (!_bwOutRequests.isEmpty())
+            trafficClass = _bwOutClass;
+        FIFOBandwidthLimiter.Request req = _context.bandwidthLimiter().requestOutbound(len, 0, trafficClass, "NTCP write");
         if (req.getPendingRequested() > 0) {
             if (_log.shouldInfo())
                 _log.info("queued write on " + toString() + " for " + len);
             _context.statManager().addRateData("ntcp.wantsQueuedWrite", 1);
+            _bwOutClass = trafficClass;
             queuedWrite(buf, req);
         } else {
             write(buf);
@@ -1105,7 +1165,7 @@ public class NTCPConnection implements Closeable {
             updateStats();
         }
         _readBufs.offer(buf);
-        _transport.getReader().wantsRead(this);
+        getReader().wantsRead(this);
     }
 
     /**
@@ -1123,7 +1183,7 @@ public class NTCPConnection implements Closeable {
      */
     private void write(ByteBuffer buf) {
         _writeBufs.offer(buf);
-        EventPumper pumper = _transport.getPumper();
+        EventPumper pumper = getPumper();
         if (_isInbound || isEstablished()) {
             // Attempt to write directly
             if (!pumper.processWrite(this, getKey())) {
@@ -1188,7 +1248,7 @@ public class NTCPConnection implements Closeable {
             }
             // push through the bw limiter to reach _writeBufs
             if (!_outbound.isEmpty())
-                _transport.getWriter().wantsWrite(this, "write completed");
+                getWriter().wantsWrite(this, "write completed");
             if (msgs != null) {
                 _lastSendTime = _context.clock().now();
                 // stats once is fine for all of them
@@ -1207,7 +1267,7 @@ public class NTCPConnection implements Closeable {
         } else {
             // push through the bw limiter to reach _writeBufs
             if (!_outbound.isEmpty())
-                _transport.getWriter().wantsWrite(this, "write completed");
+                getWriter().wantsWrite(this, "write completed");
             if (_log.shouldDebug())
                 _log.debug("I2NP meta message sent completely");
             // need to increment as EventPumper will close conn if not completed
@@ -1360,7 +1420,7 @@ public class NTCPConnection implements Closeable {
         finishEstablishment(sender, receiver, sip_ab, sip_ba, clockSkew);
         _transport.markReachable(getRemotePeer().calculateHash(), false);
         if (!_outbound.isEmpty())
-            _transport.getWriter().wantsWrite(this, "outbound established");
+            getWriter().wantsWrite(this, "outbound established");
         // NTCP2 outbound cannot have extra data
     }
 
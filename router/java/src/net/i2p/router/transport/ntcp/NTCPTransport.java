@@ -24,6 +24,7 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.crypto.EncType;
 import net.i2p.crypto.KeyPair;
@@ -77,9 +78,15 @@ public class NTCPTransport extends TransportImpl {
     private final SharedBid _transientFail;
     private final Object _conLock;
     private final ConcurrentHashMap<Hash, NTCPConnection> _conByIdent;
+    /** the primary pumper, same as _pumpers[0] */
     private final EventPumper _pumper;
     private final Reader _reader;
     private net.i2p.router.transport.ntcp.Writer _writer;
+    /** one per shard, the first is _pumper, _reader, and _writer */
+    private final EventPumper[] _pumpers;
+    private final Reader[] _readers;
+    private final net.i2p.router.transport.ntcp.Writer[] _writers;
+    private final AtomicInteger _nextShard = new AtomicInteger();
     private int _ssuPort;
     /** synch on this */
     private final Set<InetSocketAddress> _endpoints;
@@ -112,6 +119,15 @@ public class NTCPTransport extends TransportImpl {
     
     /** this is rarely if ever used, default is to bind to wildcard address */
     public static final String PROP_BIND_INTERFACE = "i2np.ntcp.bindInterface";
+    /**
+     *  Number of EventPumper threads, each with its own selector, readers, and writers.
+     *  Connections are assigned to a pumper when created, and all I/O
+     *  for that connection stays with that pumper.
+     *  Default 1.
+     *  @since 0.9.59
+     */
+    public static final String PROP_PUMPERS = "i2np.ntcp.pumpers";
+    private static final int MAX_PUMPERS = 16;
 
     private final NTCPSendFinisher _finisher;
     private final X25519KeyFactory _xdhFactory;
@@ -227,9 +243,26 @@ public class NTCPTransport extends TransportImpl {
 
         _finisher = new NTCPSendFinisher(ctx, this);
 
+        int shards = Math.max(1, Math.min(MAX_PUMPERS, ctx.getProperty(PROP_PUMPERS, 1)));
+        _pumpers = new EventPumper[shards];
+        _readers = new Reader[shards];
+        _writers = new net.i2p.router.transport.ntcp.Writer[shards];
         _pumper = new EventPumper(ctx, this);
-        _reader = new Reader(ctx);
-        _writer = new net.i2p.router.transport.ntcp.Writer(ctx);
+        _pumpers[0] = _pumper;
+        if (shards == 1) {
+            _readers[0] = new Reader(ctx);
+            _writers[0] = new net.i2p.router.transport.ntcp.Writer(ctx);
+        } else {
+            _readers[0] = new Reader(ctx, "NTCP reader 1.");
+            _writers[0] = new net.i2p.router.transport.ntcp.Writer(ctx, "NTCP writer 1.");
+            for (int i = 1; i < shards; i++) {
+                _pumpers[i] = new EventPumper(ctx, this, _pumper, i);
+                _readers[i] = new Reader(ctx, "NTCP reader " + (i+1) + '.');
+                _writers[i] = new net.i2p.router.transport.ntcp.Writer(ctx, "NTCP writer " + (i+1) + '.');
+            }
+        }
+        _reader = _readers[0];
+        _writer = _writers[0];
 
         _networkID = ctx.router().getNetworkID();
         _fastBid = new SharedBid(25); // best
@@ -452,7 +485,7 @@ public class NTCPTransport extends TransportImpl {
                     SocketChannel channel = SocketChannel.open();
                     con.setChannel(channel);
                     channel.configureBlocking(false);
-                    _pumper.registerConnect(con);
+                    con.getPumper().registerConnect(con);
                     con.getEstablishState().prepareOutbound();
                 } catch (IOException ioe) {
                     if (_log.shouldLog(Log.ERROR))
@@ -869,7 +902,7 @@ public class NTCPTransport extends TransportImpl {
      */
     public synchronized void startListening() {
         // try once again to prevent two pumpers which is fatal
-        if (_pumper.isAlive())
+        if (isAlive())
             return;
         if (_log.shouldLog(Log.WARN)) _log.warn("Starting NTCP transport listening");
 
@@ -1017,7 +1050,9 @@ public class NTCPTransport extends TransportImpl {
      */
     private void startIt() {
         _finisher.start();
-        _pumper.startPumping();
+        for (int i = 0; i < _pumpers.length; i++) {
+            _pumpers[i].startPumping();
+        }
 
         long maxMemory = SystemVersion.getMaxMemory();
         int nr, nw;
@@ -1029,12 +1064,24 @@ public class NTCPTransport extends TransportImpl {
             nr = Math.max(MIN_CONCURRENT_READERS, Math.min(MAX_CONCURRENT_READERS, _context.bandwidthLimiter().getInboundKBytesPerSecond() / 20));
             nw = Math.max(MIN_CONCURRENT_WRITERS, Math.min(MAX_CONCURRENT_WRITERS, _context.bandwidthLimiter().getOutboundKBytesPerSecond() / 20));
         }
-        _reader.startReading(nr);
-        _writer.startWriting(nw);
+        int shards = _pumpers.length;
+        if (shards > 1) {
+            // split the threads among the shards, at least one each
+            nr = Math.max(1, nr / shards);
+            nw = Math.max(1, nw / shards);
+        }
+        for (int i = 0; i < shards; i++) {
+            _readers[i].startReading(nr);
+            _writers[i].startWriting(nw);
+        }
     }
 
     public boolean isAlive() {
-        return _pumper.isAlive();
+        for (int i = 0; i < _pumpers.length; i++) {
+            if (_pumpers[i].isAlive())
+                return true;
+        }
+        return false;
     }
 
     /**
@@ -1179,6 +1226,44 @@ public class NTCPTransport extends TransportImpl {
      */
     net.i2p.router.transport.ntcp.Writer getWriter() { return _writer; }
 
+    /**
+     *  The number of pumpers
+     *  @since 0.9.59
+     */
+    int getShardCount() { return _pumpers.length; }
+
+    /**
+     *  Round-robin shard assignment for new connections
+     *  @return 0 to getShardCount() - 1
+     *  @since 0.9.59
+     */
+    int nextShard() {
+        if (_pumpers.length == 1)
+            return 0;
+        return (_nextShard.getAndIncrement() & Integer.MAX_VALUE) % _pumpers.length;
+    }
+
+    /**
+     *  Hook for NTCPConnection and EventPumper
+     *  @param shard 0 to getShardCount() - 1
+     *  @since 0.9.59
+     */
+    EventPumper getPumper(int shard) { return _pumpers[shard]; }
+
+    /**
+     *  Hook for NTCPConnection
+     *  @param shard 0 to getShardCount() - 1
+     *  @since 0.9.59
+     */
+    Reader getReader(int shard) { return _readers[shard]; }
+
+    /**
+     *  Hook for NTCPConnection
+     *  @param shard 0 to getShardCount() - 1
+     *  @since 0.9.59
+     */
+    net.i2p.router.transport.ntcp.Writer getWriter(int shard) { return _writers[shard]; }
+
     /**
      * @return always "NTCP"
      */
@@ -1948,9 +2033,11 @@ public class NTCPTransport extends TransportImpl {
      */
     public synchronized void stopListening() {
         if (_log.shouldLog(Log.WARN)) _log.warn("Stopping ntcp transport");
-        _pumper.stopPumping();
-        _writer.stopWriting();
-        _reader.stopReading();
+        for (int i = 0; i < _pumpers.length; i++) {
+            _pumpers[i].stopPumping();
+            _writers[i].stopWriting();
+            _readers[i].stopReading();
+        }
         _finisher.stop();
         List<NTCPConnection> cons;
         synchronized (_conLock) {
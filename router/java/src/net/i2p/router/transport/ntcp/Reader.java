@@ -26,9 +26,19 @@ class Reader {
     private final Set<NTCPConnection> _liveReads;
     private final Set<NTCPConnection> _readAfterLive;
     private final List<Runner> _runners;
+    private final String _name;
     
     public Reader(RouterContext ctx) {
+        this(ctx, "NTCP reader ");
+    }
+
+    /**
+     *  @param name thread name prefix, including trailing separator
+     *  @since 0.9.59
+     */
+    public Reader(RouterContext ctx, String name) {
         _context = ctx;
+        _name = name;
         _log = ctx.logManager().getLog(getClass());
         _pendingConnections = new LinkedHashSet<NTCPConnection>(16);
         _runners = new ArrayList<Runner>(8);
@@ -39,7 +49,7 @@ class Reader {
     public synchronized void startReading(int numReaders) {
         for (int i = 1; i <= numReaders; i++) {
             Runner r = new Runner();
-            I2PThread t = new I2PThread(r, "NTCP reader " + i + '/' + numReaders, true);
+            I2PThread t = new I2PThread(r, _name + i + '/' + numReaders, true);
             _runners.add(r);
             t.start();
         }
@@ -23,9 +23,19 @@ class Writer {
     private final Set<NTCPConnection> _liveWrites;
     private final Set<NTCPConnection> _writeAfterLive;
     private final List<Runner> _runners;
+    private final String _name;
     
     public Writer(RouterContext ctx) {
+        this(ctx, "NTCP writer ");
+    }
+
+    /**
+     *  @param name thread name prefix, including trailing separator
+     *  @since 0.9.59
+     */
+    public Writer(RouterContext ctx, String name) {
         _log = ctx.logManager().getLog(getClass());
+        _name = name;
         _pendingConnections = new LinkedHashSet<NTCPConnection>(16);
         _runners = new ArrayList<Runner>(5);
         _liveWrites = new HashSet<NTCPConnection>(5);
@@ -35,7 +45,7 @@ class Writer {
     public synchronized void startWriting(int numWriters) {
         for (int i = 1; i <=numWriters; i++) {
             Runner r = new Runner();
-            I2PThread t = new I2PThread(r, "NTCP writer " + i + '/' + numWriters, true);
+            I2PThread t = new I2PThread(r, _name + i + '/' + numWriters, true);
             _runners.add(r);
             t.start();
         }
@@ -0,0 +1,384 @@
+package net.i2p.router.transport.udp;
+
+import java.util.Random;
+
+import net.i2p.data.DataHelper;
+
+/**
+ *  A delay based window, modeled on BBR version 1.
+ *  Loss is not taken as a congestion signal, so random loss on
+ *  a long link does not collapse the window as it does with Reno.
+ *
+ *  We keep a windowed max of the delivery rate (the bottleneck bandwidth)
+ *  and a windowed min of the RTT. Sends are paced at a gain times the
+ *  bandwidth, and the window is a gain times the bandwidth-delay product.
+ *  The modes are as in BBR: STARTUP doubles the rate each round until
+ *  the bandwidth stops growing, DRAIN empties the queue that made,
+ *  PROBE_BW cycles the pacing gain around 1, and PROBE_RTT drops
+ *  to a few packets for 200 ms when the min RTT is 10 seconds old.
+ *
+ *  Simplifications: Acks are per message, not per packet, so the
+ *  delivery rate is sampled once per round (one min RTT) rather than
+ *  per ack, and app-limited rounds are not excluded, other than
+ *  restarting the round after an idle period.
+ *
+ *  Ref: BBR: Congestion-Based Congestion Control, Cardwell et al, ACM Queue 14(5)
+ *  Ref: draft-cardwell-iccrg-bbr-congestion-control
+ *
+ *  @since 0.9.59
+ */
+class BBRCongestionControl implements CongestionControl {
+
+    private enum Mode { STARTUP, DRAIN, PROBE_BW, PROBE_RTT }
+
+    /** 2/ln(2), the smallest gain that doubles the delivery rate each round */
+    private static final float HIGH_GAIN = 2.885f;
+    private static final float DRAIN_GAIN = 1 / HIGH_GAIN;
+    private static final float CWND_GAIN = 2;
+    private static final float[] PACING_GAINS = { 1.25f, 0.75f, 1, 1, 1, 1, 1, 1 };
+    private static final int BW_FILTER_ROUNDS = 10;
+    /** STARTUP is done when the bandwidth grew less than 25% in 3 rounds */
+    private static final float FULL_BW_THRESHOLD = 1.25f;
+    private static final int FULL_BW_ROUNDS = 3;
+    private static final long MIN_RTT_EXPIRY = 10*1000;
+    private static final int PROBE_RTT_TIME = 200;
+    private static final int MIN_PACKETS = 4;
+    /** until we have an RTT sample */
+    private static final int INIT_ROUND_TIME = 100;
+    /** for the concurrent message limit, the window in bytes is the real limit */
+    private static final int MIN_MESSAGE_SIZE = 512;
+    /** max pacing burst, must cover the 10 ms minimum wait in OMF */
+    private static final int PACING_BURST_TIME = 20;
+
+    private final Random _rand;
+    private final int _maxPacket;
+    private final int _minWindow;
+    private int _window;
+    private int _remaining;
+    private int _priorWindow;
+    private Mode _mode = Mode.STARTUP;
+
+    // delivery rate
+    private long _delivered;
+    private long _roundStart = -1;
+    private long _roundDelivered;
+    private long _lastAcked;
+    private int _round;
+    private final float[] _bwFilter = new float[BW_FILTER_ROUNDS];
+    /** bytes/ms */
+    private float _btlBw;
+    private float _fullBw;
+    private int _fullBwCount;
+    private boolean _filledPipe;
+    private int _cycleIndex;
+
+    // RTT
+    private int _minRtt = -1;
+    private long _minRttStamp;
+    private int _probeRttMin;
+    private long _probeRttDone;
+
+    // pacing
+    private float _pacingCredit;
+    private long _pacingStamp = -1;
+
+    /**
+     *  @param window the initial window
+     *  @param maxPacket the largest packet we will send, for the minimum window and pacing burst
+     *  @param rand to pick the PROBE_BW starting phase
+     */
+    public BBRCongestionControl(int window, int maxPacket, Random rand) {
+        _rand = rand;
+        _maxPacket = maxPacket;
+        _minWindow = MIN_PACKETS * maxPacket;
+        _window = Math.max(window, _minWindow);
+        _remaining = _window;
+    }
+
+    public synchronized int getWindow() { return _window; }
+
+    public synchronized int getWindowRemaining() { return _remaining; }
+
+    /**
+     *  @return 0 always
+     */
+    public int getSlowStartThreshold() { return 0; }
+
+    /**
+     *  @return the bottleneck bandwidth estimate in bytes/ms, or 0 if none yet
+     */
+    public synchronized float getBottleneckBandwidth() { return _btlBw; }
+
+    /**
+     *  @return the min RTT estimate, or -1 if none yet
+     */
+    public synchronized int getMinRTT() { return _minRtt; }
+
+    /**
+     *  Scales with the window, not reduced on loss.
+     */
+    public synchronized int getConcurrentMessagesAllowed() {
+        return Math.max(INIT_CONCURRENT_MSGS, _window / MIN_MESSAGE_SIZE);
+    }
+
+    public synchronized int getSendAllowance(long now) {
+        int rv = Math.max(0, _remaining);
+        if (_btlBw > 0) {
+            refill(now);
+            rv = Math.min(rv, (int) _pacingCredit);
+        }
+        return rv;
+    }
+
+    public boolean isPaced() { return true; }
+
+    public synchronized int getPacingDelay(long now) {
+        if (_btlBw <= 0 || _remaining < _maxPacket)
+            return Integer.MAX_VALUE;
+        refill(now);
+        if (_pacingCredit >= _maxPacket)
+            return Integer.MAX_VALUE;
+        return Math.max(1, (int) Math.ceil((_maxPacket - _pacingCredit) / pacingRate()));
+    }
+
+    public synchronized void allocated(int bytes, long now) {
+        if (_roundStart < 0 || (_remaining >= _window && now - _lastAcked >= roundTime())) {
+            // first send, or idle, don't count the idle time in the delivery rate
+            _roundStart = now;
+            _roundDelivered = _delivered;
+        }
+        _remaining -= bytes;
+        if (_btlBw > 0) {
+            refill(now);
+            _pacingCredit -= bytes;
+        }
+    }
+
+    public synchronized void released(int bytes) {
+        _remaining += bytes;
+        if (_remaining > _window)
+            _remaining = _window;
+    }
+
+    public synchronized void acked(int bytes, int numSends, long lifetime, long now) {
+        _delivered += bytes;
+        _remaining += bytes;
+        if (numSends < 2)
+            rttSample((int) Math.max(1, lifetime), now);
+        _lastAcked = now;
+        if (_roundStart >= 0 && now - _roundStart >= roundTime())
+            roundEnded(now);
+        if (_mode != Mode.PROBE_RTT && _minRtt > 0 && now - _minRttStamp > MIN_RTT_EXPIRY) {
+            _mode = Mode.PROBE_RTT;
+            _probeRttMin = Integer.MAX_VALUE;
+            _probeRttDone = now + Math.max(PROBE_RTT_TIME, _minRtt);
+            _priorWindow = _window;
+        } else if (_mode == Mode.PROBE_RTT && now >= _probeRttDone) {
+            if (_probeRttMin < Integer.MAX_VALUE)
+                _minRtt = _probeRttMin;
+            _minRttStamp = now;
+            if (_filledPipe)
+                enterProbeBW();
+            else
+                _mode = Mode.STARTUP;
+            setWindow(Math.max(_window, _priorWindow));
+        }
+        if (_mode == Mode.DRAIN && _window - _remaining <= bdp())
+            enterProbeBW();
+        updateWindow(bytes);
+        if (_remaining > _window)
+            _remaining = _window;
+    }
+
+    /**
+     *  Loss is not a congestion signal here.
+     */
+    public void congestionOccurred(int maxPacket, float bwe, int rtt, int mtu, long now) {}
+
+    public void fastRetransmitStarted(float bwe, int rtt, int mtu) {}
+
+    public void fastRetransmitContinued(int mtu) {}
+
+    public void fastRetransmitEnded() {}
+
+    public void loadFrom(CongestionControl old) {
+        if (old instanceof BBRCongestionControl) {
+            BBRCongestionControl o = (BBRCongestionControl) old;
+            float[] bwFilter = new float[BW_FILTER_ROUNDS];
+            float btlBw;
+            int minRtt, window;
+            long minRttStamp;
+            boolean filledPipe;
+            synchronized(o) {
+                System.arraycopy(o._bwFilter, 0, bwFilter, 0, BW_FILTER_ROUNDS);
+                btlBw = o._btlBw;
+                minRtt = o._minRtt;
+                minRttStamp = o._minRttStamp;
+                filledPipe = o._filledPipe;
+                window = o._window;
+            }
+            synchronized(this) {
+                System.arraycopy(bwFilter, 0, _bwFilter, 0, BW_FILTER_ROUNDS);
+                _btlBw = btlBw;
+                _fullBw = btlBw;
+                _minRtt = minRtt;
+                _minRttStamp = minRttStamp;
+                _filledPipe = filledPipe;
+                if (filledPipe)
+                    enterProbeBW();
+                _window = Math.max(window, _minWindow);
+            }
+        } else {
+            int window = old.getWindow();
+            synchronized(this) {
+                _window = Math.max(window, _minWindow);
+            }
+        }
+    }
+
+    /**
+     *  Caller must synch
+     */
+    private void rttSample(int rtt, long now) {
+        if (_mode == Mode.PROBE_RTT && rtt < _probeRttMin)
+            _probeRttMin = rtt;
+        if (_minRtt < 0 || rtt <= _minRtt) {
+            _minRtt = rtt;
+            _minRttStamp = now;
+        }
+    }
+
+    /**
+     *  Caller must synch
+     */
+    private int roundTime() {
+        return _minRtt > 0 ? _minRtt : INIT_ROUND_TIME;
+    }
+
+    /**
+     *  Take a delivery rate sample and update the bandwidth filter,
+     *  then move STARTUP to DRAIN or advance the PROBE_BW cycle.
+     *  Caller must synch
+     */
+    private void roundEnded(long now) {
+        float sample = (_delivered - _roundDelivered) / (float) (now - _roundStart);
+        _bwFilter[_round++ % BW_FILTER_ROUNDS] = sample;
+        float max = 0;
+        for (int i = 0; i < BW_FILTER_ROUNDS; i++) {
+            if (_bwFilter[i] > max)
+                max = _bwFilter[i];
+        }
+        _btlBw = max;
+        _roundStart = now;
+        _roundDelivered = _delivered;
+        if (!_filledPipe) {
+            if (_btlBw >= _fullBw * FULL_BW_THRESHOLD) {
+                _fullBw = _btlBw;
+                _fullBwCount = 0;
+            } else if (++_fullBwCount >= FULL_BW_ROUNDS) {
+                _filledPipe = true;
+            }
+        }
+        if (_mode == Mode.STARTUP && _filledPipe)
+            _mode = Mode.DRAIN;
+        else if (_mode == Mode.PROBE_BW)
+            _cycleIndex = (_cycleIndex + 1) % PACING_GAINS.length;
+    }
+
+    /**
+     *  Start at a random phase, but not the 0.75 phase that follows the probe.
+     *  Caller must synch
+     */
+    private void enterProbeBW() {
+        _mode = Mode.PROBE_BW;
+        _cycleIndex = _rand.nextInt(PACING_GAINS.length - 1);
+        if (_cycleIndex > 0)
+            _cycleIndex++;
+    }
+
+    /**
+     *  @return bytes, or -1 if we don't have a model yet
+     *  Caller must synch
+     */
+    private int bdp() {
+        if (_btlBw <= 0 || _minRtt <= 0)
+            return -1;
+        return (int) (_btlBw * _minRtt);
+    }
+
+    /**
+     *  Caller must synch
+     */
+    private void updateWindow(int acked) {
+        if (_mode == Mode.PROBE_RTT) {
+            setWindow(Math.min(_window, _minWindow));
+            return;
+        }
+        int bdp = bdp();
+        if (bdp < 0) {
+            // no model yet, as slow start
+            setWindow(_window + acked);
+            return;
+        }
+        int target = Math.max((int) ((_filledPipe ? CWND_GAIN : HIGH_GAIN) * bdp), _minWindow);
+        if (_filledPipe)
+            setWindow(Math.min(_window + acked, target));
+        else if (_window < target)
+            setWindow(_window + acked);
+    }
+
+    /**
+     *  Change the window, keeping the bytes in flight the same.
+     *  Caller must synch
+     */
+    private void setWindow(int window) {
+        window = Math.min(MAX_SEND_WINDOW_BYTES, Math.max(window, _minWindow));
+        _remaining += window - _window;
+        _window = window;
+    }
+
+    /**
+     *  Caller must synch
+     */
+    private float pacingRate() {
+        float gain;
+        switch (_mode) {
+            case STARTUP:
+                gain = HIGH_GAIN;
+                break;
+            case DRAIN:
+                gain = DRAIN_GAIN;
+                break;
+            case PROBE_BW:
+                gain = PACING_GAINS[_cycleIndex];
+                break;
+            default:
+                gain = 1;
+                break;
+        }
+        return gain * _btlBw;
+    }
+
+    /**
+     *  Caller must synch, only if _btlBw &gt; 0
+     */
+    private void refill(long now) {
+        float rate = pacingRate();
+        float max = Math.max(2 * _maxPacket, rate * PACING_BURST_TIME);
+        if (_pacingStamp < 0) {
+            _pacingCredit = max;
+        } else if (now > _pacingStamp) {
+            _pacingCredit += rate * (now - _pacingStamp);
+            if (_pacingCredit > max)
+                _pacingCredit = max;
+        }
+        _pacingStamp = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BBR " + _mode +
+               " BW: " + DataHelper.formatSize2Decimal((long) (_btlBw * 1000), false) + "Bps" +
+               " minRTT: " + _minRtt;
+    }
+}
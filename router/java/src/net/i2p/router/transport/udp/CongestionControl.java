@@ -0,0 +1,130 @@
+package net.i2p.router.transport.udp;
+
+/**
+ *  The send window of a PeerState, and how it changes on acks,
+ *  retransmissions, and fast retransmit.
+ *
+ *  The RTT and RTO estimates and the retransmit timer stay in PeerState;
+ *  the controller gets the RTT samples and the retransmissions as events.
+ *  All sizes are in bytes and all times in ms. The "now" arguments
+ *  are always from the caller, the controller never looks at a clock,
+ *  so it may be driven by a simulated one.
+ *
+ *  Implementations must be thread safe.
+ *
+ *  @since 0.9.59
+ */
+interface CongestionControl {
+
+    /**
+     *  The largest window we ever allow
+     */
+    static final int MAX_SEND_WINDOW_BYTES = 1024*1024;
+    /** The minimum number of outstanding messages (NOT fragments/packets) */
+    static final int MIN_CONCURRENT_MSGS = 8;
+    static final int INIT_CONCURRENT_MSGS = 20;
+
+    /**
+     *  @return the congestion window
+     */
+    int getWindow();
+
+    /**
+     *  @return the part of the window not allocated to unacked data, may be zero or negative
+     */
+    int getWindowRemaining();
+
+    /**
+     *  For display only
+     *
+     *  @return the slow start threshold, or 0 if not applicable
+     */
+    int getSlowStartThreshold();
+
+    /**
+     *  How many concurrent outbound messages do we allow OutboundMessageFragments to send.
+     *  This counts full messages, NOT fragments (UDP packets)
+     */
+    int getConcurrentMessagesAllowed();
+
+    /**
+     *  How many new bytes may be allocated right now.
+     *  No more than getWindowRemaining(), and less if pacing.
+     */
+    int getSendAllowance(long now);
+
+    /**
+     *  @return true if new data is paced by getSendAllowance(),
+     *          so the SendPacer should leave it alone
+     */
+    boolean isPaced();
+
+    /**
+     *  @return how long until pacing allows another full packet,
+     *          or Integer.MAX_VALUE if not limited by pacing
+     */
+    int getPacingDelay(long now);
+
+    /**
+     *  New data was allocated out of the window, to be sent now.
+     *  Not called for retransmissions.
+     */
+    void allocated(int bytes, long now);
+
+    /**
+     *  Allocated data was failed or expired, return it to the window.
+     */
+    void released(int bytes);
+
+    /**
+     *  A message was acked.
+     *
+     *  @param bytes how many bytes were newly acked
+     *  @param numSends the max number of sends of any fragment,
+     *                  if 1 the lifetime is a valid RTT sample
+     *  @param lifetime from the first send to the ack
+     */
+    void acked(int bytes, int numSends, long lifetime, long now);
+
+    /**
+     *  A message was retransmitted, because the retransmit timer fired
+     *  or it was NACKed. Loss based controllers cut the window here.
+     *  Called at most once per RTO, and not during fast retransmit.
+     *
+     *  @param maxPacket the largest packet we may send to this peer
+     *  @param bwe the bandwidth estimate, bytes/ms
+     *  @param rtt the smoothed RTT
+     *  @param mtu the current MTU
+     */
+    void congestionOccurred(int maxPacket, float bwe, int rtt, int mtu, long now);
+
+    /**
+     *  Enough NACKs were received to fast retransmit a message.
+     *  See RFC 5681 sec. 3.2
+     *
+     *  @param bwe the bandwidth estimate, bytes/ms
+     *  @param rtt the smoothed RTT
+     *  @param mtu the current MTU
+     */
+    void fastRetransmitStarted(float bwe, int rtt, int mtu);
+
+    /**
+     *  Additional NACKs were received during fast retransmit.
+     *
+     *  @param mtu the current MTU
+     */
+    void fastRetransmitContinued(int mtu);
+
+    /**
+     *  All messages up to the highest acked are now acked,
+     *  or nothing is pending.
+     */
+    void fastRetransmitEnded();
+
+    /**
+     *  Transfer the state of the old controller on a reconnection.
+     *
+     *  @param old non-null, may be a different implementation
+     */
+    void loadFrom(CongestionControl old);
+}
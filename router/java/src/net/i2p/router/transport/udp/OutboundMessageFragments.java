@@ -8,7 +8,10 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 import net.i2p.data.DataHelper;
 import net.i2p.data.Hash;
@@ -39,23 +42,41 @@ class OutboundMessageFragments {
 
     /**
      *  Peers we are actively sending messages to.
-     *  We use the iterator so we treat it like a list,
-     *  but we use a HashSet so remove() is fast and
+     *  Scanned only when a retransmit or pacing timer may have expired,
+     *  and at least every MAX_WAIT, to expire messages.
+     *  We use a HashSet so remove() is fast and
      *  we don't need to do contains().
-     *  Even though most (but NOT all) accesses are synchronized,
-     *  we use a ConcurrentHashSet as the iterator is long-lived.
      */
     private final Set<PeerState> _activePeers;
 
     /**
-     *  The long-lived iterator over _activePeers.
+     *  Peers that may be able to send now, in round-robin order.
+     *  A peer is in here at most once, see PeerState.setReadyToSend().
+     *  Lock-free, the pusher thread parks when it is empty.
+     *  @since 0.9.59
      */
-    private Iterator<PeerState> _iterator;
+    private final Queue<PeerState> _readyPeers;
+
+    /** the PacketPusher thread, to be unparked */
+    private volatile Thread _pusherThread;
+    /** when to scan _activePeers next, PacketPusher thread only */
+    private long _nextScan;
+    /** from nextPeer() to getNextVolley(), PacketPusher thread only */
+    private List<OutboundMessageState> _sendStates;
+
+    // scratch for preparePackets(), PacketPusher thread only
+    private final List<Fragment> _toSend = new ArrayList<Fragment>(32);
+    private final List<Fragment> _sendNext = new ArrayList<Fragment>(4);
+    private final List<UDPPacket> _volley = new ArrayList<UDPPacket>(32);
+    private final List<ACKBitfield> _partialACKs = new ArrayList<ACKBitfield>(8);
+    private final Set<Long> _remainingACKs = new HashSet<Long>(16);
 
     private volatile boolean _alive;
     private final PacketBuilder _builder;
     // null if SSU2 not enabled
     private final PacketBuilder2 _builder2;
+    // null if pacing not enabled
+    private final SendPacer _pacer;
 
     /** if we can handle more messages explicitly, set this to true */
     // private boolean _allowExcess; // LINT not used??
@@ -65,6 +86,7 @@ class OutboundMessageFragments {
     // don't send a packet more than 10 times
     static final int MAX_VOLLEYS = 10;
     private static final int MAX_WAIT = 1000;
+    private static final int MIN_WAIT = 10;
 
     public OutboundMessageFragments(RouterContext ctx, UDPTransport transport, ActiveThrottle throttle) {
         _context = ctx;
@@ -72,8 +94,10 @@ class OutboundMessageFragments {
         _transport = transport;
         // _throttle = throttle;
         _activePeers = new ConcurrentHashSet<PeerState>(256);
+        _readyPeers = new ConcurrentLinkedQueue<PeerState>();
         _builder = transport.getBuilder();
         _builder2 = transport.getBuilder2();
+        _pacer = ctx.getBooleanProperty(SendPacer.PROP_PACING) ? new SendPacer(ctx, transport) : null;
         _alive = true;
         // _allowExcess = false;
         _context.statManager().createRateStat("udp.sendVolleyTime", "Long it takes to send a full volley", "udp", UDPTransport.RATES);
@@ -97,14 +121,19 @@ class OutboundMessageFragments {
         _context.statManager().createRateStat("udp.sendCycleTimeSlow", "How long it takes to cycle through all of the active messages, when its going slowly?", "udp", UDPTransport.RATES);
     }
 
-    public synchronized void startup() { _alive = true; }
+    public synchronized void startup() {
+        _alive = true;
+        if (_pacer != null)
+            _pacer.startup();
+    }
 
     public synchronized void shutdown() {
         _alive = false;
+        if (_pacer != null)
+            _pacer.shutdown();
         _activePeers.clear();
-        synchronized (_activePeers) {
-            _activePeers.notify();
-        }
+        _readyPeers.clear();
+        wakeup();
     }
 
     void dropPeer(PeerState peer) {
@@ -112,6 +141,7 @@ class OutboundMessageFragments {
             _log.debug("Dropping peer " + peer.getRemotePeer());
         peer.dropOutbound();
         _activePeers.remove(peer);
+        // if in _readyPeers, it will be removed when polled
     }
 
     /**
@@ -208,14 +238,13 @@ class OutboundMessageFragments {
 
     /**
      * Add the peer to the list of peers wanting to transmit something.
-     * This wakes up the packet pusher if it is sleeping.
+     * If it may be able to send now, it is queued as ready,
+     * and this wakes up the packet pusher if it is sleeping.
+     * Otherwise, it waits for an ack or its retransmit timer.
      *
-     * Avoid synchronization where possible.
-     * There are small chances of races.
-     * There are larger chances of adding the PeerState "behind" where
-     * the iterator is now... but these issues are the same as before concurrentification.
+     * Lock-free. A peer is queued as ready at most once.
      *
-     * @param size the minimum size we can send, or 0 to always notify
+     * @param size the minimum size we can send, or 0 to always queue
      * @since 0.8.9
      */
     public void add(PeerState peer, int size) {
@@ -229,17 +258,31 @@ class OutboundMessageFragments {
         }
         _context.statManager().addRateData("udp.outboundActivePeers", _activePeers.size());
 
-        // Avoid sync if possible
-        // no, this doesn't always work.
-        // Also note that the iterator in getNextVolley may have alreay passed us,
-        // or not reflect the addition.
-        if (added || size <= 0 || peer.getSendWindowBytesRemaining() >= size) {
-            synchronized (_activePeers) {
-                _activePeers.notify();
-            }
+        if (added || size <= 0 || peer.getSendWindowBytesRemaining() >= size)
+            ready(peer);
+    }
+
+    /**
+     * Queue the peer as ready, if not already, and wake up the packet pusher.
+     * @since 0.9.59
+     */
+    private void ready(PeerState peer) {
+        if (peer.setReadyToSend()) {
+            _readyPeers.offer(peer);
+            wakeup();
         }
     }
 
+    /**
+     * Unpark the packet pusher thread.
+     * @since 0.9.59
+     */
+    private void wakeup() {
+        Thread t = _pusherThread;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
     /**
      * Remove any expired or complete messages
      */
@@ -267,96 +310,24 @@ class OutboundMessageFragments {
      *
      * NOT thread-safe. Called by the PacketPusher thread only.
      *
-     * @return null only on shutdown
+     * If pacing is enabled, the packets are handed to the SendPacer instead.
+     *
+     * @return null only on shutdown, empty if paced.
+     *         The list is reused, and only valid until the next call.
      */
     public List<UDPPacket> getNextVolley() {
-        PeerState peer = null;
-        List<OutboundMessageState> states = null;
-        // Keep track of how many we've looked at, since we don't start the iterator at the beginning.
-        int peersProcessed = 0;
-        int nextSendDelay = Integer.MAX_VALUE;
-        while (_alive && (states == null) ) {
-            // no, not every time - O(n**2) - do just before waiting below
-            //finishMessages();
-
-                    // do we need a new long-lived iterator?
-                    if (_iterator == null ||
-                        ((!_activePeers.isEmpty()) && (!_iterator.hasNext()))) {
-                        _iterator = _activePeers.iterator();
-                    }
-
-                    // Go through all the peers that we are actively sending messages to.
-                    // Call finishMessages() for each one, and remove them from the iterator
-                    // if there is nothing left to send.
-                    // Otherwise, return the volley to be sent.
-                    // Otherwise, wait()
-                    long now = _context.clock().now();
-                    while (_iterator.hasNext()) {
-                        PeerState p = _iterator.next();
-                        int remaining = p.finishMessages(now);
-                        if (remaining <= 0) {
-                            // race with add()
-                            _iterator.remove();
-                            if (_log.shouldLog(Log.DEBUG))
-                                _log.debug("No more pending messages for " + p.getRemotePeer());
-                            continue;
-                        }
-                        peersProcessed++;
-                        states = p.allocateSend(now);
-                        if (states != null) {
-                            peer = p;
-                            // we have something to send and we will be returning it
-                            break;
-                        } 
-                        int delay = p.getNextDelay(now);
-                        if (delay < nextSendDelay)
-                            nextSendDelay = delay;
-                        
-                        if (peersProcessed >= _activePeers.size()) {
-                            // we've gone all the way around, time to sleep
-                            break;
-                        }
-                    }
-
-                    //if (peer != null && _log.shouldLog(Log.DEBUG))
-                    //    _log.debug("Done looping, next peer we are sending for: " +
-                    //               peer.getRemotePeer());
-
-                    // if we've gone all the way through the loop, wait
-                    // ... unless nextSendDelay says we have more ready now
-                    if (states == null && peersProcessed >= _activePeers.size() && nextSendDelay > 0) {
-                        peersProcessed = 0;
-                        // why? we do this in the loop one at a time
-                        //finishMessages();
-                        // wait a min of 10 and a max of MAX_WAIT ms no matter what peer.getNextDelay() says
-                        // use max of 1 second so finishMessages() and/or PeerState.finishMessages()
-                        // gets called regularly
-                        int toWait = Math.min(Math.max(nextSendDelay, 10), MAX_WAIT);
-                        if (_log.shouldLog(Log.DEBUG))
-                            _log.debug("wait for " + toWait);
-
-                        nextSendDelay = Integer.MAX_VALUE;
-                        // wait.. or somethin'
-                        synchronized (_activePeers) {
-                            try {
-                                _activePeers.wait(toWait);
-                            } catch (InterruptedException ie) {
-                                // noop
-                                if (_log.shouldLog(Log.DEBUG))
-                                     _log.debug("Woken up while waiting");
-                            }
-                        }
-                    //} else {
-                    //    if (_log.shouldLog(Log.DEBUG))
-                    //        _log.debug("dont wait: alive=" + _alive + " state = " + state);
-                    }
-
-        } // while alive && state == null
+        PeerState peer = nextPeer();
+        List<OutboundMessageState> states = _sendStates;
+        _sendStates = null;
 
         if (_log.shouldLog(Log.DEBUG))
             _log.debug("Sending " + DataHelper.toString(states));
 
         List<UDPPacket> packets = preparePackets(states, peer);
+        if (_pacer != null && packets != null) {
+            _pacer.add(peer, packets);
+            return Collections.emptyList();
+        }
 
       /****
         if ( (state != null) && (state.getMessage() != null) ) {
@@ -376,17 +347,120 @@ class OutboundMessageFragments {
     }
 
     /**
-     * Wakes up the packet pusher thread.
-     * @since 0.9.48
+     * Block until a ready peer can send, and allocate its messages.
+     * The peer goes to the back of the ready queue, in case it has more.
+     *
+     * PacketPusher thread only.
+     *
+     * @return the peer, with its messages in _sendStates, or null on shutdown
+     * @since 0.9.59 split out of getNextVolley()
      */
-    void nudge() {
-        synchronized(_activePeers) {
-            _activePeers.notify();
+    PeerState nextPeer() {
+        if (_pusherThread == null)
+            _pusherThread = Thread.currentThread();
+        while (_alive) {
+            long now = _context.clock().now();
+            // also if the clock went backwards
+            if (now >= _nextScan || _nextScan - now > MAX_WAIT)
+                scan(now);
+            PeerState p = _readyPeers.poll();
+            if (p == null) {
+                // wait a min of 10 and a max of MAX_WAIT ms no matter what peer.getNextDelay() says
+                // use max of 1 second so finishMessages() and/or PeerState.finishMessages()
+                // gets called regularly
+                long toWait = Math.min(Math.max(_nextScan - now, MIN_WAIT), MAX_WAIT);
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("wait for " + toWait);
+                // woken up by ready(), or a permit left by a ready() since the poll() above
+                LockSupport.parkNanos(toWait * 1000*1000);
+                continue;
+            }
+            // clear first, so an add() from here on queues it again
+            p.clearReadyToSend();
+            int remaining = p.finishMessages(now);
+            if (remaining <= 0) {
+                // race with add(), which queues it again
+                _activePeers.remove(p);
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("No more pending messages for " + p.getRemotePeer());
+                continue;
+            }
+            List<OutboundMessageState> states = p.allocateSend(now);
+            if (states != null) {
+                _sendStates = states;
+                // round robin, to the back of the queue in case it has more
+                ready(p);
+                return p;
+            }
+            // wait for an ack, which calls nudge(), or for the timer
+            _activePeers.add(p);
+            long next = now + Math.max(p.getNextDelay(now), MIN_WAIT);
+            if (next < _nextScan)
+                _nextScan = next;
+        }
+        return null;
+    }
+
+    /**
+     * For tests only.
+     * @return the ready queue, not a copy
+     * @since 0.9.59
+     */
+    Queue<PeerState> getReadyPeers() {
+        return _readyPeers;
+    }
+
+    /**
+     * For tests only.
+     * @since 0.9.59
+     */
+    boolean isActive(PeerState peer) {
+        return _activePeers.contains(peer);
+    }
+
+    /**
+     * Queues the peer as ready and wakes up the packet pusher thread.
+     * @since 0.9.48, peer param added in 0.9.59
+     */
+    void nudge(PeerState peer) {
+        ready(peer);
+    }
+
+    /**
+     * Expire messages for all active peers, queue those whose timer has expired,
+     * and set when to do it again.
+     *
+     * PacketPusher thread only.
+     * @since 0.9.59
+     */
+    private void scan(long now) {
+        long next = now + MAX_WAIT;
+        for (Iterator<PeerState> iter = _activePeers.iterator(); iter.hasNext(); ) {
+            PeerState p = iter.next();
+            int remaining = p.finishMessages(now);
+            if (remaining <= 0) {
+                // race with add(), which queues it again
+                iter.remove();
+                continue;
+            }
+            int delay = p.getNextDelay(now);
+            if (delay <= 0) {
+                ready(p);
+            } else {
+                long t = now + Math.max(delay, MIN_WAIT);
+                if (t < next)
+                    next = t;
+            }
         }
+        _nextScan = next;
     }
 
     /**
-     *  @return null if state or peer is null
+     *  PacketPusher thread only.
+     *  Builds into the scratch lists, so there is no allocation here
+     *  for SSU2 peers, other than the packets.
+     *
+     *  @return null if state or peer is null, or the reused _volley list
      */
     private List<UDPPacket> preparePackets(List<OutboundMessageState> states, PeerState peer) {
         if (states == null || peer == null)
@@ -403,12 +477,15 @@ class OutboundMessageFragments {
             msgIds = peer.getCurrentFullACKs();
             newFullAckCount = msgIds.size();
             msgIds.addAll(peer.getCurrentResendACKs());
-            partialACKBitfields = new ArrayList<ACKBitfield>();
+            partialACKBitfields = _partialACKs;
+            partialACKBitfields.clear();
             peer.fetchPartialACKs(partialACKBitfields);
             piggybackedPartialACK = partialACKBitfields.size();
             // getCurrentFullACKs() already makes a copy, do we need to copy again?
             // YES because buildPacket() now removes them (maybe)
-            remaining = new HashSet<Long>(msgIds);
+            remaining = _remainingACKs;
+            remaining.clear();
+            remaining.addAll(msgIds);
             before = remaining.size();
         } else {
             // all unused
@@ -421,7 +498,8 @@ class OutboundMessageFragments {
         }
 
         // build the list of fragments to send
-        List<Fragment> toSend = new ArrayList<Fragment>(8);
+        List<Fragment> toSend = _toSend;
+        toSend.clear();
         for (OutboundMessageState state : states) {
             int queued = state.push(toSend);
             // per-state stats
@@ -444,8 +522,11 @@ class OutboundMessageFragments {
             }
         }
 
-        if (toSend.isEmpty())
+        if (toSend.isEmpty()) {
+            if (partialACKBitfields != null)
+                partialACKBitfields.clear();
             return null;
+        }
 
         int fragmentsToSend = toSend.size();
         // sort by size, biggest first
@@ -455,8 +536,10 @@ class OutboundMessageFragments {
         //if (fragmentsToSend > 1 && states.size() > 1)
         //    Collections.sort(toSend, new FragmentComparator());
 
-        List<Fragment> sendNext = new ArrayList<Fragment>(Math.min(toSend.size(), 4));
-        List<UDPPacket> rv = new ArrayList<UDPPacket>(toSend.size());
+        List<Fragment> sendNext = _sendNext;
+        sendNext.clear();
+        List<UDPPacket> rv = _volley;
+        rv.clear();
         for (int i = 0; i < toSend.size(); i++) {
             Fragment next = toSend.get(i);
             sendNext.add(next);
@@ -557,6 +640,13 @@ class OutboundMessageFragments {
 
 
 
+        // don't hold on to the states or acks
+        toSend.clear();
+        if (partialACKBitfields != null)
+            partialACKBitfields.clear();
+        if (remaining != null)
+            remaining.clear();
+
         int sent = rv.size();
         peer.packetsTransmitted(sent);
         if (newFullAckCount <= 0)
@@ -6,7 +6,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import net.i2p.I2PAppContext;
 import net.i2p.data.Base64;
 import net.i2p.data.i2np.I2NPMessage;
+import net.i2p.data.i2np.TunnelDataMessage;
 import net.i2p.router.OutNetMessage;
+import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.transport.udp.PacketBuilder.Fragment;
 import net.i2p.router.util.CDPQEntry;
 import net.i2p.util.Log;
@@ -43,6 +45,8 @@ class OutboundMessageState implements CDPQEntry {
     /** how many bytes push() is allowed to send */
     private int _allowedSendBytes;
     private final AtomicInteger _nacks = new AtomicInteger();
+    /** lazily created, so retransmissions don't allocate */
+    private Fragment[] _fragmentCache;
 
     public static final int MAX_MSG_SIZE = 32 * 1024;
 
@@ -94,11 +98,20 @@ class OutboundMessageState implements CDPQEntry {
             totalSize = _i2npMessage.getRawMessageSize();
         if (totalSize > MAX_MSG_SIZE)
             throw new IllegalArgumentException("Size too large! " + totalSize);
-        _messageBuf = new byte[totalSize];
-        if (_peer.getVersion() == 2)
-            _i2npMessage.toRawByteArrayNTCP2(_messageBuf, 0);  // NTCP2 style, 9 byte header
-        else
-            _i2npMessage.toRawByteArray(_messageBuf);
+        byte[] raw = null;
+        if (_peer.getVersion() == 2 && _i2npMessage.getType() == TunnelDataMessage.MESSAGE_TYPE) {
+            // participating traffic, send the buffer it was received in
+            raw = ((TunnelDataMessage) _i2npMessage).getRawByteArrayNTCP2();
+        }
+        if (raw != null) {
+            _messageBuf = raw;
+        } else {
+            _messageBuf = new byte[totalSize];
+            if (_peer.getVersion() == 2)
+                _i2npMessage.toRawByteArrayNTCP2(_messageBuf, 0);  // NTCP2 style, 9 byte header
+            else
+                _i2npMessage.toRawByteArray(_messageBuf);
+        }
         _fragmentSize = _peer.fragmentSize();
         // SSU2 first frag can be 5 bytes bigger
         int first = _fragmentSize;
@@ -362,6 +375,23 @@ class OutboundMessageState implements CDPQEntry {
      */
     public synchronized int getPushCount() { return _pushCount; }
 
+    /**
+     *  Caller must synch on this.
+     *
+     *  @return the cached Fragment for fragment i
+     *  @since 0.9.59
+     */
+    private Fragment fragment(int i) {
+        if (_fragmentCache == null)
+            _fragmentCache = new Fragment[_numFragments];
+        Fragment rv = _fragmentCache[i];
+        if (rv == null) {
+            rv = new Fragment(this, i);
+            _fragmentCache[i] = rv;
+        }
+        return rv;
+    }
+
     /**
      *  Add fragments up to the number of bytes allowed by setAllowedSendBytes()
      *  Side effects: Clears setAllowedSendBytes. Increments pushCount. Increments maxSends if applicable.
@@ -380,7 +410,7 @@ class OutboundMessageState implements CDPQEntry {
             // send all, or only one fragment
             for (int i = 0; i < _numFragments; i++) {
                 if (needsSending(i)) {
-                    toSend.add(new Fragment(this, i));
+                    toSend.add(fragment(i));
                     rv++;
                     if (_fragmentSends != null) {
                         _fragmentSends[i]++;
@@ -410,7 +440,7 @@ class OutboundMessageState implements CDPQEntry {
                         int sz = fragmentSize(i) + overhead;
                         if (sz <= _allowedSendBytes - sent) {
                             sent += sz;
-                            toSend.add(new Fragment(this, i));
+                            toSend.add(fragment(i));
                             rv++;
                             _fragmentSends[i]++;
                             if (_fragmentSends[i] > _maxSends)
@@ -544,6 +574,14 @@ class OutboundMessageState implements CDPQEntry {
         return _message != null ? _message.getPriority() : PacketBuilder.PRIORITY_HIGH;
     }
 
+    /**
+     *  @return FIFOBandwidthLimiter.CLASS_*, CLASS_LOCAL for injected
+     *  @since 0.9.59
+     */
+    public int getTrafficClass() {
+        return _message != null ? FIFOBandwidthLimiter.getTrafficClass(_message) : FIFOBandwidthLimiter.CLASS_LOCAL;
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder(256);
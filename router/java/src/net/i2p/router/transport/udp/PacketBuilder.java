@@ -20,6 +20,7 @@ import net.i2p.data.Signature;
 import net.i2p.data.router.RouterAddress;
 import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
+import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.transport.TransportUtil;
 import net.i2p.util.Addresses;
 import net.i2p.util.Log;
@@ -326,12 +327,17 @@ class PacketBuilder {
         int numFragments = fragments.size();
         int dataSize = 0;
         int priority = 0;
+        // most important of the messages, for the bandwidth limiter
+        int trafficClass = numFragments > 0 ? FIFOBandwidthLimiter.CLASS_PARTICIPATING : FIFOBandwidthLimiter.CLASS_LOCAL;
         for (int i = 0; i < numFragments; i++) {
             Fragment frag = fragments.get(i);
             OutboundMessageState state = frag.state;
             int pri = state.getPriority();
             if (pri > priority)
                 priority = pri;
+            int cls = state.getTrafficClass();
+            if (cls < trafficClass)
+                trafficClass = cls;
             int fragment = frag.num;
             int sz = state.fragmentSize(fragment);
             dataSize += sz;
@@ -581,6 +587,7 @@ class PacketBuilder {
         }
         
         packet.setPriority(priority);
+        packet.setTrafficClass(trafficClass);
         return packet;
     }
     
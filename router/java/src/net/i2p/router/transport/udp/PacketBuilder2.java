@@ -26,6 +26,7 @@ import net.i2p.data.SessionKey;
 import net.i2p.data.router.RouterAddress;
 import net.i2p.router.OutNetMessage;
 import net.i2p.router.RouterContext;
+import net.i2p.router.transport.FIFOBandwidthLimiter;
 import net.i2p.router.transport.TransportUtil;
 import net.i2p.router.transport.udp.PacketBuilder.Fragment;
 import net.i2p.router.transport.udp.SSU2Payload.Block;
@@ -157,12 +158,17 @@ class PacketBuilder2 {
         int numFragments = fragments.size();
         int dataSize = 0;
         int priority = PRIORITY_LOW;
+        // most important of the messages, for the bandwidth limiter
+        int trafficClass = numFragments > 0 ? FIFOBandwidthLimiter.CLASS_PARTICIPATING : FIFOBandwidthLimiter.CLASS_LOCAL;
         for (int i = 0; i < numFragments; i++) {
             Fragment frag = fragments.get(i);
             OutboundMessageState state = frag.state;
             int pri = state.getPriority();
             if (pri > priority)
                 priority = pri;
+            int cls = state.getTrafficClass();
+            if (cls < trafficClass)
+                trafficClass = cls;
             int fragment = frag.num;
             int sz = state.fragmentSize(fragment);
             dataSize += sz;
@@ -307,6 +313,7 @@ class PacketBuilder2 {
         }
         
         packet.setPriority(priority);
+        packet.setTrafficClass(trafficClass);
         if (fragments.isEmpty()) {
             SSU2Bitfield acked = peer.getAckedMessages();
             if (acked != null) {     // null for PeerStateDestroyed
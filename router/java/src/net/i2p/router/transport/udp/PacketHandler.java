@@ -26,6 +26,11 @@ import net.i2p.util.SystemVersion;
  * an actual pool of packet handler threads, each pulling off the inbound
  * receiver's queue and pushing them as necessary.
  *
+ * As of 0.9.59, if the UDPEndpoints are sharded (see UDPEndpoint.getShardCount()),
+ * there is one handler thread per shard, each with its own queue,
+ * fed only by the UDPReceivers for that shard.
+ * As the kernel hashes each remote address to a single shard,
+ * all packets for a session are processed by a single handler.
  */
 class PacketHandler {
     private final RouterContext _context;
@@ -39,6 +44,7 @@ class PacketHandler {
     private final Handler[] _handlers;
     private final Map<RemoteHostId, Object> _failCache;
     private final BlockingQueue<UDPPacket> _inboundQueue;
+    private final boolean _sharded;
     private static final Object DUMMY = new Object();
     private final boolean _enableSSU1, _enableSSU2;
     private final int _networkID;
@@ -75,8 +81,12 @@ class PacketHandler {
         long maxMemory = SystemVersion.getMaxMemory();
         int qsize = (int) Math.max(MIN_QUEUE_SIZE, Math.min(MAX_QUEUE_SIZE, maxMemory / (2*1024*1024)));
         _inboundQueue = new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Receiver", qsize);
+        int shards = UDPEndpoint.getShardCount(ctx);
+        _sharded = shards > 1;
         int num_handlers;
-        if (maxMemory < 32*1024*1024)
+        if (_sharded)
+            num_handlers = shards;
+        else if (maxMemory < 32*1024*1024)
             num_handlers = 1;
         else if (maxMemory < 64*1024*1024)
             num_handlers = 2;
@@ -84,7 +94,12 @@ class PacketHandler {
             num_handlers = Math.max(MIN_NUM_HANDLERS, Math.min(MAX_NUM_HANDLERS, ctx.bandwidthLimiter().getInboundKBytesPerSecond() / 20));
         _handlers = new Handler[num_handlers];
         for (int i = 0; i < num_handlers; i++) {
-            _handlers[i] = new Handler();
+            BlockingQueue<UDPPacket> queue;
+            if (_sharded && i > 0)
+                queue = new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Receiver-" + i, qsize);
+            else
+                queue = _inboundQueue;
+            _handlers[i] = new Handler(i, queue);
         }
 
         _context.statManager().createRateStat("udp.receivePacketSkew", "How long ago after the packet was sent did we receive it", "udp", UDPTransport.RATES);
@@ -101,6 +116,12 @@ class PacketHandler {
         _context.statManager().createRateStat("udp.receivePacketSize.dataKnownAck", "Packet size of the given inbound packet type (period is the packet's lifetime)", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.receivePacketSize.dataUnknown", "Packet size of the given inbound packet type (period is the packet's lifetime)", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.receivePacketSize.dataUnknownAck", "Packet size of the given inbound packet type (period is the packet's lifetime)", "udp", UDPTransport.RATES);
+        if (_sharded) {
+            for (int i = 0; i < num_handlers; i++) {
+                _context.statManager().createRateStat("udp.shard." + i + ".queueSize", "Inbound queue size for shard " + i, "udp", UDPTransport.RATES);
+                _context.statManager().createRateStat("udp.shard." + i + ".handleTime", "Time to process a packet in shard " + i + " (ms)", "udp", UDPTransport.RATES);
+            }
+        }
     }
     
     public synchronized void startup() { 
@@ -122,6 +143,8 @@ class PacketHandler {
         for (int i = 0; i < _handlers.length; i++) {
             Handler handler = _handlers[i];
             rv.append(" handler ").append(i);
+            if (_sharded)
+                rv.append(" queued: ").append(handler._queue.size());
         }
         return rv.toString();
     }
@@ -136,6 +159,19 @@ class PacketHandler {
         _inboundQueue.put(packet);
     }
 
+    /**
+     * Blocking if the shard's queue is full.
+     *
+     * @param shard the receiver's shard, 0 for unsharded
+     * @since 0.9.59
+     */
+    public void queueReceived(int shard, UDPPacket packet) throws InterruptedException {
+        if (_sharded)
+            _handlers[shard % _handlers.length]._queue.put(packet);
+        else
+            _inboundQueue.put(packet);
+    }
+
 
     /**
      * Blocking for a while
@@ -143,32 +179,38 @@ class PacketHandler {
      * @since IPv6 moved from UDPReceiver
      */
     private void stopQueue() {
-        _inboundQueue.clear();
+        for (int i = 0; i < _handlers.length; i++) {
+            _handlers[i]._queue.clear();
+        }
         for (int i = 0; i < _handlers.length; i++) {
             UDPPacket poison = UDPPacket.acquire(_context, false);
             poison.setMessageType(TYPE_POISON);
-            _inboundQueue.offer(poison);
+            _handlers[i]._queue.offer(poison);
         }
-        for (int i = 1; i <= 5 && !_inboundQueue.isEmpty(); i++) {
-            try {
-                Thread.sleep(i * 50);
-            } catch (InterruptedException ie) {}
+        for (int i = 0; i < _handlers.length; i++) {
+            BlockingQueue<UDPPacket> queue = _handlers[i]._queue;
+            for (int j = 1; j <= 5 && !queue.isEmpty(); j++) {
+                try {
+                    Thread.sleep(j * 50);
+                } catch (InterruptedException ie) {}
+            }
+            queue.clear();
         }
-        _inboundQueue.clear();
     }
 
     /**
      * Blocking call to retrieve the next inbound packet, or null if we have
      * shut down.
      *
-     * @since IPv6 moved from UDPReceiver
+     * @param queue the handler's queue
+     * @since IPv6 moved from UDPReceiver, queue param added in 0.9.59
      */
-    public UDPPacket receiveNext() {
+    private UDPPacket receiveNext(BlockingQueue<UDPPacket> queue) {
         UDPPacket rv = null;
         //int remaining = 0;
         while (_keepReading && rv == null) {
             try {
-                rv = _inboundQueue.take();
+                rv = queue.take();
             } catch (InterruptedException ie) {}
             if (rv != null && rv.getMessageType() == TYPE_POISON)
                 return null;
@@ -195,17 +237,32 @@ class PacketHandler {
     
     private class Handler implements Runnable { 
         private final UDPPacketReader _reader;
+        private final BlockingQueue<UDPPacket> _queue;
+        private final String _statQueueSize, _statHandleTime;
 
-        public Handler() {
+        /**
+         *  @param id the shard
+         *  @param queue shared unless sharded
+         */
+        public Handler(int id, BlockingQueue<UDPPacket> queue) {
             _reader = new UDPPacketReader(_context);
+            _queue = queue;
+            if (_sharded) {
+                _statQueueSize = ("udp.shard." + id + ".queueSize").intern();
+                _statHandleTime = ("udp.shard." + id + ".handleTime").intern();
+            } else {
+                _statQueueSize = null;
+                _statHandleTime = null;
+            }
         }
         
         public void run() {
             while (_keepReading) {
-                UDPPacket packet = receiveNext();
+                UDPPacket packet = receiveNext(_queue);
                 if (packet == null) break; // keepReading is probably false, or bind failed...
 
                 packet.received();
+                long before = _statHandleTime != null ? _context.clock().now() : 0;
                 //if (_log.shouldLog(Log.DEBUG))
                 //    _log.debug("Received: " + packet);
                 try {
@@ -214,6 +271,10 @@ class PacketHandler {
                     if (_log.shouldLog(Log.ERROR))
                         _log.error("Internal error handling " + packet, e);
                 }
+                if (_statHandleTime != null) {
+                    _context.statManager().addRateData(_statQueueSize, _queue.size());
+                    _context.statManager().addRateData(_statHandleTime, _context.clock().now() - before);
+                }
                 
                 // back to the cache with thee!
                 packet.release();
@@ -110,23 +110,16 @@ public class PeerState {
      * the previous second's ACKs be sent?
      */
     //private boolean _remoteWantsPreviousACKs;
-    /** how many bytes should we send to the peer in a second */
-    private int _sendWindowBytes;
-    /** how many bytes can we send to the peer in the current second */
-    private int _sendWindowBytesRemaining;
-    private final Object _sendWindowBytesRemainingLock = new Object();
+    /** the send window, SST, concurrent message limit, and pacing */
+    private final CongestionControl _congestionControl;
+    /** only used if the SendPacer is enabled */
+    private final SendPacer.PeerPacing _pacing = new SendPacer.PeerPacing();
     private final SimpleBandwidthEstimator _bwEstimator;
     // smoothed value, for display only
     private int _receiveBps;
     private int _receiveBytes;
     private long _receivePeriodBegin;
     private volatile long _lastCongestionOccurred;
-    /**
-     * when sendWindowBytes is below this, grow the window size quickly,
-     * but after we reach it, grow it slowly
-     *
-     */
-    private volatile int _slowStartThreshold;
     /** what IP is the peer sending and receiving packets on? */
     protected final byte[] _remoteIP;
     /** cached IP address */
@@ -177,6 +170,8 @@ public class PeerState {
     private int _packetsRetransmitted;
     private long _nextSequenceNumber;
     private final AtomicBoolean _fastRetransmit = new AtomicBoolean();
+    /** in the OutboundMessageFragments ready queue */
+    private final AtomicBoolean _readyToSend = new AtomicBoolean();
 
     /** how many dup packets were received within the last RETRANSMISSION_PERIOD_WIDTH packets */
     protected int _packetsReceivedDuplicate;
@@ -209,14 +204,6 @@ public class PeerState {
     /** have we migrated away from this peer to another newer one? */
     protected volatile boolean _dead;
 
-    /** The minimum number of outstanding messages (NOT fragments/packets) */
-    private static final int MIN_CONCURRENT_MSGS = 8;
-    /** @since 0.9.42 */
-    private static final int INIT_CONCURRENT_MSGS = 20;
-    /** how many concurrent outbound messages do we allow OutboundMessageFragments to send
-        This counts full messages, NOT fragments (UDP packets)
-     */
-    private int _concurrentMessagesAllowed = INIT_CONCURRENT_MSGS;
     /** how many concurrency rejections have we had in a row */
     private int _consecutiveRejections;
     /** is it inbound? **/
@@ -224,8 +211,6 @@ public class PeerState {
     /** Last time it was made an introducer **/
     private long _lastIntroducerTime;
 
-    private static final int MAX_SEND_WINDOW_BYTES = 1024*1024;
-
     /**
      *  Was 32 before 0.9.2, but since the streaming lib goes up to 128,
      *  we would just drop our own msgs right away during slow start.
@@ -338,7 +323,6 @@ public class PeerState {
         _lastReceiveTime = now;
         _currentACKs = new ConcurrentHashSet<Long>();
         _currentACKsResend = new LinkedBlockingQueue<ResendACK>();
-        _slowStartThreshold = MAX_SEND_WINDOW_BYTES/2;
         _receivePeriodBegin = now;
         _remotePort = remotePort;
         if (remoteIP.length == 4) {
@@ -353,11 +337,7 @@ public class PeerState {
             _minMTU = MIN_IPV6_MTU;
         }
         // RFC 5681 sec. 3.1
-        if (_mtu > 1095)
-            _sendWindowBytes = 3 * _mtu;
-        else
-            _sendWindowBytes = 4 * _mtu;
-        _sendWindowBytesRemaining = _sendWindowBytes;
+        _congestionControl = new RenoCongestionControl(_mtu > 1095 ? 3 * _mtu : 4 * _mtu, ctx.random());
 
         _rto = INIT_RTO;
         _rtt = INIT_RTT;
@@ -384,10 +364,12 @@ public class PeerState {
     /**
      *  For SSU2
      *
+     *  @param cc the send window, non-null, since 0.9.59
      *  @since 0.9.54
      */
     protected PeerState(RouterContext ctx, UDPTransport transport,
-                        InetSocketAddress addr, Hash remotePeer, boolean isInbound, int rtt) {
+                        InetSocketAddress addr, Hash remotePeer, boolean isInbound, int rtt,
+                        CongestionControl cc) {
         _context = ctx;
         _log = ctx.logManager().getLog(getClass());
         _transport = transport;
@@ -395,7 +377,6 @@ public class PeerState {
         _keyEstablishedTime = now;
         _lastSendTime = now;
         _lastReceiveTime = now;
-        _slowStartThreshold = MAX_SEND_WINDOW_BYTES/2;
         _receivePeriodBegin = now;
         _remoteIP = addr.getAddress().getAddress();
         _remotePort = addr.getPort();
@@ -407,9 +388,7 @@ public class PeerState {
             _largeMTU = transport.getSSU2MTU(true);
         }
         _minMTU = PeerState2.MIN_MTU;
-        // RFC 5681 sec. 3.1
-        _sendWindowBytes = 3 * _mtu;
-        _sendWindowBytesRemaining = _sendWindowBytes;
+        _congestionControl = cc;
 
         _rto = INIT_RTO;
         _rtt = INIT_RTT;
@@ -525,16 +504,12 @@ public class PeerState {
      *  candidate for removal
      */
     public int getSendWindowBytes() {
-        synchronized(_outboundMessages) {
-            return _sendWindowBytes;
-        }
+        return _congestionControl.getWindow();
     }
 
     /** how many bytes can we send to the peer in the current second */
     public int getSendWindowBytesRemaining() {
-        synchronized(_sendWindowBytesRemainingLock) {
-            return _sendWindowBytesRemaining;
-        }
+        return _congestionControl.getWindowRemaining();
     }
 
     /** what IP is the peer sending and receiving packets on? */
@@ -684,26 +659,25 @@ public class PeerState {
      */
     private boolean allocateSendingBytes(OutboundMessageState state, long now) {
         int messagePushCount = state.getPushCount();
-        if (messagePushCount == 0 && _outboundMessages.size() > _concurrentMessagesAllowed) {
+        int concurrentMessagesAllowed = _congestionControl.getConcurrentMessagesAllowed();
+        if (messagePushCount == 0 && _outboundMessages.size() > concurrentMessagesAllowed) {
             _consecutiveRejections++;
             _context.statManager().addRateData("udp.rejectConcurrentActive", _outboundMessages.size(), _consecutiveRejections);
             return false;
         }
-        final int sendRemaining = getSendWindowBytesRemaining();
+        final int sendRemaining = _congestionControl.getSendAllowance(now);
         if (sendRemaining <= fragmentOverhead())
             return false;
 
         int size = state.getSendSize(sendRemaining);
         if (size > 0) {
             if (messagePushCount == 0) {
-                _context.statManager().addRateData("udp.allowConcurrentActive", _outboundMessages.size(), _concurrentMessagesAllowed);
+                _context.statManager().addRateData("udp.allowConcurrentActive", _outboundMessages.size(), concurrentMessagesAllowed);
                 if (_consecutiveRejections > 0)
                     _context.statManager().addRateData("udp.rejectConcurrentSequence", _consecutiveRejections, _outboundMessages.size());
                 _consecutiveRejections = 0;
             }
-            synchronized(_sendWindowBytesRemainingLock) {
-                _sendWindowBytesRemaining -= size;
-            }
+            _congestionControl.allocated(size, now);
             _lastSendTime = now;
             return true;
         } else {
@@ -730,7 +704,33 @@ public class PeerState {
      *  stat in SST column, otherwise unused,
      *  candidate for removal
      */
-    public int getSlowStartThreshold() { return _slowStartThreshold; }
+    public int getSlowStartThreshold() { return _congestionControl.getSlowStartThreshold(); }
+
+    /**
+     *  For OutboundMessageFragments only.
+     *
+     *  @return true if it was not already marked ready, i.e. the caller should queue it
+     *  @since 0.9.59
+     */
+    boolean setReadyToSend() { return _readyToSend.compareAndSet(false, true); }
+
+    /**
+     *  For OutboundMessageFragments only, when taken off the ready queue.
+     *  @since 0.9.59
+     */
+    void clearReadyToSend() { _readyToSend.set(false); }
+
+    /**
+     *  @return true if the congestion control paces new data itself
+     *  @since 0.9.59
+     */
+    boolean isPaced() { return _congestionControl.isPaced(); }
+
+    /**
+     *  The release schedule, for the SendPacer only
+     *  @since 0.9.59
+     */
+    SendPacer.PeerPacing getPacing() { return _pacing; }
 
     /**
      *  2nd stat in CWND column, otherwise unused,
@@ -747,9 +747,7 @@ public class PeerState {
      *  candidate for removal
      */
     public int getConcurrentSendWindow() {
-        synchronized(_outboundMessages) {
-            return _concurrentMessagesAllowed;
-        }
+        return _congestionControl.getConcurrentMessagesAllowed();
     }
 
     /**
@@ -866,19 +864,16 @@ public class PeerState {
         // 1. Double RTO and backoff (RFC 6298 section 5.5 & 5.6)
         // 2. cut ssthresh to bandwidth estimate, window to 1 MTU
         // 3. Retransmit up to half of the packets in flight (RFC 6298 section 5.4 and RFC 5681 section 4.3)
-        int congestionAt = _sendWindowBytes;
-        // If we reduced the MTU, then we won't be able to send any previously-fragmented messages,
-        // so set to the max MTU. This is the easiest fix, although it violates the RFC.
-        //_sendWindowBytes = _mtu;
-        int oldsst = _slowStartThreshold;
+        int congestionAt = _congestionControl.getWindow();
+        int oldsst = _congestionControl.getSlowStartThreshold();
         float bwe;
         if (_fastRetransmit.get()) {
             // window and SST set in highestSeqNumAcked()
             bwe = -1;  // for log below
         } else {
-            _sendWindowBytes = getVersion() == 2 ? PeerState2.MAX_MTU : (isIPv6() ? MAX_IPV6_MTU : LARGE_MTU);
             bwe = _bwEstimator.getBandwidthEstimate(now);
-            _slowStartThreshold = Math.max( (int)(bwe * _rtt), 2 * _mtu);
+            int maxPacket = getVersion() == 2 ? PeerState2.MAX_MTU : (isIPv6() ? MAX_IPV6_MTU : LARGE_MTU);
+            _congestionControl.congestionOccurred(maxPacket, bwe, _rtt, _mtu, now);
         }
 
         int oldRto = _rto;
@@ -887,8 +882,8 @@ public class PeerState {
         _retransmitTimer = now + _rto;
         if (_log.shouldInfo())
             _log.info(_remotePeer + " Congestion, RTO: " + oldRto + " -> " + _rto + " timer: " + oldTimer + " -> " + _rto +
-                                    " window: " + congestionAt + " -> " + _sendWindowBytes +
-                                    " SST: " + oldsst + " -> " + _slowStartThreshold +
+                                    " window: " + congestionAt + " -> " + _congestionControl.getWindow() +
+                                    " SST: " + oldsst + " -> " + _congestionControl.getSlowStartThreshold() +
                                     " FRTX? " + _fastRetransmit +
                                     " BWE: " + DataHelper.formatSize2Decimal((long) (bwe * 1000), false) + "bps");
     }
@@ -1148,44 +1143,12 @@ public class PeerState {
     private void locked_messageACKed(int bytesACKed, int maxPktSz, long lifetime, int numSends, boolean anyPending, boolean anyQueued) {
         _consecutiveFailedSends = 0;
         // _lastFailedSendPeriod = -1;
-        if (numSends < 2) {
-            if (_context.random().nextInt(_concurrentMessagesAllowed) <= 0)
-                _concurrentMessagesAllowed++;
-
-            if (_sendWindowBytes <= _slowStartThreshold) {
-                _sendWindowBytes += bytesACKed;
-                synchronized(_sendWindowBytesRemainingLock) {
-                    _sendWindowBytesRemaining += bytesACKed;
-                }
-            } else {
-                    float prob = ((float)bytesACKed) / ((float)(_sendWindowBytes<<1));
-                    float v = _context.random().nextFloat();
-                    if (v < 0) v = 0-v;
-                    if (v <= prob) {
-                        _sendWindowBytes += bytesACKed;
-                        synchronized(_sendWindowBytesRemainingLock) {
-                            _sendWindowBytesRemaining += bytesACKed;
-                        }
-                    }
-            }
-        } else {
-            int allow = _concurrentMessagesAllowed - 1;
-            if (allow < MIN_CONCURRENT_MSGS)
-                allow = MIN_CONCURRENT_MSGS;
-            _concurrentMessagesAllowed = allow;
-        }
-        if (_sendWindowBytes > MAX_SEND_WINDOW_BYTES)
-            _sendWindowBytes = MAX_SEND_WINDOW_BYTES;
         long now = _context.clock().now();
+        // grow the window and return the acked bytes to it
+        _congestionControl.acked(bytesACKed, numSends, lifetime, now);
         _lastReceiveTime = now;
         _lastSendFullyTime = _lastReceiveTime;
 
-        synchronized(_sendWindowBytesRemainingLock) {
-            _sendWindowBytesRemaining += bytesACKed;
-            if (_sendWindowBytesRemaining > _sendWindowBytes)
-                _sendWindowBytesRemaining = _sendWindowBytes;
-        }
-
         if (numSends < 2) {
             // caller synchs
             recalculateTimeouts(lifetime);
@@ -1205,7 +1168,7 @@ public class PeerState {
                _log.debug(_remotePeer + " ACK, timer: " + oldTimer + " -> " + (_retransmitTimer - now));
         }
         if (anyPending || anyQueued)
-            _transport.getOMF().nudge();
+            _transport.getOMF().nudge(this);
     }
 
     /**
@@ -1296,7 +1259,7 @@ public class PeerState {
 
     /** we are resending a packet, so lets jack up the rto */
     synchronized void messageRetransmitted(int packets, int maxPktSz) {
-        _context.statManager().addRateData("udp.congestionOccurred", _sendWindowBytes);
+        _context.statManager().addRateData("udp.congestionOccurred", _congestionControl.getWindow());
         _context.statManager().addRateData("udp.congestedRTO", _rto, _rttDeviation);
         _packetsRetransmitted += packets;
         congestionOccurred();
@@ -1375,7 +1338,7 @@ public class PeerState {
         synchronized(this) {
             congestionOccurred();
         }
-        _context.statManager().addRateData("udp.congestionOccurred", _sendWindowBytes);
+        _context.statManager().addRateData("udp.congestionOccurred", _congestionControl.getWindow());
     }
 
     /**
@@ -1606,14 +1569,7 @@ public class PeerState {
                     return 0;
                 }
                 // restore the window
-                synchronized(_sendWindowBytesRemainingLock) {
-                    // this isn't exactly right, because some fragments may not have been sent at all,
-                    // but that should be unlikely
-                    _sendWindowBytesRemaining += failedSize;
-                    _sendWindowBytesRemaining += failedCount * fragmentOverhead();
-                    if (_sendWindowBytesRemaining > _sendWindowBytes)
-                        _sendWindowBytesRemaining = _sendWindowBytes;
-                }
+                _congestionControl.released(failedSize + (failedCount * fragmentOverhead()));
                 // no need to nudge(), this is called from OMF loop before allocateSend()
             }
             if (rv <= 0) {
@@ -1718,7 +1674,7 @@ public class PeerState {
                         if (_log.shouldLog(Log.DEBUG))
                             _log.debug("Allocate sending more fragments to " + _remotePeer + ": " + state.getMessageId());
                         if (rv == null)
-                            rv = new ArrayList<OutboundMessageState>(_concurrentMessagesAllowed);
+                            rv = new ArrayList<OutboundMessageState>(CongestionControl.INIT_CONCURRENT_MSGS);
                         rv.add(state);
                     } else {
                         // no more bandwidth available
@@ -1738,6 +1694,7 @@ public class PeerState {
             // If so, pull it off, put it in _outbundMessages, test
             // again for bandwidth if necessary, and return it.
             OutboundMessageState state;
+            int concurrentMessagesAllowed = _congestionControl.getConcurrentMessagesAllowed();
             synchronized (_outboundQueue) {
                 while ((state = _outboundQueue.peek()) != null &&
                        locked_shouldSend(state, now)) {
@@ -1757,9 +1714,9 @@ public class PeerState {
                         //if (_log.shouldLog(Log.DEBUG))
                         //    _log.debug("Allocate sending (NEW) to " + _remotePeer + ": " + dequeuedState.getMessageId());
                         if (rv == null)
-                            rv = new ArrayList<OutboundMessageState>(_concurrentMessagesAllowed);
+                            rv = new ArrayList<OutboundMessageState>(CongestionControl.INIT_CONCURRENT_MSGS);
                         rv.add(dequeuedState);
-                        if (rv.size() >= _concurrentMessagesAllowed)
+                        if (rv.size() >= concurrentMessagesAllowed)
                             return rv;
                     }
                 }
@@ -1789,6 +1746,10 @@ public class PeerState {
             if (_retransmitTimer > 0)
                 rv = Math.max(0, (int) (_retransmitTimer - now));
         }
+        // wake up when the pacer allows more
+        int pacing = _congestionControl.getPacingDelay(now);
+        if (pacing < rv)
+            rv = pacing;
         return rv;
     }
 
@@ -2189,23 +2150,12 @@ public class PeerState {
                 _fastRetransmit.set(true);
                 // caller (IMF) will wakeup OMF
                 if (continueFast) {
-                  // RFC 5681 sec. 3.2 #4 increase cwnd
-                   _sendWindowBytes += _mtu;
-                    synchronized(_sendWindowBytesRemainingLock) {
-                       _sendWindowBytesRemaining += _mtu;
-                    }
+                   _congestionControl.fastRetransmitContinued(_mtu);
                    if (_log.shouldDebug())
                        _log.debug("Continue FAST RTX, inflated window: " + this);
                 } else if (startFast) {
-                   // RFC 5681 sec. 3.2 #2 set SST (equation 4)
-                   // But use W+ BWE instead
                    float bwe = _bwEstimator.getBandwidthEstimate();
-                   _slowStartThreshold = Math.max((int)(bwe * _rtt), 2 * _mtu);
-                   // RFC 5681 sec. 3.2 #3 set cwnd
-                   _sendWindowBytes = _slowStartThreshold + (3 * _mtu);
-                    synchronized(_sendWindowBytesRemainingLock) {
-                        _sendWindowBytesRemaining = _sendWindowBytes;
-                    }
+                   _congestionControl.fastRetransmitStarted(bwe, _rtt, _mtu);
                    if (_log.shouldDebug())
                        _log.debug("Start of FAST RTX, inflated window: " + this);
                 }
@@ -2230,13 +2180,7 @@ public class PeerState {
      */
     private void exitFastRetransmit() {
         if (_fastRetransmit.compareAndSet(true, false)) {
-            synchronized(this) {
-                // RFC 5681 sec. 2.4 #6 deflate the window
-                _sendWindowBytes = _slowStartThreshold;
-                synchronized(_sendWindowBytesRemainingLock) {
-                    _sendWindowBytesRemaining = _sendWindowBytes;
-                }
-            }
+            _congestionControl.fastRetransmitEnded();
             if (_log.shouldDebug())
                 _log.debug("End of FAST RTX, deflated window: " + this);
         }
@@ -2248,9 +2192,7 @@ public class PeerState {
      * @since 0.9.56
      */
     protected boolean shouldRequestImmediateAck() {
-        synchronized(_sendWindowBytesRemainingLock) {
-            return _sendWindowBytesRemaining < _sendWindowBytes / 3;
-        }
+        return _congestionControl.getWindowRemaining() < _congestionControl.getWindow() / 3;
     }
 
     /**
@@ -2264,8 +2206,7 @@ public class PeerState {
         _rto = oldPeer._rto;
         _rtt = oldPeer._rtt;
         _rttDeviation = oldPeer._rttDeviation;
-        _slowStartThreshold = oldPeer._slowStartThreshold;
-        _sendWindowBytes = oldPeer._sendWindowBytes;
+        _congestionControl.loadFrom(oldPeer._congestionControl);
         oldPeer._dead = true;
 
         if (getVersion() == 1 && oldPeer.getVersion() == 1) {
@@ -2464,9 +2405,10 @@ public class PeerState {
         buf.append(" RTO: ").append(_rto);
         buf.append(" MTU: ").append(_mtu);
         buf.append(" LMTU: ").append(_largeMTU);
-        buf.append(" cwin: ").append(_sendWindowBytes);
-        buf.append(" acwin: ").append(_sendWindowBytesRemaining);
-        buf.append(" SST: ").append(_slowStartThreshold);
+        buf.append(" cwin: ").append(_congestionControl.getWindow());
+        buf.append(" acwin: ").append(_congestionControl.getWindowRemaining());
+        buf.append(" SST: ").append(_congestionControl.getSlowStartThreshold());
+        buf.append(" CC: ").append(_congestionControl);
         buf.append(" FRTX? ").append(_fastRetransmit);
         buf.append(" consecFail: ").append(_consecutiveFailedSends);
         buf.append(" msgs rcvd: ").append(_messagesReceived);
@@ -109,6 +109,15 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
     public static final int MAX_MTU = 1500;
     public static final int DEFAULT_MTU = MAX_MTU;
 
+    /**
+     *  The send window algorithm for new connections, "reno" (default) or "bbr".
+     *  See CongestionControl.
+     *
+     *  @since 0.9.59
+     */
+    public static final String PROP_CONGESTION_CONTROL = "i2np.ssu2.congestionControl";
+    private static final String DEFAULT_CONGESTION_CONTROL = "reno";
+
     private static final int BITFIELD_SIZE = 512;
     private static final int MAX_SESS_CONF_RETX = 5;
     private static final long SENT_MESSAGES_CLEAN_TIME = 60*1000;
@@ -121,7 +130,7 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
                      InetSocketAddress remoteAddress, Hash remotePeer, boolean isInbound, int rtt,
                      CipherState sendCha, CipherState rcvCha, long sendID, long rcvID,
                      byte[] sendHdrKey1, byte[] sendHdrKey2, byte[] rcvHdrKey2) {
-        super(ctx, transport, remoteAddress, remotePeer, isInbound, rtt);
+        super(ctx, transport, remoteAddress, remotePeer, isInbound, rtt, createCongestionControl(ctx));
         _sendConnID = sendID;
         _rcvConnID = rcvID;
         _sendCha = sendCha;
@@ -148,6 +157,18 @@ public class PeerState2 extends PeerState implements SSU2Payload.PayloadCallback
         _ackTimer = new ACKTimer();
     }
 
+    /**
+     *  @since 0.9.59
+     */
+    private static CongestionControl createCongestionControl(RouterContext ctx) {
+        // RFC 5681 sec. 3.1
+        int window = 3 * MIN_MTU;
+        String cc = ctx.getProperty(PROP_CONGESTION_CONTROL, DEFAULT_CONGESTION_CONTROL);
+        if (cc.equalsIgnoreCase("bbr"))
+            return new BBRCongestionControl(window, MAX_MTU, ctx.random());
+        return new RenoCongestionControl(window, ctx.random());
+    }
+
     // SSU 1 overrides
 
     @Override
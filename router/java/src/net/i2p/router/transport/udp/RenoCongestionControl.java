@@ -0,0 +1,142 @@
+package net.i2p.router.transport.udp;
+
+import java.util.Random;
+
+/**
+ *  The default, loss based window, as PeerState always did it.
+ *
+ *  Slow start and fast retransmit per RFC 5681, with a probabilistic
+ *  congestion avoidance increase, and on congestion the SST is set
+ *  to the Westwood+ bandwidth estimate times the RTT, as in TCP Westwood.
+ *  The concurrent message limit is additive increase, also probabilistic,
+ *  and decreases by one for each message that was retransmitted.
+ *  Not paced.
+ *
+ *  @since 0.9.59 moved from PeerState
+ */
+class RenoCongestionControl implements CongestionControl {
+    private final Random _rand;
+    /** how many bytes should we send to the peer in a second */
+    private int _sendWindowBytes;
+    /** how many bytes can we send to the peer in the current second */
+    private int _sendWindowBytesRemaining;
+    /**
+     * when sendWindowBytes is below this, grow the window size quickly,
+     * but after we reach it, grow it slowly
+     */
+    private int _slowStartThreshold;
+    private int _concurrentMessagesAllowed = INIT_CONCURRENT_MSGS;
+
+    /**
+     *  @param window the initial window, see RFC 5681 sec. 3.1
+     *  @param rand for the congestion avoidance increase
+     */
+    public RenoCongestionControl(int window, Random rand) {
+        _rand = rand;
+        _sendWindowBytes = window;
+        _sendWindowBytesRemaining = window;
+        _slowStartThreshold = MAX_SEND_WINDOW_BYTES/2;
+    }
+
+    public synchronized int getWindow() { return _sendWindowBytes; }
+
+    public synchronized int getWindowRemaining() { return _sendWindowBytesRemaining; }
+
+    public synchronized int getSlowStartThreshold() { return _slowStartThreshold; }
+
+    public synchronized int getConcurrentMessagesAllowed() { return _concurrentMessagesAllowed; }
+
+    public synchronized int getSendAllowance(long now) { return _sendWindowBytesRemaining; }
+
+    public boolean isPaced() { return false; }
+
+    public int getPacingDelay(long now) { return Integer.MAX_VALUE; }
+
+    public synchronized void allocated(int bytes, long now) {
+        _sendWindowBytesRemaining -= bytes;
+    }
+
+    public synchronized void released(int bytes) {
+        // this isn't exactly right, because some fragments may not have been sent at all,
+        // but that should be unlikely
+        _sendWindowBytesRemaining += bytes;
+        if (_sendWindowBytesRemaining > _sendWindowBytes)
+            _sendWindowBytesRemaining = _sendWindowBytes;
+    }
+
+    public synchronized void acked(int bytesACKed, int numSends, long lifetime, long now) {
+        if (numSends < 2) {
+            if (_rand.nextInt(_concurrentMessagesAllowed) <= 0)
+                _concurrentMessagesAllowed++;
+
+            if (_sendWindowBytes <= _slowStartThreshold) {
+                _sendWindowBytes += bytesACKed;
+                _sendWindowBytesRemaining += bytesACKed;
+            } else {
+                float prob = ((float)bytesACKed) / ((float)(_sendWindowBytes<<1));
+                float v = _rand.nextFloat();
+                if (v < 0) v = 0-v;
+                if (v <= prob) {
+                    _sendWindowBytes += bytesACKed;
+                    _sendWindowBytesRemaining += bytesACKed;
+                }
+            }
+        } else {
+            int allow = _concurrentMessagesAllowed - 1;
+            if (allow < MIN_CONCURRENT_MSGS)
+                allow = MIN_CONCURRENT_MSGS;
+            _concurrentMessagesAllowed = allow;
+        }
+        if (_sendWindowBytes > MAX_SEND_WINDOW_BYTES)
+            _sendWindowBytes = MAX_SEND_WINDOW_BYTES;
+        _sendWindowBytesRemaining += bytesACKed;
+        if (_sendWindowBytesRemaining > _sendWindowBytes)
+            _sendWindowBytesRemaining = _sendWindowBytes;
+    }
+
+    /**
+     *  Cut ssthresh to bandwidth estimate, window to 1 MTU.
+     *  If we reduced the MTU, then we won't be able to send any previously-fragmented messages,
+     *  so set to the max MTU. This is the easiest fix, although it violates the RFC.
+     */
+    public synchronized void congestionOccurred(int maxPacket, float bwe, int rtt, int mtu, long now) {
+        _sendWindowBytes = maxPacket;
+        _slowStartThreshold = Math.max( (int)(bwe * rtt), 2 * mtu);
+    }
+
+    public synchronized void fastRetransmitStarted(float bwe, int rtt, int mtu) {
+        // RFC 5681 sec. 3.2 #2 set SST (equation 4)
+        // But use W+ BWE instead
+        _slowStartThreshold = Math.max((int)(bwe * rtt), 2 * mtu);
+        // RFC 5681 sec. 3.2 #3 set cwnd
+        _sendWindowBytes = _slowStartThreshold + (3 * mtu);
+        _sendWindowBytesRemaining = _sendWindowBytes;
+    }
+
+    public synchronized void fastRetransmitContinued(int mtu) {
+        // RFC 5681 sec. 3.2 #4 increase cwnd
+        _sendWindowBytes += mtu;
+        _sendWindowBytesRemaining += mtu;
+    }
+
+    public synchronized void fastRetransmitEnded() {
+        // RFC 5681 sec. 2.4 #6 deflate the window
+        _sendWindowBytes = _slowStartThreshold;
+        _sendWindowBytesRemaining = _sendWindowBytes;
+    }
+
+    public void loadFrom(CongestionControl old) {
+        int window = old.getWindow();
+        int sst = old.getSlowStartThreshold();
+        synchronized(this) {
+            if (sst > 0)
+                _slowStartThreshold = sst;
+            _sendWindowBytes = window;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Reno";
+    }
+}
@@ -0,0 +1,262 @@
+package net.i2p.router.transport.udp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.router.RouterContext;
+import net.i2p.util.I2PThread;
+import net.i2p.util.Log;
+
+/**
+ *  Optional pacing of the volleys from OutboundMessageFragments.
+ *
+ *  Without it, each volley goes to the UDPSender as soon as the window allows,
+ *  and a window opening up after an ack or an idle period goes out
+ *  as one burst, which may overflow a small queue at the bottleneck.
+ *  Here, each peer's packets are instead spread out at
+ *  gain * window / RTT, with a gain of 2 in slow start and 1.25 otherwise,
+ *  as in Linux TCP pacing, so a full window takes less than an RTT.
+ *
+ *  The release times are kept on a timer wheel with 1 ms slots,
+ *  and one thread releases each slot in turn to the transport.
+ *  Packets of a peer are released in order.
+ *  Peers without an RTT sample yet, and peers with a congestion control
+ *  that paces by itself, are not paced here.
+ *
+ *  Enable with i2np.udp.pacing=true, default false.
+ *
+ *  @since 0.9.59
+ */
+class SendPacer implements Runnable {
+    private final RouterContext _context;
+    private final Log _log;
+    private final UDPTransport _transport;
+    /** one list per slot, index is the time in ms mod WHEEL_SIZE */
+    private final List<List<UDPPacket>> _wheel;
+    /** the time of the next slot to be released, ms */
+    private long _wheelTime;
+    private int _pending;
+    private volatile boolean _alive;
+    // for the global rate stat, pacer thread only
+    private long _statStart;
+    private long _statBytes;
+
+    public static final String PROP_PACING = "i2np.udp.pacing";
+    /** must be a power of 2 */
+    private static final int WHEEL_SIZE = 1024;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    /** no packet is held longer than this, or longer than the RTT */
+    static final int MAX_DELAY = 500;
+    private static final float SLOW_START_GAIN = 2.0f;
+    private static final float GAIN = 1.25f;
+    private static final long STAT_PERIOD = 1000;
+
+    /**
+     *  @param transport may be null if send() is overridden
+     */
+    public SendPacer(RouterContext ctx, UDPTransport transport) {
+        _context = ctx;
+        _log = ctx.logManager().getLog(SendPacer.class);
+        _transport = transport;
+        _wheel = new ArrayList<List<UDPPacket>>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            _wheel.add(new ArrayList<UDPPacket>(4));
+        }
+        _context.statManager().createRateStat("udp.pacerRate", "Bytes per second released by the send pacer", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.pacerPeerRate", "Pacing rate of a peer (bytes per second)", "udp", UDPTransport.RATES);
+        _context.statManager().createRateStat("udp.pacerDelay", "How long the send pacer holds a packet (ms)", "udp", UDPTransport.RATES);
+    }
+
+    public synchronized void startup() {
+        if (_alive)
+            return;
+        _alive = true;
+        _wheelTime = now();
+        I2PThread t = new I2PThread(this, "UDP send pacer", true);
+        t.start();
+    }
+
+    /**
+     *  Drops everything not yet released
+     */
+    public synchronized void shutdown() {
+        _alive = false;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            List<UDPPacket> slot = _wheel.get(i);
+            for (int j = 0; j < slot.size(); j++) {
+                slot.get(j).release();
+            }
+            slot.clear();
+        }
+        _pending = 0;
+        notifyAll();
+    }
+
+    /**
+     *  Schedule a volley for release.
+     *  Non-blocking, the packets are sent by the pacer thread.
+     *
+     *  @param packets non-null, all to peer
+     */
+    public void add(PeerState peer, List<UDPPacket> packets) {
+        if (peer.isPaced()) {
+            add(peer.getPacing(), 0, 0, false, packets);
+            return;
+        }
+        int window = peer.getSendWindowBytes();
+        boolean slowStart = window < peer.getSlowStartThreshold();
+        add(peer.getPacing(), window, peer.getRTT(), slowStart, packets);
+    }
+
+    /**
+     *  Schedule a volley for release.
+     *  Non-blocking, the packets are sent by the pacer thread.
+     *
+     *  @param pacing the peer's schedule
+     *  @param window the peer's send window
+     *  @param rtt the peer's RTT, or 0 if unknown
+     *  @param slowStart is the window below the slow start threshold
+     *  @param packets non-null
+     */
+    void add(PeerPacing pacing, int window, int rtt, boolean slowStart, List<UDPPacket> packets) {
+        long now = now();
+        int sz = packets.size();
+        long maxDelay = 0;
+        synchronized (this) {
+            if (!_alive) {
+                for (int i = 0; i < sz; i++) {
+                    packets.get(i).release();
+                }
+                return;
+            }
+            for (int i = 0; i < sz; i++) {
+                UDPPacket packet = packets.get(i);
+                long release = pacing.schedule(packet.getPacket().getLength(), window, rtt, slowStart, now);
+                // packets due now, or that we are late for, go in the next slot
+                if (release < _wheelTime)
+                    release = _wheelTime;
+                else if (release >= _wheelTime + WHEEL_SIZE)
+                    release = _wheelTime + WHEEL_SIZE - 1;
+                _wheel.get((int) (release & WHEEL_MASK)).add(packet);
+                if (release - now > maxDelay)
+                    maxDelay = release - now;
+            }
+            _pending += sz;
+            notifyAll();
+        }
+        int rate = pacing.getRate();
+        if (rate > 0)
+            _context.statManager().addRateData("udp.pacerPeerRate", rate);
+        _context.statManager().addRateData("udp.pacerDelay", maxDelay);
+    }
+
+    public void run() {
+        List<UDPPacket> due = new ArrayList<UDPPacket>(64);
+        _statStart = now();
+        while (_alive) {
+            try {
+                synchronized (this) {
+                    while (_alive && due.isEmpty()) {
+                        long now = now();
+                        if (_pending <= 0) {
+                            // skip the empty slots
+                            _wheelTime = now;
+                            wait(1000);
+                            continue;
+                        }
+                        while (_wheelTime <= now) {
+                            List<UDPPacket> slot = _wheel.get((int) (_wheelTime & WHEEL_MASK));
+                            if (!slot.isEmpty()) {
+                                due.addAll(slot);
+                                slot.clear();
+                            }
+                            _wheelTime++;
+                        }
+                        if (due.isEmpty())
+                            wait(1);
+                    }
+                    _pending -= due.size();
+                }
+                // send outside the lock, this may block on the UDPSender queue
+                for (int i = 0; i < due.size(); i++) {
+                    UDPPacket packet = due.get(i);
+                    _statBytes += packet.getPacket().getLength();
+                    send(packet);
+                }
+                due.clear();
+                long now = now();
+                if (now - _statStart >= STAT_PERIOD) {
+                    if (_statBytes > 0)
+                        _context.statManager().addRateData("udp.pacerRate", _statBytes * 1000 / (now - _statStart));
+                    _statStart = now;
+                    _statBytes = 0;
+                }
+            } catch (InterruptedException ie) {
+            } catch (RuntimeException e) {
+                _log.error("SSU send pacer error", e);
+                due.clear();
+            }
+        }
+    }
+
+    /**
+     *  Release a packet to the transport.
+     *  BLOCKING if OB queue is full.
+     */
+    protected void send(UDPPacket packet) {
+        _transport.send(packet);
+    }
+
+    /**
+     *  Monotonic, not adjusted by the router clock
+     */
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     *  The release schedule of one peer.
+     *  Like CongestionControl, it never looks at a clock,
+     *  so it may be driven by a simulated one.
+     */
+    static class PeerPacing {
+        /** release time of the next packet, fractional ms */
+        private double _next;
+        /** bytes/sec */
+        private int _rate;
+
+        /**
+         *  Schedule a packet after the previous ones, at the current rate.
+         *
+         *  @param bytes the packet size
+         *  @param window the send window
+         *  @param rtt the RTT, or 0 if unknown
+         *  @param slowStart is the window below the slow start threshold
+         *  @return when to release the packet, now if not pacing,
+         *          no later than now + min(RTT, MAX_DELAY)
+         */
+        public synchronized long schedule(int bytes, int window, int rtt, boolean slowStart, long now) {
+            if (rtt <= 0 || window <= 0) {
+                _rate = 0;
+                _next = now;
+                return now;
+            }
+            // bytes/ms
+            double rate = (slowStart ? SLOW_START_GAIN : GAIN) * window / rtt;
+            _rate = (int) (rate * 1000);
+            double release = Math.max(now, _next);
+            double max = now + Math.min(rtt, MAX_DELAY);
+            if (release > max)
+                release = max;
+            _next = release + (bytes / rate);
+            return (long) release;
+        }
+
+        /**
+         *  @return the last rate, bytes/sec, 0 if not pacing
+         */
+        public synchronized int getRate() {
+            return _rate;
+        }
+    }
+}
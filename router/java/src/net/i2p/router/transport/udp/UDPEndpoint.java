@@ -1,11 +1,18 @@
 package net.i2p.router.transport.udp;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import net.i2p.router.RouterContext;
@@ -16,6 +23,11 @@ import net.i2p.util.SystemVersion;
 /**
  * Coordinate the low-level datagram socket, creating and managing the UDPSender and
  * UDPReceiver.
+ *
+ * As of 0.9.59, if configured with i2np.udp.nio and i2np.udp.shards,
+ * and SO_REUSEPORT is supported, binds multiple channels to the same port,
+ * each with its own UDPReceiver. The kernel hashes each remote address
+ * to one of the channels. The UDPSender uses the first channel.
  */
 class UDPEndpoint implements SocketListener {
     private final RouterContext _context;
@@ -23,13 +35,39 @@ class UDPEndpoint implements SocketListener {
     private int _listenPort;
     private final UDPTransport _transport;
     private UDPSender _sender;
-    private UDPReceiver _receiver;
+    private final List<UDPReceiver> _receivers;
     private DatagramSocket _socket;
+    private DatagramChannel _channel;
+    /** shards 1 through n-1, shard 0 is _channel */
+    private final List<DatagramChannel> _shardChannels;
+    private final int _shards;
     private final InetAddress _bindAddress;
     private final boolean _isIPv4, _isIPv6;
+    private final boolean _useNIO;
     private static final AtomicInteger _counter = new AtomicInteger();
 
     private static final int MIN_SOCKET_BUFFER = 256*1024;
+
+    /**
+     *  If true, use a non-blocking DatagramChannel, and the
+     *  UDPReceiver and UDPSender will receive and send in batches.
+     *  Default false, which uses a blocking DatagramSocket.
+     *  @since 0.9.59
+     */
+    public static final String PROP_NIO = "i2np.udp.nio";
+
+    /**
+     *  Number of channels to bind to the same port with SO_REUSEPORT,
+     *  each with its own receiver and packet handler thread.
+     *  Requires i2np.udp.nio=true, Java 9+, and a non-Windows OS.
+     *  Default 1.
+     *  @since 0.9.59
+     */
+    public static final String PROP_SHARDS = "i2np.udp.shards";
+    private static final int MAX_SHARDS = 16;
+
+    /** null if unsupported */
+    private static final SocketOption<Boolean> SO_REUSEPORT = getReusePortOption();
     
     /**
      *  @param transport may be null for unit testing ONLY
@@ -44,6 +82,45 @@ class UDPEndpoint implements SocketListener {
         _listenPort = listenPort;
         _isIPv4 = bindAddress == null || bindAddress instanceof Inet4Address;
         _isIPv6 = bindAddress == null || bindAddress instanceof Inet6Address;
+        _useNIO = ctx.getBooleanProperty(PROP_NIO);
+        _shards = getShardCount(ctx);
+        _receivers = new ArrayList<UDPReceiver>(_shards);
+        _shardChannels = new ArrayList<DatagramChannel>(_shards);
+    }
+
+    /**
+     *  The number of shards each endpoint will attempt to bind.
+     *  If greater than one, the PacketHandler should have one handler per shard.
+     *  An endpoint may bind fewer if opening a shard fails,
+     *  in which case some handlers are idle.
+     *
+     *  @return 1 if not configured or not supported
+     *  @since 0.9.59
+     */
+    static int getShardCount(RouterContext ctx) {
+        if (SO_REUSEPORT == null || !ctx.getBooleanProperty(PROP_NIO))
+            return 1;
+        int rv = ctx.getProperty(PROP_SHARDS, 1);
+        return Math.max(1, Math.min(MAX_SHARDS, rv));
+    }
+
+    /**
+     *  StandardSocketOptions.SO_REUSEPORT is Java 9+.
+     *  Windows has different semantics, don't use it there.
+     *
+     *  @return null if unsupported
+     *  @since 0.9.59
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        if (SystemVersion.isWindows() || SystemVersion.isAndroid())
+            return null;
+        try {
+            Field f = StandardSocketOptions.class.getField("SO_REUSEPORT");
+            return (SocketOption<Boolean>) f.get(null);
+        } catch (Exception e) {
+            return null;
+        }
     }
     
     /**
@@ -61,22 +138,84 @@ class UDPEndpoint implements SocketListener {
             throw new SocketException("SSU Unable to bind to a port on " + _bindAddress);
         }
         int count = _counter.incrementAndGet();
-        _sender = new UDPSender(_context, _socket, "UDPSender " + count, this);
+        if (_channel != null && _transport != null) {
+            // Leave it blocking for unit tests, so receive() works.
+            // Both the sender and receiver handle either mode.
+            try {
+                _channel.configureBlocking(false);
+            } catch (IOException ioe) {
+                _socket.close();
+                SocketException se = new SocketException("SSU Unable to configure channel on " + _bindAddress);
+                se.initCause(ioe);
+                throw se;
+            }
+        }
+        _sender = new UDPSender(_context, _socket, _channel, "UDPSender " + count, this);
         _sender.startup();
         if (_transport != null) {
-            _receiver = new UDPReceiver(_context, _transport, _socket, "UDPReceiver " + count, this);
-            _receiver.startup();
+            UDPReceiver receiver = new UDPReceiver(_context, _transport, _socket, _channel, 0,
+                                                   "UDPReceiver " + count, this);
+            _receivers.add(receiver);
+            receiver.startup();
+            if (_channel != null && _shards > 1)
+                startShards(count);
+        }
+    }
+
+    /**
+     *  Bind the additional channels to the same port as _channel,
+     *  and start a receiver for each.
+     *  Stops at the first failure; the shards already started are retained.
+     *
+     *  @since 0.9.59
+     */
+    private void startShards(int count) {
+        for (int i = 1; i < _shards; i++) {
+            DatagramChannel chan = null;
+            try {
+                chan = DatagramChannel.open();
+                chan.setOption(SO_REUSEPORT, Boolean.TRUE);
+                DatagramSocket socket = chan.socket();
+                socket.bind(new InetSocketAddress(_bindAddress, _listenPort));
+                setBufferSizes(socket);
+                chan.configureBlocking(false);
+                _shardChannels.add(chan);
+                UDPReceiver receiver = new UDPReceiver(_context, _transport, socket, chan, i,
+                                                       "UDPReceiver " + count + '.' + i, this);
+                _receivers.add(receiver);
+                receiver.startup();
+            } catch (IOException ioe) {
+                if (chan != null) try { chan.close(); } catch (IOException e) {}
+                _log.error("SSU Unable to bind shard " + i + " to port " + _listenPort, ioe);
+                break;
+            } catch (UnsupportedOperationException uoe) {
+                // SO_REUSEPORT not supported by the platform
+                if (chan != null) try { chan.close(); } catch (IOException e) {}
+                _log.error("SSU Unable to bind shard " + i + " to port " + _listenPort, uoe);
+                break;
+            }
         }
+        if (_log.shouldInfo())
+            _log.info("Started " + _receivers.size() + " shards on " + this);
     }
     
     public synchronized void shutdown() {
         if (_sender != null) {
             _sender.shutdown();
-            _receiver.shutdown();
         }
+        for (UDPReceiver receiver : _receivers) {
+            receiver.shutdown();
+        }
+        _receivers.clear();
         if (_socket != null) {
+            // closes the channel too, if any
             _socket.close();
         }
+        _channel = null;
+        for (DatagramChannel chan : _shardChannels) {
+            try { chan.close(); } catch (IOException ioe) {}
+        }
+        _shardChannels.clear();
     }
     
     public void setListenPort(int newPort) { _listenPort = newPort; }
@@ -123,16 +262,8 @@ class UDPEndpoint implements SocketListener {
                  port = TransportUtil.selectRandomPort(_context, UDPTransport.STYLE);
              }
              try {
-                 if (_bindAddress == null)
-                     socket = new DatagramSocket(port);
-                 else
-                     socket = new DatagramSocket(port, _bindAddress);
-                 if (!SystemVersion.isAndroid()) {
-                     if (socket.getSendBufferSize() < MIN_SOCKET_BUFFER)
-                         socket.setSendBufferSize(MIN_SOCKET_BUFFER);
-                     if (socket.getReceiveBufferSize() < MIN_SOCKET_BUFFER)
-                         socket.setReceiveBufferSize(MIN_SOCKET_BUFFER);
-                 }
+                 socket = openSocket(port);
+                 setBufferSizes(socket);
                  break;
              } catch (SocketException se) {
                  if (_log.shouldLog(Log.WARN))
@@ -153,6 +284,57 @@ class UDPEndpoint implements SocketListener {
     }
 
 
+    /**
+     *  @since 0.9.59 split out from getSocket()
+     */
+    private static void setBufferSizes(DatagramSocket socket) throws SocketException {
+        if (!SystemVersion.isAndroid()) {
+            if (socket.getSendBufferSize() < MIN_SOCKET_BUFFER)
+                socket.setSendBufferSize(MIN_SOCKET_BUFFER);
+            if (socket.getReceiveBufferSize() < MIN_SOCKET_BUFFER)
+                socket.setReceiveBufferSize(MIN_SOCKET_BUFFER);
+        }
+    }
+
+    /**
+     *  Bind a new socket, or a new channel's socket if _useNIO is set.
+     *  Sets _channel if _useNIO is set.
+     *  The returned socket is always blocking; startup() sets the channel non-blocking.
+     *
+     *  @since 0.9.59 split out from getSocket()
+     */
+    private DatagramSocket openSocket(int port) throws SocketException {
+        if (!_useNIO) {
+            if (_bindAddress == null)
+                return new DatagramSocket(port);
+            return new DatagramSocket(port, _bindAddress);
+        }
+        DatagramChannel chan = null;
+        try {
+            chan = DatagramChannel.open();
+            if (_shards > 1)
+                chan.setOption(SO_REUSEPORT, Boolean.TRUE);
+            DatagramSocket socket = chan.socket();
+            socket.bind(new InetSocketAddress(_bindAddress, port));
+            _channel = chan;
+            return socket;
+        } catch (SocketException se) {
+            if (chan != null) try { chan.close(); } catch (IOException e) {}
+            throw se;
+        } catch (UnsupportedOperationException uoe) {
+            // SO_REUSEPORT
+            if (chan != null) try { chan.close(); } catch (IOException e) {}
+            SocketException se = new SocketException("Unable to open channel");
+            se.initCause(uoe);
+            throw se;
+        } catch (IOException ioe) {
+            if (chan != null) try { chan.close(); } catch (IOException e) {}
+            SocketException se = new SocketException("Unable to open channel");
+            se.initCause(ioe);
+            throw se;
+        }
+    }
+
     /** call after startup() to get actual port or -1 on startup failure */
     public int getListenPort() { return _listenPort; }
     public UDPSender getSender() { return _sender; }
@@ -27,6 +27,7 @@ class UDPPacket implements CDPQEntry {
     private RouterContext _context;
     private final DatagramPacket _packet;
     private int _priority;
+    private int _trafficClass;
     private volatile long _initializeTime;
     //private volatile long _expiration;
     private final byte[] _data;
@@ -168,6 +169,7 @@ class UDPPacket implements CDPQEntry {
         _enqueueTime = 0;
         _receivedTime = 0;
         _fragmentCount = 0;
+        _trafficClass = FIFOBandwidthLimiter.CLASS_LOCAL;
     }
 
     /**
@@ -202,6 +204,13 @@ class UDPPacket implements CDPQEntry {
      */
     public void setPriority(int pri) { _priority = pri; }
 
+    /**
+     *  For the bandwidth limiter.
+     *  Default FIFOBandwidthLimiter.CLASS_LOCAL.
+     *  @since 0.9.59
+     */
+    public void setTrafficClass(int cls) { _trafficClass = cls; }
+
     //public long getExpiration() { verifyNotReleased(); return _expiration; }
     public synchronized long getBegin() { verifyNotReleased(); return _initializeTime; }
     public long getLifetime() { /** verifyNotReleased(); */ return _context.clock().now() - _initializeTime; }
@@ -385,7 +394,7 @@ class UDPPacket implements CDPQEntry {
      */
     public synchronized void requestOutboundBandwidth() {
         verifyNotReleased();
-        _bandwidthRequest = _context.bandwidthLimiter().requestOutbound(_packet.getLength(), 0, "UDP sender");
+        _bandwidthRequest = _context.bandwidthLimiter().requestOutbound(_packet.getLength(), 0, _trafficClass, "UDP sender");
     }
     
     /**
@@ -3,7 +3,14 @@ package net.i2p.router.transport.udp;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import net.i2p.router.RouterContext;
 import net.i2p.router.transport.FIFOBandwidthLimiter;
@@ -21,38 +28,62 @@ import net.i2p.util.SystemVersion;
  * There is a UDPReceiver for each UDPEndpoint.
  * It contains a thread but no queue. Received packets are queued
  * in the common PacketHandler queue.
+ *
+ * If the endpoint has a non-blocking channel, as of 0.9.59,
+ * all available packets are received in a batch on each selector wakeup,
+ * and bandwidth is requested once for the whole batch.
  */
 class UDPReceiver {
     private final RouterContext _context;
     private final Log _log;
     private final DatagramSocket _socket;
+    private final DatagramChannel _channel;
+    private final int _shard;
     private String _name;
     private volatile boolean _keepRunning;
-    private final Runner _runner;
+    private final Runnable _runner;
+    private volatile Selector _selector;
     private final UDPTransport _transport;
     private final PacketHandler _handler;
     private final SocketListener _endpoint;
 
     private static final boolean _isAndroid = SystemVersion.isAndroid();
 
+    /** max packets per channel receive batch */
+    private static final int MAX_BATCH = 32;
+
     public UDPReceiver(RouterContext ctx, UDPTransport transport, DatagramSocket socket, String name,
                        SocketListener lsnr) {
+        this(ctx, transport, socket, null, 0, name, lsnr);
+    }
+
+    /**
+     *  @param channel if non-null, must be the channel for socket, and non-blocking
+     *  @param shard which PacketHandler queue to use, 0 if not sharded
+     *  @since 0.9.59
+     */
+    public UDPReceiver(RouterContext ctx, UDPTransport transport, DatagramSocket socket,
+                       DatagramChannel channel, int shard, String name, SocketListener lsnr) {
         _context = ctx;
         _log = ctx.logManager().getLog(UDPReceiver.class);
         _name = name;
         _socket = socket;
+        _channel = channel;
+        _shard = shard;
         _transport = transport;
         _endpoint = lsnr;
         _handler = transport.getPacketHandler();
         if (_handler == null)
             throw new IllegalStateException();
-        _runner = new Runner();
+        _runner = channel != null ? new ChannelRunner() : new Runner();
         //_context.statManager().createRateStat("udp.receivePacketSize", "How large packets received are", "udp", UDPTransport.RATES);
         //_context.statManager().createRateStat("udp.receiveRemaining", "How many packets are left sitting on the receiver's queue", "udp", UDPTransport.RATES);
         //_context.statManager().createRateStat("udp.droppedInbound", "How many packet are queued up but not yet received when we drop", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.receiveHolePunch", "How often we receive a NAT hole punch", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.ignorePacketFromDroplist", "Packet lifetime for those dropped on the drop list", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.receiveFailsafe", "limiter stuck?", "udp", new long[] { 24*60*60*1000L });
+        if (channel != null)
+            _context.statManager().createRateStat("udp.receiveBatchSize", "Packets received per channel wakeup", "udp", UDPTransport.RATES);
     }
     
     /**
@@ -67,6 +98,9 @@ class UDPReceiver {
     
     public synchronized void shutdown() {
         _keepRunning = false;
+        Selector sel = _selector;
+        if (sel != null)
+            sel.wakeup();
     }
     
 /*********
@@ -181,7 +215,7 @@ class UDPReceiver {
             if (!rejected) {
 ****/
                 try {
-                    _handler.queueReceived(packet);
+                    _handler.queueReceived(_shard, packet);
                 } catch (InterruptedException ie) {
                     packet.release();
                     _keepRunning = false;
@@ -326,4 +360,143 @@ class UDPReceiver {
         }
       *****/
     }
+
+    /**
+     *  Batched receive from a non-blocking channel.
+     *
+     *  Drains up to MAX_BATCH datagrams into a direct buffer on each wakeup,
+     *  copying each into a UDPPacket, then requests inbound bandwidth
+     *  once for the whole batch and passes the batch to the PacketHandler.
+     *  Only goes back to the selector when the socket is empty.
+     *
+     *  @since 0.9.59
+     */
+    private class ChannelRunner implements Runnable {
+        private final ByteBuffer _buf = ByteBuffer.allocateDirect(UDPPacket.MAX_PACKET_SIZE);
+        private final List<UDPPacket> _batch = new ArrayList<UDPPacket>(MAX_BATCH);
+
+        public void run() {
+            Selector selector = null;
+            try {
+                selector = Selector.open();
+                _channel.register(selector, SelectionKey.OP_READ);
+                _selector = selector;
+                while (_keepRunning) {
+                    while (!_context.throttle().acceptNetworkMessage())
+                        try { Thread.sleep(10); } catch (InterruptedException ie) {}
+                    int size;
+                    try {
+                        size = drain();
+                    } catch (IOException ioe) {
+                        if (_log.shouldLog(Log.WARN))
+                            _log.warn("Error receiving", ioe);
+                        releaseBatch();
+                        if (!_channel.isOpen()) {
+                            if (_keepRunning) {
+                                _keepRunning = false;
+                                _endpoint.fail();
+                            }
+                        } else if (_keepRunning) {
+                            try { Thread.sleep(100); } catch (InterruptedException ie) {}
+                        }
+                        continue;
+                    }
+                    int count = _batch.size();
+                    if (count > 0) {
+                        _context.statManager().addRateData("udp.receiveBatchSize", count);
+                        if (size > 0) {
+                            FIFOBandwidthLimiter.Request req =
+                                  _context.bandwidthLimiter().requestInbound(size, "UDP receiver");
+                            // failsafe, don't wait forever
+                            int waitCount = 0;
+                            while (req.getPendingRequested() > 0 && waitCount++ < 5) {
+                                req.waitForNextAllocation();
+                            }
+                            if (waitCount >= 5) {
+                                // tell FBL we didn't receive it, but receive it anyway
+                                req.abort();
+                                _context.statManager().addRateData("udp.receiveFailsafe", 1);
+                            }
+                        }
+                        for (int i = 0; i < count; i++) {
+                            receive(_batch.get(i));
+                        }
+                        _batch.clear();
+                    }
+                    if (count < MAX_BATCH) {
+                        // socket is empty, wait for more
+                        selector.select(1000);
+                        selector.selectedKeys().clear();
+                    }
+                }
+            } catch (IOException ioe) {
+                _log.error("Error in channel receiver", ioe);
+                if (_keepRunning) {
+                    _keepRunning = false;
+                    _endpoint.fail();
+                }
+            } finally {
+                releaseBatch();
+                _selector = null;
+                if (selector != null)
+                    try { selector.close(); } catch (IOException ioe) {}
+            }
+            if (_log.shouldLog(Log.WARN))
+                _log.warn("Stop receiving on " + _endpoint);
+        }
+
+        /**
+         *  Receive all available packets, up to MAX_BATCH, into _batch.
+         *  Zero-length and oversized packets are handled or dropped here
+         *  and are not added to the batch.
+         *
+         *  @return total size of the packets in the batch
+         */
+        private int drain() throws IOException {
+            int rv = 0;
+            boolean dummy = _context.commSystem().isDummy();
+            for (int i = 0; i < MAX_BATCH; i++) {
+                _buf.clear();
+                InetSocketAddress from = (InetSocketAddress) _channel.receive(_buf);
+                if (from == null)
+                    break;
+                int size = _buf.position();
+                if (size >= UDPPacket.MAX_PACKET_SIZE) {
+                    // DatagramChannel javadocs: the remainder of the datagram is silently discarded.
+                    if (_log.shouldLog(Log.WARN))
+                        _log.warn("packet too large! truncated and dropped from: " + from);
+                    continue;
+                }
+                if (size == 0) {
+                    _context.statManager().addRateData("udp.receiveHolePunch", 1);
+                    // nat hole punch packets are 0 bytes
+                    if (_log.shouldLog(Log.INFO))
+                        _log.info("Received a 0 byte udp packet from " + from);
+                    _transport.getEstablisher().receiveHolePunch(from.getAddress(), from.getPort());
+                    continue;
+                }
+                if (dummy) {
+                    // testing
+                    continue;
+                }
+                UDPPacket packet = UDPPacket.acquire(_context, true);
+                DatagramPacket dpacket = packet.getPacket();
+                _buf.flip();
+                _buf.get(dpacket.getData(), dpacket.getOffset(), size);
+                dpacket.setLength(size);
+                dpacket.setSocketAddress(from);
+                packet.resetBegin();
+                _batch.add(packet);
+                rv += size;
+            }
+            return rv;
+        }
+
+        private void releaseBatch() {
+            for (UDPPacket packet : _batch) {
+                packet.release();
+            }
+            _batch.clear();
+        }
+    }
 }
@@ -3,6 +3,12 @@ package net.i2p.router.transport.udp;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 
 import net.i2p.router.RouterContext;
@@ -19,11 +25,16 @@ import net.i2p.util.SystemVersion;
  * There is a UDPSender for each UDPEndpoint.
  * It contains a thread and a queue. Packet to be sent are queued
  * by the PacketPusher.
+ *
+ * If the endpoint has a channel, as of 0.9.59,
+ * packets are pulled off the queue in batches and written to the channel
+ * from a direct buffer.
  */
 class UDPSender {
     private final RouterContext _context;
     private final Log _log;
     private final DatagramSocket _socket;
+    private final DatagramChannel _channel;
     private String _name;
     private final BlockingQueue<UDPPacket> _outboundQueue;
     private volatile boolean _keepRunning;
@@ -40,8 +51,20 @@ class UDPSender {
     private static final int MAX_QUEUE_SIZE = 768;
     private static final int CODEL_TARGET = 100;
     private static final int CODEL_INTERVAL = 500;
+    /** max packets per channel send batch */
+    private static final int MAX_BATCH = 32;
+    /** max time to wait for a non-blocking channel to become writable */
+    private static final long MAX_WRITE_WAIT = 1000;
     
     public UDPSender(RouterContext ctx, DatagramSocket socket, String name, SocketListener lsnr) {
+        this(ctx, socket, null, name, lsnr);
+    }
+
+    /**
+     *  @param channel if non-null, must be the channel for socket, blocking or non-blocking
+     *  @since 0.9.59
+     */
+    public UDPSender(RouterContext ctx, DatagramSocket socket, DatagramChannel channel, String name, SocketListener lsnr) {
         _context = ctx;
         _dummy = false; // ctx.commSystem().isDummy();
         _log = ctx.logManager().getLog(UDPSender.class);
@@ -50,6 +73,7 @@ class UDPSender {
         //_outboundQueue = new CoDelBlockingQueue<UDPPacket>(ctx, "UDP-Sender", qsize, CODEL_TARGET, CODEL_INTERVAL);
         _outboundQueue = new CoDelPriorityBlockingQueue<UDPPacket>(ctx, "UDP-Sender", qsize, CODEL_TARGET, CODEL_INTERVAL);
         _socket = socket;
+        _channel = channel;
         _runner = new Runner();
         _name = name;
         _endpoint = lsnr;
@@ -64,6 +88,8 @@ class UDPSender {
         _context.statManager().createRateStat("udp.sendFailsafe", "limiter stuck?", "udp", new long[] { 24*60*60*1000L });
         // used in RouterWatchdog
         _context.statManager().createRequiredRateStat("udp.sendException", "Send fails (Windows exception?)", "udp", new long[] { 60*1000, 10*60*1000 });
+        if (channel != null)
+            _context.statManager().createRateStat("udp.sendBatchSize", "Packets sent per channel batch", "udp", UDPTransport.RATES);
 
         _context.statManager().createRateStat("udp.sendPacketSize." + PacketBuilder.TYPE_ACK, "ack-only packet size", "udp", UDPTransport.RATES);
         _context.statManager().createRateStat("udp.sendPacketSize." + PacketBuilder.TYPE_PUNCH, "hole punch packet size", "udp", UDPTransport.RATES);
@@ -220,11 +246,21 @@ class UDPSender {
     
     private class Runner implements Runnable {
         //private volatile boolean _socketChanged;
+        private final ByteBuffer _buf;
+        private Selector _writeSelector;
+
+        public Runner() {
+            _buf = _channel != null ? ByteBuffer.allocateDirect(UDPPacket.MAX_PACKET_SIZE) : null;
+        }
 
         public void run() {
             if (_log.shouldLog(Log.DEBUG))
                 _log.debug("Running the UDP sender");
             //_socketChanged = false;
+            if (_channel != null) {
+                runBatched();
+                return;
+            }
             while (_keepRunning) {
                 //if (_socketChanged) {
                 //    Thread.currentThread().setName(_name);
@@ -232,79 +268,47 @@ class UDPSender {
                 //}
                 
                 UDPPacket packet = getNextPacket();
-                if (packet != null) {
-                    if (_log.shouldLog(Log.DEBUG))
-                        _log.debug("Packet to send known: " + packet);
-                    long acquireTime = _context.clock().now();
-                    int size = packet.getPacket().getLength();
-                    // ?? int size2 = packet.getPacket().getLength();
-                    if (size > 0) {
-                        //_context.bandwidthLimiter().requestOutbound(req, size, "UDP sender");
-                        FIFOBandwidthLimiter.Request req = packet.getBandwidthRequest();
-                        if (req != null) {
-                            // failsafe, don't wait forever
-                            int waitCount = 0;
-                            while (req.getPendingRequested() > 0 && waitCount++ < 5) {
-                                req.waitForNextAllocation();
-                            }
-                            if (waitCount >= 5) {
-                                // tell FBL we didn't send it, but send it anyway
-                                req.abort();
-                                _context.statManager().addRateData("udp.sendFailsafe", 1);
-                            }
-                        }
-                    }
-                    
-                    long afterBW = _context.clock().now();
-                    
-                    //if (_log.shouldLog(Log.DEBUG)) {
-                        //if (len > 128)
-                        //    len = 128;
-                        //_log.debug("Sending packet: (size="+size + "/"+size2 +")\nraw: " + Base64.encode(packet.getPacket().getData(), 0, size));
-                    //}
-                    
-                    if (packet.getMessageType() >= PacketBuilder.TYPE_FIRST)
-                        _context.statManager().addRateData("udp.sendPacketSize." + packet.getMessageType(), size, packet.getFragmentCount());
-                    
-                    //packet.getPacket().setLength(size);
-                    try {
-                        //long before = _context.clock().now();
-                        //synchronized (Runner.this) {
-                            // synchronization lets us update safely
-                            //_log.debug("Break out datagram for " + packet);
-                            DatagramPacket dp = packet.getPacket();
-                            //if (_log.shouldLog(Log.DEBUG))
-                            //    _log.debug("Just before socket.send of " + packet);
-                            _socket.send(dp);
-                            //if (_log.shouldLog(Log.DEBUG))
-                            //    _log.debug("Just after socket.send of " + packet);
-                        //}
-                        //long sendTime = _context.clock().now() - before;
-                        // less than 50 microsec
-                        //_context.statManager().addRateData("udp.socketSendTime", sendTime, packet.getLifetime());
-                        if (_log.shouldLog(Log.DEBUG))
-                            _log.debug("Sent the packet " + packet);
-                        long throttleTime = afterBW - acquireTime;
-                        if (throttleTime > 10)
-                            _context.statManager().addRateData("udp.sendBWThrottleTime", throttleTime, acquireTime - packet.getBegin());
-                        if (packet.getMarkedType() == 1)
-                            _context.statManager().addRateData("udp.sendACKTime", throttleTime);
-                        _context.statManager().addRateData("udp.pushTime", packet.getLifetime());
-                        _context.statManager().addRateData("udp.sendPacketSize", size);
-                    } catch (IOException ioe) {
-                        if (_log.shouldLog(Log.WARN))
-                            _log.warn("Error sending to " + packet.getPacket().getAddress(), ioe);
-                        _context.statManager().addRateData("udp.sendException", 1);
-                        if (_socket.isClosed()) {
-                            if (_keepRunning) {
-                                _keepRunning = false;
-                                _endpoint.fail();
+                if (packet != null)
+                    send(packet);
+            }
+            if (_log.shouldLog(Log.WARN))
+                _log.warn("Stop sending on " + _endpoint);
+            _outboundQueue.clear();
+        }
+
+        /**
+         *  Take one packet, blocking, then whatever else is queued,
+         *  up to MAX_BATCH, and send them all.
+         *
+         *  @since 0.9.59
+         */
+        private void runBatched() {
+            List<UDPPacket> batch = new ArrayList<UDPPacket>(MAX_BATCH);
+            try {
+                while (_keepRunning) {
+                    UDPPacket packet = getNextPacket();
+                    if (packet == null)
+                        continue;
+                    batch.add(packet);
+                    _outboundQueue.drainTo(batch, MAX_BATCH - 1);
+                    int count = batch.size();
+                    _context.statManager().addRateData("udp.sendBatchSize", count);
+                    for (int i = 0; i < count; i++) {
+                        packet = batch.get(i);
+                        if (packet.getMessageType() == TYPE_POISON || !_keepRunning) {
+                            // release the remainder
+                            for (int j = i; j < count; j++) {
+                                batch.get(j).release();
                             }
+                            break;
                         }
+                        send(packet);
                     }
-                    
-                    // back to the cache
-                    packet.release();
+                    batch.clear();
+                }
+            } finally {
+                if (_writeSelector != null) {
+                    try { _writeSelector.close(); } catch (IOException ioe) {}
                 }
             }
             if (_log.shouldLog(Log.WARN))
@@ -312,6 +316,119 @@ class UDPSender {
             _outboundQueue.clear();
         }
 
+        /**
+         *  Wait for bandwidth, send it, and release it.
+         *
+         *  @since 0.9.59 split out from run()
+         */
+        private void send(UDPPacket packet) {
+            if (_log.shouldLog(Log.DEBUG))
+                _log.debug("Packet to send known: " + packet);
+            long acquireTime = _context.clock().now();
+            int size = packet.getPacket().getLength();
+            // ?? int size2 = packet.getPacket().getLength();
+            if (size > 0) {
+                //_context.bandwidthLimiter().requestOutbound(req, size, "UDP sender");
+                FIFOBandwidthLimiter.Request req = packet.getBandwidthRequest();
+                if (req != null) {
+                    // failsafe, don't wait forever
+                    int waitCount = 0;
+                    while (req.getPendingRequested() > 0 && waitCount++ < 5) {
+                        req.waitForNextAllocation();
+                    }
+                    if (waitCount >= 5) {
+                        // tell FBL we didn't send it, but send it anyway
+                        req.abort();
+                        _context.statManager().addRateData("udp.sendFailsafe", 1);
+                    }
+                }
+            }
+            
+            long afterBW = _context.clock().now();
+            
+            //if (_log.shouldLog(Log.DEBUG)) {
+                //if (len > 128)
+                //    len = 128;
+                //_log.debug("Sending packet: (size="+size + "/"+size2 +")\nraw: " + Base64.encode(packet.getPacket().getData(), 0, size));
+            //}
+            
+            if (packet.getMessageType() >= PacketBuilder.TYPE_FIRST)
+                _context.statManager().addRateData("udp.sendPacketSize." + packet.getMessageType(), size, packet.getFragmentCount());
+            
+            //packet.getPacket().setLength(size);
+            try {
+                //long before = _context.clock().now();
+                //synchronized (Runner.this) {
+                    // synchronization lets us update safely
+                    //_log.debug("Break out datagram for " + packet);
+                    DatagramPacket dp = packet.getPacket();
+                    //if (_log.shouldLog(Log.DEBUG))
+                    //    _log.debug("Just before socket.send of " + packet);
+                    if (_channel != null)
+                        sendChannel(dp);
+                    else
+                        _socket.send(dp);
+                    //if (_log.shouldLog(Log.DEBUG))
+                    //    _log.debug("Just after socket.send of " + packet);
+                //}
+                //long sendTime = _context.clock().now() - before;
+                // less than 50 microsec
+                //_context.statManager().addRateData("udp.socketSendTime", sendTime, packet.getLifetime());
+                if (_log.shouldLog(Log.DEBUG))
+                    _log.debug("Sent the packet " + packet);
+                long throttleTime = afterBW - acquireTime;
+                if (throttleTime > 10)
+                    _context.statManager().addRateData("udp.sendBWThrottleTime", throttleTime, acquireTime - packet.getBegin());
+                if (packet.getMarkedType() == 1)
+                    _context.statManager().addRateData("udp.sendACKTime", throttleTime);
+                _context.statManager().addRateData("udp.pushTime", packet.getLifetime());
+                _context.statManager().addRateData("udp.sendPacketSize", size);
+            } catch (IOException ioe) {
+                if (_log.shouldLog(Log.WARN))
+                    _log.warn("Error sending to " + packet.getPacket().getAddress(), ioe);
+                _context.statManager().addRateData("udp.sendException", 1);
+                if (_socket.isClosed()) {
+                    if (_keepRunning) {
+                        _keepRunning = false;
+                        _endpoint.fail();
+                    }
+                }
+            }
+            
+            // back to the cache
+            packet.release();
+        }
+
+        /**
+         *  Copy to the direct buffer and write to the channel.
+         *  If the channel is non-blocking and the socket buffer is full,
+         *  wait for it to become writable.
+         *
+         *  @since 0.9.59
+         */
+        private void sendChannel(DatagramPacket dp) throws IOException {
+            _buf.clear();
+            _buf.put(dp.getData(), dp.getOffset(), dp.getLength());
+            _buf.flip();
+            if (_channel.send(_buf, dp.getSocketAddress()) > 0 || dp.getLength() == 0)
+                return;
+            // rare, only when non-blocking and the socket buffer is full
+            if (_writeSelector == null) {
+                _writeSelector = Selector.open();
+                _channel.register(_writeSelector, SelectionKey.OP_WRITE);
+            }
+            long timeout = MAX_WRITE_WAIT;
+            long start = _context.clock().now();
+            while (_keepRunning && timeout > 0) {
+                _writeSelector.select(timeout);
+                _writeSelector.selectedKeys().clear();
+                if (_channel.send(_buf, dp.getSocketAddress()) > 0)
+                    return;
+                timeout = MAX_WRITE_WAIT - (_context.clock().now() - start);
+            }
+            throw new IOException("Timeout waiting for channel write");
+        }
+
         /** @return next packet in queue */
         private UDPPacket getNextPacket() {
             UDPPacket packet = null;
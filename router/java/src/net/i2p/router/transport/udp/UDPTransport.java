@@ -2064,10 +2064,11 @@ public class UDPTransport extends TransportImpl implements TimedWeightedPriority
     public void messageReceived(I2NPMessage inMsg, RouterIdentity remoteIdent, Hash remoteIdentHash, long msToReceive, int bytesReceived) {
         if (inMsg.getType() == DatabaseStoreMessage.MESSAGE_TYPE) {
             DatabaseStoreMessage dsm = (DatabaseStoreMessage)inMsg;
-            DatabaseEntry entry = dsm.getEntry();
-            if (entry == null)
-                return;
-            if (entry.getType() == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
+            // don't parse leasesets here, only routerinfos
+            if (dsm.getEntryType() == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
+                DatabaseEntry entry = dsm.getEntry();
+                if (entry == null)
+                    return;
                 RouterInfo ri = (RouterInfo) entry;
                 int id = ri.getNetworkId();
                 if (id != _networkID) {
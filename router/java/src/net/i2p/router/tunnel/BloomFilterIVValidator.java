@@ -7,6 +7,7 @@ import net.i2p.router.RouterContext;
 import net.i2p.router.tasks.OOMListener;
 import net.i2p.router.util.DecayingBloomFilter;
 import net.i2p.router.util.DecayingHashSet;
+import net.i2p.router.util.ShardedDecayingBloomFilter;
 import net.i2p.util.Log;
 import net.i2p.util.SimpleByteCache;
 import net.i2p.util.SystemVersion;
@@ -53,7 +54,7 @@ class BloomFilterIVValidator implements IVValidator {
         // See DBF, BloomSHA1, and KeySelector for details.
         long maxMemory = SystemVersion.getMaxMemory();
         if (_context.getBooleanProperty(PROP_FORCE)) {
-            _filter = new DecayingBloomFilter(ctx, HALFLIFE_MS, 16, "TunnelIVV");  // 2MB fixed
+            _filter = createFilter(0);  // 2MB fixed
         } else if (_context.getBooleanProperty(PROP_DISABLE)) {
             _filter = null;
         } else if (KBps < MIN_SHARE_KBPS_TO_USE_BLOOM || maxMemory < MIN_MEM_TO_USE_BLOOM) {
@@ -61,28 +62,43 @@ class BloomFilterIVValidator implements IVValidator {
                 warn(maxMemory, KBps, MIN_MEM_TO_USE_BLOOM, MIN_SHARE_KBPS_TO_USE_BLOOM);
             _filter = new DecayingHashSet(ctx, HALFLIFE_MS, 16, "TunnelIVV"); // appx. 4MB max
         } else if (KBps >= MIN_SHARE_KBPS_FOR_HUGE3_BLOOM && maxMemory >= MIN_MEM_FOR_HUGE3_BLOOM) {
-            _filter = new DecayingBloomFilter(ctx, HALFLIFE_MS, 16, "TunnelIVV", 27);  // 32MB fixed
+            _filter = createFilter(27);  // 32MB fixed
         } else if (KBps >= MIN_SHARE_KBPS_FOR_HUGE2_BLOOM && maxMemory >= MIN_MEM_FOR_HUGE2_BLOOM) {
-            _filter = new DecayingBloomFilter(ctx, HALFLIFE_MS, 16, "TunnelIVV", 26);  // 16MB fixed
+            _filter = createFilter(26);  // 16MB fixed
             if (KBps >= MIN_SHARE_KBPS_FOR_HUGE3_BLOOM)
                 warn(maxMemory, KBps, MIN_MEM_FOR_HUGE3_BLOOM, MIN_SHARE_KBPS_FOR_HUGE3_BLOOM);
         } else if (KBps >= MIN_SHARE_KBPS_FOR_HUGE_BLOOM && maxMemory >= MIN_MEM_FOR_HUGE_BLOOM) {
             if (KBps >= MIN_SHARE_KBPS_FOR_HUGE2_BLOOM)
                 warn(maxMemory, KBps, MIN_MEM_FOR_HUGE2_BLOOM, MIN_SHARE_KBPS_FOR_HUGE2_BLOOM);
-            _filter = new DecayingBloomFilter(ctx, HALFLIFE_MS, 16, "TunnelIVV", 25);  // 8MB fixed
+            _filter = createFilter(25);  // 8MB fixed
         } else if (KBps >= MIN_SHARE_KBPS_FOR_BIG_BLOOM && maxMemory >= MIN_MEM_FOR_BIG_BLOOM) {
             if (KBps >= MIN_SHARE_KBPS_FOR_HUGE_BLOOM)
                 warn(maxMemory, KBps, MIN_MEM_FOR_HUGE_BLOOM, MIN_SHARE_KBPS_FOR_HUGE_BLOOM);
-            _filter = new DecayingBloomFilter(ctx, HALFLIFE_MS, 16, "TunnelIVV", 24);  // 4MB fixed
+            _filter = createFilter(24);  // 4MB fixed
         } else {
             if (KBps >= MIN_SHARE_KBPS_FOR_BIG_BLOOM)
                 warn(maxMemory, KBps, MIN_MEM_FOR_BIG_BLOOM, MIN_SHARE_KBPS_FOR_BIG_BLOOM);
-            _filter = new DecayingBloomFilter(ctx, HALFLIFE_MS, 16, "TunnelIVV");  // 2MB fixed
+            _filter = createFilter(0);  // 2MB fixed
         }
         ctx.statManager().createRateStat("tunnel.duplicateIV", "Note that a duplicate IV was received", "Tunnels", 
                                          new long[] { 60*60*1000l });
     }
     
+    /**
+     *  @param m filter size exponent, or 0 for the default
+     *  @since 0.9.59
+     */
+    private DecayingBloomFilter createFilter(int m) {
+        if (_context.getBooleanProperty(ShardedDecayingBloomFilter.PROP_ENABLE)) {
+            if (m > 0)
+                return new ShardedDecayingBloomFilter(_context, HALFLIFE_MS, 16, "TunnelIVV", m);
+            return new ShardedDecayingBloomFilter(_context, HALFLIFE_MS, 16, "TunnelIVV");
+        }
+        if (m > 0)
+            return new DecayingBloomFilter(_context, HALFLIFE_MS, 16, "TunnelIVV", m);
+        return new DecayingBloomFilter(_context, HALFLIFE_MS, 16, "TunnelIVV");
+    }
+
     public boolean receiveIV(byte ivData[], int ivOffset, byte payload[], int payloadOffset) {
         if (_filter == null)  // testing only
             return true;
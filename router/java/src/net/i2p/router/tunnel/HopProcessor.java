@@ -1,7 +1,10 @@
 package net.i2p.router.tunnel;
 
+import java.security.GeneralSecurityException;
+
 import net.i2p.I2PAppContext;
 import net.i2p.crypto.AESEngine;
+import net.i2p.crypto.TunnelLayerCipher;
 import net.i2p.data.Base64;
 import net.i2p.data.Hash;
 import net.i2p.data.SessionKey;
@@ -21,6 +24,9 @@ class HopProcessor {
     private final Log _log;
     protected final HopConfig _config;
     private final IVValidator _validator;
+    private volatile boolean _useCipher;
+    /** created once the tunnel has some traffic */
+    private volatile TunnelLayerCipher _cipher;
         
     /** helpful flag for debugging */
     //static final boolean USE_ENCRYPTION = true;
@@ -33,6 +39,18 @@ class HopProcessor {
      */
     static final int IV_LENGTH = 16;
 
+    /**
+     *  Use a TunnelLayerCipher per tunnel if the JVM AES is in use.
+     *  Default true.
+     *  @since 0.9.59
+     */
+    static final String PROP_BATCH_CRYPTO = "router.batchTunnelCrypto";
+    /**
+     *  Don't bother for idle tunnels, the ciphers are about 2 KB.
+     *  @since 0.9.59
+     */
+    static final int MIN_MESSAGES_FOR_CIPHER = 16;
+
     /**
      *  @deprecated used only by unit tests
      */
@@ -46,6 +64,7 @@ class HopProcessor {
         _log = ctx.logManager().getLog(HopProcessor.class);
         _config = config;
         _validator = validator;
+        _useCipher = TunnelLayerCipher.isAvailable() && ctx.getBooleanPropertyDefaultTrue(PROP_BATCH_CRYPTO);
     }
 
     /**
@@ -70,6 +89,108 @@ class HopProcessor {
      * @return true if the message was updated and valid, false if it was not.
      */
     public boolean process(byte orig[], int offset, int length, Hash prev) {
+        if (!checkPrevious(prev) || !checkIV(orig, offset))
+            return false;
+        
+        //if (_log.shouldLog(Log.DEBUG)) {
+        //    _log.debug("IV received before decrypt: " + Base64.encode(orig, offset, IV_LENGTH));
+        //    _log.debug("Data before processing:\n" + Base64.encode(orig, IV_LENGTH, orig.length - IV_LENGTH));
+        //}
+
+        TunnelLayerCipher cipher = getCipher();
+        if (cipher != null) {
+            try {
+                cipher.process(orig, offset, length);
+            } catch (GeneralSecurityException gse) {
+                cipherFailed(gse);
+                return false;
+            }
+        } else {
+            encrypt(orig, offset, length);
+        }
+
+        //if (_log.shouldLog(Log.DEBUG)) {
+        //    _log.debug("IV sent: " + Base64.encode(orig, offset, IV_LENGTH));
+        //    _log.debug("Data after processing:\n" + Base64.encode(orig, IV_LENGTH, orig.length - IV_LENGTH));
+        //}
+        return true;
+    }
+
+    /**
+     * Process a burst of messages for this hop, all from the same previous hop,
+     * as process() does for each, but with the crypto done in one pass.
+     *
+     * @param msgs IV+data of each message, beginning at offset 0
+     * @param count how many in msgs
+     * @param length IV+data length of each. Should always be 1024 bytes.
+     * @param prev previous hop in the tunnel
+     * @param ok out parameter, set to true for each message that was updated and valid
+     * @return the number of messages updated and valid
+     * @since 0.9.59
+     */
+    public int process(byte[][] msgs, int count, int length, Hash prev, boolean[] ok) {
+        return process(msgs, new int[count], count, length, prev, ok);
+    }
+
+    /**
+     * Process a burst of messages for this hop, all from the same previous hop,
+     * as process() does for each, but with the crypto done in one pass.
+     *
+     * @param msgs IV+data of each message
+     * @param offsets index into each of msgs where the IV begins
+     * @param count how many in msgs
+     * @param length IV+data length of each. Should always be 1024 bytes.
+     * @param prev previous hop in the tunnel
+     * @param ok out parameter, set to true for each message that was updated and valid
+     * @return the number of messages updated and valid
+     * @since 0.9.59
+     */
+    public int process(byte[][] msgs, int[] offsets, int count, int length, Hash prev, boolean[] ok) {
+        for (int i = 0; i < count; i++) {
+            ok[i] = false;
+        }
+        if (!checkPrevious(prev))
+            return 0;
+        byte[][] valid = new byte[count][];
+        int[] voffsets = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (checkIV(msgs[i], offsets[i])) {
+                voffsets[n] = offsets[i];
+                valid[n++] = msgs[i];
+            }
+        }
+        if (n == 0)
+            return 0;
+        TunnelLayerCipher cipher = getCipher();
+        if (cipher != null) {
+            try {
+                cipher.process(valid, voffsets, n, length);
+            } catch (GeneralSecurityException gse) {
+                cipherFailed(gse);
+                return 0;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                encrypt(valid[i], voffsets[i], length);
+            }
+        }
+        // valid is in the same order as msgs
+        for (int i = 0, j = 0; i < count && j < n; i++) {
+            if (msgs[i] == valid[j]) {
+                ok[i] = true;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     *  @param prev null on gateways
+     *  @return true if OK
+     *  @since 0.9.59 split out from process()
+     */
+    private boolean checkPrevious(Hash prev) {
         // prev is null on gateways
         if (prev != null) {
             if (_config.getReceiveFrom() == null) {
@@ -82,19 +203,28 @@ class HopProcessor {
                 return false;
             }
         }
-        
+        return true;
+    }
+
+    /**
+     *  @return true if OK
+     *  @since 0.9.59 split out from process()
+     */
+    private boolean checkIV(byte orig[], int offset) {
         boolean okIV = _validator.receiveIV(orig, offset, orig, offset + IV_LENGTH);
         if (!okIV) {
             if (_log.shouldLog(Log.WARN)) 
                 _log.warn("Invalid IV, dropping at hop " + _config);
-            return false;
         }
-        
-        //if (_log.shouldLog(Log.DEBUG)) {
-        //    _log.debug("IV received before decrypt: " + Base64.encode(orig, offset, IV_LENGTH));
-        //    _log.debug("Data before processing:\n" + Base64.encode(orig, IV_LENGTH, orig.length - IV_LENGTH));
-        //}
+        return okIV;
+    }
 
+    /**
+     *  The crypto, one message at a time through AESEngine
+     *
+     *  @since 0.9.59 split out from process()
+     */
+    private void encrypt(byte orig[], int offset, int length) {
         SessionKey ivkey = _config.getIVKey();
         AESEngine aes = _context.aes();
         // double IV encryption
@@ -102,12 +232,35 @@ class HopProcessor {
         aes.encrypt(orig, offset + IV_LENGTH, orig, offset + IV_LENGTH, _config.getLayerKey(),
                     orig, offset, length - IV_LENGTH);
         aes.encryptBlock(orig, offset, ivkey, orig, offset);
+    }
 
-        //if (_log.shouldLog(Log.DEBUG)) {
-        //    _log.debug("IV sent: " + Base64.encode(orig, offset, IV_LENGTH));
-        //    _log.debug("Data after processing:\n" + Base64.encode(orig, IV_LENGTH, orig.length - IV_LENGTH));
-        //}
-        return true;
+    /**
+     *  @return null if disabled, unavailable, or the tunnel hasn't had enough traffic yet
+     *  @since 0.9.59
+     */
+    private TunnelLayerCipher getCipher() {
+        if (!_useCipher)
+            return null;
+        TunnelLayerCipher rv = _cipher;
+        if (rv == null && _config.getProcessedMessagesCount() >= MIN_MESSAGES_FOR_CIPHER) {
+            try {
+                rv = new TunnelLayerCipher(_config.getIVKey(), _config.getLayerKey(), true);
+                _cipher = rv;
+            } catch (GeneralSecurityException gse) {
+                cipherFailed(gse);
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Go back to AESEngine for this tunnel
+     *  @since 0.9.59
+     */
+    private void cipherFailed(GeneralSecurityException gse) {
+        _useCipher = false;
+        _cipher = null;
+        _log.error("Tunnel cipher failed at hop " + _config, gse);
     }
 
     /**
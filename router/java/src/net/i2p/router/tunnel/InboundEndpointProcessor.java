@@ -1,5 +1,8 @@
 package net.i2p.router.tunnel;
 
+import java.security.GeneralSecurityException;
+
+import net.i2p.crypto.TunnelLayerCipher;
 import net.i2p.data.Hash;
 import net.i2p.router.ProfileManager;
 import net.i2p.router.RouterContext;
@@ -19,6 +22,9 @@ class InboundEndpointProcessor {
     private final Log _log;
     private final TunnelCreatorConfig _config;
     private final IVValidator _validator;    
+    private volatile boolean _useCipher;
+    /** one per hop, created once the tunnel has some traffic */
+    private volatile TunnelLayerCipher[] _ciphers;
     
     //static final boolean USE_ENCRYPTION = HopProcessor.USE_ENCRYPTION;
     
@@ -35,6 +41,7 @@ class InboundEndpointProcessor {
         _log = ctx.logManager().getLog(InboundEndpointProcessor.class);
         _config = cfg;
         _validator = validator;
+        _useCipher = TunnelLayerCipher.isAvailable() && ctx.getBooleanPropertyDefaultTrue(HopProcessor.PROP_BATCH_CRYPTO);
     }
     
     public Hash getDestination() { return _config.getDestination(); }
@@ -52,6 +59,86 @@ class InboundEndpointProcessor {
      *         if it was a duplicate or from the wrong peer.
      */
     public boolean retrievePreprocessedData(byte orig[], int offset, int length, Hash prev) {
+        if (!checkPrevious(prev) || !checkIV(orig, offset))
+            return false;
+        
+        // inbound endpoints and outbound gateways have to undo the crypto in the same way
+        TunnelLayerCipher[] ciphers = getCiphers();
+        if (ciphers != null) {
+            try {
+                for (int i = ciphers.length - 1; i >= 0; i--) {
+                    ciphers[i].process(orig, offset, length);
+                }
+            } catch (GeneralSecurityException gse) {
+                cipherFailed(gse);
+                return false;
+            }
+        } else {
+            decrypt(_context, _config, orig, offset, length);
+        }
+        
+        received(1, length);
+        return true;
+    }
+
+    /**
+     * Undo the encryption on a burst of messages for this tunnel, all from the same previous hop,
+     * as retrievePreprocessedData() does for each, but with the crypto done one hop at a time
+     * over all the messages.
+     *
+     * @param msgs IV+data of each message, beginning at offset 0
+     * @param count how many in msgs
+     * @param length IV+data length of each. Should always be 1024 bytes.
+     * @param ok out parameter, set to true for each message that was recovered
+     * @return the number of messages recovered
+     * @since 0.9.59
+     */
+    public int retrievePreprocessedData(byte[][] msgs, int count, int length, Hash prev, boolean[] ok) {
+        for (int i = 0; i < count; i++) {
+            ok[i] = false;
+        }
+        if (!checkPrevious(prev))
+            return 0;
+        byte[][] valid = new byte[count][];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (checkIV(msgs[i], 0))
+                valid[n++] = msgs[i];
+        }
+        if (n == 0)
+            return 0;
+        TunnelLayerCipher[] ciphers = getCiphers();
+        if (ciphers != null) {
+            int[] offsets = new int[n];
+            try {
+                for (int i = ciphers.length - 1; i >= 0; i--) {
+                    ciphers[i].process(valid, offsets, n, length);
+                }
+            } catch (GeneralSecurityException gse) {
+                cipherFailed(gse);
+                return 0;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                decrypt(_context, _config, valid[i], 0, length);
+            }
+        }
+        // valid is in the same order as msgs
+        for (int i = 0, j = 0; i < count && j < n; i++) {
+            if (msgs[i] == valid[j]) {
+                ok[i] = true;
+                j++;
+            }
+        }
+        received(n, length);
+        return n;
+    }
+
+    /**
+     *  @return true if OK
+     *  @since 0.9.59 split out from retrievePreprocessedData()
+     */
+    private boolean checkPrevious(Hash prev) {
         Hash last = _config.getPeer(_config.getLength()-2);
         if (!last.equals(prev)) {
             // shouldn't happen now that we have good dup ID detection in BuildHandler
@@ -60,7 +147,14 @@ class InboundEndpointProcessor {
                                + ", expected " + last);
             return false;
         }
-        
+        return true;
+    }
+
+    /**
+     *  @return true if OK
+     *  @since 0.9.59 split out from retrievePreprocessedData()
+     */
+    private boolean checkIV(byte orig[], int offset) {
         //if (_config.getLength() > 1)
         //    _log.debug("IV at inbound endpoint before decrypt: " + Base64.encode(iv));
 
@@ -68,12 +162,17 @@ class InboundEndpointProcessor {
         if (!ok) {
             if (_log.shouldLog(Log.WARN)) 
                 _log.warn("Invalid IV, dropping at IBEP " + _config);
-            return false;
         }
-        
-        // inbound endpoints and outbound gateways have to undo the crypto in the same way
-        decrypt(_context, _config, orig, offset, length);
-        
+        return ok;
+    }
+
+    /**
+     *  Profile and tunnel stats
+     *
+     *  @param count number of messages
+     *  @since 0.9.59 split out from retrievePreprocessedData()
+     */
+    private void received(int count, int length) {
         if (_config.getLength() > 0) {
             int rtt = 0; // dunno... may not be related to an rtt
             //if (_log.shouldLog(Log.DEBUG))
@@ -81,14 +180,50 @@ class InboundEndpointProcessor {
             ProfileManager pm = _context.profileManager();
             // null for unit tests
             if (pm != null) {
-                for (int i = 0; i < _config.getLength(); i++) {
-                    pm.tunnelDataPushed(_config.getPeer(i), rtt, length);
+                for (int j = 0; j < count; j++) {
+                    for (int i = 0; i < _config.getLength(); i++) {
+                        pm.tunnelDataPushed(_config.getPeer(i), rtt, length);
+                    }
                 }
             }
-            _config.incrementVerifiedBytesTransferred(length);
+            _config.incrementVerifiedBytesTransferred(count * length);
         }
-        
-        return true;
+    }
+
+    /**
+     *  @return null if disabled, unavailable, or the tunnel hasn't had enough traffic yet
+     *  @since 0.9.59
+     */
+    private TunnelLayerCipher[] getCiphers() {
+        if (!_useCipher)
+            return null;
+        TunnelLayerCipher[] rv = _ciphers;
+        if (rv == null && _config.getProcessedMessagesCount() >= HopProcessor.MIN_MESSAGES_FOR_CIPHER) {
+            // dont include the endpoint, since that is the creator
+            int hops = Math.max(0, _config.getLength() - 1);
+            rv = new TunnelLayerCipher[hops];
+            try {
+                for (int i = 0; i < hops; i++) {
+                    HopConfig hop = _config.getConfig(i);
+                    rv[i] = new TunnelLayerCipher(hop.getIVKey(), hop.getLayerKey(), false);
+                }
+                _ciphers = rv;
+            } catch (GeneralSecurityException gse) {
+                cipherFailed(gse);
+                rv = null;
+            }
+        }
+        return rv;
+    }
+
+    /**
+     *  Go back to AESEngine for this tunnel
+     *  @since 0.9.59
+     */
+    private void cipherFailed(GeneralSecurityException gse) {
+        _useCipher = false;
+        _ciphers = null;
+        _log.error("Tunnel cipher failed at IBEP " + _config, gse);
     }
     
     /**
@@ -93,7 +93,7 @@ class InboundMessageDistributor implements GarlicMessageReceiver.CloveReceiver {
 
                 case DatabaseStoreMessage.MESSAGE_TYPE:
                     DatabaseStoreMessage dsm = (DatabaseStoreMessage) msg;
-                    if (dsm.getEntry().getType() == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
+                    if (dsm.getEntryType() == DatabaseEntry.KEY_TYPE_ROUTERINFO) {
                         // FVSJ may result in an unsolicited RI store if the peer went non-ff.
                         // We handle this safely, so we don't ask him again.
                         // Todo: if peer was ff and RI is not ff, queue for exploration in netdb (but that isn't part of the facade now)
@@ -104,6 +104,9 @@ class InboundMessageDistributor implements GarlicMessageReceiver.CloveReceiver {
                         if (_context.routerHash().equals(key))
                             return;
                         RouterInfo ri = (RouterInfo) dsm.getEntry();
+                        // null if it could not be parsed
+                        if (ri == null)
+                            return;
                         if (!key.equals(ri.getIdentity().getHash()))
                             return;
                         if (!ri.isValid())
@@ -126,7 +129,11 @@ class InboundMessageDistributor implements GarlicMessageReceiver.CloveReceiver {
                         // allow DSM of our own key (used by FloodfillVerifyStoreJob)
                         // or other keys (used by IterativeSearchJob)
                         // as long as there's no reply token (we will never set a reply token but an attacker might)
-                        ((LeaseSet)dsm.getEntry()).setReceivedBy(_client);
+                        LeaseSet ls = (LeaseSet) dsm.getEntry();
+                        // null if it could not be parsed
+                        if (ls == null)
+                            return;
+                        ls.setReceivedBy(_client);
                     }
                     break;
 
@@ -156,8 +163,12 @@ class InboundMessageDistributor implements GarlicMessageReceiver.CloveReceiver {
                         _log.error("Dropping DSM w/ reply token down a expl. tunnel: " + msg);
                         return;
                     }
-                    if (dsm.getEntry().isLeaseSet())
-                        ((LeaseSet)dsm.getEntry()).setReceivedBy(_client);
+                    DatabaseEntry entry = dsm.getEntry();
+                    // null if it could not be parsed
+                    if (entry == null)
+                        return;
+                    if (entry.isLeaseSet())
+                        ((LeaseSet) entry).setReceivedBy(_client);
                     break;
 
                 case DatabaseSearchReplyMessage.MESSAGE_TYPE:
@@ -251,8 +262,12 @@ class InboundMessageDistributor implements GarlicMessageReceiver.CloveReceiver {
                         dsm.setReplyToken(0);
                         dsm.setReplyTunnel(null);
                         dsm.setReplyGateway(null);
+                        DatabaseEntry entry = dsm.getEntry();
+                        // null if it could not be parsed
+                        if (entry == null)
+                            return;
 
-                            if (dsm.getEntry().isLeaseSet()) {
+                            if (entry.isLeaseSet()) {
                                     // Case 1:
                                     // store of our own LS.
                                     // This is almost certainly a response to a FloodfillVerifyStoreJob search.
@@ -267,7 +282,7 @@ class InboundMessageDistributor implements GarlicMessageReceiver.CloveReceiver {
                                     // Or, it's a normal LS bundled with data and a MessageStatusMessage.
 
                                     // ... and inject it.
-                                    ((LeaseSet)dsm.getEntry()).setReceivedBy(_client);
+                                    ((LeaseSet) entry).setReceivedBy(_client);
                                     if (_log.shouldLog(Log.INFO))
                                         _log.info("Storing garlic LS down tunnel for: " + dsm.getKey() + " sent to: " +
                                                   (_client != null ? _client.toBase32() : "router"));
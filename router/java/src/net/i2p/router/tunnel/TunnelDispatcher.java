@@ -2,7 +2,6 @@ package net.i2p.router.tunnel;
 
 import java.io.IOException;
 import java.io.Writer;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -26,6 +25,7 @@ import net.i2p.router.RouterThrottleImpl;
 import net.i2p.router.Service;
 import net.i2p.router.peermanager.PeerProfile;
 import net.i2p.router.tunnel.pool.PooledTunnelCreatorConfig;
+import net.i2p.router.util.TunnelIdMap;
 import net.i2p.util.Log;
 
 /**
@@ -74,14 +74,14 @@ public class TunnelDispatcher implements Service {
     private final RouterContext _context;
     private final Log _log;
     /** us */
-    private final ConcurrentHashMap<TunnelId, TunnelGateway> _outboundGateways;
-    private final ConcurrentHashMap<TunnelId, OutboundTunnelEndpoint> _outboundEndpoints;
+    private final TunnelIdMap<TunnelGateway> _outboundGateways;
+    private final TunnelIdMap<OutboundTunnelEndpoint> _outboundEndpoints;
     /** regular participant or IBEP of our own tunnel */
-    private final ConcurrentHashMap<TunnelId, TunnelParticipant> _participants;
+    private final TunnelIdMap<TunnelParticipant> _participants;
     /** regular IBGW or our own zero-hop inbound */
-    private final ConcurrentHashMap<TunnelId, TunnelGateway> _inboundGateways;
+    private final TunnelIdMap<TunnelGateway> _inboundGateways;
     /** anything we did not create - IBGW, OBEP, or middle hop */
-    private final ConcurrentHashMap<TunnelId, HopConfig> _participatingConfig;
+    private final TunnelIdMap<HopConfig> _participatingConfig;
     /** what is the date/time on which the last non-locally-created tunnel expires? */
     private long _lastParticipatingExpiration;
     private BloomFilterIVValidator _validator;
@@ -100,11 +100,11 @@ public class TunnelDispatcher implements Service {
     public TunnelDispatcher(RouterContext ctx) {
         _context = ctx;
         _log = ctx.logManager().getLog(TunnelDispatcher.class);
-        _outboundGateways = new ConcurrentHashMap<TunnelId, TunnelGateway>();
-        _outboundEndpoints = new ConcurrentHashMap<TunnelId, OutboundTunnelEndpoint>();
-        _participants = new ConcurrentHashMap<TunnelId, TunnelParticipant>();
-        _inboundGateways = new ConcurrentHashMap<TunnelId, TunnelGateway>();
-        _participatingConfig = new ConcurrentHashMap<TunnelId, HopConfig>();
+        _outboundGateways = new TunnelIdMap<TunnelGateway>();
+        _outboundEndpoints = new TunnelIdMap<OutboundTunnelEndpoint>();
+        _participants = new TunnelIdMap<TunnelParticipant>();
+        _inboundGateways = new TunnelIdMap<TunnelGateway>();
+        _participatingConfig = new TunnelIdMap<HopConfig>();
         _pumper = new TunnelGatewayPumper(ctx);
         _leaveJob = new LeaveTunnel(ctx);
         ctx.statManager().createRequiredRateStat("tunnel.participatingTunnels", 
@@ -263,7 +263,7 @@ public class TunnelDispatcher implements Service {
             gw = new TunnelGatewayZeroHop(_context, cfg);
         }
         TunnelId outId = cfg.getConfig(0).getSendTunnel();
-        if (_outboundGateways.putIfAbsent(outId, gw) != null)
+        if (_outboundGateways.putIfAbsent(outId.getTunnelId(), gw) != null)
             return false;
         if (cfg.getLength() > 1) {
             _context.statManager().addRateData("tunnel.joinOutboundGateway", 1);
@@ -287,14 +287,14 @@ public class TunnelDispatcher implements Service {
         if (cfg.getLength() > 1) {
             TunnelParticipant participant = new TunnelParticipant(_context, new InboundEndpointProcessor(_context, cfg, _validator));
             TunnelId recvId = cfg.getConfig(cfg.getLength()-1).getReceiveTunnel();
-            if (_participants.putIfAbsent(recvId, participant) != null)
+            if (_participants.putIfAbsent(recvId.getTunnelId(), participant) != null)
                 return false;
             _context.statManager().addRateData("tunnel.joinInboundEndpoint", 1);
             _context.messageHistory().tunnelJoined("inboundEndpoint", cfg);
         } else {
             TunnelGatewayZeroHop gw = new TunnelGatewayZeroHop(_context, cfg);
             TunnelId recvId = cfg.getConfig(0).getReceiveTunnel();
-            if (_inboundGateways.putIfAbsent(recvId, gw) != null)
+            if (_inboundGateways.putIfAbsent(recvId.getTunnelId(), gw) != null)
                 return false;
             _context.statManager().addRateData("tunnel.joinInboundEndpointZeroHop", 1);
             _context.messageHistory().tunnelJoined("inboundEndpointZeroHop", cfg);
@@ -313,10 +313,10 @@ public class TunnelDispatcher implements Service {
         TunnelId recvId = cfg.getReceiveTunnel();
         TunnelParticipant participant = new TunnelParticipant(_context, cfg, new HopProcessor(_context, cfg, _validator));
         synchronized (_joinParticipantLock) {
-            if (_participatingConfig.putIfAbsent(recvId, cfg) != null)
+            if (_participatingConfig.putIfAbsent(recvId.getTunnelId(), cfg) != null)
                 return false;
-            if (_participants.putIfAbsent(recvId, participant) != null) {
-                _participatingConfig.remove(recvId);
+            if (_participants.putIfAbsent(recvId.getTunnelId(), participant) != null) {
+                _participatingConfig.remove(recvId.getTunnelId());
                 return false;
             }
         }
@@ -339,10 +339,10 @@ public class TunnelDispatcher implements Service {
         TunnelId recvId = cfg.getReceiveTunnel();
         OutboundTunnelEndpoint endpoint = new OutboundTunnelEndpoint(_context, cfg, new HopProcessor(_context, cfg, _validator));
         synchronized (_joinParticipantLock) {
-            if (_participatingConfig.putIfAbsent(recvId, cfg) != null)
+            if (_participatingConfig.putIfAbsent(recvId.getTunnelId(), cfg) != null)
                 return false;
-            if (_outboundEndpoints.putIfAbsent(recvId, endpoint) != null) {
-                _participatingConfig.remove(recvId);
+            if (_outboundEndpoints.putIfAbsent(recvId.getTunnelId(), endpoint) != null) {
+                _participatingConfig.remove(recvId.getTunnelId());
                 return false;
             }
         }
@@ -370,10 +370,10 @@ public class TunnelDispatcher implements Service {
         TunnelGateway gw = new ThrottledPumpedTunnelGateway(_context, preproc, sender, receiver, _pumper, cfg);
         TunnelId recvId = cfg.getReceiveTunnel();
         synchronized (_joinParticipantLock) {
-            if (_participatingConfig.putIfAbsent(recvId, cfg) != null)
+            if (_participatingConfig.putIfAbsent(recvId.getTunnelId(), cfg) != null)
                 return false;
-            if (_inboundGateways.putIfAbsent(recvId, gw) != null) {
-                _participatingConfig.remove(recvId);
+            if (_inboundGateways.putIfAbsent(recvId.getTunnelId(), gw) != null) {
+                _participatingConfig.remove(recvId.getTunnelId());
                 return false;
             }
         }
@@ -398,12 +398,10 @@ public class TunnelDispatcher implements Service {
      */
     public TunnelId getNewOBGWID() {
         long id;
-        TunnelId rv;
         do {
             id = 1 + _context.random().nextLong(TunnelId.MAX_ID_VALUE);
-            rv = new TunnelId(id);
-        } while (_outboundGateways.containsKey(rv));
-        return rv;
+        } while (_outboundGateways.containsKey(id));
+        return new TunnelId(id);
     }
     
     /**
@@ -415,12 +413,10 @@ public class TunnelDispatcher implements Service {
      */
     public TunnelId getNewIBEPID() {
         long id;
-        TunnelId rv;
         do {
             id = 1 + _context.random().nextLong(TunnelId.MAX_ID_VALUE);
-            rv = new TunnelId(id);
-        } while (_participants.containsKey(rv));
-        return rv;
+        } while (_participants.containsKey(id));
+        return new TunnelId(id);
     }
     
     /**
@@ -432,12 +428,10 @@ public class TunnelDispatcher implements Service {
      */
     public TunnelId getNewIBZeroHopID() {
         long id;
-        TunnelId rv;
         do {
             id = 1 + _context.random().nextLong(TunnelId.MAX_ID_VALUE);
-            rv = new TunnelId(id);
-        } while (_inboundGateways.containsKey(rv));
-        return rv;
+        } while (_inboundGateways.containsKey(id));
+        return new TunnelId(id);
     }
 
     /*******  may be used for congestion control later...
@@ -457,9 +451,9 @@ public class TunnelDispatcher implements Service {
             TunnelId recvId = cfg.getConfig(cfg.getLength()-1).getReceiveTunnel();
             if (_log.shouldLog(Log.INFO))
                 _log.info("removing our own inbound " + cfg);
-            TunnelParticipant participant = _participants.remove(recvId);
+            TunnelParticipant participant = _participants.remove(recvId.getTunnelId());
             if (participant == null) {
-                _inboundGateways.remove(recvId);
+                _inboundGateways.remove(recvId.getTunnelId());
             } else {
                 // update stats based off getCompleteCount() + getFailedCount()
                 // skip last hop (us)
@@ -477,7 +471,7 @@ public class TunnelDispatcher implements Service {
             if (_log.shouldLog(Log.INFO))
                 _log.info("removing our own outbound " + cfg);
             TunnelId outId = cfg.getConfig(0).getSendTunnel();
-            TunnelGateway gw = _outboundGateways.remove(outId);
+            TunnelGateway gw = _outboundGateways.remove(outId.getTunnelId());
             if (gw != null) {
                 // update stats based on gw.getMessagesSent()
             }
@@ -500,7 +494,7 @@ public class TunnelDispatcher implements Service {
     public void remove(HopConfig cfg) {
         TunnelId recvId = cfg.getReceiveTunnel();
         
-        boolean removed = (null != _participatingConfig.remove(recvId));
+        boolean removed = (null != _participatingConfig.remove(recvId.getTunnelId()));
         if (removed) {
             if (_log.shouldLog(Log.INFO))
                 _log.info("removing " + cfg /* , new Exception() */ );
@@ -510,11 +504,11 @@ public class TunnelDispatcher implements Service {
                 _log.debug("Participating tunnel, but no longer listed in participatingConfig? " + cfg /* , new Exception() */ );
         }
         
-        removed = (null != _participants.remove(recvId));
+        removed = (null != _participants.remove(recvId.getTunnelId()));
         if (removed) return;
-        removed = (null != _inboundGateways.remove(recvId));
+        removed = (null != _inboundGateways.remove(recvId.getTunnelId()));
         if (removed) return;
-        _outboundEndpoints.remove(recvId);
+        _outboundEndpoints.remove(recvId.getTunnelId());
     }
     
     /**
@@ -528,7 +522,7 @@ public class TunnelDispatcher implements Service {
      */
     public void dispatch(TunnelDataMessage msg, Hash recvFrom) {
         //long before = System.currentTimeMillis();
-        TunnelParticipant participant = _participants.get(msg.getTunnelIdObj());
+        TunnelParticipant participant = _participants.get(msg.getTunnelId());
         if (participant != null) {
             // we are either just a random participant or the inbound endpoint 
             if (_log.shouldLog(Log.DEBUG))
@@ -538,7 +532,7 @@ public class TunnelDispatcher implements Service {
             participant.dispatch(msg, recvFrom);
             _context.statManager().addRateData("tunnel.dispatchParticipant", 1);
         } else {
-            OutboundTunnelEndpoint endpoint = _outboundEndpoints.get(msg.getTunnelIdObj());
+            OutboundTunnelEndpoint endpoint = _outboundEndpoints.get(msg.getTunnelId());
             if (endpoint != null) {
                 // we are the outobund endpoint
                 if (_log.shouldLog(Log.DEBUG))
@@ -565,6 +559,52 @@ public class TunnelDispatcher implements Service {
         //_context.statManager().addRateData("tunnel.dispatchDataTime", dispatchTime, dispatchTime);
     }
 
+    /**
+     * A burst of tunnel data messages, as from InNetMessagePool's queue.
+     * Messages for the same participating tunnel from the same peer are
+     * handed to the participant together so the crypto may be done in one pass.
+     * All others are dispatched individually.
+     *
+     * @param msgs TunnelDataMessages
+     * @param froms the peer each message was received from, same size as msgs
+     * @since 0.9.59
+     */
+    public void dispatch(List<? extends I2NPMessage> msgs, List<Hash> froms) {
+        int count = msgs.size();
+        boolean[] done = new boolean[count];
+        List<TunnelDataMessage> burst = new ArrayList<TunnelDataMessage>(count);
+        for (int i = 0; i < count; i++) {
+            if (done[i])
+                continue;
+            TunnelDataMessage msg = (TunnelDataMessage) msgs.get(i);
+            Hash from = froms.get(i);
+            long id = msg.getTunnelId();
+            TunnelParticipant participant = _participants.get(id);
+            if (participant == null) {
+                dispatch(msg, from);
+                continue;
+            }
+            burst.add(msg);
+            for (int j = i + 1; j < count; j++) {
+                if (!done[j] && ((TunnelDataMessage) msgs.get(j)).getTunnelId() == id && from.equals(froms.get(j))) {
+                    burst.add((TunnelDataMessage) msgs.get(j));
+                    done[j] = true;
+                }
+            }
+            if (_log.shouldLog(Log.DEBUG))
+                _log.debug("dispatch " + burst.size() + " to participant " + participant + " from " 
+                           + from.toBase64().substring(0,4));
+            for (TunnelDataMessage m : burst) {
+                _context.messageHistory().tunnelDispatched(m.getUniqueId(), id, "participant");
+            }
+            participant.dispatch(burst, from);
+            for (int j = 0; j < burst.size(); j++) {
+                _context.statManager().addRateData("tunnel.dispatchParticipant", 1);
+            }
+            burst.clear();
+        }
+    }
+
     /** High for now, just to prevent long-lived-message attacks */
     private static final long MAX_FUTURE_EXPIRATION = 3*60*1000 + Router.CLOCK_FUDGE_FACTOR;
 
@@ -576,7 +616,7 @@ public class TunnelDispatcher implements Service {
     public void dispatch(TunnelGatewayMessage msg) {
         long before = _context.clock().now();
         TunnelId id = msg.getTunnelId();
-        TunnelGateway gw = _inboundGateways.get(id);
+        TunnelGateway gw = _inboundGateways.get(id.getTunnelId());
         I2NPMessage submsg = msg.getMessage();
         // The contained message is nulled out when written
         if (submsg == null)
@@ -653,7 +693,7 @@ public class TunnelDispatcher implements Service {
     public void dispatchOutbound(I2NPMessage msg, TunnelId outboundTunnel, TunnelId targetTunnel, Hash targetPeer) {
         if (outboundTunnel == null) throw new IllegalArgumentException("null outbound tunnel?");
         long before = _context.clock().now();
-        TunnelGateway gw = _outboundGateways.get(outboundTunnel);
+        TunnelGateway gw = _outboundGateways.get(outboundTunnel.getTunnelId());
         if (gw != null) {
             if (_log.shouldLog(Log.DEBUG))
                 _log.debug("dispatch outbound through " + outboundTunnel.getTunnelId()
@@ -711,7 +751,7 @@ public class TunnelDispatcher implements Service {
      *  @return a copy
      */
     public List<HopConfig> listParticipatingTunnels() {
-        return new ArrayList<HopConfig>(_participatingConfig.values());
+        return _participatingConfig.values();
     }
 
     /**
@@ -1,5 +1,7 @@
 package net.i2p.router.tunnel;
 
+import java.util.List;
+
 import net.i2p.data.Hash;
 import net.i2p.data.router.RouterInfo;
 import net.i2p.data.TunnelId;
@@ -85,12 +87,59 @@ class TunnelParticipant {
     
     public void dispatch(TunnelDataMessage msg, Hash recvFrom) {
         boolean ok = false;
-        byte[] data = msg.getData();
-        if (_processor != null)
-            ok = _processor.process(data, 0, data.length, recvFrom);
-        else if (_inboundEndpointProcessor != null) 
+        if (_processor != null) {
+            // in place in the received buffer, if any, which then goes to the next hop
+            byte[] data = msg.getDataBuffer();
+            ok = _processor.process(data, msg.getDataOffset(), TunnelDataMessage.DATA_SIZE, recvFrom);
+        } else if (_inboundEndpointProcessor != null) {
+            byte[] data = msg.getData();
             ok = _inboundEndpointProcessor.retrievePreprocessedData(data, 0, data.length, recvFrom);
-        
+        }
+        processed(msg, ok);
+    }
+
+    /**
+     *  A burst of messages for this tunnel, all from the same previous hop,
+     *  with the crypto for all of them done in one pass.
+     *
+     *  @param msgs non-empty, each 1024 bytes of data
+     *  @since 0.9.59
+     */
+    public void dispatch(List<TunnelDataMessage> msgs, Hash recvFrom) {
+        int count = msgs.size();
+        if (count == 1) {
+            dispatch(msgs.get(0), recvFrom);
+            return;
+        }
+        byte[][] data = new byte[count][];
+        boolean[] ok = new boolean[count];
+        int length = TunnelDataMessage.DATA_SIZE;
+        if (_processor != null) {
+            int[] offsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                TunnelDataMessage msg = msgs.get(i);
+                data[i] = msg.getDataBuffer();
+                offsets[i] = msg.getDataOffset();
+            }
+            _processor.process(data, offsets, count, length, recvFrom, ok);
+        } else if (_inboundEndpointProcessor != null) {
+            for (int i = 0; i < count; i++) {
+                data[i] = msgs.get(i).getData();
+            }
+            _inboundEndpointProcessor.retrievePreprocessedData(data, count, length, recvFrom, ok);
+        }
+        for (int i = 0; i < count; i++) {
+            processed(msgs.get(i), ok[i]);
+        }
+    }
+
+    /**
+     *  Forward or receive the message after the crypto
+     *
+     *  @param ok was the crypto successful
+     *  @since 0.9.59 split out from dispatch()
+     */
+    private void processed(TunnelDataMessage msg, boolean ok) {
         if (!ok) {
             if (_log.shouldLog(Log.WARN))
                 _log.warn("Failed to dispatch " + msg + ": processor=" + _processor 
@@ -125,6 +174,7 @@ class TunnelParticipant {
             // IBEP
             TunnelCreatorConfig cfg = _inboundEndpointProcessor.getConfig();
             cfg.incrementProcessedMessages();
+            byte[] data = msg.getData();
             ok = _handler.receiveTunnelMessage(data, 0, data.length);
             if (ok) {
                 if (_log.shouldLog(Log.DEBUG))
@@ -0,0 +1,254 @@
+package net.i2p.router.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *  Concurrent open-addressing map keyed by a primitive 32-bit tunnel ID,
+ *  to replace ConcurrentHashMap&lt;TunnelId, V&gt; where lookups happen per
+ *  message and changes only on tunnel join and expiration.
+ *
+ *  Lookups are lock-free and allocate nothing. Changes are serialized
+ *  on the map. Linear probing; a key once placed in a slot stays there
+ *  until the next rehash, and removal just clears the value, so a
+ *  reader's probe sequence is never disturbed. Rehash (to grow or to
+ *  clear out removed slots) builds a new table and publishes it.
+ *
+ *  Keys are tunnel IDs as returned by TunnelId.getTunnelId(),
+ *  1 to TunnelId.MAX_ID_VALUE. Zero is never present, and null values
+ *  are not allowed.
+ *
+ *  Iteration via values() is a snapshot.
+ *
+ *  @since 0.9.59
+ */
+public class TunnelIdMap<V> {
+
+    private volatile Table _table;
+    private volatile int _size;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table {
+        final AtomicIntegerArray keys;
+        final AtomicReferenceArray<Object> values;
+        final int mask;
+        /** slots with a key, live or removed; writer only */
+        int used;
+
+        Table(int capacity) {
+            keys = new AtomicIntegerArray(capacity);
+            values = new AtomicReferenceArray<Object>(capacity);
+            mask = capacity - 1;
+        }
+
+        /** resize when used exceeds this */
+        int threshold() {
+            return (mask + 1) * 3 / 4;
+        }
+    }
+
+    public TunnelIdMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     *  @param expected number of entries
+     */
+    public TunnelIdMap(int expected) {
+        _table = new Table(capacityFor(expected));
+    }
+
+    /** power of two, at most half full */
+    private static int capacityFor(int size) {
+        int cap = MIN_CAPACITY;
+        while (cap < size * 2)
+            cap <<= 1;
+        return cap;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int toKey(long id) {
+        if (id <= 0 || id > 0xffffffffL)
+            throw new IllegalArgumentException("bad tunnel ID " + id);
+        return (int) id;
+    }
+
+    /**
+     *  @param id 1 to TunnelId.MAX_ID_VALUE, any other value is not found
+     *  @return value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long id) {
+        if (id <= 0 || id > 0xffffffffL)
+            return null;
+        int key = (int) id;
+        Table t = _table;
+        int mask = t.mask;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = t.keys.get(i);
+            if (k == key)
+                return (V) t.values.get(i);
+            if (k == 0)
+                return null;
+        }
+    }
+
+    public boolean containsKey(long id) {
+        return get(id) != null;
+    }
+
+    /**
+     *  @return previous value or null
+     *  @throws IllegalArgumentException if id out of range
+     */
+    public synchronized V put(long id, V value) {
+        return put(id, value, false);
+    }
+
+    /**
+     *  @return existing value, or null if value was added
+     *  @throws IllegalArgumentException if id out of range
+     */
+    public synchronized V putIfAbsent(long id, V value) {
+        return put(id, value, true);
+    }
+
+    /**
+     *  Caller must synch
+     */
+    @SuppressWarnings("unchecked")
+    private V put(long id, V value, boolean onlyIfAbsent) {
+        if (value == null)
+            throw new NullPointerException();
+        int key = toKey(id);
+        Table t = _table;
+        int mask = t.mask;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = t.keys.get(i);
+            if (k == key) {
+                V old = (V) t.values.get(i);
+                if (old == null)
+                    _size++;
+                else if (onlyIfAbsent)
+                    return old;
+                t.values.set(i, value);
+                return old;
+            }
+            if (k == 0) {
+                // value first, so a reader that sees the key sees the value
+                t.values.set(i, value);
+                t.keys.set(i, key);
+                _size++;
+                if (++t.used > t.threshold())
+                    rehash();
+                return null;
+            }
+        }
+    }
+
+    /**
+     *  @return removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long id) {
+        if (id <= 0 || id > 0xffffffffL)
+            return null;
+        int key = (int) id;
+        Table t = _table;
+        int mask = t.mask;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = t.keys.get(i);
+            if (k == key) {
+                V old = (V) t.values.getAndSet(i, null);
+                if (old != null)
+                    _size--;
+                return old;
+            }
+            if (k == 0)
+                return null;
+        }
+    }
+
+    /**
+     *  Remove only if mapped to value (by identity)
+     *  @return true if removed
+     */
+    public synchronized boolean remove(long id, V value) {
+        if (id <= 0 || id > 0xffffffffL)
+            return false;
+        int key = (int) id;
+        Table t = _table;
+        int mask = t.mask;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int k = t.keys.get(i);
+            if (k == key) {
+                if (t.values.compareAndSet(i, value, null)) {
+                    _size--;
+                    return true;
+                }
+                return false;
+            }
+            if (k == 0)
+                return false;
+        }
+    }
+
+    /**
+     *  New table sized for the live entries, without the removed ones.
+     *  Caller must synch
+     */
+    private void rehash() {
+        Table old = _table;
+        Table t = new Table(capacityFor(_size + 1));
+        int mask = t.mask;
+        for (int j = 0; j <= old.mask; j++) {
+            Object v = old.values.get(j);
+            if (v == null)
+                continue;
+            int key = old.keys.get(j);
+            int i = hash(key) & mask;
+            while (t.keys.get(i) != 0) {
+                i = (i + 1) & mask;
+            }
+            t.values.set(i, v);
+            t.keys.set(i, key);
+            t.used++;
+        }
+        _table = t;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public synchronized void clear() {
+        _table = new Table(MIN_CAPACITY);
+        _size = 0;
+    }
+
+    /**
+     *  @return a snapshot copy
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        Table t = _table;
+        List<V> rv = new ArrayList<V>(_size);
+        for (int i = 0; i <= t.mask; i++) {
+            Object v = t.values.get(i);
+            if (v != null)
+                rv.add((V) v);
+        }
+        return rv;
+    }
+}
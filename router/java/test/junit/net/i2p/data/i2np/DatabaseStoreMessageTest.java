@@ -13,7 +13,9 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import net.i2p.I2PAppContext;
+import net.i2p.data.DatabaseEntry;
 import net.i2p.data.DataFormatException;
+import net.i2p.data.DataHelper;
 import net.i2p.data.DataStructure;
 import net.i2p.data.Hash;
 import net.i2p.data.router.RouterInfo;
@@ -50,6 +52,107 @@ public class DatabaseStoreMessageTest extends StructureTest {
         } catch (UnsupportedOperationException expected) {}
     }
 
+    /**
+     *  Read lazily, written again and flooded as received
+     */
+    @Test
+    public void testLazyEntry() throws Exception {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        RouterInfo info = (RouterInfo)new RouterInfoTest().createDataStructure();
+        DatabaseStoreMessage msg = new DatabaseStoreMessage(ctx);
+        msg.setMessageExpiration(Clock.getInstance().now());
+        msg.setUniqueId(666);
+        msg.setEntry(info);
+        byte[] data = msg.toByteArray();
+
+        DatabaseStoreMessage in = (DatabaseStoreMessage) new I2NPMessageHandler(ctx).readMessage(data);
+        assertEquals(info.getHash(), in.getKey());
+        assertEquals(DatabaseEntry.KEY_TYPE_ROUTERINFO, in.getEntryType());
+        assertArrayEquals(msg.getEntryBytes(), in.getEntryBytes());
+        assertArrayEquals(data, in.toByteArray());
+        assertEquals(info, in.getEntry());
+
+        DatabaseStoreMessage out = new DatabaseStoreMessage(ctx);
+        out.setMessageExpiration(msg.getMessageExpiration());
+        out.setUniqueId(666);
+        out.setEntry(in.getEntry(), in.getEntryBytes());
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    /**
+     *  Fails in getEntry(), not in readMessage()
+     */
+    @Test
+    public void testCorruptEntry() throws Exception {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        byte[] body = new byte[Hash.HASH_LENGTH + 1 + 4 + 2 + 100];
+        ctx.random().nextBytes(body);
+        body[Hash.HASH_LENGTH] = DatabaseEntry.KEY_TYPE_ROUTERINFO;
+        DataHelper.toLong(body, Hash.HASH_LENGTH + 1, 4, 0);
+        DataHelper.toLong(body, Hash.HASH_LENGTH + 5, 2, 100);
+        DatabaseStoreMessage in = new DatabaseStoreMessage(ctx);
+        in.readMessage(body, 0, body.length, DatabaseStoreMessage.MESSAGE_TYPE);
+        assertEquals(DatabaseEntry.KEY_TYPE_ROUTERINFO, in.getEntryType());
+        assertNull(in.getEntry());
+        assertNull(in.getEntry());
+    }
+
+    /**
+     *  Extra data in the gzip, after the routerinfo or before the footer,
+     *  is not sent on
+     */
+    @Test
+    public void testExtraData() throws Exception {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        RouterInfo info = (RouterInfo)new RouterInfoTest().createDataStructure();
+        byte[] ri = info.toByteArray();
+
+        // as compressed by setEntry()
+        DatabaseStoreMessage in = readRI(ctx, info, DataHelper.compress(ri));
+        assertEquals(info, in.getEntry());
+        assertNotNull(in.getEntryBytes());
+
+        byte[] extra = new byte[ri.length + 100];
+        System.arraycopy(ri, 0, extra, 0, ri.length);
+        in = readRI(ctx, info, DataHelper.compress(extra));
+        assertEquals(info, in.getEntry());
+        assertNull(in.getEntryBytes());
+        assertEquals(info, in.getEntry());
+
+        byte[] gz = DataHelper.compress(ri);
+        byte[] junk = new byte[gz.length + 100];
+        System.arraycopy(gz, 0, junk, 0, gz.length - 8);
+        System.arraycopy(gz, gz.length - 8, junk, junk.length - 8, 8);
+        in = readRI(ctx, info, junk);
+        assertEquals(info, in.getEntry());
+        assertNull(in.getEntryBytes());
+
+        // written again from the entry
+        DatabaseStoreMessage out = new DatabaseStoreMessage(ctx);
+        out.setMessageExpiration(in.getMessageExpiration());
+        out.setUniqueId(in.getUniqueId());
+        out.setEntry(in.getEntry(), in.getEntryBytes());
+        DatabaseStoreMessage in2 = (DatabaseStoreMessage) new I2NPMessageHandler(ctx).readMessage(out.toByteArray());
+        assertEquals(info, in2.getEntry());
+        assertNotNull(in2.getEntryBytes());
+        assertTrue(in2.getEntryBytes().length < junk.length);
+    }
+
+    /**
+     *  A received RI DSM with the given gzipped data
+     */
+    private static DatabaseStoreMessage readRI(I2PAppContext ctx, RouterInfo info, byte[] gz) throws Exception {
+        byte[] body = new byte[Hash.HASH_LENGTH + 1 + 4 + 2 + gz.length];
+        System.arraycopy(info.getHash().getData(), 0, body, 0, Hash.HASH_LENGTH);
+        body[Hash.HASH_LENGTH] = DatabaseEntry.KEY_TYPE_ROUTERINFO;
+        DataHelper.toLong(body, Hash.HASH_LENGTH + 1, 4, 0);
+        DataHelper.toLong(body, Hash.HASH_LENGTH + 5, 2, gz.length);
+        System.arraycopy(gz, 0, body, Hash.HASH_LENGTH + 7, gz.length);
+        DatabaseStoreMessage in = new DatabaseStoreMessage(ctx);
+        in.readMessage(body, 0, body.length, DatabaseStoreMessage.MESSAGE_TYPE);
+        return in;
+    }
+
     private static class DSMStructure extends DatabaseStoreMessage implements DataStructure {
         public DSMStructure(I2PAppContext ctx) { super(ctx); }
         public Hash calculateHash() { return null; }
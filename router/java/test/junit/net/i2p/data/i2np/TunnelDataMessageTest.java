@@ -0,0 +1,89 @@
+package net.i2p.data.i2np;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.data.DataHelper;
+
+/**
+ *  A TunnelDataMessage as received by NTCP2 or SSU2, forwarded from the same buffer
+ */
+public class TunnelDataMessageTest {
+
+    private static byte[] received(I2PAppContext ctx) {
+        TunnelDataMessage msg = new TunnelDataMessage(ctx);
+        msg.setUniqueId(12345);
+        msg.setTunnelId(6789);
+        byte[] data = new byte[TunnelDataMessage.DATA_SIZE];
+        ctx.random().nextBytes(data);
+        msg.setData(data);
+        // in a block, with some junk around it
+        byte[] rv = new byte[TunnelDataMessage.RAW_SIZE + 20];
+        assertEquals(10 + TunnelDataMessage.RAW_SIZE, msg.toRawByteArrayNTCP2(rv, 10));
+        return rv;
+    }
+
+    @Test
+    public void testForward() throws Exception {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        byte[] buf = received(ctx);
+        I2NPMessage m = I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, buf, 10, TunnelDataMessage.RAW_SIZE, null);
+        assertTrue(m instanceof TunnelDataMessage);
+        TunnelDataMessage msg = (TunnelDataMessage) m;
+        assertEquals(12345, msg.getUniqueId());
+        assertEquals(6789, msg.getTunnelId());
+
+        // a participant, in place
+        byte[] data = msg.getDataBuffer();
+        int off = msg.getDataOffset();
+        assertTrue(DataHelper.eq(buf, 10 + off, data, off, TunnelDataMessage.DATA_SIZE));
+        for (int i = 0; i < TunnelDataMessage.DATA_SIZE; i++) {
+            data[off + i] ^= 0x55;
+        }
+        msg.setUniqueId(54321);
+        msg.setTunnelId(9876);
+
+        // the same buffer goes out
+        byte[] raw = msg.getRawByteArrayNTCP2();
+        assertSame(data, raw);
+        TunnelDataMessage out = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, raw, 0, raw.length, null);
+        assertEquals(54321, out.getUniqueId());
+        assertEquals(9876, out.getTunnelId());
+        assertEquals(msg, out);
+        for (int i = 0; i < TunnelDataMessage.DATA_SIZE; i++) {
+            assertEquals((byte) (buf[10 + off + i] ^ 0x55), out.getData()[i]);
+        }
+
+        // and the same in the usual form
+        byte[] full = msg.toByteArray();
+        TunnelDataMessage msg2 = new TunnelDataMessage(ctx);
+        msg2.readBytes(full, -1, 0);
+        assertEquals(9876, msg2.getTunnelId());
+        assertEquals(msg, msg2);
+        assertEquals(msg.hashCode(), msg2.hashCode());
+    }
+
+    @Test
+    public void testEndpoint() throws Exception {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        byte[] buf = received(ctx);
+        TunnelDataMessage msg = (TunnelDataMessage) I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, buf, 10, TunnelDataMessage.RAW_SIZE, null);
+        // copied out for the fragment handler
+        byte[] data = msg.getData();
+        assertEquals(TunnelDataMessage.DATA_SIZE, data.length);
+        assertTrue(DataHelper.eq(buf, 10 + 13, data, 0, TunnelDataMessage.DATA_SIZE));
+        assertNull(msg.getRawByteArrayNTCP2());
+        assertSame(data, msg.getDataBuffer());
+        assertEquals(0, msg.getDataOffset());
+    }
+
+    @Test(expected=I2NPMessageException.class)
+    public void testBadTunnelId() throws Exception {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        byte[] buf = received(ctx);
+        DataHelper.toLong(buf, 10 + 9, 4, 0);
+        I2NPMessageImpl.fromRawByteArrayNTCP2(ctx, buf, 10, TunnelDataMessage.RAW_SIZE, null);
+    }
+}
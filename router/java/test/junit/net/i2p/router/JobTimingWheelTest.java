@@ -0,0 +1,187 @@
+package net.i2p.router;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class JobTimingWheelTest {
+
+    private static RouterContext _context;
+
+    private static class TestJob extends JobImpl {
+        public TestJob(long start) {
+            super(_context);
+            getTiming().setStartAfter(start);
+        }
+        public String getName() { return "Test"; }
+        public void runJob() {}
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        _context = new RouterContext(null);
+    }
+
+    /** every job comes out exactly once, never early, and within one step late */
+    @Test
+    public void testPromotion() {
+        long base = 1000000;
+        JobTimingWheel wheel = new JobTimingWheel(4, base);
+        Random rand = new Random(1);
+        List<Job> jobs = new ArrayList<Job>();
+        // covers all four levels, plus some already due
+        for (int i = 0; i < 20000; i++) {
+            long delay;
+            switch (i % 4) {
+                case 0:  delay = rand.nextInt(1000); break;
+                case 1:  delay = rand.nextInt(60*1000); break;
+                case 2:  delay = rand.nextInt(60*60*1000); break;
+                default: delay = rand.nextInt(2*60*60*1000) - 100; break;
+            }
+            Job j = new TestJob(base + delay);
+            jobs.add(j);
+            wheel.add(j, j.getTiming().getStartAfter());
+        }
+        assertEquals(jobs.size(), wheel.size());
+
+        List<Job> ready = new ArrayList<Job>();
+        int count = 0;
+        long step = 7;
+        for (long now = base; now <= base + 2*60*60*1000 + step; now += step) {
+            long next = wheel.advance(now, ready);
+            assertTrue(next > now);
+            for (Job j : ready) {
+                long start = j.getTiming().getStartAfter();
+                assertTrue("early", start <= now);
+                assertTrue("late", start > now - step || start <= base);
+            }
+            count += ready.size();
+            ready.clear();
+        }
+        assertEquals(jobs.size(), count);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRemoveAndReschedule() {
+        long base = 1000000;
+        JobTimingWheel wheel = new JobTimingWheel(1, base);
+        Job a = new TestJob(base + 500);
+        Job b = new TestJob(base + 5000);
+        wheel.add(a, a.getTiming().getStartAfter());
+        wheel.add(b, b.getTiming().getStartAfter());
+        assertTrue(wheel.contains(a));
+        assertTrue(wheel.remove(a));
+        assertFalse(wheel.remove(a));
+        assertFalse(wheel.contains(a));
+
+        // re-add replaces
+        b.getTiming().setStartAfter(base + 100);
+        wheel.add(b, b.getTiming().getStartAfter());
+        assertEquals(1, wheel.size());
+        List<Job> ready = new ArrayList<Job>();
+        wheel.advance(base + 100, ready);
+        assertEquals(1, ready.size());
+        assertSame(b, ready.get(0));
+        ready.clear();
+        wheel.advance(base + 10000, ready);
+        assertTrue(ready.isEmpty());
+    }
+
+    /** start time moved later without re-adding is not run early */
+    @Test
+    public void testMovedLater() {
+        long base = 1000000;
+        JobTimingWheel wheel = new JobTimingWheel(1, base);
+        Job a = new TestJob(base + 100);
+        wheel.add(a, a.getTiming().getStartAfter());
+        a.getTiming().setStartAfter(base + 3000);
+        List<Job> ready = new ArrayList<Job>();
+        wheel.advance(base + 200, ready);
+        assertTrue(ready.isEmpty());
+        assertTrue(wheel.contains(a));
+        wheel.advance(base + 3000, ready);
+        assertEquals(1, ready.size());
+    }
+
+    /** large forward jump and clock shift */
+    @Test
+    public void testJumps() {
+        long base = 1000000;
+        JobTimingWheel wheel = new JobTimingWheel(2, base);
+        Job a = new TestJob(base + 60*60*1000);
+        Job b = new TestJob(base + 2*60*60*1000);
+        wheel.add(a, a.getTiming().getStartAfter());
+        wheel.add(b, b.getTiming().getStartAfter());
+        List<Job> ready = new ArrayList<Job>();
+        wheel.advance(base + 90*60*1000, ready);
+        assertEquals(1, ready.size());
+        assertSame(a, ready.get(0));
+        ready.clear();
+
+        // clock went back an hour
+        wheel.offsetChanged(-60*60*1000, base + 30*60*1000);
+        assertEquals(base + 60*60*1000, b.getTiming().getStartAfter());
+        wheel.advance(base + 59*60*1000, ready);
+        assertTrue(ready.isEmpty());
+        wheel.advance(base + 60*60*1000, ready);
+        assertEquals(1, ready.size());
+    }
+
+    /**
+     *  JobQueue with the wheel: jobs requeued by several threads while the
+     *  pumper promotes them end up on the ready queue exactly once each.
+     *  Nothing takes from the ready queue, so a job requeued between
+     *  its promotion and its offer would be there twice.
+     */
+    @Test
+    public void testConcurrentRequeue() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("router.jobQueue.timingWheel", "true");
+        final RouterContext ctx = new RouterContext(null, props);
+        final JobQueue q = new JobQueue(ctx);
+        q.startup();
+        final List<Job> jobs = new ArrayList<Job>();
+        for (int i = 0; i < 500; i++) {
+            jobs.add(new TestJob(0));
+        }
+        final long end = System.currentTimeMillis() + 2000;
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final Random rand = new Random(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        Job j = jobs.get(rand.nextInt(jobs.size()));
+                        // due now, or within the next few wheel ticks
+                        j.getTiming().setStartAfter(ctx.clock().now() + rand.nextInt(50) - 10);
+                        q.addJob(j);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        // let the pumper promote everything left in the wheel
+        for (int i = 0; i < 100 && q.getReadyCount() < jobs.size(); i++) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(100);
+        assertEquals(jobs.size(), q.getReadyCount());
+        List<Job> ready = new ArrayList<Job>();
+        for (int i = 0; i < jobs.size(); i++) {
+            ready.add(q.getNext());
+        }
+        assertEquals(jobs.size(), new HashSet<Job>(ready).size());
+        q.shutdown();
+    }
+}
@@ -0,0 +1,150 @@
+package net.i2p.router;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class WorkStealingJobQueueTest {
+
+    private static RouterContext _context;
+
+    private static class FastJob extends JobImpl {
+        public FastJob(long start) {
+            super(_context);
+            getTiming().setStartAfter(start);
+        }
+        public String getName() { return "Fast"; }
+        public void runJob() {}
+    }
+
+    private static class OtherJob extends FastJob {
+        public OtherJob(long start) { super(start); }
+        @Override
+        public String getName() { return "Other"; }
+    }
+
+    private static class SlowJob extends FastJob {
+        public SlowJob(long start) { super(start); }
+        @Override
+        public String getName() { return "Slow"; }
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        _context = new RouterContext(null);
+    }
+
+    /** a single taker gets everything, from every lane */
+    @Test
+    public void testSteal() throws InterruptedException {
+        WorkStealingJobQueue q = new WorkStealingJobQueue(4, new ConcurrentHashMap<String, JobStats>());
+        for (int i = 0; i < 1000; i++) {
+            q.offer((i & 1) == 0 ? new FastJob(i) : new OtherJob(i));
+        }
+        assertEquals(1000, q.size());
+        Job peek = q.peek();
+        assertEquals(0, peek.getTiming().getStartAfter());
+        assertTrue(q.contains(peek));
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(q.take());
+        }
+        assertEquals(0, q.size());
+        assertNull(q.poll());
+    }
+
+    /** at most half the runners on slow jobs, even when they are older */
+    @Test
+    public void testSlowLimit() throws InterruptedException {
+        Map<String, JobStats> stats = new ConcurrentHashMap<String, JobStats>();
+        JobStats js = new JobStats("Slow");
+        for (int i = 0; i < 10; i++) {
+            js.jobRan(10 * WorkStealingJobQueue.SLOW_JOB_TIME, 0);
+        }
+        stats.put("Slow", js);
+        final WorkStealingJobQueue q = new WorkStealingJobQueue(4, stats);
+        for (int i = 0; i < 4; i++) {
+            q.offer(new SlowJob(i));
+        }
+
+        // two threads take and keep a slow job each
+        for (int i = 0; i < 2; i++) {
+            final Job[] rv = new Job[1];
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        rv[0] = q.take();
+                    } catch (InterruptedException ie) {}
+                }
+            };
+            t.start();
+            t.join();
+            assertTrue(rv[0] instanceof SlowJob);
+        }
+        // lanes are by class, so this may be in any lane
+        Job fast = new FastJob(100);
+        q.offer(fast);
+        // no permits left, so the fast job goes first
+        assertSame(fast, q.take());
+        assertEquals(2, q.size());
+        // non-blocking poll ignores the limit
+        assertTrue(q.poll() instanceof SlowJob);
+    }
+
+    /** releasing a slow permit wakes a runner waiting for one */
+    @Test
+    public void testReleaseWakes() throws InterruptedException {
+        Map<String, JobStats> stats = new ConcurrentHashMap<String, JobStats>();
+        JobStats js = new JobStats("Slow");
+        for (int i = 0; i < 10; i++) {
+            js.jobRan(10 * WorkStealingJobQueue.SLOW_JOB_TIME, 0);
+        }
+        stats.put("Slow", js);
+        // one permit
+        final WorkStealingJobQueue q = new WorkStealingJobQueue(2, stats);
+        q.offer(new SlowJob(0));
+        q.offer(new SlowJob(1));
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            public void run() {
+                try {
+                    q.take();
+                    taken.countDown();
+                    release.await();
+                } catch (InterruptedException ie) {
+                } finally {
+                    q.releaseSlow();
+                }
+            }
+        };
+        holder.start();
+        assertTrue(taken.await(5, TimeUnit.SECONDS));
+
+        final Job[] rv = new Job[1];
+        final long[] done = new long[1];
+        Thread waiter = new Thread() {
+            public void run() {
+                try {
+                    rv[0] = q.take();
+                    done[0] = System.currentTimeMillis();
+                } catch (InterruptedException ie) {}
+            }
+        };
+        waiter.start();
+        Thread.sleep(100);
+        assertNull(rv[0]);
+        long released = System.currentTimeMillis();
+        release.countDown();
+        waiter.join(5000);
+        assertTrue(rv[0] instanceof SlowJob);
+        // well before the idle wait failsafe
+        assertTrue(done[0] - released < 500);
+        holder.join();
+    }
+}
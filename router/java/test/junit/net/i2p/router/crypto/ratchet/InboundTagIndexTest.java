@@ -0,0 +1,139 @@
+package net.i2p.router.crypto.ratchet;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.HKDF;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SessionKey;
+
+/**
+ *  The inbound tag index, alone and as the listener for inbound tagsets
+ */
+public class InboundTagIndexTest {
+
+    private static final SessionTagListener NOOP = new SessionTagListener() {
+        public boolean addTag(long tag, RatchetTagSet ts) { return true; }
+        public void expireTag(long tag, RatchetTagSet ts) {}
+    };
+
+    private static class Listener implements SessionTagListener {
+        final InboundTagIndex index = new InboundTagIndex();
+
+        public boolean addTag(long tag, RatchetTagSet ts) {
+            return index.putIfAbsent(tag, ts);
+        }
+
+        public void expireTag(long tag, RatchetTagSet ts) {
+            index.remove(tag, ts);
+        }
+    }
+
+    private static RatchetTagSet single() {
+        return new SingleTagSet(NOOP, new SessionKey(new byte[32]), new RatchetSessionTag(0L), 0, 0);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        InboundTagIndex index = new InboundTagIndex();
+        RatchetTagSet ts1 = single();
+        RatchetTagSet ts2 = single();
+        Random r = new Random(1234);
+        int count = 100000;
+        long[] tags = new long[count];
+        for (int i = 0; i < count; i++) {
+            tags[i] = r.nextLong();
+            assertTrue(index.putIfAbsent(tags[i], (i & 1) == 0 ? ts1 : ts2));
+        }
+        assertEquals(count, index.size());
+        assertFalse(index.putIfAbsent(tags[5], ts1));
+        // zero is a valid tag
+        assertNull(index.get(0L));
+        assertTrue(index.putIfAbsent(0L, ts1));
+        assertSame(ts1, index.get(0L));
+        assertSame(ts1, index.remove(0L));
+        assertNull(index.remove(0L));
+
+        for (int i = 0; i < count; i++) {
+            assertSame((i & 1) == 0 ? ts1 : ts2, index.get(tags[i]));
+        }
+        assertFalse(index.remove(tags[0], ts2));
+        assertTrue(index.remove(tags[0], ts1));
+        assertNull(index.get(tags[0]));
+
+        // remove most of them, so it backward shifts and shrinks,
+        // and the rest must still be found
+        for (int i = 1; i < count - 100; i++) {
+            assertNotNull(index.remove(tags[i]));
+        }
+        assertEquals(100, index.size());
+        for (int i = 1; i < count - 100; i++) {
+            assertNull(index.get(tags[i]));
+        }
+        for (int i = count - 100; i < count; i++) {
+            assertSame((i & 1) == 0 ? ts1 : ts2, index.get(tags[i]));
+        }
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(tags[count - 1]));
+    }
+
+    @Test
+    public void testRemoveAll() {
+        InboundTagIndex index = new InboundTagIndex();
+        RatchetTagSet ts1 = single();
+        RatchetTagSet ts2 = single();
+        RatchetTagSet ts3 = single();
+        Random r = new Random(5678);
+        int count = 30000;
+        long[] tags = new long[count];
+        for (int i = 0; i < count; i++) {
+            tags[i] = r.nextLong();
+            RatchetTagSet ts = (i % 3) == 0 ? ts1 : (i % 3) == 1 ? ts2 : ts3;
+            assertTrue(index.putIfAbsent(tags[i], ts));
+        }
+        assertEquals(3, index.getTagSets().size());
+        Set<RatchetTagSet> remove = new HashSet<RatchetTagSet>();
+        remove.add(ts1);
+        remove.add(ts3);
+        assertEquals(20000, index.removeAll(remove));
+        assertEquals(10000, index.size());
+        assertEquals(Collections.singleton(ts2), index.getTagSets());
+        for (int i = 0; i < count; i++) {
+            if ((i % 3) == 1)
+                assertSame(ts2, index.get(tags[i]));
+            else
+                assertNull(index.get(tags[i]));
+        }
+    }
+
+    @Test
+    public void testTagSet() {
+        HKDF hkdf = new HKDF(I2PAppContext.getGlobalContext());
+        SessionKey k1 = new SessionKey(new byte[32]);
+        SessionKey k2 = new SessionKey(new byte[32]);
+        // outbound, to get the tags in order
+        RatchetTagSet ob = new RatchetTagSet(hkdf, k1, k2, 0, 0, 0);
+        Listener lsnr = new Listener();
+        RatchetTagSet ib = new RatchetTagSet(hkdf, lsnr, (PublicKey) null, k1, k2, 0, 0, 0, 10, 50);
+        assertEquals(10, lsnr.index.size());
+        for (int i = 0; i < 20; i++) {
+            long tag = ob.consumeNext().getLong();
+            SessionKeyAndNonce key = ob.consumeNextKey();
+            RatchetTagSet ts = lsnr.index.remove(tag);
+            assertSame(ib, ts);
+            SessionKeyAndNonce ibkey = ts.consume(tag);
+            assertNotNull(ibkey);
+            assertEquals(key, ibkey);
+            assertEquals(i, ibkey.getNonce());
+            assertNull(ts.consume(tag));
+        }
+    }
+}
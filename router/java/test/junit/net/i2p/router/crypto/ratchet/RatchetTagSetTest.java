@@ -0,0 +1,113 @@
+package net.i2p.router.crypto.ratchet;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.HKDF;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SessionKey;
+
+/**
+ *  Inbound ES tagsets, with and without pregeneration
+ */
+public class RatchetTagSetTest {
+
+    private HKDF hkdf;
+    private SessionKey k1, k2;
+
+    private static class Listener implements SessionTagListener {
+        final InboundTagIndex index = new InboundTagIndex();
+
+        public boolean addTag(long tag, RatchetTagSet ts) {
+            return index.putIfAbsent(tag, ts);
+        }
+
+        public void expireTag(long tag, RatchetTagSet ts) {
+            index.remove(tag, ts);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        hkdf = new HKDF(ctx);
+        byte[] b = new byte[32];
+        ctx.random().nextBytes(b);
+        k1 = new SessionKey(b);
+        b = new byte[32];
+        ctx.random().nextBytes(b);
+        k2 = new SessionKey(b);
+    }
+
+    @Test
+    public void testInline() {
+        RatchetTagSet ob = new RatchetTagSet(hkdf, k1, k2, 0, 0, 0);
+        Listener lsnr = new Listener();
+        RatchetTagSet ib = new RatchetTagSet(hkdf, lsnr, (PublicKey) null, k1, k2, 0, 0, 0, 12, 40);
+        for (int i = 0; i < 100; i++) {
+            long tag = ob.consumeNext().getLong();
+            SessionKeyAndNonce key = ob.consumeNextKey();
+            assertSame(ib, lsnr.index.remove(tag));
+            assertEquals(key, ib.consume(tag));
+            assertTrue(ib.wasInline());
+        }
+    }
+
+    @Test
+    public void testPregenerate() {
+        RatchetTagSet ob = new RatchetTagSet(hkdf, k1, k2, 0, 0, 0);
+        Listener lsnr = new Listener();
+        RatchetTagSet ib = new RatchetTagSet(hkdf, lsnr, (PublicKey) null, k1, k2, 0, 0, 0, 12, 40);
+        assertTrue(ib.needsPregeneration());
+        // queued, so not again
+        assertFalse(ib.needsPregeneration());
+        assertTrue(ib.pregenerate() > 0);
+        int hits = 0;
+        for (int i = 0; i < 2000; i++) {
+            long tag = ob.consumeNext().getLong();
+            SessionKeyAndNonce key = ob.consumeNextKey();
+            assertSame(ib, lsnr.index.remove(tag));
+            SessionKeyAndNonce ibkey = ib.consume(tag);
+            assertEquals(key, ibkey);
+            assertEquals(i, ibkey.getNonce());
+            if (!ib.wasInline())
+                hits++;
+            // as if the pregenerator kept up
+            if (ib.needsPregeneration())
+                ib.pregenerate();
+        }
+        assertEquals(2000, hits);
+        // the window doesn't grow without bound
+        assertTrue(ib.size() <= 40 + 64);
+        assertEquals(ib.size(), lsnr.index.size());
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        RatchetTagSet ob = new RatchetTagSet(hkdf, k1, k2, 0, 0, 0);
+        Listener lsnr = new Listener();
+        RatchetTagSet ib = new RatchetTagSet(hkdf, lsnr, (PublicKey) null, k1, k2, 0, 0, 0, 12, 40);
+        ib.needsPregeneration();
+        ib.pregenerate();
+        long[] tags = new long[20];
+        SessionKeyAndNonce[] keys = new SessionKeyAndNonce[20];
+        for (int i = 0; i < 20; i++) {
+            tags[i] = ob.consumeNext().getLong();
+            keys[i] = ob.consumeNextKey();
+        }
+        // every other one, then the rest
+        for (int i = 1; i < 20; i += 2) {
+            assertSame(ib, lsnr.index.remove(tags[i]));
+            assertEquals(keys[i], ib.consume(tags[i]));
+            if (ib.needsPregeneration())
+                ib.pregenerate();
+        }
+        for (int i = 0; i < 20; i += 2) {
+            assertSame(ib, lsnr.index.remove(tags[i]));
+            assertEquals(keys[i], ib.consume(tags[i]));
+        }
+    }
+}
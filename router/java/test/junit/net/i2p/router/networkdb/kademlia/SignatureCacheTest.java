@@ -0,0 +1,116 @@
+package net.i2p.router.networkdb.kademlia;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.i2p.crypto.SigType;
+import net.i2p.data.Certificate;
+import net.i2p.data.DatabaseEntry;
+import net.i2p.data.Hash;
+import net.i2p.data.KeyCertificate;
+import net.i2p.data.PublicKey;
+import net.i2p.data.SigningPrivateKey;
+import net.i2p.data.SigningPublicKey;
+import net.i2p.data.SimpleDataStructure;
+import net.i2p.data.router.RouterIdentity;
+import net.i2p.data.router.RouterInfo;
+import net.i2p.router.RouterContext;
+import net.i2p.util.OrderedProperties;
+
+public class SignatureCacheTest {
+
+    private static RouterContext _context;
+    private static byte[] _riBytes;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        _context = new RouterContext(null);
+        SimpleDataStructure[] keys = _context.keyGenerator().generateSigningKeys(SigType.EdDSA_SHA512_Ed25519);
+        SigningPublicKey spk = (SigningPublicKey) keys[0];
+        Certificate cert = new KeyCertificate(spk);
+        RouterIdentity ident = new RouterIdentity();
+        ident.setPublicKey(new PublicKey(new byte[PublicKey.KEYSIZE_BYTES]));
+        ident.setSigningPublicKey(spk);
+        ident.setCertificate(cert);
+        byte[] padding = new byte[SigningPublicKey.KEYSIZE_BYTES - spk.length()];
+        _context.random().nextBytes(padding);
+        ident.setPadding(padding);
+        RouterInfo ri = new RouterInfo();
+        ri.setIdentity(ident);
+        ri.setPublished(_context.clock().now());
+        ri.setOptions(new OrderedProperties());
+        ri.sign((SigningPrivateKey) keys[1]);
+        _riBytes = ri.toByteArray();
+    }
+
+    private static RouterInfo copy(byte[] b) throws Exception {
+        RouterInfo ri = new RouterInfo();
+        ri.readBytes(new ByteArrayInputStream(b));
+        return ri;
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        SignatureCache cache = new SignatureCache(_context);
+        RouterInfo ri1 = copy(_riBytes);
+        assertFalse(cache.isCached(ri1));
+        assertTrue(cache.verify(ri1));
+        RouterInfo ri2 = copy(_riBytes);
+        assertTrue(cache.isCached(ri2));
+        assertTrue(cache.verify(ri2));
+        assertTrue(ri2.isValid());
+    }
+
+    /** a cached valid result does not vouch for a different signature */
+    @Test
+    public void testBadSignature() throws Exception {
+        SignatureCache cache = new SignatureCache(_context);
+        assertTrue(cache.verify(copy(_riBytes)));
+        byte[] bad = _riBytes.clone();
+        bad[bad.length - 1] ^= 1;
+        RouterInfo ri = copy(bad);
+        assertFalse(cache.isCached(ri));
+        assertFalse(cache.verify(ri));
+        assertTrue(cache.isCached(copy(bad)));
+        assertFalse(cache.verify(copy(bad)));
+        assertFalse(copy(bad).isValid());
+    }
+
+    /** answers true for everything */
+    private static class LyingCache implements DatabaseEntry.VerifyResultCache {
+        int gets;
+        public Boolean get(SigningPublicKey spk, Hash signedHash) { gets++; return Boolean.TRUE; }
+        public void put(SigningPublicKey spk, Hash signedHash, boolean valid) {}
+    }
+
+    /** a result already in the entry is not replaced by the cache */
+    @Test
+    public void testResultNotReplaced() throws Exception {
+        byte[] bad = _riBytes.clone();
+        bad[bad.length - 1] ^= 1;
+        RouterInfo ri = copy(bad);
+        assertEquals(1, DatabaseEntry.verifySignatures(Collections.singletonList(ri)));
+        LyingCache cache = new LyingCache();
+        assertFalse(ri.verifySignature(cache));
+        assertEquals(1, cache.gets);
+        assertFalse(ri.isValid());
+    }
+
+    /** an unsigned entry is not looked up */
+    @Test
+    public void testUnsigned() throws Exception {
+        RouterInfo ri = copy(_riBytes);
+        RouterInfo unsigned = new RouterInfo();
+        unsigned.setIdentity(ri.getIdentity());
+        unsigned.setPublished(ri.getPublished());
+        unsigned.setOptions(new OrderedProperties());
+        LyingCache cache = new LyingCache();
+        assertFalse(unsigned.verifySignature(cache));
+        assertEquals(0, cache.gets);
+    }
+}
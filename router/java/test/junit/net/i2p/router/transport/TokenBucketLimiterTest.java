@@ -0,0 +1,136 @@
+package net.i2p.router.transport;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.i2p.router.RouterContext;
+import net.i2p.router.transport.FIFOBandwidthLimiter.Request;
+
+/**
+ *  The TokenBucketLimiter, refilled by hand, with the default weights 50/20/30
+ */
+public class TokenBucketLimiterTest {
+    private static final int MAX = 100*1024;
+    private FIFOBandwidthLimiter limiter;
+    private final List<Request> buf = new ArrayList<Request>();
+
+    @Before
+    public void setUp() {
+        Properties props = new Properties();
+        props.setProperty(FIFOBandwidthLimiter.PROP_TOKEN_BUCKETS, "true");
+        RouterContext ctx = new RouterContext(null, props);
+        limiter = new FIFOBandwidthLimiter(ctx, false);
+        limiter.setOutboundBurstKBps(MAX / 1024);
+        limiter.setOutboundBurstBytes(0);
+        limiter.setInboundBurstKBps(MAX / 1024);
+        limiter.setInboundBurstBytes(0);
+    }
+
+    @After
+    public void tearDown() {
+        limiter.shutdown();
+    }
+
+    private void refill(int out) {
+        limiter.refillBandwidthQueues(buf, 0, out, 0, 0);
+    }
+
+    private Request local(int bytes) {
+        return limiter.requestOutbound(bytes, 0, FIFOBandwidthLimiter.CLASS_LOCAL, "test");
+    }
+
+    private Request participating(int bytes) {
+        return limiter.requestOutbound(bytes, 0, FIFOBandwidthLimiter.CLASS_PARTICIPATING, "test");
+    }
+
+    @Test
+    public void testShares() {
+        refill(10000);
+        // 3000 for participating
+        assertEquals(0, participating(2000).getPendingRequested());
+        Request req = participating(2000);
+        assertEquals(1000, req.getPendingRequested());
+        // the local class isn't affected by the participating queue
+        assertEquals(0, local(5000).getPendingRequested());
+        Request req2 = local(1);
+        assertEquals(1, req2.getPendingRequested());
+        refill(10000);
+        assertEquals(0, req.getPendingRequested());
+        assertEquals(0, req2.getPendingRequested());
+        assertEquals(5001 + 4000, limiter.getTotalAllocatedOutboundBytes());
+    }
+
+    @Test
+    public void testFifo() {
+        Request a = participating(1000);
+        Request b = participating(1000);
+        assertEquals(1000, a.getPendingRequested());
+        assertEquals(1000, b.getPendingRequested());
+        // 1500 for participating, a first, then part of b
+        refill(5000);
+        assertEquals(0, a.getPendingRequested());
+        assertEquals(500, b.getPendingRequested());
+        // nobody else gets ahead of b
+        Request c = participating(1);
+        assertEquals(1, c.getPendingRequested());
+        refill(5000);
+        assertEquals(0, b.getPendingRequested());
+        assertEquals(0, c.getPendingRequested());
+    }
+
+    @Test
+    public void testSpare() {
+        // local and netDb are idle, so what they didn't use goes to the spare bucket
+        refill(10000);
+        refill(10000);
+        // 3000, and 10000 spare
+        assertEquals(0, participating(8000).getPendingRequested());
+        // 5000, and the 2000 spare left
+        Request loc = local(20000);
+        assertEquals(13000, loc.getPendingRequested());
+        // no spare for participating while local is waiting
+        assertEquals(0, participating(1000).getPendingRequested());
+        Request part = participating(3000);
+        assertEquals(1000, part.getPendingRequested());
+        loc.abort();
+        part.abort();
+    }
+
+    @Test
+    public void testAbort() {
+        Request a = participating(1000);
+        Request b = participating(1000);
+        a.abort();
+        refill(5000);
+        assertEquals(0, b.getPendingRequested());
+        assertEquals(1000, limiter.getTotalAllocatedOutboundBytes());
+    }
+
+    @Test
+    public void testInbound() {
+        limiter.refillBandwidthQueues(buf, 1000, 0, 0, 0);
+        assertEquals(0, limiter.requestInbound(1000, "test").getPendingRequested());
+        Request req = limiter.requestInbound(1, "test");
+        assertEquals(1, req.getPendingRequested());
+        limiter.refillBandwidthQueues(buf, 1000, 0, 0, 0);
+        assertEquals(0, req.getPendingRequested());
+        assertEquals(1001, limiter.getTotalAllocatedInboundBytes());
+    }
+
+    @Test
+    public void testDropParticipating() {
+        assertTrue(limiter.sentParticipatingMessage(1000, 1.0f));
+        Request req = participating(MAX / 2 + 1);
+        assertFalse(limiter.sentParticipatingMessage(1000, 1.0f));
+        req.abort();
+        refill(1000);
+        assertTrue(limiter.sentParticipatingMessage(1000, 1.0f));
+    }
+}
@@ -0,0 +1,74 @@
+package net.i2p.router.transport.crypto;
+
+import static org.junit.Assert.*;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+import net.i2p.I2PAppContext;
+import net.i2p.crypto.KeyGenerator;
+import net.i2p.crypto.KeyPair;
+import net.i2p.crypto.x25519.X25519DH;
+import net.i2p.data.SessionKey;
+
+/**
+ *  X25519 generation and the shared precalc threads
+ */
+public class KeyPrecalcPoolTest {
+
+    private static void checkPair(KeyPair kp) {
+        assertEquals(kp.getPublic(), KeyGenerator.getPublicKey(kp.getPrivate()));
+    }
+
+    @Test
+    public void testGenerators() {
+        I2PAppContext ctx = I2PAppContext.getGlobalContext();
+        X25519Generator i2p = new X25519Generator(ctx, false);
+        assertFalse(i2p.isJDK());
+        X25519Generator jdk = new X25519Generator(ctx, true);
+        assertEquals(X25519Generator.isJDKAvailable(), jdk.isJDK());
+        for (int i = 0; i < 10; i++) {
+            KeyPair a = i2p.generate();
+            KeyPair b = jdk.generate();
+            checkPair(a);
+            checkPair(b);
+            SessionKey ab = X25519DH.dh(a.getPrivate(), b.getPublic());
+            SessionKey ba = X25519DH.dh(b.getPrivate(), a.getPublic());
+            assertEquals(ab, ba);
+        }
+    }
+
+    @Test
+    public void testFill() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("crypto.xdh.precalc.min", "8");
+        props.setProperty("crypto.xdh.precalc.max", "32");
+        I2PAppContext ctx = new I2PAppContext(props);
+        KeyPrecalcPool pool = new KeyPrecalcPool(ctx);
+        X25519KeyFactory xdh = new X25519KeyFactory(ctx, pool);
+        // inline before start
+        assertEquals(0, xdh.size());
+        checkPair(xdh.getKeys());
+        xdh.start();
+        try {
+            for (int i = 0; i < 200 && xdh.size() < 8; i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(xdh.size() >= 8);
+            assertTrue(xdh.size() <= 32);
+            // run it dry, it's refilled
+            for (int i = 0; i < 40; i++) {
+                checkPair(xdh.getKeys());
+            }
+            for (int i = 0; i < 200 && xdh.size() < 8; i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(xdh.size() >= 8);
+            assertTrue(xdh.size() <= 32);
+        } finally {
+            xdh.shutdown();
+        }
+        assertEquals(0, xdh.size());
+    }
+}
@@ -0,0 +1,97 @@
+package net.i2p.router.transport.udp;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *  The window arithmetic of the default controller, and
+ *  goodput of both controllers in the LinkSimulator.
+ */
+public class CongestionControlTest {
+
+    private static final int MTU = 1280;
+    private static final long DURATION = 20*1000;
+
+    private static LinkSimulator.Result simulate(String cc, double loss) {
+        // 1000 KBps, 200 ms RTT, queue of one BDP
+        LinkSimulator sim = new LinkSimulator(1000, 100, loss, 200*1000, 7);
+        return sim.run(LinkSimulator.create(cc, 7), DURATION);
+    }
+
+    @Test
+    public void testRenoWindow() {
+        RenoCongestionControl cc = new RenoCongestionControl(3 * MTU, new Random(1));
+        assertEquals(3 * MTU, cc.getWindow());
+        assertEquals(3 * MTU, cc.getSendAllowance(0));
+        assertEquals(Integer.MAX_VALUE, cc.getPacingDelay(0));
+        cc.allocated(2 * MTU, 0);
+        assertEquals(MTU, cc.getWindowRemaining());
+        // slow start, window grows by the acked bytes
+        cc.acked(MTU, 1, 100, 100);
+        assertEquals(4 * MTU, cc.getWindow());
+        assertEquals(3 * MTU, cc.getWindowRemaining());
+        // retransmitted, no growth, but returned to the window
+        cc.acked(MTU, 2, 100, 200);
+        assertEquals(4 * MTU, cc.getWindow());
+        assertEquals(4 * MTU, cc.getWindowRemaining());
+        // SST to bwe * rtt, window to one packet
+        cc.congestionOccurred(1500, 100, 200, MTU, 300);
+        assertEquals(1500, cc.getWindow());
+        assertEquals(100 * 200, cc.getSlowStartThreshold());
+        cc.fastRetransmitStarted(20, 200, MTU);
+        assertEquals(4000, cc.getSlowStartThreshold());
+        assertEquals(4000 + (3 * MTU), cc.getWindow());
+        cc.fastRetransmitContinued(MTU);
+        assertEquals(4000 + (4 * MTU), cc.getWindow());
+        cc.fastRetransmitEnded();
+        assertEquals(4000, cc.getWindow());
+        assertEquals(4000, cc.getWindowRemaining());
+    }
+
+    @Test
+    public void testBBRPacing() {
+        BBRCongestionControl cc = new BBRCongestionControl(3 * MTU, 1500, new Random(1));
+        assertEquals(4 * 1500, cc.getWindow());
+        // one message per 10 ms, acked after 100 ms, 120 KBps
+        long now = 0;
+        for (int i = 0; i < 200; i++) {
+            cc.allocated(MTU, now);
+            if (i >= 10)
+                cc.acked(MTU, 1, 100, now);
+            now += 10;
+        }
+        assertEquals(100, cc.getMinRTT());
+        float bw = cc.getBottleneckBandwidth();
+        assertTrue("bw " + bw, bw > 100 && bw < 140);
+        // allowance is limited by the pacer, not the window
+        cc.allocated(cc.getSendAllowance(now), now);
+        assertTrue(cc.getWindowRemaining() > 0);
+        assertEquals(0, cc.getSendAllowance(now));
+        int delay = cc.getPacingDelay(now);
+        assertTrue("delay " + delay, delay > 0 && delay < 50);
+    }
+
+    @Test
+    public void testDeterministic() {
+        LinkSimulator.Result r1 = simulate("reno", 0.01);
+        LinkSimulator.Result r2 = simulate("reno", 0.01);
+        assertEquals(r1.delivered, r2.delivered);
+        assertEquals(r1.sent, r2.sent);
+        r1 = simulate("bbr", 0.01);
+        r2 = simulate("bbr", 0.01);
+        assertEquals(r1.delivered, r2.delivered);
+        assertEquals(r1.sent, r2.sent);
+    }
+
+    @Test
+    public void testLossyLink() {
+        LinkSimulator.Result reno = simulate("reno", 0.01);
+        LinkSimulator.Result bbr = simulate("bbr", 0.01);
+        assertTrue("reno " + reno + " bbr " + bbr, bbr.goodput() > 2 * reno.goodput());
+        assertTrue("bbr " + bbr, bbr.goodput() > 800);
+        assertTrue("bbr " + bbr, bbr.goodput() <= 1000);
+    }
+}
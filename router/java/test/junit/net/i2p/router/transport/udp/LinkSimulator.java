@@ -0,0 +1,440 @@
+package net.i2p.router.transport.udp;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *  A deterministic simulation of one bulk transfer over a link with
+ *  a bottleneck bandwidth, a drop-tail queue, a fixed one-way delay,
+ *  and random loss, to compare the goodput of CongestionControl
+ *  implementations. Same seed, same result.
+ *
+ *  The sender does what PeerState does with the controller:
+ *  new single-packet messages are allocated out of the send allowance,
+ *  up to the concurrent message limit,
+ *  RTT and RTO are as in PeerState.recalculateTimeouts(),
+ *  a message NACKed 3 times is fast retransmitted,
+ *  and when the retransmit timer fires, half the unacked messages are resent,
+ *  with the RTO doubled at most once per RTO.
+ *  The send loop wakes up after an ack, or no sooner than 10 ms
+ *  for the pacer, as in OutboundMessageFragments.
+ *  Optionally, packets are released to the link on the
+ *  SendPacer schedule, instead of as soon as they are allocated.
+ *  The source is a bulk transfer, or optionally, bursts
+ *  at regular intervals, see setSource().
+ *
+ *  Simplifications: Each message is one packet and acked by itself,
+ *  acks are never lost, a NACKed message is resent at most once per RTT,
+ *  and messages never expire.
+ *
+ *  Usage: LinkSimulator [seconds]
+ *  prints goodput for Reno and BBR over a few links.
+ *
+ *  @since 0.9.59
+ */
+public class LinkSimulator {
+    /** message and packet size */
+    public static final int PACKET = 1200;
+
+    // as in PeerState
+    private static final int MIN_RTO = 1000;
+    private static final int INIT_RTO = 1000;
+    private static final int MAX_RTO = 60*1000;
+    private static final int FAST_RTX_ACKS = 3;
+    private static final float RTT_DAMPENING = 0.125f;
+    // as in OutboundMessageFragments
+    private static final int MIN_WAIT = 10;
+
+    private static final int EV_ACK = 0;
+    private static final int EV_WAKE = 1;
+    private static final int EV_SEND = 2;
+    private static final int EV_SOURCE = 3;
+
+    private final double _bandwidth;
+    private final int _delay;
+    private final double _loss;
+    private final int _queue;
+    private final Random _rand;
+    // null if not pacing
+    private final SendPacer.PeerPacing _pacing;
+
+    // sender
+    private CongestionControl _cc;
+    private final TreeMap<Integer, Msg> _outstanding = new TreeMap<Integer, Msg>();
+    private int _nextMsg;
+    private int _rtt, _rttDeviation, _rto;
+    private double _retransmitTimer;
+    private double _lastCongestionOccurred;
+    private boolean _fastRetransmit;
+    private float _bwe;
+    private double _bweStart;
+    private int _bweAcked;
+    private double _nextWake;
+    // source, burst of 0 is unlimited
+    private int _burst;
+    private int _interval;
+    private long _available;
+
+    // link and receiver
+    private final PriorityQueue<Event> _events = new PriorityQueue<Event>();
+    private long _eventSeq;
+    private double _linkFree;
+    private final BitSet _received = new BitSet();
+
+    private final Result _result = new Result();
+
+    /**
+     *  @param bandwidth bottleneck, bytes/ms (i.e. KBps)
+     *  @param delay one way, ms
+     *  @param loss random loss probability, 0 to 1, each way applies only to data
+     *  @param queue bottleneck queue, bytes
+     *  @param seed for the loss
+     */
+    public LinkSimulator(double bandwidth, int delay, double loss, int queue, long seed) {
+        this(bandwidth, delay, loss, queue, seed, false);
+    }
+
+    /**
+     *  @param bandwidth bottleneck, bytes/ms (i.e. KBps)
+     *  @param delay one way, ms
+     *  @param loss random loss probability, 0 to 1, each way applies only to data
+     *  @param queue bottleneck queue, bytes
+     *  @param seed for the loss
+     *  @param pacing release packets on the SendPacer schedule
+     */
+    public LinkSimulator(double bandwidth, int delay, double loss, int queue, long seed, boolean pacing) {
+        _bandwidth = bandwidth;
+        _delay = delay;
+        _loss = loss;
+        _queue = queue;
+        _rand = new Random(seed);
+        _pacing = pacing ? new SendPacer.PeerPacing() : null;
+    }
+
+    public static class Result {
+        /** unique bytes received */
+        public long delivered;
+        public int sent, retransmitted, lost, dropped;
+        public long duration;
+
+        /** bytes/ms */
+        public double goodput() {
+            return delivered / (double) duration;
+        }
+
+        /** retransmitted / sent, 0 to 1 */
+        public double retransmissionRate() {
+            return sent > 0 ? retransmitted / (double) sent : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("goodput %8.1f KBps sent %7d retx %6d (%5.2f%%) lost %6d dropped %6d",
+                                 goodput(), sent, retransmitted, retransmissionRate() * 100, lost, dropped);
+        }
+    }
+
+    private static class Msg {
+        final int id;
+        final double firstSent;
+        double lastSent;
+        int sends;
+        int nacks;
+
+        Msg(int id, double now) {
+            this.id = id;
+            firstSent = now;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final double time;
+        final long seq;
+        final int type;
+        final int msg;
+
+        Event(double time, long seq, int type, int msg) {
+            this.time = time;
+            this.seq = seq;
+            this.type = type;
+            this.msg = msg;
+        }
+
+        public int compareTo(Event e) {
+            int rv = Double.compare(time, e.time);
+            if (rv != 0)
+                return rv;
+            return seq < e.seq ? -1 : (seq > e.seq ? 1 : 0);
+        }
+    }
+
+    /**
+     *  Instead of a bulk transfer, the application offers
+     *  a burst of data every interval.
+     *  Call before run().
+     *
+     *  @param burst bytes
+     *  @param interval ms
+     */
+    public void setSource(int burst, int interval) {
+        _burst = burst;
+        _interval = interval;
+    }
+
+    /**
+     *  Run once, a simulator may not be reused.
+     *
+     *  @param cc fresh controller, should use a seeded Random
+     *  @param duration ms
+     */
+    public Result run(CongestionControl cc, long duration) {
+        _cc = cc;
+        _rto = INIT_RTO;
+        _lastCongestionOccurred = -MAX_RTO;
+        _nextWake = Double.MAX_VALUE;
+        if (_burst > 0)
+            schedule(0, EV_SOURCE, -1);
+        send(0);
+        while (!_events.isEmpty()) {
+            Event e = _events.poll();
+            if (e.time > duration)
+                break;
+            if (e.type == EV_ACK) {
+                if (!_received.get(e.msg)) {
+                    _received.set(e.msg);
+                    _result.delivered += PACKET;
+                }
+                acked(e.msg, e.time);
+            } else if (e.type == EV_SOURCE) {
+                _available += _burst;
+                schedule(e.time + _interval, EV_SOURCE, -1);
+            } else if (e.type == EV_SEND) {
+                forward(e.msg, e.time);
+                continue;
+            } else if (e.time != _nextWake) {
+                // superseded
+                continue;
+            } else {
+                _nextWake = Double.MAX_VALUE;
+            }
+            send(e.time);
+        }
+        _result.duration = duration;
+        return _result;
+    }
+
+    private void schedule(double time, int type, int msg) {
+        _events.add(new Event(time, _eventSeq++, type, msg));
+    }
+
+    private void wakeAt(double time) {
+        if (time < _nextWake) {
+            _nextWake = time;
+            schedule(time, EV_WAKE, -1);
+        }
+    }
+
+    /**
+     *  As in PeerState.allocateSend(), old then new
+     */
+    private void send(double now) {
+        long lnow = (long) now;
+        if (_retransmitTimer > 0 && now >= _retransmitTimer && !_outstanding.isEmpty()) {
+            int max = _fastRetransmit ? Integer.MAX_VALUE : Math.max(1, _outstanding.size() / 2);
+            int count = 0;
+            for (Msg m : _outstanding.values()) {
+                if (_fastRetransmit) {
+                    if (m.nacks < FAST_RTX_ACKS || now - m.lastSent < _rtt)
+                        continue;
+                }
+                transmit(m, now);
+                _result.retransmitted++;
+                messageRetransmitted(lnow);
+                if (++count >= max)
+                    break;
+            }
+            _retransmitTimer = now + _rto;
+        }
+        int sent = 0;
+        while (_outstanding.size() <= _cc.getConcurrentMessagesAllowed() &&
+               _cc.getSendAllowance(lnow) >= PACKET &&
+               (_burst <= 0 || _available >= PACKET)) {
+            if (_burst > 0)
+                _available -= PACKET;
+            Msg m = new Msg(_nextMsg++, now);
+            _outstanding.put(Integer.valueOf(m.id), m);
+            _cc.allocated(PACKET, lnow);
+            transmit(m, now);
+            sent++;
+        }
+        if (sent > 0 && _retransmitTimer <= 0)
+            _retransmitTimer = now + _rto;
+        if (_retransmitTimer > 0)
+            wakeAt(Math.max(now + 1, _retransmitTimer));
+        int pacing = _cc.getPacingDelay(lnow);
+        if (pacing != Integer.MAX_VALUE)
+            wakeAt(now + Math.max(MIN_WAIT, pacing));
+    }
+
+    /**
+     *  Now or on the pacer schedule
+     */
+    private void transmit(Msg m, double now) {
+        m.sends++;
+        m.lastSent = now;
+        _result.sent++;
+        if (_pacing != null && !_cc.isPaced()) {
+            int window = _cc.getWindow();
+            long release = _pacing.schedule(PACKET, window, _rtt, window < _cc.getSlowStartThreshold(), (long) now);
+            if (release > now) {
+                schedule(release, EV_SEND, m.id);
+                return;
+            }
+        }
+        forward(m.id, now);
+    }
+
+    /**
+     *  Through the bottleneck, and an ack back
+     */
+    private void forward(int id, double now) {
+        if (_rand.nextDouble() < _loss) {
+            _result.lost++;
+            return;
+        }
+        double start = Math.max(now, _linkFree);
+        if ((start - now) * _bandwidth + PACKET > _queue) {
+            _result.dropped++;
+            return;
+        }
+        _linkFree = start + (PACKET / _bandwidth);
+        // the receiver acks immediately, count it when the ack gets back
+        schedule(_linkFree + (2 * _delay), EV_ACK, id);
+    }
+
+    /**
+     *  As in PeerState.acked() and highestSeqNumAcked()
+     */
+    private void acked(int id, double now) {
+        Msg m = _outstanding.remove(Integer.valueOf(id));
+        if (m == null)
+            return;
+        long lnow = (long) now;
+        long lifetime = (long) (now - m.firstSent);
+        bandwidthSample(now);
+        _cc.acked(PACKET, m.sends, lifetime, lnow);
+        if (m.sends < 2)
+            recalculateTimeouts(lifetime);
+        if (_outstanding.isEmpty()) {
+            _retransmitTimer = 0;
+            exitFastRetransmit();
+            return;
+        }
+        _retransmitTimer = now + _rto;
+
+        boolean startFast = false;
+        boolean continueFast = false;
+        for (Iterator<Msg> iter = _outstanding.headMap(Integer.valueOf(id)).values().iterator(); iter.hasNext(); ) {
+            Msg o = iter.next();
+            int nacks = ++o.nacks;
+            if (nacks == FAST_RTX_ACKS)
+                startFast = true;
+            else if (nacks > FAST_RTX_ACKS)
+                continueFast = true;
+        }
+        if (startFast || continueFast) {
+            _fastRetransmit = true;
+            if (continueFast)
+                _cc.fastRetransmitContinued(PACKET);
+            else
+                _cc.fastRetransmitStarted(_bwe, _rtt, PACKET);
+            _retransmitTimer = now;
+        } else {
+            exitFastRetransmit();
+        }
+    }
+
+    private void exitFastRetransmit() {
+        if (_fastRetransmit) {
+            _fastRetransmit = false;
+            _cc.fastRetransmitEnded();
+        }
+    }
+
+    /**
+     *  As in PeerState.congestionOccurred()
+     */
+    private void messageRetransmitted(long now) {
+        if (_lastCongestionOccurred + _rto > now)
+            return;
+        _lastCongestionOccurred = now;
+        if (!_fastRetransmit)
+            _cc.congestionOccurred(PACKET, _bwe, _rtt, PACKET, now);
+        _rto = Math.min(MAX_RTO, Math.max(MIN_RTO, _rto << 1 ));
+    }
+
+    /**
+     *  As in PeerState
+     */
+    private void recalculateTimeouts(long lifetime) {
+        if (_rtt <= 0) {
+            _rtt = (int) lifetime;
+            _rttDeviation = _rtt /  2;
+        } else {
+            _rttDeviation = (int)((0.75 * _rttDeviation) + (0.25 * Math.abs(lifetime - _rtt)));
+            _rtt = (int)((_rtt * (1.0f - RTT_DAMPENING)) + (RTT_DAMPENING * lifetime));
+        }
+        _rto = Math.min(MAX_RTO, Math.max(MIN_RTO, _rtt + (_rttDeviation<<2)));
+    }
+
+    /**
+     *  Delivery rate per RTT, smoothed, a stand-in for SimpleBandwidthEstimator
+     */
+    private void bandwidthSample(double now) {
+        _bweAcked += PACKET;
+        double dt = now - _bweStart;
+        if (dt >= Math.max(_rtt, 50)) {
+            float sample = (float) (_bweAcked / dt);
+            _bwe = _bwe <= 0 ? sample : (_bwe * 7 + sample) / 8;
+            _bweStart = now;
+            _bweAcked = 0;
+        }
+    }
+
+    /**
+     *  @param name "reno" or "bbr"
+     */
+    public static CongestionControl create(String name, long seed) {
+        Random r = new Random(seed);
+        if (name.equals("bbr"))
+            return new BBRCongestionControl(3 * PeerState2.MIN_MTU, PACKET, r);
+        return new RenoCongestionControl(3 * PeerState2.MIN_MTU, r);
+    }
+
+    public static void main(String[] args) {
+        long duration = 1000L * (args.length > 0 ? Integer.parseInt(args[0]) : 60);
+        // KBps, one way ms, loss
+        double[][] links = {
+            { 1000, 10, 0 },
+            { 1000, 10, 0.01 },
+            { 1000, 100, 0 },
+            { 1000, 100, 0.01 },
+            { 1000, 100, 0.05 },
+            { 250, 150, 0.02 },
+            { 5000, 50, 0.01 }
+        };
+        for (double[] l : links) {
+            // queue of one BDP, at least 64 KB
+            int queue = Math.max(64*1024, (int) (l[0] * 2 * l[1]));
+            System.out.println(String.format("%6.0f KBps %4.0f ms loss %4.1f%%:", l[0], l[1], l[2] * 100));
+            for (String cc : new String[] { "reno", "bbr" }) {
+                LinkSimulator sim = new LinkSimulator(l[0], (int) l[1], l[2], queue, 42);
+                Result r = sim.run(create(cc, 42), duration);
+                System.out.println("    " + cc + "\t" + r);
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package net.i2p.router.transport.udp;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.objenesis.ObjenesisStd;
+
+import net.i2p.data.Hash;
+import net.i2p.data.SessionKey;
+import net.i2p.router.RouterContext;
+
+/**
+ *  The ready-peer queue in OutboundMessageFragments,
+ *  with peers whose send state is faked.
+ */
+public class OutboundMessageFragmentsTest {
+
+    private static RouterContext _context;
+    private static UDPTransport _transport;
+
+    /**
+     *  Has messages until dropped, and can send them if window is true.
+     */
+    private static class TestPeer extends PeerState {
+        volatile boolean window = true;
+        volatile boolean dropped;
+        final AtomicInteger sends = new AtomicInteger();
+
+        public TestPeer(int i) {
+            super(OutboundMessageFragmentsTest._context, OutboundMessageFragmentsTest._transport,
+                  new byte[] { 127, 0, 0, (byte) i }, 9000 + i,
+                  new Hash(new byte[Hash.HASH_LENGTH]), false, 0,
+                  new SessionKey(new byte[SessionKey.KEYSIZE_BYTES]),
+                  new SessionKey(new byte[SessionKey.KEYSIZE_BYTES]));
+        }
+
+        @Override
+        int finishMessages(long now) {
+            return dropped ? 0 : 1;
+        }
+
+        @Override
+        List<OutboundMessageState> allocateSend(long now) {
+            if (!window)
+                return null;
+            sends.incrementAndGet();
+            return new ArrayList<OutboundMessageState>(0);
+        }
+
+        @Override
+        int getNextDelay(long now) {
+            return 60*1000;
+        }
+
+        @Override
+        public int getSendWindowBytesRemaining() {
+            return window ? 10000 : 0;
+        }
+
+        @Override
+        void dropOutbound() {
+            dropped = true;
+        }
+    }
+
+    @BeforeClass
+    public static void setUp() {
+        _context = new RouterContext(null);
+        // not started, only for the PeerState constructor, which asks for the MTU,
+        // and the OMF constructor, which gets the null PacketBuilders
+        _transport = new ObjenesisStd().newInstance(UDPTransport.class);
+    }
+
+    private static void assertNoDuplicates(Queue<PeerState> q) {
+        List<PeerState> list = new ArrayList<PeerState>(q);
+        assertEquals(list.size(), new HashSet<PeerState>(list).size());
+    }
+
+    /** concurrent add() and nextPeer() never queue a peer twice */
+    @Test
+    public void testQueuedOnce() throws Exception {
+        final OutboundMessageFragments omf = new OutboundMessageFragments(_context, _transport, null);
+        final List<TestPeer> peers = new ArrayList<TestPeer>();
+        for (int i = 0; i < 8; i++) {
+            peers.add(new TestPeer(i));
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] adders = new Thread[3];
+        for (int i = 0; i < adders.length; i++) {
+            final int off = i;
+            adders[i] = new Thread() {
+                public void run() {
+                    int j = off;
+                    while (!done.get()) {
+                        TestPeer p = peers.get(j++ % peers.size());
+                        if ((j & 1) == 0)
+                            omf.add(p, 0);
+                        else
+                            omf.nudge(p);
+                    }
+                }
+            };
+            adders[i].start();
+        }
+        Queue<PeerState> q = omf.getReadyPeers();
+        for (int i = 0; i < 200000; i++) {
+            assertNotNull(omf.nextPeer());
+            if ((i % 1000) == 0)
+                assertTrue(q.size() <= peers.size());
+        }
+        done.set(true);
+        for (int i = 0; i < adders.length; i++) {
+            adders[i].join();
+        }
+        assertNoDuplicates(q);
+        // every peer is marked ready exactly when it is queued
+        for (TestPeer p : peers) {
+            assertEquals(!q.contains(p), p.setReadyToSend());
+        }
+    }
+
+    /** a peer that can still send goes to the back of the queue, one that can't waits */
+    @Test
+    public void testRequeue() {
+        OutboundMessageFragments omf = new OutboundMessageFragments(_context, _transport, null);
+        TestPeer a = new TestPeer(1);
+        TestPeer b = new TestPeer(2);
+        omf.add(a, 0);
+        omf.add(b, 0);
+        assertSame(a, omf.nextPeer());
+        assertSame(b, omf.nextPeer());
+        assertSame(a, omf.nextPeer());
+        assertEquals(2, omf.getReadyPeers().size());
+
+        // window full, taken off the queue but still active
+        a.window = false;
+        assertSame(b, omf.nextPeer());
+        assertSame(b, omf.nextPeer());
+        assertEquals(1, omf.getReadyPeers().size());
+        assertTrue(omf.isActive(a));
+        // an ack opens the window
+        a.window = true;
+        omf.nudge(a);
+        omf.nudge(a);
+        assertEquals(2, omf.getReadyPeers().size());
+        assertSame(b, omf.nextPeer());
+        assertSame(a, omf.nextPeer());
+    }
+
+    /** a peer dropped while queued is skipped and no longer active */
+    @Test
+    public void testDropWhileQueued() {
+        OutboundMessageFragments omf = new OutboundMessageFragments(_context, _transport, null);
+        TestPeer a = new TestPeer(1);
+        TestPeer b = new TestPeer(2);
+        omf.add(a, 0);
+        omf.add(b, 0);
+        omf.dropPeer(a);
+        assertFalse(omf.isActive(a));
+        assertSame(b, omf.nextPeer());
+        assertSame(b, omf.nextPeer());
+        assertEquals(0, a.sends.get());
+        assertFalse(omf.getReadyPeers().contains(a));
+        assertFalse(omf.isActive(a));
+        // not marked ready, so it may be queued again
+        assertTrue(a.setReadyToSend());
+    }
+}
@@ -0,0 +1,41 @@
+package net.i2p.router.transport.udp;
+
+/**
+ *  Retransmission rates with and without the SendPacer,
+ *  over bottlenecks with small drop-tail queues,
+ *  as found in home routers and VPS hosts,
+ *  in the LinkSimulator, for the default congestion control.
+ *  The BBR controller paces by itself and is not affected.
+ *
+ *  Usage: SendPacerBench [seconds]
+ *
+ *  @since 0.9.59
+ */
+public class SendPacerBench {
+
+    public static void main(String[] args) {
+        long duration = 1000L * (args.length > 0 ? Integer.parseInt(args[0]) : 60);
+        // KBps, one way ms, queue KB, burst KB (0 for bulk), burst interval ms
+        int[][] links = {
+            { 250, 50, 16, 0, 0 },
+            { 250, 50, 16, 32, 250 },
+            { 1000, 25, 32, 0, 0 },
+            { 1000, 25, 32, 64, 200 },
+            { 1000, 100, 32, 128, 500 },
+            { 1000, 100, 64, 256, 500 },
+            { 5000, 50, 64, 512, 250 }
+        };
+        for (int[] l : links) {
+            System.out.println(String.format("%6d KBps %4d ms queue %4d KB %s:", l[0], l[1], l[2],
+                                             l[3] > 0 ? l[3] + " KB every " + l[4] + " ms" : "bulk"));
+            for (int i = 0; i < 2; i++) {
+                boolean pacing = i > 0;
+                LinkSimulator sim = new LinkSimulator(l[0], l[1], 0, l[2] * 1024, 42, pacing);
+                if (l[3] > 0)
+                    sim.setSource(l[3] * 1024, l[4]);
+                LinkSimulator.Result r = sim.run(LinkSimulator.create("reno", 42), duration);
+                System.out.println((pacing ? "    paced\t" : "    unpaced\t") + r);
+            }
+        }
+    }
+}
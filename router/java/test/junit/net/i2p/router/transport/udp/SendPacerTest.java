@@ -0,0 +1,97 @@
+package net.i2p.router.transport.udp;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.i2p.router.RouterContext;
+
+import org.junit.Test;
+
+/**
+ *  The SendPacer release schedule, and its effect
+ *  on bursts over a small queue in the LinkSimulator.
+ */
+public class SendPacerTest {
+
+    @Test
+    public void testSchedule() {
+        SendPacer.PeerPacing p = new SendPacer.PeerPacing();
+        // no RTT, not paced
+        assertEquals(100, p.schedule(1000, 10000, 0, false, 100));
+        assertEquals(100, p.schedule(1000, 10000, 0, false, 100));
+        assertEquals(0, p.getRate());
+        // 10000 bytes per 100 ms * 1.25 = 125 bytes/ms, 8 ms per packet
+        assertEquals(100, p.schedule(1000, 10000, 100, false, 100));
+        assertEquals(125000, p.getRate());
+        assertEquals(108, p.schedule(1000, 10000, 100, false, 100));
+        assertEquals(116, p.schedule(1000, 10000, 100, false, 100));
+        // slow start, gain of 2, 5 ms per packet
+        assertEquals(124, p.schedule(1000, 10000, 100, true, 100));
+        assertEquals(129, p.schedule(1000, 10000, 100, true, 100));
+        // idle, no credit
+        assertEquals(1000, p.schedule(1000, 10000, 100, false, 1000));
+        assertEquals(1008, p.schedule(1000, 10000, 100, false, 1000));
+        // never held longer than the RTT
+        for (int i = 0; i < 100; i++) {
+            assertTrue(p.schedule(1000, 10000, 100, false, 2000) <= 2100);
+        }
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        RouterContext ctx = new RouterContext(null);
+        final List<UDPPacket> sent = new ArrayList<UDPPacket>();
+        final List<Long> times = new ArrayList<Long>();
+        SendPacer pacer = new SendPacer(ctx, null) {
+            @Override
+            protected void send(UDPPacket packet) {
+                synchronized (sent) {
+                    sent.add(packet);
+                    times.add(Long.valueOf(System.nanoTime() / 1000000));
+                    sent.notifyAll();
+                }
+            }
+        };
+        pacer.startup();
+        try {
+            List<UDPPacket> packets = new ArrayList<UDPPacket>();
+            for (int i = 0; i < 10; i++) {
+                UDPPacket packet = UDPPacket.acquire(ctx, false);
+                packet.getPacket().setLength(1000);
+                packet.getPacket().setAddress(InetAddress.getLoopbackAddress());
+                packets.add(packet);
+            }
+            // 10 ms per packet
+            long start = System.nanoTime() / 1000000;
+            pacer.add(new SendPacer.PeerPacing(), 8000, 100, false, packets);
+            synchronized (sent) {
+                for (int i = 0; i < 50 && sent.size() < 10; i++) {
+                    sent.wait(100);
+                }
+            }
+            assertEquals(packets, sent);
+            long spread = times.get(9).longValue() - start;
+            assertTrue("spread " + spread, spread >= 89 && spread < 1000);
+        } finally {
+            pacer.shutdown();
+        }
+    }
+
+    @Test
+    public void testBursts() {
+        // 1000 KBps, 200 ms RTT, 32 KB queue, 128 KB every 500 ms
+        LinkSimulator sim = new LinkSimulator(1000, 100, 0, 32*1024, 7, false);
+        sim.setSource(128*1024, 500);
+        LinkSimulator.Result unpaced = sim.run(LinkSimulator.create("reno", 7), 60*1000);
+        sim = new LinkSimulator(1000, 100, 0, 32*1024, 7, true);
+        sim.setSource(128*1024, 500);
+        LinkSimulator.Result paced = sim.run(LinkSimulator.create("reno", 7), 60*1000);
+        assertTrue("unpaced " + unpaced + " paced " + paced,
+                   paced.retransmissionRate() * 2 < unpaced.retransmissionRate());
+        assertTrue("unpaced " + unpaced + " paced " + paced,
+                   paced.goodput() >= unpaced.goodput() * 0.99);
+    }
+}
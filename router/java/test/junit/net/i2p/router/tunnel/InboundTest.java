@@ -55,6 +55,54 @@ public class InboundTest extends TestCase {
         assertTrue(DataHelper.eq(orig, 16, message, 16, orig.length - 16));
     }
     
+    /**
+     *  Bursts through HopProcessor and InboundEndpointProcessor,
+     *  with enough traffic for the per-tunnel ciphers if available
+     */
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testInboundBurst() {
+        int numHops = 4;
+        int count = 20;
+        TunnelCreatorConfig config = prepareConfig(numHops);
+        for (int i = 0; i < HopProcessor.MIN_MESSAGES_FOR_CIPHER; i++) {
+            config.incrementProcessedMessages();
+            for (int j = 0; j < numHops; j++) {
+                config.getConfig(j).incrementProcessedMessages();
+            }
+        }
+        byte orig[][] = new byte[count][1024];
+        byte msgs[][] = new byte[count][];
+        boolean ok[] = new boolean[count];
+        InboundGatewayProcessor p = new InboundGatewayProcessor(_context, config.getConfig(0));
+        for (int i = 0; i < count; i++) {
+            _context.random().nextBytes(orig[i]);
+            msgs[i] = orig[i].clone();
+            p.process(msgs[i], 0, 1024, null);
+        }
+        // a replayed message is dropped at the first hop, the rest go through
+        byte[] last = msgs[count - 1];
+        msgs[count - 1] = msgs[0].clone();
+        for (int i = 1; i < numHops-1; i++) {
+            HopProcessor hop = new HopProcessor(_context, config.getConfig(i));
+            Hash prev = config.getConfig(i).getReceiveFrom();
+            if (i == 1) {
+                assertEquals(count - 1, hop.process(msgs, count, 1024, prev, ok));
+                assertFalse(ok[count - 1]);
+                msgs[count - 1] = last;
+                assertTrue(hop.process(last, 0, 1024, prev));
+            } else {
+                assertEquals(count, hop.process(msgs, count, 1024, prev, ok));
+            }
+        }
+        InboundEndpointProcessor end = new InboundEndpointProcessor(_context, config);
+        assertEquals(count, end.retrievePreprocessedData(msgs, count, 1024, config.getPeer(numHops-2), ok));
+        for (int i = 0; i < count; i++) {
+            assertTrue(ok[i]);
+            assertTrue(DataHelper.eq(orig[i], 16, msgs[i], 16, 1024 - 16));
+        }
+    }
+    
     private TunnelCreatorConfig prepareConfig(int numHops) {
         Hash peers[] = new Hash[numHops];
         long tunnelIds[] = new long[numHops];
@@ -0,0 +1,126 @@
+package net.i2p.router.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import net.i2p.I2PAppContext;
+
+import org.junit.Test;
+
+public class ShardedDecayingBloomFilterTest {
+
+    private static final int DURATION = 10*60*1000;
+
+    private static ShardedDecayingBloomFilter create(int m, boolean sipHash) {
+        return new ShardedDecayingBloomFilter(I2PAppContext.getGlobalContext(), DURATION, 16, "test", m, sipHash);
+    }
+
+    private static void testDecay(boolean sipHash) {
+        ShardedDecayingBloomFilter f = create(20, sipHash);
+        try {
+            byte[] a = new byte[16];
+            byte[] b = new byte[16];
+            b[15] = 1;
+            assertFalse(f.add(a));
+            assertTrue(f.add(a));
+            assertEquals(1, f.getInsertedCount());
+            assertEquals(1, f.getCurrentDuplicateCount());
+            assertFalse(f.isKnown(42));
+            assertFalse(f.isKnown(42));
+            assertFalse(f.add(42));
+            assertTrue(f.isKnown(42));
+            // still there after one decay
+            f.decay();
+            assertTrue(f.add(a));
+            assertTrue(f.isKnown(42));
+            assertFalse(f.add(b));
+            // gone after two, b is still there
+            f.decay();
+            assertFalse(f.isKnown(42));
+            assertFalse(f.add(a));
+            assertTrue(f.add(b));
+            f.clear();
+            assertFalse(f.add(b));
+        } finally {
+            f.stopDecaying();
+        }
+    }
+
+    @Test
+    public void testSipHash() {
+        testDecay(true);
+    }
+
+    @Test
+    public void testSHA1() {
+        testDecay(false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadLength() {
+        ShardedDecayingBloomFilter f = create(16, true);
+        try {
+            f.add(new byte[8]);
+        } finally {
+            f.stopDecaying();
+        }
+    }
+
+    /** no false negatives with concurrent adds */
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final ShardedDecayingBloomFilter f = create(22, true);
+        final int threads = 4;
+        final int per = 20000;
+        Thread[] t = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int base = i * per;
+            t[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < per; j++) {
+                        f.add(base + j);
+                    }
+                }
+            };
+            t[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            t[i].join();
+        }
+        try {
+            for (int i = 0; i < threads * per; i++) {
+                assertTrue(f.isKnown(i));
+            }
+        } finally {
+            f.stopDecaying();
+        }
+    }
+
+    /** measured false positive rate is close to (1 - e**(-kn/m))**k */
+    @Test
+    public void testFalsePositiveRate() {
+        ShardedDecayingBloomFilter f = create(20, true);
+        try {
+            Random r = new Random(1);
+            int n = 100000;
+            byte[] b = new byte[16];
+            for (int i = 0; i < n; i++) {
+                r.nextBytes(b);
+                f.add(b);
+            }
+            double expected = f.getFalsePositiveRate();
+            int probes = 200000;
+            int fp = 0;
+            for (int i = 0; i < probes; i++) {
+                if (f.isKnown(r.nextLong()))
+                    fp++;
+            }
+            double actual = fp / (double) probes;
+            assertTrue("expected " + expected + " got " + actual,
+                       actual > expected / 2 && actual < expected * 2);
+        } finally {
+            f.stopDecaying();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.i2p.router.util;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TunnelIdMapTest {
+
+    @Test
+    public void testBasics() {
+        TunnelIdMap<String> m = new TunnelIdMap<String>();
+        assertTrue(m.isEmpty());
+        assertNull(m.get(1));
+        assertNull(m.put(1, "a"));
+        assertNull(m.putIfAbsent(0xffffffffL, "b"));
+        assertEquals("a", m.putIfAbsent(1, "c"));
+        assertEquals("a", m.get(1));
+        assertEquals("b", m.get(0xffffffffL));
+        assertEquals(2, m.size());
+        assertEquals("a", m.put(1, "d"));
+        assertFalse(m.remove(1, "a"));
+        assertTrue(m.remove(1, "d"));
+        assertNull(m.get(1));
+        assertNull(m.remove(1));
+        assertEquals(1, m.size());
+        assertEquals(1, m.values().size());
+        // out of range is never found
+        assertNull(m.get(0));
+        assertNull(m.get(-1));
+        assertNull(m.get(0x100000000L));
+        m.clear();
+        assertEquals(0, m.size());
+        assertNull(m.get(0xffffffffL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroKey() {
+        new TunnelIdMap<String>().put(0, "a");
+    }
+
+    /** random puts and removes, with rehashing, against a HashMap */
+    @Test
+    public void testChurn() {
+        TunnelIdMap<Long> m = new TunnelIdMap<Long>();
+        Map<Long, Long> ref = new HashMap<Long, Long>();
+        Random rand = new Random(1);
+        long[] ids = new long[5000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + (rand.nextLong() & 0xffffffffL) % 0xffffffffL;
+        }
+        for (int i = 0; i < 200000; i++) {
+            long id = ids[rand.nextInt(ids.length)];
+            if (rand.nextBoolean()) {
+                Long v = Long.valueOf(i);
+                assertEquals(ref.put(id, v), m.put(id, v));
+            } else {
+                assertEquals(ref.remove(id), m.remove(id));
+            }
+        }
+        assertEquals(ref.size(), m.size());
+        for (long id : ids) {
+            assertEquals(ref.get(id), m.get(id));
+        }
+        assertEquals(ref.size(), m.values().size());
+    }
+}